@@ -0,0 +1,51 @@
+package com.jokodub.flowcharter.bench;
+
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.jokodub.flowcharter.model.classes.*;
+
+/* Chart shared by the benchmarks, one of each generator shape per size.
+ * Mutating benchmarks rebuild it every iteration so that edits don't pile up.
+ */
+@State(Scope.Thread)
+public class ChartState 
+{
+    // === Instance Variables ===
+
+    @Param({"chain", "fanOut", "dag", "grid"})
+    public String shape;
+
+    @Param({"1000", "10000"})
+    public int size;
+
+    public Flowchart f;
+    public List<Node> nodes;
+    public Random rng;
+
+    // === Setup ===
+
+    public void build()
+    {
+        switch(shape)
+        {
+            case "chain": f = ChartGenerators.chain(size); break;
+            case "fanOut": f = ChartGenerators.fanOut(size); break;
+            case "dag": f = ChartGenerators.randomDag(1, size, 3, 64, size / 100); break;
+            case "grid":
+                int side = (int) Math.sqrt(size);
+                f = ChartGenerators.linkedGrid(side, side);
+                break;
+            default: throw new IllegalArgumentException("Unknown shape " + shape);
+        }
+        nodes = ChartGenerators.nodes(f);
+        rng = new Random(42);
+    }
+
+    public Node randomNode()
+    {
+        return nodes.get(rng.nextInt(nodes.size()));
+    }
+}
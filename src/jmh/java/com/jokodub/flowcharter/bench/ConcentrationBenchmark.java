@@ -0,0 +1,75 @@
+package com.jokodub.flowcharter.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.jokodub.flowcharter.logic.*;
+import com.jokodub.flowcharter.model.classes.*;
+
+/* Full layouts of a chart with a dense many-to-many section, with and without edge concentration.
+ * The segments saved are checked by FlowchartOptimizerTest.denseSectionOfARandomChartIsConcentrated.
+ * Run with: mvn -P jmh test-compile exec:exec -Djmh.args="-prof gc ConcentrationBenchmark"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConcentrationBenchmark
+{
+    private static final int PARENTS = 200, CHILDREN = 150;
+
+    @State(Scope.Thread)
+    public static class DenseState
+    {
+        @Param({"false", "true"})
+        public boolean concentrate;
+
+        @Param({"5000"})
+        public int size;
+
+        Flowchart f;
+        OptimizerSettings settings;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            f = ChartGenerators.randomDag(1, size, 2, 100, 0);
+            List<Node> nodes = ChartGenerators.nodes(f);
+
+            //Every parent under one node, every child under every parent, and back into the chart below
+            FlowchartBatch batch = new FlowchartBatch(f);
+            Node above = nodes.get(nodes.size() / 4);
+            List<Node> parents = new ArrayList<>(), children = new ArrayList<>();
+            for(int i = 0; i < PARENTS; i++)
+            {
+                Node p = new Node();
+                batch.addNode(p).addEdge(above, p);
+                parents.add(p);
+            }
+            for(int i = 0; i < CHILDREN; i++)
+            {
+                Node c = new Node();
+                batch.addNode(c);
+                for(Node p : parents)
+                    batch.addEdge(p, c);
+                children.add(c);
+            }
+            batch.commit();
+            for(int i = 0; i < CHILDREN; i += 10)
+                f.addEdge(children.get(i), nodes.get(nodes.size() / 2 + i));
+
+            settings = new OptimizerSettings().setConcentrateEdges(concentrate)
+                    .setTimeBudgetMillis(60_000).setCoordinates(new ChartCoordinates(120, 40, 30, 50));
+        }
+    }
+
+    @Benchmark
+    public OptimizerResult layout(DenseState s)
+    {
+        return FlowchartOptimizer.optimize(s.f, s.settings);
+    }
+}
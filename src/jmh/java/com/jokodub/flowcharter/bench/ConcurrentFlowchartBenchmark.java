@@ -0,0 +1,102 @@
+package com.jokodub.flowcharter.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.jokodub.flowcharter.logic.FlowchartBatch;
+import com.jokodub.flowcharter.model.classes.*;
+
+/* Edit throughput across writer threads, ConcurrentFlowchart against a plain Flowchart
+ * behind one global lock. Writers add and remove edges and mentions between random nodes,
+ * with an occasional node insertion.
+ * Run with: mvn -P jmh test-compile exec:exec -Djmh.args="ConcurrentFlowchartBenchmark -t 4"
+ * and compare thread counts through -t, every core by default.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Threads(Threads.MAX)
+@Fork(1)
+public class ConcurrentFlowchartBenchmark
+{
+    private static final int NODES = 20_000;
+
+    /* Both charts, filled afresh each iteration as insertions grow them.
+     */
+    @State(Scope.Benchmark)
+    public static class Charts
+    {
+        Flowchart plain, concurrent;
+        List<Node> plainNodes, concurrentNodes;
+        final Object lock = new Object();
+
+        @Setup(Level.Iteration)
+        public void setUp()
+        {
+            plain = new Flowchart();
+            plainNodes = fill(plain);
+            concurrent = new ConcurrentFlowchart();
+            concurrentNodes = fill(concurrent);
+        }
+
+        private static List<Node> fill(Flowchart f)
+        {
+            List<Node> nodes = new ArrayList<>(NODES);
+            for(int i = 0; i < NODES; i++)
+                nodes.add(new Node());
+            f.atomically(() ->
+            {
+                FlowchartBatch batch = new FlowchartBatch(f);
+                for(Node n : nodes) batch.addNode(n);
+                batch.commit();
+                return null;
+            });
+            return nodes;
+        }
+    }
+
+    @Benchmark
+    public boolean globalLock(Charts c)
+    {
+        ThreadLocalRandom rng = ThreadLocalRandom.current();
+        Node a = c.plainNodes.get(rng.nextInt(NODES)), b = c.plainNodes.get(rng.nextInt(NODES));
+        int op = pickOp(rng);
+        synchronized(c.lock)
+        {
+            return edit(c.plain, a, b, op);
+        }
+    }
+
+    @Benchmark
+    public boolean concurrent(Charts c)
+    {
+        ThreadLocalRandom rng = ThreadLocalRandom.current();
+        Node a = c.concurrentNodes.get(rng.nextInt(NODES)), b = c.concurrentNodes.get(rng.nextInt(NODES));
+        return edit(c.concurrent, a, b, pickOp(rng));
+    }
+
+    //One edit in a thousand inserts a node
+    private static int pickOp(ThreadLocalRandom rng)
+    {
+        return rng.nextInt(1000) == 0 ? 5 : rng.nextInt(5);
+    }
+
+    private static boolean edit(Flowchart f, Node a, Node b, int op)
+    {
+        switch(op)
+        {
+            case 0: f.addEdge(a, b); break;
+            case 1: f.removeEdge(a, b); break;
+            case 2: f.addMention(a, b); break;
+            case 3: f.removeMention(a, b); break;
+            case 4: return f.hasEdge(a, b);
+            default: f.addNode(f.atomically(f::newNode)); break;
+        }
+        return true;
+    }
+}
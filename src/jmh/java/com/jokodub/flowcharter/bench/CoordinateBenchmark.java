@@ -0,0 +1,62 @@
+package com.jokodub.flowcharter.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.jokodub.flowcharter.logic.*;
+import com.jokodub.flowcharter.model.classes.*;
+
+/* Turning ranks into x and y, on charts with very wide layers. layout leaves coordinates off,
+ * so the difference from placed is what they cost. How straight the edges come out is
+ * checked by FlowchartOptimizerTest.coordinatesStraightenShortEdgesOfAWideChart.
+ * Run with: mvn -P jmh test-compile exec:exec -Djmh.args="CoordinateBenchmark"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CoordinateBenchmark
+{
+    @State(Scope.Thread)
+    public static class LayoutState
+    {
+        @Param({"fanOut", "wideDag"})
+        public String shape;
+
+        @Param({"5000", "20000", "80000"})
+        public int size;
+
+        Flowchart f;
+        ChartCoordinates c = new ChartCoordinates(120, 40, 30, 50);
+        OptimizerSettings plain, placed;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            switch(shape)
+            {
+                case "fanOut": f = ChartGenerators.fanOut(size); break;
+                case "wideDag": f = ChartGenerators.randomDag(1, size, 3, size / 8, 0); break;
+                default: throw new IllegalArgumentException("Unknown shape " + shape);
+            }
+            plain = new OptimizerSettings().setMaxIterations(2).setTimeBudgetMillis(60_000);
+            placed = new OptimizerSettings().setMaxIterations(2).setTimeBudgetMillis(60_000).setCoordinates(c);
+            for(int i = 0; i < 3; i++)
+                FlowchartOptimizer.optimize(f, placed); //Settle the ranks
+        }
+    }
+
+    @Benchmark
+    public OptimizerResult layout(LayoutState s)
+    {
+        return FlowchartOptimizer.optimize(s.f, s.plain);
+    }
+
+    @Benchmark
+    public OptimizerResult placed(LayoutState s)
+    {
+        return FlowchartOptimizer.optimize(s.f, s.placed);
+    }
+}
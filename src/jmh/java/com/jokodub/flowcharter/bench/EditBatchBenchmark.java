@@ -0,0 +1,86 @@
+package com.jokodub.flowcharter.bench;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.jokodub.flowcharter.logic.FlowchartOptimizer;
+import com.jokodub.flowcharter.logic.FlowchartUtils;
+import com.jokodub.flowcharter.model.classes.*;
+
+/* Edits that grow or reshape the chart for good, so each measurement is a batch
+ * of EDITS edits on a freshly built chart rather than an endless stream on one.
+ * Run with: mvn -P jmh test-compile exec:exec -Djmh.args="-prof gc EditBatchBenchmark"
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+public class EditBatchBenchmark 
+{
+    private static final int EDITS = 200;
+
+    @State(Scope.Thread)
+    public static class EditState extends ChartState
+    {
+        @Setup(Level.Iteration)
+        public void setUp()
+        {
+            build();
+        }
+    }
+
+    /* Chart with every height spread out threefold, so each layer leaves two empty ones below it.
+     */
+    @State(Scope.Thread)
+    public static class SpreadState extends ChartState
+    {
+        @Setup(Level.Iteration)
+        public void setUp()
+        {
+            build();
+            for(Node n : nodes)
+                f.setHeight(n, f.getHeight(n) * 3);
+        }
+    }
+
+    /* Inserts EDITS nodes, each under a random parent.
+     */
+    @Benchmark
+    @OperationsPerInvocation(EDITS)
+    public Flowchart insertNode(EditState s)
+    {
+        for(int i = 0; i < EDITS; i++)
+        {
+            Set<Node> in = new HashSet<>();
+            in.add(s.randomNode());
+            FlowchartUtils.insertNode(s.f, new Node(), in, new HashSet<>());
+        }
+        return s.f;
+    }
+
+    /* Links EDITS random pairs of nodes, levelling their heights.
+     */
+    @Benchmark
+    @OperationsPerInvocation(EDITS)
+    public Flowchart addLink(EditState s)
+    {
+        for(int i = 0; i < EDITS; i++)
+        {
+            Node a = s.randomNode(), b = s.randomNode();
+            if(!a.equals(b)) s.f.addLink(a, b);
+        }
+        return s.f;
+    }
+
+    /* Closes every gap in a spread out chart, in one sweep.
+     */
+    @Benchmark
+    public int compactHeights(SpreadState s)
+    {
+        return FlowchartOptimizer.compactHeights(s.f);
+    }
+}
@@ -0,0 +1,121 @@
+package com.jokodub.flowcharter.bench;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.jokodub.flowcharter.model.classes.*;
+
+/* Read and edit paths of Flowchart.
+ * Run with: mvn -P jmh test-compile exec:exec -Djmh.args="-prof gc FlowchartBenchmark"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlowchartBenchmark 
+{
+    /* Read-only chart, built once per trial.
+     */
+    @State(Scope.Thread)
+    public static class ReadState extends ChartState
+    {
+        Node mentioned;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            build();
+
+            //A popular node for allMentionsTo, mentioned by every 10th node
+            mentioned = nodes.get(nodes.size() / 2);
+            for(int i = 0; i < nodes.size(); i += 10)
+                if(!nodes.get(i).equals(mentioned))
+                    f.addMention(nodes.get(i), mentioned);
+        }
+    }
+
+    /* Chart rebuilt every iteration, for benchmarks that edit it.
+     */
+    @State(Scope.Thread)
+    public static class EditState extends ChartState
+    {
+        boolean down;
+
+        @Setup(Level.Iteration)
+        public void setUp()
+        {
+            build();
+        }
+    }
+
+    // === Reads ===
+
+    @Benchmark
+    public Node getNodeById(ReadState s)
+    {
+        return s.f.getNodeById(s.randomNode().getId());
+    }
+
+    @Benchmark
+    public Set<Node> allMentionsTo(ReadState s)
+    {
+        return s.f.allMentionsTo(s.mentioned);
+    }
+
+    /* Random pairs, most of which the order or labels answer without searching.
+     */
+    @Benchmark
+    public boolean isReachable(ReadState s)
+    {
+        return s.f.reachability().isReachable(s.randomNode(), s.randomNode());
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public String toStringChart(ReadState s)
+    {
+        return s.f.toString();
+    }
+
+    // === Edits ===
+
+    /* Adds a child below a random node then removes it again, so the chart stays the same size.
+     */
+    @Benchmark
+    public void addAndRemoveNode(EditState s, Blackhole bh)
+    {
+        Node n = new Node();
+        Node parent = s.randomNode();
+        s.f.addNode(n);
+        s.f.addEdge(parent, n);
+        bh.consume(s.f.getHeight(n));
+        s.f.removeNode(n);
+    }
+
+    /* Pushes a random node down one level, then the next call pulls one back up.
+     */
+    @Benchmark
+    public void updateHeight(EditState s)
+    {
+        s.f.updateHeight(s.randomNode(), s.down ? 1 : -1);
+        s.down = !s.down;
+    }
+
+    // === Snapshots ===
+
+    /* Snapshot after a one edge edit, which copies only the pages that edit touched.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public FlowchartSnapshot snapshotAfterEdit(EditState s)
+    {
+        Node a = s.randomNode(), b = s.randomNode();
+        if(s.f.hasEdge(a, b)) s.f.removeEdge(a, b);
+        else s.f.addEdge(a, b);
+        return s.f.snapshot();
+    }
+}
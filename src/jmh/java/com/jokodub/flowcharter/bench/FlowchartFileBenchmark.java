@@ -0,0 +1,58 @@
+package com.jokodub.flowcharter.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.jokodub.flowcharter.model.classes.*;
+
+/* Saving and loading a chart with about a million edges through FlowchartFile.
+ * Run with: mvn -P jmh test-compile exec:exec -Djmh.args="-prof gc FlowchartFileBenchmark"
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FlowchartFileBenchmark
+{
+    @State(Scope.Benchmark)
+    public static class FileState
+    {
+        @Param({"400000"})
+        public int size;
+
+        Flowchart f;
+        Path file;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException
+        {
+            f = ChartGenerators.randomDag(1, size, 4, 1000, size / 100);
+            file = Files.createTempFile("flowchart", ".bin");
+            FlowchartFile.save(f, file);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException
+        {
+            Files.delete(file);
+        }
+    }
+
+    @Benchmark
+    public Path save(FileState s) throws IOException
+    {
+        FlowchartFile.save(s.f, s.file);
+        return s.file;
+    }
+
+    @Benchmark
+    public Flowchart load(FileState s) throws IOException
+    {
+        return FlowchartFile.load(s.file);
+    }
+}
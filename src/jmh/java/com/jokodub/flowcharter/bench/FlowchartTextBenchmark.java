@@ -0,0 +1,77 @@
+package com.jokodub.flowcharter.bench;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.jokodub.flowcharter.logic.FlowchartText;
+import com.jokodub.flowcharter.logic.FlowchartText.Format;
+import com.jokodub.flowcharter.model.classes.*;
+
+/* Writing and reading a chart in each FlowchartText format, through a file.
+ * Run with: mvn -P jmh test-compile exec:exec -Djmh.args="-prof gc FlowchartTextBenchmark"
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+public class FlowchartTextBenchmark
+{
+    @State(Scope.Benchmark)
+    public static class TextState
+    {
+        @Param({"DOT", "MERMAID", "CSV"})
+        public Format format;
+
+        @Param({"200000"})
+        public int size;
+
+        Flowchart f;
+        Path file;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException
+        {
+            f = ChartGenerators.randomDag(1, size, 4, 1000, size / 100);
+            file = Files.createTempFile("flowchart", ".txt");
+            save(this);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException
+        {
+            Files.delete(file);
+        }
+    }
+
+    @Benchmark
+    public Path write(TextState s) throws IOException
+    {
+        return save(s);
+    }
+
+    @Benchmark
+    public Flowchart read(TextState s) throws IOException
+    {
+        try(Reader in = Files.newBufferedReader(s.file, StandardCharsets.UTF_8))
+        {
+            return FlowchartText.read(in, s.format);
+        }
+    }
+
+    private static Path save(TextState s) throws IOException
+    {
+        try(Writer out = Files.newBufferedWriter(s.file, StandardCharsets.UTF_8))
+        {
+            FlowchartText.write(s.f, s.format, out);
+        }
+        return s.file;
+    }
+}
@@ -0,0 +1,65 @@
+package com.jokodub.flowcharter.bench;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.jokodub.flowcharter.logic.*;
+import com.jokodub.flowcharter.model.classes.*;
+
+/* Re-laying out a chart after a single edit, incrementally against from scratch.
+ * Every invocation inserts a new child under a random node first, outside the measurement.
+ * Run with: mvn -P jmh test-compile exec:exec -Djmh.args="-prof gc IncrementalLayoutBenchmark"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IncrementalLayoutBenchmark
+{
+    @State(Scope.Thread)
+    public static class EditState
+    {
+        @Param({"100000"})
+        public int size;
+
+        Flowchart f;
+        List<Node> nodes;
+        OptimizerSettings settings = new OptimizerSettings().setTimeBudgetMillis(10_000);
+        Random rng = new Random(2);
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            f = ChartGenerators.randomDag(1, size, 2, 200, 0);
+            nodes = ChartGenerators.nodes(f);
+            FlowchartOptimizer.optimize(f, settings);
+        }
+
+        @Setup(Level.Invocation)
+        public void edit()
+        {
+            Node parent = nodes.get(rng.nextInt(nodes.size()));
+            Set<Node> in = new HashSet<>();
+            in.add(parent);
+            FlowchartUtils.insertNode(f, new Node(), in, new HashSet<>());
+        }
+    }
+
+    @Benchmark
+    public OptimizerResult optimizeIncremental(EditState s)
+    {
+        return FlowchartOptimizer.optimizeIncremental(s.f, s.settings);
+    }
+
+    @Benchmark
+    public OptimizerResult optimize(EditState s)
+    {
+        return FlowchartOptimizer.optimize(s.f, s.settings);
+    }
+}
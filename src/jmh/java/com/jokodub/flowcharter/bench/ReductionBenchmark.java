@@ -0,0 +1,51 @@
+package com.jokodub.flowcharter.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.jokodub.flowcharter.logic.*;
+import com.jokodub.flowcharter.model.classes.*;
+
+/* Transitive reduction of large random charts full of shortcuts, on one thread and on every core.
+ * Each iteration reduces a fresh chart, as the reduction edits it, so every measurement is one shot.
+ * Run with: mvn -P jmh test-compile exec:exec -Djmh.args="ReductionBenchmark"
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ReductionBenchmark
+{
+    @State(Scope.Thread)
+    public static class ReductionState
+    {
+        @Param({"100000"})
+        public int size;
+
+        //About ten parents each among the last window nodes: a million edges, most of them shortcuts
+        @Param({"1000", "20000"})
+        public int window;
+
+        //0 for every core
+        @Param({"1", "0"})
+        public int threads;
+
+        Flowchart f;
+
+        @Setup(Level.Iteration)
+        public void setUp()
+        {
+            f = ChartGenerators.randomDag(1, size, 19, window, 0);
+            f.reachability().componentCount(); //Built beforehand, as an edited chart keeps it
+        }
+    }
+
+    @Benchmark
+    public EdgeReduction reduce(ReductionState s)
+    {
+        int threads = s.threads > 0 ? s.threads : Runtime.getRuntime().availableProcessors();
+        return FlowchartUtils.reduceTransitively(s.f, threads);
+    }
+}
@@ -0,0 +1,160 @@
+package com.jokodub.flowcharter.bench;
+
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.jokodub.flowcharter.logic.ChartHierarchy;
+import com.jokodub.flowcharter.model.classes.*;
+import com.jokodub.flowcharter.ui.ChartGeometry;
+
+/* Keeping the render geometry of a large chart up to date, and culling it to a view,
+ * which is the work a frame does before any pixels are drawn.
+ * Run with: mvn -P jmh test-compile exec:exec -Djmh.args="-prof gc RenderBenchmark"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark
+{
+    @State(Scope.Thread)
+    public static class RenderState
+    {
+        @Param({"100000"})
+        public int size;
+
+        Flowchart f;
+        ChartGeometry g;
+        ChartHierarchy h;
+        Random rng = new Random(42);
+        int moved;
+        IntList found = new IntList();
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            f = ChartGenerators.randomDag(1, size, 3, 64, 0);
+
+            //Spread each layer out left to right
+            Map<Integer, Integer> used = new HashMap<>();
+            for(int s = 0; s < f.slotLimit(); s++)
+                if(f.nodeAt(s) != null)
+                    f.setRankAt(s, used.merge(f.heightAt(s), 1, Integer::sum) - 1);
+
+            g = new ChartGeometry(f);
+            g.update();
+            g.clearDirty();
+            moved = f.slotOf(ChartGenerators.nodes(f).get(size / 2));
+            h = ChartHierarchy.build(f);
+        }
+    }
+
+    /* One node nudged sideways: its box and segments are patched in place.
+     */
+    @Benchmark
+    public int moveNode(RenderState s)
+    {
+        s.f.atomically(() ->
+        {
+            s.f.setRankAt(s.moved, s.f.rankAt(s.moved) ^ 1);
+            return null;
+        });
+        s.g.update();
+        int regions = s.g.dirtyRegionCount();
+        s.g.clearDirty();
+        return regions;
+    }
+
+    /* An edge added and removed again: both buffers are rebuilt and diffed.
+     */
+    @Benchmark
+    public int edgeEdit(RenderState s)
+    {
+        Node a = s.f.nodeAt(s.moved), b = s.f.getBottom();
+        s.f.addEdge(a, b);
+        s.f.removeEdge(a, b);
+        s.g.update();
+        int regions = s.g.dirtyRegionCount();
+        s.g.clearDirty();
+        return regions;
+    }
+
+    /* Node under a random point, as a mouse move or click looks it up.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Node hitTest(RenderState s)
+    {
+        return s.g.nodeAt(s.rng.nextFloat() * s.g.getWidth(), s.rng.nextFloat() * s.g.getHeight());
+    }
+
+    /* Edge nearest a random point, up to 50 units away.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int nearestEdge(RenderState s)
+    {
+        return s.g.nearestSegment(s.rng.nextFloat() * s.g.getWidth(), s.rng.nextFloat() * s.g.getHeight(), 50);
+    }
+
+    /* Boxes and segments inside a 1920 x 1080 view at a random spot, through the indexes.
+     */
+    @Benchmark
+    public int cullView(RenderState s)
+    {
+        float x0 = s.rng.nextFloat() * s.g.getWidth(), y0 = s.rng.nextFloat() * s.g.getHeight();
+        s.found.clear();
+        s.g.boxesIn(x0, y0, x0 + 1920, y0 + 1080, s.found);
+        s.g.segmentsIn(x0, y0, x0 + 1920, y0 + 1080, s.found);
+        return s.found.size();
+    }
+
+    /* The same view culled by scanning every box and segment, for comparison.
+     */
+    @Benchmark
+    public int cullViewScan(RenderState s)
+    {
+        float x0 = s.rng.nextFloat() * s.g.getWidth(), y0 = s.rng.nextFloat() * s.g.getHeight();
+        float x1 = x0 + 1920, y1 = y0 + 1080;
+        int visible = 0;
+
+        FloatBuffer box = s.g.boxes();
+        for(int i = 0, n = s.g.slotCount(); i < n; i++)
+        {
+            float x = box.get(i * 4), y = box.get(i * 4 + 1), w = box.get(i * 4 + 2);
+            if(w > 0 && x <= x1 && x + w >= x0 && y <= y1 && y + box.get(i * 4 + 3) >= y0) visible++;
+        }
+        FloatBuffer seg = s.g.segments();
+        for(int k = 0, n = s.g.segmentCount(); k < n; k++)
+        {
+            float ax = seg.get(k * 4), ay = seg.get(k * 4 + 1), bx = seg.get(k * 4 + 2), by = seg.get(k * 4 + 3);
+            if(Math.max(ax, bx) >= x0 && Math.min(ax, bx) <= x1 && Math.max(ay, by) >= y0 && Math.min(ay, by) <= y1)
+                visible++;
+        }
+        return visible;
+    }
+
+    /* Every level of detail built from scratch.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ChartHierarchy buildHierarchy(RenderState s)
+    {
+        return ChartHierarchy.build(s.f);
+    }
+
+    /* The level a random zoom draws.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int pickLevel(RenderState s)
+    {
+        return s.h.levelFor(s.rng.nextDouble());
+    }
+}
@@ -0,0 +1,182 @@
+package com.jokodub.flowcharter.logic;
+
+import java.util.Arrays;
+
+import com.jokodub.flowcharter.model.classes.Flowchart;
+import com.jokodub.flowcharter.model.classes.IntList;
+
+/* World space positions of the nodes of a Flowchart, kept by slot in primitive arrays
+ * for a renderer to read straight off. Filled in by FlowchartOptimizer when given one
+ * (see OptimizerSettings.setCoordinates), through CoordinateAssigner.
+ *
+ * Every node is a box (x, y, width, height), x and y being its top left corner.
+ * Sizes are set per slot by whoever draws the nodes, before optimizing. Slots never sized,
+ * or sized 0, get the default size. Boxes in a layer share a row, and rows are gapY apart.
+ *
+ * With edge concentration, the layout also leaves junctions: points in rows of their own,
+ * each standing in for every edge from its sources to its targets, so those can be drawn
+ * as one line from each source into the junction and one out to each target.
+ *
+ * A slot's position holds while its node keeps the height and rank it was laid out at,
+ * which isPlaced checks, so a reader can fall back to its own placement for nodes
+ * edited since. Written while the optimizer holds the chart, so read it the same way.
+ */
+public final class ChartCoordinates
+{
+    // === Instance Variables ===
+
+    private final double defaultWidth, defaultHeight;
+    private final double gapX, gapY;
+
+    private double[] x = new double[0], y = new double[0];
+    private double[] width = new double[0], height = new double[0]; //0 for the default
+    private int[] placedHeight = new int[0], placedRank = new int[0]; //Stamps from the last layout
+    private boolean[] placed = new boolean[0];
+    private double totalWidth, totalHeight;
+
+    private double[] junctionX = new double[0], junctionY = new double[0];
+    private int junctionCount;
+    private final IntList sourceStart = new IntList(), sources = new IntList(); //Per junction, slots in
+    private final IntList targetStart = new IntList(), targets = new IntList(); //Per junction, slots out
+    private volatile int version;
+
+    // === Constructors ===
+
+    /* @param gapX as least space between boxes side by side, half of it next to edges passing by
+     * @param gapY as space between rows
+     */
+    public ChartCoordinates(double defaultWidth, double defaultHeight, double gapX, double gapY)
+    {
+        this.defaultWidth = defaultWidth;
+        this.defaultHeight = defaultHeight;
+        this.gapX = gapX;
+        this.gapY = gapY;
+    }
+
+    // === Get-Set ===
+
+    public double getGapX() { return gapX; }
+    public double getGapY() { return gapY; }
+
+    /* Extent of everything placed by the last layout.
+     */
+    public double getWidth() { return totalWidth; }
+    public double getHeight() { return totalHeight; }
+
+    /* Goes up by one every time a layout writes positions, so readers can tell when to redraw.
+     */
+    public int getVersion() { return version; }
+
+    public double boxX(int slot) { return slot < x.length ? x[slot] : 0; }
+    public double boxY(int slot) { return slot < y.length ? y[slot] : 0; }
+
+    public double boxWidth(int slot)
+    {
+        return slot < width.length && width[slot] > 0 ? width[slot] : defaultWidth;
+    }
+
+    public double boxHeight(int slot)
+    {
+        return slot < height.length && height[slot] > 0 ? height[slot] : defaultHeight;
+    }
+
+    /* Sets the size the box at slot will be laid out with, 0 for the default.
+     */
+    public void setBoxSize(int slot, double w, double h)
+    {
+        ensureCapacity(slot + 1);
+        width[slot] = w;
+        height[slot] = h;
+    }
+
+    public int junctionCount() { return junctionCount; }
+    public double junctionX(int j) { return junctionX[j]; }
+    public double junctionY(int j) { return junctionY[j]; }
+
+    /* Appends onto dst the slots of the nodes junction j has edges from.
+     */
+    public void junctionSources(int j, IntList dst) { append(sources, sourceStart, j, dst); }
+
+    /* Appends onto dst the slots of the nodes junction j has edges to.
+     */
+    public void junctionTargets(int j, IntList dst) { append(targets, targetStart, j, dst); }
+
+    /* Whether slot holds a position for the node there now, which has not moved since.
+     */
+    public boolean isPlaced(Flowchart f, int slot)
+    {
+        return slot < placed.length && placed[slot] && f.nodeAt(slot) != null
+            && placedHeight[slot] == f.heightAt(slot) && placedRank[slot] == f.rankAt(slot);
+    }
+
+    // === Layout Methods ===
+
+    /* Starts a new layout over a chart of the given slot limit, forgetting every position.
+     */
+    void begin(int slotLimit)
+    {
+        ensureCapacity(slotLimit);
+        Arrays.fill(placed, false);
+        junctionCount = 0;
+        sourceStart.clear();
+        sources.clear();
+        targetStart.clear();
+        targets.clear();
+    }
+
+    /* Puts the box at slot with its top left corner at (px, py), stamped with its node's place now.
+     */
+    void place(Flowchart f, int slot, double px, double py)
+    {
+        x[slot] = px;
+        y[slot] = py;
+        placedHeight[slot] = f.heightAt(slot);
+        placedRank[slot] = f.rankAt(slot);
+        placed[slot] = true;
+    }
+
+    /* Starts a junction at point (px, py), sources and targets to follow.
+     */
+    void addJunction(double px, double py)
+    {
+        if(junctionCount == junctionX.length)
+        {
+            junctionX = Arrays.copyOf(junctionX, Math.max(16, junctionCount << 1));
+            junctionY = Arrays.copyOf(junctionY, junctionX.length);
+        }
+        junctionX[junctionCount] = px;
+        junctionY[junctionCount++] = py;
+        sourceStart.add(sources.size());
+        targetStart.add(targets.size());
+    }
+
+    void addJunctionSource(int slot) { sources.add(slot); }
+    void addJunctionTarget(int slot) { targets.add(slot); }
+
+    void end(double w, double h)
+    {
+        totalWidth = w;
+        totalHeight = h;
+        version++;
+    }
+
+    private void append(IntList slots, IntList start, int j, IntList dst)
+    {
+        int end = j + 1 < junctionCount ? start.get(j + 1) : slots.size();
+        for(int i = start.get(j); i < end; i++)
+            dst.add(slots.get(i));
+    }
+
+    private void ensureCapacity(int capacity)
+    {
+        if(capacity <= x.length) return;
+        int n = Math.max(capacity, x.length + (x.length >> 1));
+        x = Arrays.copyOf(x, n);
+        y = Arrays.copyOf(y, n);
+        width = Arrays.copyOf(width, n);
+        height = Arrays.copyOf(height, n);
+        placedHeight = Arrays.copyOf(placedHeight, n);
+        placedRank = Arrays.copyOf(placedRank, n);
+        placed = Arrays.copyOf(placed, n);
+    }
+}
@@ -0,0 +1,527 @@
+package com.jokodub.flowcharter.logic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.jokodub.flowcharter.model.classes.*;
+
+/* Coarser and coarser views of a Flowchart, for drawing it zoomed out.
+ * Level 0 is the chart itself, and every level above is a Flowchart of its own whose nodes
+ * are aggregates of the level below, joined by one bundled edge wherever any of their members were.
+ *
+ * Building it, every level in O(V + E):
+ *  1. Height-linked groups and strongly connected components each become one aggregate.
+ *  2. Then, level after level, every node with a single parent is absorbed into that parent,
+ *     so subtrees fold up into their roots one generation at a time. Where that alone
+ *     shrinks a level by less than a quarter, nodes left untouched are paired with
+ *     the lightest untouched neighbour, as multilevel partitioners do, and any still
+ *     alone with the next one along their row.
+ * Levels stop once they are down to minNodes, stop shrinking, or MAX_LEVELS is reached.
+ * An aggregate sits at the mean height and rank of its members, so every level lines up
+ * with the one below, and is named after its heaviest member with the count of the rest.
+ *
+ * The levels are a copy made once: later edits to the chart do not reach them,
+ * build again to pick those up. Treat the coarse charts as read-only.
+ * Picking the level for a zoom only compares against one threshold per level.
+ */
+public final class ChartHierarchy
+{
+    // === Instance Variables ===
+
+    public static final int MAX_LEVELS = 16;
+    private static final int MIN_NODES = 64; //Default size below which nothing is coarsened further
+    private static final double MIN_SHRINK = 0.95; //A level must keep fewer nodes than this share of the one below
+    private static final double MATCH_SHRINK = 0.75; //Pair nodes up when absorbing subtrees keeps more than this
+
+    private final Flowchart[] charts;
+    private final int[][] up; //up[l][slot at l - 1] is the slot of its aggregate at l, -1 for free slots
+    private final int[][] weights; //Original nodes per slot, 0 for top, bottom and free slots
+    private final int[][] bundleOff, bundleTo, bundleCount; //CSR per level of the bundled edges and their size
+    private final double[] spread; //How much further apart aggregates sit than single nodes
+
+    // === Constructors ===
+
+    private ChartHierarchy(List<Level> levels)
+    {
+        int n = levels.size();
+        charts = new Flowchart[n];
+        up = new int[n][];
+        weights = new int[n][];
+        bundleOff = new int[n][];
+        bundleTo = new int[n][];
+        bundleCount = new int[n][];
+        spread = new double[n];
+
+        double finest = Math.max(1, levels.get(0).nodes);
+        for(int l = 0; l < n; l++)
+        {
+            Level level = levels.get(l);
+            charts[l] = level.chart;
+            up[l] = level.up;
+            weights[l] = level.weight;
+            bundleOff[l] = level.bundleOff;
+            bundleTo[l] = level.bundleTo;
+            bundleCount[l] = level.bundleCount;
+            spread[l] = Math.sqrt(finest / Math.max(1, level.nodes));
+        }
+    }
+
+    /* Coarsens f until about 64 nodes are left.
+     */
+    public static ChartHierarchy build(Flowchart f)
+    {
+        return build(f, MIN_NODES);
+    }
+
+    /* Coarsens f until at most minNodes nodes are left, or coarsening stops paying.
+     * f itself is only read, but its reachability index is used for the components.
+     * @param minNodes as size below which a level is not coarsened further
+     */
+    public static ChartHierarchy build(Flowchart f, int minNodes)
+    {
+        List<Level> levels = new ArrayList<>();
+        f.atomically(() ->
+        {
+            Level finest = Level.of(f);
+            levels.add(finest);
+
+            Level grouped = finest.coarsen(groupComponents(f));
+            if(grouped.nodes < finest.nodes) levels.add(grouped);
+            return null;
+        });
+
+        while(levels.size() < MAX_LEVELS)
+        {
+            Level last = levels.get(levels.size() - 1);
+            if(last.nodes <= minNodes) break;
+
+            Level next = last.coarsen(foldSubtrees(last));
+            if(next.nodes >= last.nodes * MIN_SHRINK) break;
+            levels.add(next);
+        }
+        return new ChartHierarchy(levels);
+    }
+
+    // === Get-Set ===
+
+    public int levelCount() { return charts.length; }
+
+    /* @return level l, 0 being the chart the hierarchy was built from
+     */
+    public Flowchart getLevel(int l) { return charts[l]; }
+
+    /* How many times further apart the aggregates of level l sit than the nodes of level 0,
+     * as the square root of how many fewer there are.
+     */
+    public double spreadOf(int l) { return spread[l]; }
+
+    /* The finest level that is still readable at scale, where scale 1 is the least zoom
+     * at which every node of level 0 is: level l is readable once scale * spreadOf(l) reaches 1.
+     * At most one comparison per level.
+     */
+    public int levelFor(double scale)
+    {
+        for(int l = 0; l < spread.length; l++)
+            if(scale * spread[l] >= 1)
+                return l;
+        return spread.length - 1;
+    }
+
+    /* @return how many nodes of level 0 aggregate stands for at level l, 0 for top, bottom
+     *         or a node not on that level
+     */
+    public int sizeOf(int l, Node aggregate)
+    {
+        int slot = charts[l].slotOf(aggregate);
+        return slot < 0 || slot >= weights[l].length ? 0 : weights[l][slot];
+    }
+
+    /* @param n as node of level 0
+     * @return the aggregate holding n at level l, or null if n was not on level 0 when it was built
+     */
+    public Node coarseOf(int l, Node n)
+    {
+        int slot = charts[0].slotOf(n);
+        if(slot < 0 || slot >= weights[0].length) return null;
+        for(int k = 1; k <= l && slot >= 0; k++)
+            slot = up[k][slot];
+        return slot < 0 ? null : charts[l].nodeAt(slot);
+    }
+
+    /* Every node of level 0 that aggregate stands for at level l, top and bottom aside.
+     * Walks all of level 0, so meant for one expansion at a time rather than per frame.
+     */
+    public List<Node> membersOf(int l, Node aggregate)
+    {
+        List<Node> members = new ArrayList<>();
+        int target = charts[l].slotOf(aggregate);
+        if(target < 0) return members;
+
+        int[] weight0 = weights[0];
+        for(int s = 0; s < weight0.length; s++)
+        {
+            if(weight0[s] == 0) continue;
+            int slot = s;
+            for(int k = 1; k <= l && slot >= 0; k++)
+                slot = up[k][slot];
+            if(slot == target) members.add(charts[0].nodeAt(s));
+        }
+        return members;
+    }
+
+    /* How many edges of level 0 the edge a -> b bundles at level l, 0 if there is none.
+     * O(out-degree of a) at that level.
+     */
+    public int bundleSize(int l, Node a, Node b)
+    {
+        int s = charts[l].slotOf(a), d = charts[l].slotOf(b);
+        if(s < 0 || d < 0 || s >= weights[l].length) return 0;
+        int[] off = bundleOff[l];
+        for(int i = off[s]; i < off[s + 1]; i++)
+            if(bundleTo[l][i] == d)
+                return bundleCount[l][i];
+        return 0;
+    }
+
+    // === Grouping ===
+
+    /* Union-find over the slots of level 0 joining height-linked nodes and every
+     * strongly connected component, found with the chart's reachability index.
+     * Must run inside f.atomically.
+     */
+    private static int[] groupComponents(Flowchart f)
+    {
+        int limit = f.slotLimit();
+        int top = f.slotOf(f.getTop()), bottom = f.slotOf(f.getBottom());
+        int[] parent = identity(limit);
+
+        boolean had = f.hasReachability();
+        Reachability r = f.reachability();
+        int[] firstOf = new int[0]; //First slot seen of each component
+        IntList links = new IntList();
+        for(int s = 0; s < limit; s++)
+        {
+            if(f.nodeAt(s) == null || s == top || s == bottom) continue;
+
+            int c = r.componentAt(s);
+            if(r.componentSize(c) > 1)
+            {
+                if(c >= firstOf.length)
+                {
+                    int old = firstOf.length;
+                    firstOf = Arrays.copyOf(firstOf, Math.max(c + 1, old * 2));
+                    Arrays.fill(firstOf, old, firstOf.length, -1);
+                }
+                if(firstOf[c] < 0) firstOf[c] = s;
+                else union(parent, firstOf[c], s);
+            }
+
+            links.clear();
+            f.neighboursAt(Relation.LINK, s, links);
+            for(int i = 0; i < links.size(); i++)
+                union(parent, s, links.get(i));
+        }
+        if(!had) f.dropReachability();
+        return parent;
+    }
+
+    /* Union-find over the slots of level joining every node with a single parent to it,
+     * unless the parent was itself absorbed, then pairing up what is left untouched
+     * if that was not enough.
+     */
+    private static int[] foldSubtrees(Level level)
+    {
+        Flowchart f = level.chart;
+        int limit = f.slotLimit();
+        int top = f.slotOf(f.getTop()), bottom = f.slotOf(f.getBottom());
+        int[] parent = identity(limit);
+        boolean[] absorbed = new boolean[limit];
+        boolean[] touched = new boolean[limit];
+        int merged = 0;
+
+        IntList buf = new IntList();
+        for(int s = 0; s < limit; s++)
+        {
+            if(level.weight[s] == 0) continue;
+            buf.clear();
+            f.neighboursAt(Relation.INBOUND, s, buf);
+
+            int only = -1, parents = 0;
+            for(int i = 0; i < buf.size(); i++)
+            {
+                int p = buf.get(i);
+                if(p == s || p == top) continue;
+                only = p;
+                parents++;
+            }
+            if(parents != 1 || only == bottom || absorbed[only]) continue;
+            union(parent, only, s);
+            absorbed[s] = true;
+            touched[s] = touched[only] = true;
+            merged++;
+        }
+        if(level.nodes - merged <= level.nodes * MATCH_SHRINK) return parent;
+
+        //Not enough single-parent chains, pair untouched neighbours instead
+        for(int s = 0; s < limit; s++)
+        {
+            if(level.weight[s] == 0 || touched[s]) continue;
+            buf.clear();
+            f.neighboursAt(Relation.OUTBOUND, s, buf);
+            f.neighboursAt(Relation.INBOUND, s, buf);
+
+            int best = -1;
+            for(int i = 0; i < buf.size(); i++)
+            {
+                int x = buf.get(i);
+                if(x == s || x == top || x == bottom || touched[x]) continue;
+                if(best < 0 || level.weight[x] < level.weight[best]) best = x;
+            }
+            if(best < 0) continue;
+            union(parent, s, best);
+            touched[s] = touched[best] = true;
+        }
+
+        //Nodes with nothing left to pair with go with their neighbour along the same row
+        List<Integer> alone = new ArrayList<>();
+        for(int s = 0; s < limit; s++)
+            if(level.weight[s] > 0 && !touched[s])
+                alone.add(s);
+        alone.sort((a, b) -> f.heightAt(a) != f.heightAt(b) ? Integer.compare(f.heightAt(a), f.heightAt(b))
+                                                             : Integer.compare(f.rankAt(a), f.rankAt(b)));
+        for(int i = 0; i + 1 < alone.size(); i++)
+        {
+            int a = alone.get(i), b = alone.get(i + 1);
+            if(f.heightAt(a) != f.heightAt(b)) continue;
+            union(parent, a, b);
+            i++;
+        }
+        return parent;
+    }
+
+    private static int[] identity(int n)
+    {
+        int[] parent = new int[n];
+        for(int i = 0; i < n; i++)
+            parent[i] = i;
+        return parent;
+    }
+
+    private static int find(int[] parent, int x)
+    {
+        while(parent[x] != x)
+        {
+            parent[x] = parent[parent[x]];
+            x = parent[x];
+        }
+        return x;
+    }
+
+    /* Joins the sets of a and b, keeping a's root.
+     */
+    private static void union(int[] parent, int a, int b)
+    {
+        int ra = find(parent, a), rb = find(parent, b);
+        if(ra != rb) parent[rb] = ra;
+    }
+
+    // === Levels ===
+
+    /* One level while the hierarchy is built, with what the next one needs from it.
+     */
+    private static final class Level
+    {
+        final Flowchart chart;
+        final int nodes; //Real nodes, top and bottom aside
+        int[] up;
+        final int[] weight;
+        final long[] sumHeight, sumRank; //Of the original members, for their mean
+        final String[] name; //Of the heaviest original member
+        final int[] bundleOff, bundleTo, bundleCount;
+
+        private Level(Flowchart chart, int nodes, int[] weight, long[] sumHeight, long[] sumRank, String[] name,
+                      int[] bundleOff, int[] bundleTo, int[] bundleCount)
+        {
+            this.chart = chart;
+            this.nodes = nodes;
+            this.weight = weight;
+            this.sumHeight = sumHeight;
+            this.sumRank = sumRank;
+            this.name = name;
+            this.bundleOff = bundleOff;
+            this.bundleTo = bundleTo;
+            this.bundleCount = bundleCount;
+        }
+
+        /* Level 0, every edge of f being a bundle of one.
+         */
+        static Level of(Flowchart f)
+        {
+            int limit = f.slotLimit();
+            int top = f.slotOf(f.getTop()), bottom = f.slotOf(f.getBottom());
+            int[] weight = new int[limit];
+            long[] sumHeight = new long[limit], sumRank = new long[limit];
+            String[] name = new String[limit];
+            int[] off = new int[limit + 1];
+            IntList to = new IntList();
+
+            int nodes = 0;
+            for(int s = 0; s < limit; s++)
+            {
+                Node n = f.nodeAt(s);
+                if(n != null)
+                {
+                    f.neighboursAt(Relation.OUTBOUND, s, to);
+                    if(s != top && s != bottom)
+                    {
+                        weight[s] = 1;
+                        sumHeight[s] = f.heightAt(s);
+                        sumRank[s] = f.rankAt(s);
+                        name[s] = n.getName();
+                        nodes++;
+                    }
+                }
+                off[s + 1] = to.size();
+            }
+            int[] count = new int[to.size()];
+            Arrays.fill(count, 1);
+            return new Level(f, nodes, weight, sumHeight, sumRank, name, off, to.toArray(), count);
+        }
+
+        /* The level above this one, with one aggregate per set of the union-find over its slots.
+         * Top and bottom stay on their own whatever the sets say.
+         */
+        Level coarsen(int[] parent)
+        {
+            int limit = chart.slotLimit();
+            int top = chart.slotOf(chart.getTop()), bottom = chart.slotOf(chart.getBottom());
+
+            //Number the sets, summing their members
+            int[] group = new int[limit];
+            Arrays.fill(group, -1);
+            IntList heaviest = new IntList(); //Member whose name each set takes
+            IntList totals = new IntList();
+            for(int s = 0; s < limit; s++)
+            {
+                if(weight[s] == 0) continue;
+                int root = find(parent, s);
+                if(group[root] < 0)
+                {
+                    group[root] = heaviest.size();
+                    heaviest.add(s);
+                    totals.add(0);
+                }
+                int g = group[root];
+                group[s] = g;
+                totals.set(g, totals.get(g) + weight[s]);
+                if(weight[s] > weight[heaviest.get(g)]) heaviest.set(g, s);
+            }
+            int groups = heaviest.size();
+
+            Flowchart coarse = new Flowchart(chart.getTitle());
+            List<Node> aggregates = new ArrayList<>(groups);
+            for(int g = 0; g < groups; g++)
+            {
+                String base = name[heaviest.get(g)];
+                int rest = totals.get(g) - 1;
+                aggregates.add(coarse.newNode(rest == 0 ? base : base + " (+" + rest + ")"));
+            }
+            int[] slotOfGroup = coarse.registerAll(aggregates);
+            int cLimit = coarse.slotLimit();
+            int cTop = coarse.slotOf(coarse.getTop()), cBottom = coarse.slotOf(coarse.getBottom());
+
+            int[] map = new int[limit];
+            Arrays.fill(map, -1);
+            int[] cWeight = new int[cLimit];
+            long[] cHeight = new long[cLimit], cRank = new long[cLimit];
+            String[] cName = new String[cLimit];
+            for(int s = 0; s < limit; s++)
+            {
+                if(s == top) map[s] = cTop;
+                else if(s == bottom) map[s] = cBottom;
+                else if(group[s] >= 0)
+                {
+                    int c = slotOfGroup[group[s]];
+                    map[s] = c;
+                    cWeight[c] += weight[s];
+                    cHeight[c] += sumHeight[s];
+                    cRank[c] += sumRank[s];
+                }
+            }
+            for(int g = 0; g < groups; g++)
+                cName[slotOfGroup[g]] = name[heaviest.get(g)];
+
+            //Bundle the edges between sets, counting what each carries
+            int[] cOff = new int[cLimit + 1];
+            for(int s = 0; s < limit; s++)
+                for(int i = bundleOff[s]; i < bundleOff[s + 1]; i++)
+                    if(map[s] >= 0 && map[s] != map[bundleTo[i]])
+                        cOff[map[s] + 1]++;
+            for(int c = 0; c < cLimit; c++)
+                cOff[c + 1] += cOff[c];
+            int[] fill = Arrays.copyOf(cOff, cLimit);
+            int[] cTo = new int[cOff[cLimit]], cCount = new int[cOff[cLimit]];
+            for(int s = 0; s < limit; s++)
+                for(int i = bundleOff[s]; i < bundleOff[s + 1]; i++)
+                    if(map[s] >= 0 && map[s] != map[bundleTo[i]])
+                    {
+                        cTo[fill[map[s]]] = map[bundleTo[i]];
+                        cCount[fill[map[s]]++] = bundleCount[i];
+                    }
+
+            //Merge repeats within each source, marking where each target was last put
+            int[] at = new int[cLimit];
+            Arrays.fill(at, -1);
+            int w = 0;
+            for(int c = 0; c < cLimit; c++)
+            {
+                int start = w;
+                for(int i = cOff[c]; i < cOff[c + 1]; i++)
+                {
+                    int d = cTo[i];
+                    if(at[d] >= start)
+                        cCount[at[d]] += cCount[i];
+                    else
+                    {
+                        at[d] = w;
+                        cTo[w] = d;
+                        cCount[w++] = cCount[i];
+                    }
+                }
+                cOff[c] = start;
+            }
+            cOff[cLimit] = w;
+            cTo = Arrays.copyOf(cTo, w);
+            cCount = Arrays.copyOf(cCount, w);
+
+            //Connect and place the aggregates
+            IntList src = new IntList(w), dest = new IntList(w);
+            boolean sentinelsJoined = false;
+            for(int c = 0; c < cLimit; c++)
+                for(int i = cOff[c]; i < cOff[c + 1]; i++)
+                {
+                    src.add(c);
+                    dest.add(cTo[i]);
+                    sentinelsJoined |= c == cTop && cTo[i] == cBottom;
+                }
+            coarse.addEdgesAt(src, dest);
+            if(!sentinelsJoined) coarse.removeEdge(coarse.getTop(), coarse.getBottom());
+            coarse.compact();
+
+            for(int c = 0; c < cLimit; c++)
+                if(cWeight[c] > 0)
+                {
+                    coarse.setHeightAt(c, (int) Math.round((double) cHeight[c] / cWeight[c]));
+                    coarse.setRankAt(c, (int) Math.round((double) cRank[c] / cWeight[c]));
+                }
+            coarse.setHeightAt(cTop, chart.heightAt(top));
+            coarse.setHeightAt(cBottom, chart.heightAt(bottom));
+            coarse.drainDirty(new IntList());
+
+            Level next = new Level(coarse, groups, cWeight, cHeight, cRank, cName, cOff, cTo, cCount);
+            next.up = map;
+            return next;
+        }
+    }
+}
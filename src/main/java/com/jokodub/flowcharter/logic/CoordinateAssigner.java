@@ -0,0 +1,339 @@
+package com.jokodub.flowcharter.logic;
+
+import java.util.Arrays;
+
+import com.jokodub.flowcharter.model.classes.*;
+
+/* Turns a layered and ordered graph into x and y positions, in the manner of Brandes and Köpf,
+ * "Fast and Simple Horizontal Coordinate Assignment" (2001).
+ *
+ * y just stacks the layers as rows. For x:
+ *  1. Edges crossing an inner segment (one between two dummies) are marked as conflicts,
+ *     so that long edges get to stay straight, at the cost of the short edges crossing them.
+ *  2. Four times, once for each way of sweeping (down or up, left or right), every vertex
+ *     is aligned with a median neighbour in the layer swept from, unless that would cross
+ *     an alignment already made or a conflict. Aligned vertices form vertical blocks.
+ *  3. Blocks are packed as close as their widths allow, by a longest path over the
+ *     "left of" graph between blocks, then pulled back right where nothing stops them.
+ *  4. The four results are shifted onto the narrowest of them, and each vertex goes
+ *     to the average of its two middle positions.
+ * Every step is linear in vertices plus edges, dummies included, however wide the layers.
+ */
+final class CoordinateAssigner
+{
+    // === Instance Variables ===
+
+    private final LayeredGraph g;
+    private final LayerOrdering o;
+    private final ChartCoordinates c;
+    private final int n;
+
+    private final double[] width; //Per vertex, 0 for dummies
+    private final int[] upAdj, downAdj; //Neighbours above and below, each sorted by position
+    private final int[] downEdge; //Edge of each downAdj entry, as its index in upAdj
+    private final boolean[] conflict; //Per edge, indexed as upAdj
+
+    //Scratch for one alignment
+    private final int[] root, align;
+    private final int[] blockOff, blockAdj, blockFill, blockIn, order;
+    private final double[] blockGap, blockX;
+
+    // === Constructors ===
+
+    private CoordinateAssigner(LayeredGraph g, LayerOrdering o, ChartCoordinates c)
+    {
+        this.g = g;
+        this.o = o;
+        this.c = c;
+        n = g.vertexCount;
+
+        width = new double[n];
+        for(int v = 0; v < g.realCount; v++)
+            width[v] = c.boxWidth(g.slotOf[v]);
+
+        //Adjacency sorted by position, by walking the layers in order
+        int edges = g.up.length;
+        upAdj = new int[edges];
+        downAdj = new int[edges];
+        downEdge = new int[edges];
+        int[] fill = g.upOff.clone();
+        for(int[] layer : o.layers)
+            for(int u : layer)
+                for(int k = g.downOff[u]; k < g.downOff[u + 1]; k++)
+                    upAdj[fill[g.down[k]]++] = u;
+        fill = g.downOff.clone();
+        for(int[] layer : o.layers)
+            for(int v : layer)
+                for(int k = g.upOff[v]; k < g.upOff[v + 1]; k++)
+                {
+                    int u = upAdj[k];
+                    downEdge[fill[u]] = k;
+                    downAdj[fill[u]++] = v;
+                }
+        conflict = new boolean[edges];
+
+        root = new int[n];
+        align = new int[n];
+        blockOff = new int[n + 1];
+        blockAdj = new int[n];
+        blockFill = new int[n];
+        blockIn = new int[n];
+        order = new int[n];
+        blockGap = new double[n];
+        blockX = new double[n];
+    }
+
+    /* Places every node of g's chart in c, along with top above and bottom below.
+     * Heights and ranks must already be written (see FlowchartOptimizer.apply),
+     * as the positions are stamped with them.
+     */
+    static void run(LayeredGraph g, LayerOrdering o, ChartCoordinates c)
+    {
+        CoordinateAssigner a = new CoordinateAssigner(g, o, c);
+        a.markConflicts();
+
+        double[][] xs = new double[4][];
+        for(int dir = 0; dir < 4; dir++)
+            xs[dir] = a.sweep((dir & 1) == 0, (dir & 2) == 0);
+        a.write(a.balance(xs));
+    }
+
+    // === Steps ===
+
+    /* 1. Marks the edges that cross an inner segment (type 1 conflicts),
+     * one pair of layers at a time, each vertex and edge looked at once.
+     */
+    private void markConflicts()
+    {
+        for(int l = 1; l < o.layers.length; l++)
+        {
+            int[] layer = o.layers[l];
+            int k0 = 0, scan = 0;
+            for(int i = 0; i < layer.length; i++)
+            {
+                int v = layer[i];
+                boolean inner = isBend(v) && isBend(upAdj[g.upOff[v]]);
+                if(!inner && i < layer.length - 1) continue;
+
+                //Inner segments end at a dummy, which only has one neighbour above
+                int k1 = inner ? o.pos[upAdj[g.upOff[v]]] : o.layers[l - 1].length - 1;
+                for(; scan <= i; scan++)
+                {
+                    int s = layer[scan];
+                    for(int k = g.upOff[s]; k < g.upOff[s + 1]; k++)
+                    {
+                        int p = o.pos[upAdj[k]];
+                        if((p < k0 || p > k1) && !(isBend(s) && isBend(upAdj[k])))
+                            conflict[k] = true;
+                    }
+                }
+                k0 = k1;
+            }
+        }
+    }
+
+    /* 2 and 3 for one of the four directions.
+     * @param down as whether to sweep down, aligning with neighbours above
+     * @param right as whether to sweep left to right
+     * @return x of each vertex's centre
+     */
+    private double[] sweep(boolean down, boolean right)
+    {
+        int layerCount = o.layers.length;
+        for(int v = 0; v < n; v++)
+        {
+            root[v] = v;
+            align[v] = v;
+        }
+
+        //Vertical alignment
+        for(int li = 0; li < layerCount; li++)
+        {
+            int[] layer = o.layers[down ? li : layerCount - 1 - li];
+            int last = -1; //Position of the latest neighbour aligned with, in sweep order
+            for(int ii = 0; ii < layer.length; ii++)
+            {
+                int v = layer[right ? ii : layer.length - 1 - ii];
+                int from = down ? g.upOff[v] : g.downOff[v];
+                int degree = (down ? g.upOff[v + 1] : g.downOff[v + 1]) - from;
+                if(degree == 0) continue;
+
+                //One median, or two tried in sweep order
+                for(int m = (degree - 1) / 2; m <= degree / 2; m++)
+                {
+                    int k = from + (right ? m : degree - 1 - m);
+                    int w = down ? upAdj[k] : downAdj[k];
+                    int p = sweepPos(w, right);
+                    if(align[v] == v && last < p && !conflict[down ? k : downEdge[k]])
+                    {
+                        align[w] = v;
+                        root[v] = root[w];
+                        align[v] = root[v];
+                        last = p;
+                    }
+                }
+            }
+        }
+
+        //Horizontal compaction over the graph of blocks, an edge from each block to the next on its right
+        Arrays.fill(blockOff, 0);
+        for(int[] layer : o.layers)
+            for(int i = 1; i < layer.length; i++)
+                blockOff[root[layer[right ? i - 1 : layer.length - i]] + 1]++;
+        for(int v = 0; v < n; v++)
+            blockOff[v + 1] += blockOff[v];
+        System.arraycopy(blockOff, 0, blockFill, 0, n);
+        Arrays.fill(blockIn, 0);
+        for(int[] layer : o.layers)
+            for(int i = 1; i < layer.length; i++)
+            {
+                int a = layer[right ? i - 1 : layer.length - i];
+                int b = layer[right ? i : layer.length - 1 - i];
+                int k = blockFill[root[a]]++;
+                blockAdj[k] = root[b];
+                blockGap[k] = separation(a, b);
+                blockIn[root[b]]++;
+            }
+
+        //Kahn's order, packing each block as far left as the blocks before it allow
+        int head = 0, tail = 0;
+        for(int v = 0; v < n; v++)
+        {
+            blockX[v] = 0;
+            if(root[v] == v && blockIn[v] == 0) order[tail++] = v;
+        }
+        while(head < tail)
+        {
+            int r = order[head++];
+            for(int k = blockOff[r]; k < blockOff[r + 1]; k++)
+            {
+                int s = blockAdj[k];
+                blockX[s] = Math.max(blockX[s], blockX[r] + blockGap[k]);
+                if(--blockIn[s] == 0) order[tail++] = s;
+            }
+        }
+
+        //Then back the other way, closing gaps left of blocks held apart from their right neighbours
+        for(int i = tail - 1; i >= 0; i--)
+        {
+            int r = order[i];
+            double min = Double.POSITIVE_INFINITY;
+            for(int k = blockOff[r]; k < blockOff[r + 1]; k++)
+                min = Math.min(min, blockX[blockAdj[k]] - blockGap[k]);
+            if(min != Double.POSITIVE_INFINITY)
+                blockX[r] = Math.max(blockX[r], min);
+        }
+
+        double[] x = new double[n];
+        for(int v = 0; v < n; v++)
+            x[v] = right ? blockX[root[v]] : -blockX[root[v]];
+        return x;
+    }
+
+    /* 4. Lines the four results up with the narrowest, then takes the average median of each vertex.
+     */
+    private double[] balance(double[][] xs)
+    {
+        double[] min = new double[4], max = new double[4];
+        int narrowest = 0;
+        for(int dir = 0; dir < 4; dir++)
+        {
+            min[dir] = Double.POSITIVE_INFINITY;
+            max[dir] = Double.NEGATIVE_INFINITY;
+            for(int v = 0; v < n; v++)
+            {
+                min[dir] = Math.min(min[dir], xs[dir][v] - width[v] / 2);
+                max[dir] = Math.max(max[dir], xs[dir][v] + width[v] / 2);
+            }
+            if(max[dir] - min[dir] < max[narrowest] - min[narrowest]) narrowest = dir;
+        }
+
+        //Leftward sweeps pack against the right side, so line those up by their right edge
+        for(int dir = 0; dir < 4; dir++)
+        {
+            double shift = (dir & 2) == 0 ? min[narrowest] - min[dir] : max[narrowest] - max[dir];
+            for(int v = 0; v < n; v++)
+                xs[dir][v] += shift;
+        }
+
+        double[] x = new double[n];
+        for(int v = 0; v < n; v++)
+        {
+            double a = xs[0][v], b = xs[1][v], p = xs[2][v], q = xs[3][v];
+            double lo = Math.min(Math.min(a, b), Math.min(p, q));
+            double hi = Math.max(Math.max(a, b), Math.max(p, q));
+            x[v] = (a + b + p + q - lo - hi) / 2;
+        }
+        return x;
+    }
+
+    /* Writes the real vertices and junctions into c, row by row, with top and bottom centred
+     * above and below. A row of only junctions and dummies is just a gap.
+     */
+    private void write(double[] centre)
+    {
+        Flowchart f = g.chart;
+        int top = f.slotOf(f.getTop()), bottom = f.slotOf(f.getBottom());
+        c.begin(f.slotLimit());
+
+        double left = Double.POSITIVE_INFINITY, right = Double.NEGATIVE_INFINITY;
+        for(int v = 0; v < g.realCount; v++)
+        {
+            left = Math.min(left, centre[v] - width[v] / 2);
+            right = Math.max(right, centre[v] + width[v] / 2);
+        }
+        if(g.realCount == 0) left = right = 0;
+        double extent = Math.max(right - left, Math.max(c.boxWidth(top), c.boxWidth(bottom)));
+
+        double y = 0;
+        c.place(f, top, (extent - c.boxWidth(top)) / 2, y);
+        y += c.boxHeight(top) + c.getGapY();
+        for(int[] layer : o.layers)
+        {
+            double rowHeight = 0;
+            for(int v : layer)
+            {
+                if(g.isJunction(v))
+                {
+                    //Junctions only ever join real vertices
+                    c.addJunction(centre[v] - left, y);
+                    for(int k = g.upOff[v]; k < g.upOff[v + 1]; k++)
+                        c.addJunctionSource(g.slotOf[g.up[k]]);
+                    for(int k = g.downOff[v]; k < g.downOff[v + 1]; k++)
+                        c.addJunctionTarget(g.slotOf[g.down[k]]);
+                }
+                if(g.isDummy(v)) continue;
+                int s = g.slotOf[v];
+                c.place(f, s, centre[v] - width[v] / 2 - left, y);
+                rowHeight = Math.max(rowHeight, c.boxHeight(s));
+            }
+            y += rowHeight + c.getGapY();
+        }
+        c.place(f, bottom, (extent - c.boxWidth(bottom)) / 2, y);
+        c.end(extent, y + c.boxHeight(bottom));
+    }
+
+    // === Helpers ===
+
+    /* Whether v is a dummy along a long edge, with one neighbour each way, rather than a node or junction.
+     */
+    private boolean isBend(int v)
+    {
+        return g.isDummy(v) && !g.isJunction(v);
+    }
+
+    /* Position of v in its layer, counted from the side a sweep starts at.
+     */
+    private int sweepPos(int v, boolean right)
+    {
+        return right ? o.pos[v] : o.layers[g.layerOf[v]].length - 1 - o.pos[v];
+    }
+
+    /* Least distance between the centres of neighbours a and b. Edges passing by get half the gap.
+     */
+    private double separation(int a, int b)
+    {
+        double gap = g.isDummy(a) || g.isDummy(b) ? c.getGapX() / 2 : c.getGapX();
+        return (width[a] + width[b]) / 2 + gap;
+    }
+}
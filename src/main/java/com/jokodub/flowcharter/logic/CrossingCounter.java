@@ -0,0 +1,131 @@
+package com.jokodub.flowcharter.logic;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/* Counts edge crossings of a LayerOrdering.
+ * Between two adjacent layers, edges sorted by their upper end cross exactly
+ * as many times as their lower ends are out of order, so each pair of layers
+ * is an inversion count over a Fenwick tree (binary indexed tree): O(E log V).
+ * Holds scratch buffers, so use one instance per thread.
+ */
+final class CrossingCounter
+{
+    // === Instance Variables ===
+
+    private final LayeredGraph g;
+    private int[] sequence; //Lower ends of the edges, in upper-end order
+    private int[] tree; //Fenwick tree over positions of the lower layer
+
+    // === Constructors ===
+
+    CrossingCounter(LayeredGraph g)
+    {
+        this.g = g;
+        sequence = new int[16];
+        tree = new int[16];
+    }
+
+    // === Counting Methods ===
+
+    /* Crossings across every pair of adjacent layers.
+     */
+    long total(LayerOrdering o)
+    {
+        long sum = 0;
+        for(int l = 0; l + 1 < g.layerCount; l++)
+            sum += between(o, l);
+        return sum;
+    }
+
+    /* Crossings across every pair of adjacent layers, with the pairs split across pool.
+     * Layer pairs are independent, each worker counts its share with its own scratch buffers.
+     */
+    static long totalParallel(LayeredGraph g, LayerOrdering o, ForkJoinPool pool)
+    {
+        if(g.layerCount < 2) return 0;
+        int grain = Math.max(1, (g.layerCount - 1) / (4 * pool.getParallelism()));
+        return pool.invoke(new CountTask(g, o, 0, g.layerCount - 1, grain));
+    }
+
+    /* Crossings between layer l and layer l + 1.
+     */
+    long between(LayerOrdering o, int l)
+    {
+        int[] upper = o.layers[l];
+        int lowerSize = o.layers[l + 1].length;
+
+        int edges = 0;
+        for(int u : upper)
+            edges += g.downOff[u + 1] - g.downOff[u];
+        if(edges < 2) return 0;
+        if(sequence.length < edges) sequence = new int[Math.max(edges, sequence.length << 1)];
+        if(tree.length < lowerSize + 1) tree = new int[Math.max(lowerSize + 1, tree.length << 1)];
+
+        //Lower ends in order of upper end, then of lower end among one upper's edges
+        int k = 0;
+        for(int u : upper)
+        {
+            int start = k;
+            for(int e = g.downOff[u]; e < g.downOff[u + 1]; e++)
+                sequence[k++] = o.pos[g.down[e]];
+            if(k - start > 1) Arrays.sort(sequence, start, k);
+        }
+
+        //Every earlier lower end to the right of this one is a crossing
+        Arrays.fill(tree, 0, lowerSize + 1, 0);
+        long crossings = 0;
+        for(int i = 0; i < edges; i++)
+        {
+            int p = sequence[i] + 1;
+            int atOrLeft = 0;
+            for(int j = p; j > 0; j -= j & -j)
+                atOrLeft += tree[j];
+            crossings += i - atOrLeft;
+            for(int j = p; j <= lowerSize; j += j & -j)
+                tree[j]++;
+        }
+        return crossings;
+    }
+
+    /* Counts layer pairs [lo, hi), halving the range until it is at most grain pairs.
+     * Serializable only by way of ForkJoinTask, never actually serialized.
+     */
+    private static final class CountTask extends RecursiveTask<Long>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final transient LayeredGraph g;
+        private final transient LayerOrdering o;
+        private final int lo, hi, grain;
+
+        CountTask(LayeredGraph g, LayerOrdering o, int lo, int hi, int grain)
+        {
+            this.g = g;
+            this.o = o;
+            this.lo = lo;
+            this.hi = hi;
+            this.grain = grain;
+        }
+
+        @Override
+        protected Long compute()
+        {
+            if(hi - lo <= grain)
+            {
+                CrossingCounter counter = new CrossingCounter(g);
+                long sum = 0;
+                for(int l = lo; l < hi; l++)
+                    sum += counter.between(o, l);
+                return sum;
+            }
+
+            int mid = (lo + hi) >>> 1;
+            CountTask left = new CountTask(g, o, lo, mid, grain);
+            left.fork();
+            long right = new CountTask(g, o, mid, hi, grain).compute();
+            return left.join() + right;
+        }
+    }
+}
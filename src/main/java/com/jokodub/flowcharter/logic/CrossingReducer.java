@@ -0,0 +1,205 @@
+package com.jokodub.flowcharter.logic;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+/* Layer-by-layer sweep crossing reduction.
+ * A down sweep reorders each layer by the positions of its neighbours above,
+ * an up sweep by those below. The key is the barycenter (mean) or the weighted median.
+ * Sweeps repeat until no crossings remain, they stop improving, the iteration cap or
+ * deadline is reached, or the thread is interrupted. The best ordering seen is kept.
+ * Holds scratch buffers, so use one instance per thread.
+ */
+final class CrossingReducer
+{
+    // === Instance Variables ===
+
+    private static final int STALL_LIMIT = 3; //Sweeps without improvement before giving up
+
+    private final LayeredGraph g;
+    private final OptimizerSettings.Heuristic heuristic;
+    private final CrossingCounter counter;
+    private final ForkJoinPool countPool; //Counts crossings in parallel when set
+    private final double[] key; //Sort key per vertex
+    private int[] tmp; //Merge sort buffer
+    private int[] positions; //Neighbour positions for medians
+
+    private int iterations;
+    private boolean timedOut;
+
+    // === Constructors ===
+
+    CrossingReducer(LayeredGraph g, OptimizerSettings.Heuristic heuristic)
+    {
+        this(g, heuristic, null);
+    }
+
+    /* @param countPool as pool to count crossings on, or null to count on this thread
+     */
+    CrossingReducer(LayeredGraph g, OptimizerSettings.Heuristic heuristic, ForkJoinPool countPool)
+    {
+        this.g = g;
+        this.heuristic = heuristic;
+        this.countPool = countPool;
+        counter = new CrossingCounter(g);
+        key = new double[g.vertexCount];
+        tmp = new int[16];
+        positions = new int[16];
+    }
+
+    // === Get-Set ===
+
+    int getIterations() { return iterations; }
+    boolean isTimedOut() { return timedOut; }
+    CrossingCounter getCounter() { return counter; }
+
+    // === Reduction Methods ===
+
+    /* Improves o in place, leaving it at the best ordering found.
+     * @param o as ordering to improve
+     * @param maxIterations as cap on down-and-up sweep pairs
+     * @param deadlineNanos as System.nanoTime() after which to stop
+     * @return crossings of the resulting ordering
+     */
+    long reduce(LayerOrdering o, int maxIterations, long deadlineNanos)
+    {
+        long best = count(o);
+        LayerOrdering bestOrder = o.copy();
+        int stalled = 0;
+
+        for(iterations = 0; iterations < maxIterations && best > 0 && stalled < STALL_LIMIT; iterations++)
+        {
+            if(System.nanoTime() > deadlineNanos || Thread.currentThread().isInterrupted())
+            {
+                timedOut = true;
+                break;
+            }
+
+            sweep(o, true);
+            sweep(o, false);
+
+            long crossings = count(o);
+            if(crossings < best)
+            {
+                best = crossings;
+                bestOrder.copyFrom(o);
+                stalled = 0;
+            }
+            else stalled++;
+        }
+
+        o.copyFrom(bestOrder);
+        return best;
+    }
+
+    long count(LayerOrdering o)
+    {
+        return countPool == null ? counter.total(o) : CrossingCounter.totalParallel(g, o, countPool);
+    }
+
+    /* Shuffles every layer of o, to start a restart from somewhere else.
+     */
+    static void shuffle(LayerOrdering o, SplittableRandom rng)
+    {
+        for(int[] layer : o.layers)
+        {
+            for(int i = layer.length - 1; i > 0; i--)
+            {
+                int j = rng.nextInt(i + 1);
+                int t = layer[i]; layer[i] = layer[j]; layer[j] = t;
+            }
+            for(int i = 0; i < layer.length; i++)
+                o.pos[layer[i]] = i;
+        }
+    }
+
+    /* Reorders every layer once, top to bottom if down, else bottom to top.
+     */
+    void sweep(LayerOrdering o, boolean down)
+    {
+        if(down)
+            for(int l = 1; l < g.layerCount; l++)
+                reorder(o, l, true);
+        else
+            for(int l = g.layerCount - 2; l >= 0; l--)
+                reorder(o, l, false);
+    }
+
+    /* Sorts layer l by the positions of its neighbours in the fixed layer next to it.
+     * Vertices without neighbours there keep their current position as key.
+     * @param byUpper as true to use the layer above, false the layer below
+     */
+    void reorder(LayerOrdering o, int l, boolean byUpper)
+    {
+        int[] layer = o.layers[l];
+        int[] off = byUpper ? g.upOff : g.downOff;
+        int[] adj = byUpper ? g.up : g.down;
+
+        for(int v : layer)
+        {
+            int start = off[v], end = off[v + 1];
+            if(start == end)
+                key[v] = o.pos[v];
+            else if(heuristic == OptimizerSettings.Heuristic.MEDIAN)
+                key[v] = median(o, adj, start, end);
+            else
+            {
+                long sum = 0;
+                for(int e = start; e < end; e++)
+                    sum += o.pos[adj[e]];
+                key[v] = (double) sum / (end - start);
+            }
+        }
+
+        sortByKey(layer);
+        for(int i = 0; i < layer.length; i++)
+            o.pos[layer[i]] = i;
+    }
+
+    /* Weighted median of neighbour positions, as in Gansner et al.
+     * With an even count, leans towards the side whose positions are packed closer.
+     */
+    private double median(LayerOrdering o, int[] adj, int start, int end)
+    {
+        int n = end - start;
+        if(positions.length < n) positions = new int[Math.max(n, positions.length << 1)];
+        for(int i = 0; i < n; i++)
+            positions[i] = o.pos[adj[start + i]];
+        Arrays.sort(positions, 0, n);
+
+        int m = n / 2;
+        if(n % 2 == 1) return positions[m];
+        if(n == 2) return (positions[0] + positions[1]) / 2.0;
+
+        double left = positions[m - 1] - positions[0];
+        double right = positions[n - 1] - positions[m];
+        if(left + right == 0) return (positions[m - 1] + positions[m]) / 2.0;
+        return (positions[m - 1] * right + positions[m] * left) / (left + right);
+    }
+
+    /* Stable bottom-up merge sort of layer by key, so ties keep their current order.
+     */
+    private void sortByKey(int[] layer)
+    {
+        int n = layer.length;
+        if(tmp.length < n) tmp = new int[Math.max(n, tmp.length << 1)];
+
+        int[] src = layer, dst = tmp;
+        for(int width = 1; width < n; width <<= 1)
+        {
+            for(int lo = 0; lo < n; lo += width << 1)
+            {
+                int mid = Math.min(lo + width, n), hi = Math.min(lo + (width << 1), n);
+                int i = lo, j = mid, k = lo;
+                while(i < mid && j < hi)
+                    dst[k++] = key[src[j]] < key[src[i]] ? src[j++] : src[i++];
+                while(i < mid) dst[k++] = src[i++];
+                while(j < hi) dst[k++] = src[j++];
+            }
+            int[] t = src; src = dst; dst = t;
+        }
+        if(src != layer)
+            System.arraycopy(src, 0, layer, 0, n);
+    }
+}
@@ -0,0 +1,321 @@
+package com.jokodub.flowcharter.logic;
+
+import java.util.Arrays;
+
+import com.jokodub.flowcharter.model.classes.IntList;
+
+/* Edge concentration for a LayeredGraph being built.
+ *
+ * Where every vertex of a set U in one layer points at every vertex of a set W in the next,
+ * the |U| x |W| segments between them are replaced by a junction: an invisible vertex in a
+ * layer of its own between the two, with |U| segments in and |W| out. Whatever went from U
+ * to W still does, through the junction, so reachability is unchanged.
+ *
+ * Such bicliques are found as twins, one pair of layers at a time:
+ *  1. vertices of the lower layer with exactly the same parents,
+ *  2. then, over the segments left, vertices of the upper layer with exactly the same children.
+ * Twins are grouped by sorting on a hash of their neighbour lists, comparing lists in full
+ * within a run of equal hashes. Only nodes of the chart take part, so every junction joins
+ * chart nodes, never dummies, and a renderer can draw it as such (see ChartCoordinates).
+ *
+ * A junction layer also puts a dummy on every other segment crossing it, so a pair of layers
+ * is only concentrated when that saves more segments than it adds.
+ * O(V log V + E), the log being for sorting candidates by hash.
+ */
+final class EdgeConcentrator
+{
+    // === Instance Variables ===
+
+    final int layerCount; //Including the junction layers added
+    final int junctionCount;
+
+    private final IntList layerOf, segUpper, segLower;
+    private final int realCount;
+    private final int[] upOff, upSeg; //Per vertex, segments up to its parents, in order of parent
+    private final int[] downOff, downSeg; //Per vertex, segments down to its children, in order of child
+    private final int[] biclique; //Per segment, the biclique it is in, or -1
+
+    private int bicliques;
+    private final IntList bicliqueGap = new IntList();
+
+    //Scratch for grouping twins
+    private long[] keys = new long[16];
+    private final IntList lists = new IntList(); //Distinct neighbours of each candidate, back to back
+    private int[] listOff = new int[16];
+    private int[] listOf; //Candidate -> index into listOff
+    private final IntList group = new IntList();
+
+    // === Constructors ===
+
+    /* Concentrates the segments (segUpper[i], segLower[i]) between adjacent layers, in place:
+     * layerOf is renumbered for the junction layers and grows by the dummies and junctions
+     * added, junctions last, and the segments are rewritten to match.
+     */
+    EdgeConcentrator(IntList layerOf, IntList segUpper, IntList segLower, int layerCount, int realCount)
+    {
+        this.layerOf = layerOf;
+        this.segUpper = segUpper;
+        this.segLower = segLower;
+        this.realCount = realCount;
+
+        int vertices = layerOf.size(), segments = segUpper.size();
+        upOff = new int[vertices + 1];
+        downOff = new int[vertices + 1];
+        upSeg = bySegmentEnd(segLower, segUpper, upOff);
+        downSeg = bySegmentEnd(segUpper, segLower, downOff);
+        biclique = new int[segments];
+        Arrays.fill(biclique, -1);
+        listOf = new int[vertices];
+
+        //Vertices of each layer
+        int[] layerOff = new int[layerCount + 1];
+        for(int v = 0; v < vertices; v++)
+            layerOff[layerOf.get(v) + 1]++;
+        for(int l = 0; l < layerCount; l++)
+            layerOff[l + 1] += layerOff[l];
+        int[] fill = Arrays.copyOf(layerOff, layerCount);
+        int[] byLayer = new int[vertices];
+        for(int v = 0; v < vertices; v++)
+            byLayer[fill[layerOf.get(v)]++] = v;
+
+        boolean[] concentrated = new boolean[layerCount];
+        int added = 0;
+        for(int l = 0; l + 1 < layerCount; l++)
+        {
+            int first = bicliques;
+            long saved = twins(byLayer, layerOff[l + 1], layerOff[l + 2], upOff, upSeg, segUpper, l);
+            saved += twins(byLayer, layerOff[l], layerOff[l + 1], downOff, downSeg, segLower, l);
+            if(bicliques == first) continue;
+
+            //Every segment across left alone gains a dummy in the junction layer
+            for(int i = layerOff[l]; i < layerOff[l + 1]; i++)
+            {
+                int u = byLayer[i];
+                for(int k = downOff[u]; k < downOff[u + 1]; k++)
+                    if(biclique[downSeg[k]] < 0) saved--;
+            }
+            if(saved > 0)
+            {
+                concentrated[l] = true;
+                added++;
+                continue;
+            }
+
+            for(int i = layerOff[l]; i < layerOff[l + 1]; i++)
+            {
+                int u = byLayer[i];
+                for(int k = downOff[u]; k < downOff[u + 1]; k++)
+                    biclique[downSeg[k]] = -1;
+            }
+            bicliques = first;
+            bicliqueGap.truncate(first);
+        }
+
+        this.layerCount = layerCount + added;
+        junctionCount = bicliques;
+        if(added > 0) rewrite(concentrated, layerCount);
+    }
+
+    // === Steps ===
+
+    /* Groups the vertices byLayer[from .. to) by their neighbours on one side, over segments
+     * not yet in a biclique, and makes a biclique of every group worth one.
+     * @param off, seg as the side's segments per vertex, sorted by the vertex at the other end
+     * @param other as the vertex at the other end of each segment
+     * @return segments saved by the bicliques made
+     */
+    private long twins(int[] byLayer, int from, int to, int[] off, int[] seg, IntList other, int gap)
+    {
+        if(keys.length < to - from) keys = new long[Math.max(to - from, keys.length << 1)];
+        if(listOff.length < to - from + 1) listOff = new int[Math.max(to - from + 1, listOff.length << 1)];
+        lists.clear();
+
+        //Distinct neighbours of each candidate, and their hash
+        int candidates = 0;
+        for(int i = from; i < to; i++)
+        {
+            int v = byLayer[i];
+            if(v >= realCount) continue;
+
+            int start = lists.size(), hash = 1;
+            boolean real = true;
+            for(int k = off[v]; k < off[v + 1] && real; k++)
+            {
+                if(biclique[seg[k]] >= 0) continue;
+                int w = other.get(seg[k]);
+                real = w < realCount;
+                if(lists.size() > start && lists.peek() == w) continue; //Parallel segments
+                lists.add(w);
+                hash = 31 * hash + w;
+            }
+            if(!real || lists.size() - start < 2)
+            {
+                lists.truncate(start);
+                continue;
+            }
+            listOff[candidates] = start;
+            listOf[v] = candidates;
+            keys[candidates++] = (long) hash << 32 | v;
+            listOff[candidates] = lists.size();
+        }
+        Arrays.sort(keys, 0, candidates);
+
+        //Runs of equal hashes, split into groups of equal lists
+        long saved = 0;
+        for(int i = 0; i < candidates; )
+        {
+            int end = i + 1;
+            while(end < candidates && (keys[end] >>> 32) == (keys[i] >>> 32)) end++;
+            for(int a = i; a < end; a++)
+            {
+                int v = (int) keys[a];
+                if(v < 0) continue; //Already grouped
+                group.clear();
+                group.add(v);
+                for(int b = a + 1; b < end; b++)
+                {
+                    int w = (int) keys[b];
+                    if(w >= 0 && sameList(listOf[v], listOf[w]))
+                    {
+                        group.add(w);
+                        keys[b] |= 0xFFFFFFFFL; //Marks it grouped, as vertex -1
+                    }
+                }
+                saved += makeBiclique(off, seg, gap, listOff[listOf[v] + 1] - listOff[listOf[v]]);
+            }
+            i = end;
+        }
+        return saved;
+    }
+
+    /* Makes a biclique of the vertices in group and the shared neighbours they have,
+     * if it saves anything: |U| x |W| segments become |U| + |W|.
+     * @return segments saved
+     */
+    private long makeBiclique(int[] off, int[] seg, int gap, int shared)
+    {
+        long size = group.size();
+        long saved = size * shared - size - shared;
+        if(size < 2 || saved <= 0) return 0;
+
+        for(int i = 0; i < group.size(); i++)
+        {
+            int v = group.get(i);
+            for(int k = off[v]; k < off[v + 1]; k++)
+                if(biclique[seg[k]] < 0) biclique[seg[k]] = bicliques;
+        }
+        bicliqueGap.add(gap);
+        bicliques++;
+        return saved;
+    }
+
+    /* Moves every layer below a concentrated gap down to make room, then rewrites the segments:
+     * others across a concentrated gap go through a dummy, bicliques through their junction.
+     */
+    private void rewrite(boolean[] concentrated, int oldLayers)
+    {
+        int[] shift = new int[oldLayers];
+        for(int l = 1; l < oldLayers; l++)
+            shift[l] = shift[l - 1] + (concentrated[l - 1] ? 1 : 0);
+        int vertices = layerOf.size(), segments = segUpper.size();
+        int[] oldLayer = layerOf.toArray();
+        for(int v = 0; v < vertices; v++)
+            layerOf.set(v, oldLayer[v] + shift[oldLayer[v]]);
+
+        int[] upper = segUpper.toArray(), lower = segLower.toArray();
+        segUpper.clear();
+        segLower.clear();
+        for(int e = 0; e < segments; e++)
+        {
+            int a = upper[e], b = lower[e];
+            if(biclique[e] >= 0) continue;
+            if(concentrated[oldLayer[a]])
+            {
+                int dummy = layerOf.size();
+                layerOf.add(layerOf.get(a) + 1);
+                add(a, dummy);
+                add(dummy, b);
+            }
+            else
+                add(a, b);
+        }
+
+        //Junctions last, each joined once to every distinct vertex above and below
+        int[] segOff = new int[bicliques + 1];
+        for(int e = 0; e < segments; e++)
+            if(biclique[e] >= 0) segOff[biclique[e] + 1]++;
+        for(int b = 0; b < bicliques; b++)
+            segOff[b + 1] += segOff[b];
+        int[] fill = Arrays.copyOf(segOff, bicliques);
+        int[] members = new int[segOff[bicliques]];
+        for(int e = 0; e < segments; e++)
+            if(biclique[e] >= 0) members[fill[biclique[e]]++] = e;
+
+        int[] seenUp = new int[vertices], seenDown = new int[vertices];
+        for(int b = 0; b < bicliques; b++)
+        {
+            int junction = layerOf.size();
+            int gap = bicliqueGap.get(b);
+            layerOf.add(gap + shift[gap] + 1);
+            for(int k = segOff[b]; k < segOff[b + 1]; k++)
+            {
+                int e = members[k];
+                if(seenUp[upper[e]] != b + 1)
+                {
+                    seenUp[upper[e]] = b + 1;
+                    add(upper[e], junction);
+                }
+                if(seenDown[lower[e]] != b + 1)
+                {
+                    seenDown[lower[e]] = b + 1;
+                    add(junction, lower[e]);
+                }
+            }
+        }
+    }
+
+    // === Helpers ===
+
+    private void add(int upper, int lower)
+    {
+        segUpper.add(upper);
+        segLower.add(lower);
+    }
+
+    private boolean sameList(int a, int b)
+    {
+        int from = listOff[a], length = listOff[a + 1] - from;
+        if(listOff[b + 1] - listOff[b] != length) return false;
+        for(int i = 0; i < length; i++)
+            if(lists.get(from + i) != lists.get(listOff[b] + i)) return false;
+        return true;
+    }
+
+    /* Segment ids grouped by their vertex at one end, each group sorted by the vertex at the other.
+     * @param off as array of length (vertices + 1) to receive the offsets
+     */
+    private static int[] bySegmentEnd(IntList end, IntList other, int[] off)
+    {
+        int segments = end.size();
+        for(int e = 0; e < segments; e++)
+            off[end.get(e) + 1]++;
+        for(int v = 1; v < off.length; v++)
+            off[v] += off[v - 1];
+
+        //Counting sort by the other end first, so that each group comes out sorted
+        int[] otherOff = new int[off.length];
+        for(int e = 0; e < segments; e++)
+            otherOff[other.get(e) + 1]++;
+        for(int v = 1; v < otherOff.length; v++)
+            otherOff[v] += otherOff[v - 1];
+        int[] byOther = new int[segments];
+        for(int e = 0; e < segments; e++)
+            byOther[otherOff[other.get(e)]++] = e;
+
+        int[] fill = Arrays.copyOf(off, off.length - 1);
+        int[] seg = new int[segments];
+        for(int e : byOther)
+            seg[fill[end.get(e)]++] = e;
+        return seg;
+    }
+}
@@ -0,0 +1,67 @@
+package com.jokodub.flowcharter.logic;
+
+import com.jokodub.flowcharter.model.classes.Flowchart;
+import com.jokodub.flowcharter.model.classes.IntList;
+import com.jokodub.flowcharter.model.classes.Node;
+
+/* The edges FlowchartUtils.reduceTransitively took out of a Flowchart, each of which
+ * could still be followed some longer way round when it was removed.
+ * Kept as Nodes, so they can be drawn faintly or put back after further edits.
+ */
+public final class EdgeReduction
+{
+    // === Instance Variables ===
+
+    private final Node[] sources, targets;
+    private final int components;
+    private final long elapsedNanos;
+
+    // === Constructors ===
+
+    EdgeReduction(Node[] sources, Node[] targets, int components, long elapsedNanos)
+    {
+        this.sources = sources;
+        this.targets = targets;
+        this.components = components;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    // === Get-Set ===
+
+    public int size() { return sources.length; }
+    public Node getSource(int i) { return sources[i]; }
+    public Node getTarget(int i) { return targets[i]; }
+
+    /* Strongly connected components of the chart, nodes on a cycle sharing one.
+     */
+    public int getComponents() { return components; }
+    public long getElapsedNanos() { return elapsedNanos; }
+
+    // === Restoring ===
+
+    /* Puts every removed edge back into f as one step, skipping those whose ends are gone.
+     */
+    public void restore(Flowchart f)
+    {
+        f.atomically(() ->
+        {
+            IntList src = new IntList(sources.length), dest = new IntList(sources.length);
+            for(int i = 0; i < sources.length; i++)
+            {
+                int s = f.slotOf(sources[i]), d = f.slotOf(targets[i]);
+                if(s < 0 || d < 0) continue;
+                src.add(s);
+                dest.add(d);
+            }
+            f.addEdgesAt(src, dest);
+            return null;
+        });
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Redundant edges: " + sources.length + ", components: " + components
+             + " (" + (elapsedNanos / 1_000_000) + " ms)";
+    }
+}
@@ -0,0 +1,193 @@
+package com.jokodub.flowcharter.logic;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.jokodub.flowcharter.model.classes.*;
+
+/* Collects many nodes and edges, then places them into a Flowchart in one pass.
+ *
+ * Committing gives the same chart as calling FlowchartUtils.insertNode for each node
+ * in the order added, with its parents as the inbound set and an empty outbound set.
+ * Instead of reconciling top, bottom and heights after every node, it:
+ *  - attaches top to nodes with no parent and bottom to nodes with no child,
+ *  - assigns each height as the longest path from top (parents are always placed first).
+ *
+ * Parents may be nodes already in the Flowchart or earlier nodes of the batch.
+ * An edge to an earlier node of the batch closes a loop. It is kept, but as with a
+ * back edge, it neither shapes heights nor stands in for top and bottom.
+ */
+public class FlowchartBatch
+{
+    // === Instance Variables ===
+
+    private final Flowchart f;
+    private final List<Node> nodes;
+    private final Set<Node> pending; //Nodes of this batch, for validation
+    private final List<Node> edgeSources;
+    private final List<Node> edgeTargets;
+
+    // === Constructors ===
+
+    public FlowchartBatch(Flowchart f)
+    {
+        this.f = f;
+        nodes = new ArrayList<>();
+        pending = new HashSet<>();
+        edgeSources = new ArrayList<>();
+        edgeTargets = new ArrayList<>();
+    }
+
+    // === Get-Set ===
+
+    public Flowchart getFlowchart() { return f; }
+    public int size() { return nodes.size(); }
+
+    // === Batch Methods ===
+
+    /* Queues a node to be inserted. Order matters: a node's parents must come before it.
+     * @param n as node not yet in the Flowchart or this batch
+     */
+    public FlowchartBatch addNode(Node n)
+    {
+        if(f.containsNode(n) || !pending.add(n))
+            throw new IllegalArgumentException("Node " + n + " is already placed");
+
+        nodes.add(n);
+        return this;
+    }
+
+    /* Queues a node along with the edges from each of its parents.
+     * @param n as node not yet in the Flowchart or this batch
+     * @param parents as nodes that will point to n
+     */
+    public FlowchartBatch addNode(Node n, Set<Node> parents)
+    {
+        addNode(n);
+        for(Node p : parents)
+            addEdge(p, n);
+        return this;
+    }
+
+    /* Queues an edge. The destination must belong to this batch,
+     * edits to nodes already placed go through FlowchartUtils.insertNode.
+     * @param src as node in the batch or in the Flowchart
+     * @param dest as node in the batch
+     */
+    public FlowchartBatch addEdge(Node src, Node dest)
+    {
+        if(!pending.contains(dest))
+            throw new IllegalArgumentException("Edge must end at a node of this batch, not " + dest);
+        if(!pending.contains(src) && !f.containsNode(src))
+            throw new IllegalArgumentException("Node " + src + " is not part of " + f.getTitle() + " or this batch");
+
+        edgeSources.add(src);
+        edgeTargets.add(dest);
+        return this;
+    }
+
+    /* Places every queued node and edge into the Flowchart, then empties the batch.
+     * Runs in O(nodes + edges) plus one rebuild of the adjacency arrays.
+     */
+    public void commit()
+    {
+        f.atomically(() -> { place(); return null; });
+    }
+
+    private void place()
+    {
+        if(nodes.isEmpty()) return;
+
+        int[] slots = f.registerAll(nodes);
+
+        //order[slot] is the 1-based position in this batch, 0 for nodes placed before
+        int[] order = new int[f.slotLimit()];
+        for(int i = 0; i < slots.length; i++)
+            order[slots[i]] = i + 1;
+
+        IntList src = new IntList(edgeSources.size());
+        IntList dest = new IntList(edgeSources.size());
+        for(int i = 0; i < edgeSources.size(); i++)
+        {
+            src.add(f.slotOf(edgeSources.get(i)));
+            dest.add(f.slotOf(edgeTargets.get(i)));
+        }
+        f.addEdgesAt(src, dest);
+
+        //Every parent comes before its child, so batch order is already topological
+        int top = f.slotOf(f.getTop());
+        int bottom = f.slotOf(f.getBottom());
+        IntList sentinelSrc = new IntList();
+        IntList sentinelDest = new IntList();
+        IntList buf = new IntList();
+        boolean anyRoot = false;
+        int deepest = 0;
+
+        for(int i = 0; i < slots.length; i++)
+        {
+            int s = slots[i];
+
+            //Height = max height of parents + 1
+            int max = Integer.MIN_VALUE;
+            buf.clear();
+            f.neighboursAt(Relation.INBOUND, s, buf);
+            for(int j = 0; j < buf.size(); j++)
+            {
+                int p = buf.get(j);
+                if(order[p] < order[s] && f.heightAt(p) > max)
+                    max = f.heightAt(p);
+            }
+
+            if(max == Integer.MIN_VALUE) //No parents, so newNode is a root
+            {
+                sentinelSrc.add(top);
+                sentinelDest.add(s);
+                max = f.heightAt(top);
+                anyRoot = true;
+            }
+            f.setHeightAt(s, max + 1);
+            deepest = Math.max(deepest, max + 1);
+
+            //A node without children of its own is a leaf
+            boolean leaf = true;
+            buf.clear();
+            f.neighboursAt(Relation.OUTBOUND, s, buf);
+            for(int j = 0; j < buf.size() && leaf; j++)
+                if(order[buf.get(j)] > order[s])
+                    leaf = false;
+
+            if(leaf)
+            {
+                sentinelSrc.add(s);
+                sentinelDest.add(bottom);
+            }
+        }
+        f.addEdgesAt(sentinelSrc, sentinelDest);
+
+        //Parents placed before the batch can't be connected to bottom anymore
+        for(int i = 0; i < src.size(); i++)
+        {
+            int p = src.get(i);
+            if(order[p] == 0)
+            {
+                f.removeEdge(f.nodeAt(p), f.getBottom());
+                order[p] = -1; //Handled, parents with many children are only visited once
+            }
+        }
+
+        //Top only pointed straight at bottom while the chart was empty
+        if(anyRoot)
+            f.removeEdge(f.getTop(), f.getBottom());
+
+        //Keep bottom below everything
+        if(f.heightAt(bottom) <= deepest)
+            f.updateHeight(f.getBottom(), deepest - f.heightAt(bottom) + 1, new HashSet<>(), false);
+
+        nodes.clear();
+        pending.clear();
+        edgeSources.clear();
+        edgeTargets.clear();
+    }
+}
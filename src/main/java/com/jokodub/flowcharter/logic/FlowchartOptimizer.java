@@ -1,25 +1,210 @@
 package com.jokodub.flowcharter.logic;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
 import com.jokodub.flowcharter.model.classes.*;
 
 public class FlowchartOptimizer {
-    
+
+    //Used as a library, disallow instances
+    private FlowchartOptimizer(){}
+
     /* Optimizes the Flowchart for visual clarity.
      * Attempts to minimize the crossing lines and maximimize convergent lines
      * Will condense height where it can, but won't smash entire layers together
      * @param f as Flowchart to operate on
      */
-    public static void optimize(Flowchart f)
+    public static OptimizerResult optimize(Flowchart f)
     {
+        return optimize(f, new OptimizerSettings());
+    }
 
+    /* Lays the Flowchart out in layers (Sugiyama style) and writes the result back
+     * through setHeight and setRank:
+     *  - cycles are broken by reversing a small set of edges,
+     *  - heights come from longest path layering, keeping height-linked nodes level,
+     *    with empty layers removed,
+     *  - ranks come from barycenter or median sweeps that minimize crossing lines,
+     *    where long edges are routed through invisible dummy nodes,
+     *  - optionally, parents sharing the same children are joined to them through one
+     *    invisible junction node rather than an edge per pair,
+     *  - if settings has a ChartCoordinates, x and y positions follow from the ranks.
+     * Top stays at height 0 and bottom goes just below the last layer.
+     * @param f as Flowchart to operate on
+     * @param settings as time budget, iteration cap and heuristic to use
+     */
+    public static OptimizerResult optimize(Flowchart f, OptimizerSettings settings)
+    {
+        long start = FlowchartMetrics.start();
+        OptimizerResult result = f.atomically(() -> layout(f, settings));
+        FlowchartMetrics.stop(Metric.OPTIMIZE_NANOS, start);
+        return result;
     }
 
-    //Minimize crosses
-    //may involve Rearrange horizontally
+    private static OptimizerResult layout(Flowchart f, OptimizerSettings settings)
+    {
+        long start = System.nanoTime();
+
+        long phase = FlowchartMetrics.start();
+        LayeredGraph g = LayeredGraph.build(f, settings.isConcentrateEdges());
+        LayerOrdering o = LayerOrdering.initial(g);
+        FlowchartMetrics.stop(Metric.LAYERING_NANOS, phase);
+        phase = FlowchartMetrics.start();
+        long deadline = System.nanoTime() + settings.getTimeBudgetMillis() * 1_000_000L;
+
+        //Minimize crosses by rearranging horizontally
+        ForkJoinPool pool = settings.getParallelism() > 1 ? new ForkJoinPool(settings.getParallelism()) : null;
+        long before, after;
+        int iterations;
+        boolean timedOut;
+        try
+        {
+            if(settings.getRestarts() == 1)
+            {
+                CrossingReducer reducer = new CrossingReducer(g, settings.getHeuristic(), pool);
+                before = reducer.count(o);
+                after = reducer.reduce(o, settings.getMaxIterations(), deadline);
+                iterations = reducer.getIterations();
+                timedOut = reducer.isTimedOut();
+            }
+            else
+            {
+                before = new CrossingCounter(g).total(o);
+                List<Restart> runs = new ArrayList<>();
+                for(int r = 0; r < settings.getRestarts(); r++)
+                    runs.add(new Restart(g, o, r, settings, deadline));
 
-    //Connect similar parents with invisible intermediate node, same with children
+                if(pool != null)
+                    pool.invokeAll(runs);
+                else
+                    for(Restart run : runs) run.call();
 
-    //Remove gaps in height
+                //Fewest crossings wins, earliest run on ties, whatever order they finished in
+                Restart best = runs.get(0);
+                iterations = 0;
+                timedOut = false;
+                for(Restart run : runs)
+                {
+                    if(run.crossings < best.crossings) best = run;
+                    iterations += run.iterations;
+                    timedOut |= run.timedOut;
+                }
+                o.copyFrom(best.ordering);
+                after = best.crossings;
+            }
+        }
+        finally
+        {
+            if(pool != null) pool.shutdown();
+        }
+        FlowchartMetrics.stop(Metric.CROSSING_NANOS, phase);
 
-    
+        phase = FlowchartMetrics.start();
+        apply(f, g, o);
+        f.drainDirty(null); //Whole chart is laid out now
+        FlowchartMetrics.stop(Metric.APPLY_NANOS, phase);
+
+        if(settings.getCoordinates() != null)
+        {
+            phase = FlowchartMetrics.start();
+            CoordinateAssigner.run(g, o, settings.getCoordinates());
+            FlowchartMetrics.stop(Metric.COORDINATES_NANOS, phase);
+        }
+
+        return new OptimizerResult(g.layerCount, g.dummyCount(), g.reversedEdges, g.junctionCount,
+                                   g.unconcentratedSegments, g.segmentCount(), before, after,
+                                   iterations, timedOut, System.nanoTime() - start);
+    }
+
+    /* Re-optimizes only the layers touched by edits since the last optimization
+     * (and the layers next to them), leaving ranks everywhere else untouched.
+     * Falls back to a full optimize when a large share of the chart is dirty.
+     * @param f as Flowchart to operate on
+     */
+    public static OptimizerResult optimizeIncremental(Flowchart f)
+    {
+        return optimizeIncremental(f, new OptimizerSettings());
+    }
+
+    public static OptimizerResult optimizeIncremental(Flowchart f, OptimizerSettings settings)
+    {
+        long start = FlowchartMetrics.start();
+        OptimizerResult result = f.atomically(() -> IncrementalLayout.run(f, settings));
+        FlowchartMetrics.stop(Metric.INCREMENTAL_NANOS, start);
+        return result;
+    }
+
+    /* Removes gaps in height without a full layout, in one sweep down the chart:
+     * every node is pulled up to just below its lowest parent above it,
+     * keeping height-linked nodes level. Ranks are left as they are.
+     * Runs in O(nodes + edges), see HeightCompactor.
+     * @param f as Flowchart to operate on
+     * @return how many nodes changed height
+     */
+    public static int compactHeights(Flowchart f)
+    {
+        return f.atomically(() -> HeightCompactor.run(f));
+    }
+
+    /* Writes layers as heights (starting at 1) and each real node's place in its layer as rank.
+     */
+    static void apply(Flowchart f, LayeredGraph g, LayerOrdering o)
+    {
+        for(int l = 0; l < g.layerCount; l++)
+        {
+            int rank = 0;
+            for(int v : o.layers[l])
+            {
+                if(g.isDummy(v)) continue;
+                f.setHeightAt(g.slotOf[v], l + 1);
+                f.setRankAt(g.slotOf[v], rank++);
+            }
+        }
+
+        f.setHeight(f.getTop(), 0);
+        f.setRank(f.getTop(), 0);
+        f.setHeight(f.getBottom(), g.realCount == 0 ? 1 : g.layerCount + 1);
+        f.setRank(f.getBottom(), 0);
+    }
+
+    /* One crossing reduction run, from the given ordering (run 0) or a seeded shuffle of it.
+     */
+    private static final class Restart implements Callable<Restart>
+    {
+        private final LayeredGraph g;
+        private final OptimizerSettings settings;
+        private final long deadline;
+        private final int index;
+        private final LayerOrdering ordering;
+
+        private long crossings;
+        private int iterations;
+        private boolean timedOut;
+
+        Restart(LayeredGraph g, LayerOrdering start, int index, OptimizerSettings settings, long deadline)
+        {
+            this.g = g;
+            this.settings = settings;
+            this.deadline = deadline;
+            this.index = index;
+            this.ordering = start.copy();
+        }
+
+        @Override
+        public Restart call()
+        {
+            if(index > 0)
+                CrossingReducer.shuffle(ordering, new SplittableRandom(settings.getSeed() * 1_000_003L + index));
+
+            CrossingReducer reducer = new CrossingReducer(g, settings.getHeuristic());
+            crossings = reducer.reduce(ordering, settings.getMaxIterations(), deadline);
+            iterations = reducer.getIterations();
+            timedOut = reducer.isTimedOut();
+            return this;
+        }
+    }
 }
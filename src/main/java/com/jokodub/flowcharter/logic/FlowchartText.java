@@ -0,0 +1,1141 @@
+package com.jokodub.flowcharter.logic;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.jokodub.flowcharter.model.classes.*;
+
+/* Text formats other tools read and write: Graphviz DOT, Mermaid flowcharts and CSV edge lists.
+ *
+ * Writing streams the chart out node by node through a fixed size buffer. Nodes go in id order,
+ * which is creation order, and each node's relations in the order of their targets, so the same
+ * chart always gives the same text and later nodes only add lines at the end.
+ * Nodes are named n0, n1, ... in that order, with their names as labels. Top and bottom,
+ * and the edges that only exist to reach them, are left out.
+ *  - DOT:     n0 [label="a"];  n0 -> n1;  links as [dir=none, style=dashed], mentions as [style=dotted]
+ *  - Mermaid: n0["a"]  n0 --> n1;  links as -.-, mentions as -.->, the title as front matter
+ *  - CSV:     source,target,kind rows, kind being edge, link or mention. Nodes are known by name
+ *             (n<i> when they have none), and a node with no relations is a row of its own.
+ *             Nodes sharing a name come back as one.
+ *
+ * Reading goes through the text a buffer at a time, one statement in memory at once,
+ * collecting nodes and relations into int lists. The chart is then built in one bulk load:
+ * nodes go into a FlowchartBatch in topological order (ties and cycles in order of appearance),
+ * which gives every node its height, then links and mentions are added.
+ * Reading accepts the common subset of each format: DOT node, edge, attribute and subgraph
+ * statements with quoted, HTML and concatenated strings; Mermaid node shapes, chains, & groups
+ * and link texts; quoted CSV fields. Undirected DOT or Mermaid edges come in as edges
+ * in the order written, only dir=none and dotted lines without an arrow as links.
+ * Malformed input throws an IOException naming the line.
+ */
+public final class FlowchartText
+{
+    // === Instance Variables ===
+
+    public enum Format { DOT, MERMAID, CSV }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int EDGE = 0, LINK = 1, MENTION = 2;
+    private static final String[] KINDS = { "edge", "link", "mention" };
+
+    //Used as a library, disallow instances
+    private FlowchartText(){}
+
+    // === Write ===
+
+    /* Writes f to out in format. Flushes but does not close out.
+     * Edits from other threads wait until the whole chart is written.
+     */
+    public static void write(Flowchart f, Format format, Writer out) throws IOException
+    {
+        Writer w = new BufferedWriter(out, BUFFER_SIZE);
+        IOException failed = f.atomically(() ->
+        {
+            try
+            {
+                new Emitter(f, format, w).emit();
+                w.flush();
+                return null;
+            }
+            catch(IOException e)
+            {
+                return e;
+            }
+        });
+        if(failed != null) throw failed;
+    }
+
+    /* Writes one chart, holding only an index per slot beyond the output buffer.
+     */
+    private static final class Emitter
+    {
+        private final Flowchart f;
+        private final Format format;
+        private final Writer out;
+        private final int top, bottom;
+        private final int[] order; //Real slots in id order
+        private final int[] index; //Place of each slot in order, -1 for top, bottom and free slots
+        private final boolean[] named; //CSV nodes written so far
+        private final IntList buf = new IntList();
+
+        Emitter(Flowchart f, Format format, Writer out)
+        {
+            this.f = f;
+            this.format = format;
+            this.out = out;
+            top = f.slotOf(f.getTop());
+            bottom = f.slotOf(f.getBottom());
+
+            long[] keys = new long[f.nodeCount()];
+            int n = 0;
+            for(int s = 0; s < f.slotLimit(); s++)
+                if(f.nodeAt(s) != null && s != top && s != bottom)
+                    keys[n++] = (long) f.nodeAt(s).getId() << 32 | s;
+            Arrays.sort(keys, 0, n);
+
+            order = new int[n];
+            index = new int[f.slotLimit()];
+            Arrays.fill(index, -1);
+            for(int i = 0; i < n; i++)
+            {
+                order[i] = (int) keys[i];
+                index[order[i]] = i;
+            }
+            named = format == Format.CSV ? new boolean[n] : null;
+        }
+
+        void emit() throws IOException
+        {
+            switch(format)
+            {
+                case DOT:
+                    out.write("digraph ");
+                    out.write(dotString(f.getTitle()));
+                    out.write(" {\n");
+                    break;
+                case MERMAID:
+                    out.write("---\ntitle: ");
+                    out.write(yamlString(f.getTitle()));
+                    out.write("\n---\nflowchart TD\n");
+                    break;
+                default:
+                    out.write("source,target,kind\n");
+                    break;
+            }
+
+            if(format != Format.CSV)
+                for(int i = 0; i < order.length; i++)
+                    node(i);
+
+            for(int i = 0; i < order.length; i++)
+            {
+                relations(i, Relation.OUTBOUND, EDGE);
+                relations(i, Relation.LINK, LINK);
+                relations(i, Relation.MENTION, MENTION);
+            }
+
+            if(format == Format.DOT)
+                out.write("}\n");
+            else if(format == Format.CSV)
+                for(int i = 0; i < order.length; i++)
+                    if(!named[i])
+                    {
+                        out.write(csvField(csvName(i)));
+                        out.write(",,\n");
+                    }
+        }
+
+        private void node(int i) throws IOException
+        {
+            String name = f.nodeAt(order[i]).getName();
+            out.write("    ");
+            id(i);
+            if(format == Format.DOT)
+            {
+                out.write(" [label=");
+                out.write(dotString(name));
+                out.write("];\n");
+            }
+            else
+            {
+                out.write("[\"");
+                out.write(mermaidText(name));
+                out.write("\"]\n");
+            }
+        }
+
+        /* Writes i's relations of kind r, by target index. Links are written once, from the lower index.
+         */
+        private void relations(int i, Relation r, int kind) throws IOException
+        {
+            buf.clear();
+            f.neighboursAt(r, order[i], buf);
+            int n = 0;
+            for(int k = 0; k < buf.size(); k++)
+            {
+                int t = index[buf.get(k)];
+                if(t < 0 || (kind == LINK && t < i)) continue;
+                buf.set(n++, t);
+            }
+            buf.truncate(n);
+            int[] targets = buf.toArray();
+            Arrays.sort(targets);
+
+            for(int t : targets)
+            {
+                switch(format)
+                {
+                    case DOT:
+                        out.write("    ");
+                        id(i);
+                        out.write(" -> ");
+                        id(t);
+                        out.write(kind == EDGE ? ";\n" : kind == LINK ? " [dir=none, style=dashed];\n" : " [style=dotted];\n");
+                        break;
+                    case MERMAID:
+                        out.write("    ");
+                        id(i);
+                        out.write(kind == EDGE ? " --> " : kind == LINK ? " -.- " : " -.-> ");
+                        id(t);
+                        out.write('\n');
+                        break;
+                    default:
+                        out.write(csvField(csvName(i)));
+                        out.write(',');
+                        out.write(csvField(csvName(t)));
+                        out.write(',');
+                        out.write(KINDS[kind]);
+                        out.write('\n');
+                        named[i] = named[t] = true;
+                        break;
+                }
+            }
+        }
+
+        private void id(int i) throws IOException
+        {
+            out.write('n');
+            out.write(Integer.toString(i));
+        }
+
+        private String csvName(int i)
+        {
+            String name = f.nodeAt(order[i]).getName();
+            return name == null || name.isEmpty() ? "n" + i : name;
+        }
+    }
+
+    private static String dotString(String s)
+    {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for(int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if(c == '"' || c == '\\') sb.append('\\').append(c);
+            else if(c == '\n') sb.append("\\n");
+            else if(c != '\r') sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    private static String yamlString(String s)
+    {
+        return dotString(s); //Same escapes in a double quoted YAML scalar
+    }
+
+    /* Mermaid has no escapes inside quotes, only entity codes.
+     */
+    private static String mermaidText(String s)
+    {
+        StringBuilder sb = new StringBuilder(s.length());
+        for(int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if(c == '"') sb.append("#quot;");
+            else if(c == '#' || c < ' ') sb.append('#').append((int) c).append(';');
+            else sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static String csvField(String s)
+    {
+        boolean quote = s.isEmpty() || s.charAt(0) == ' ' || s.charAt(s.length() - 1) == ' ';
+        for(int i = 0; i < s.length() && !quote; i++)
+        {
+            char c = s.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        return quote ? '"' + s.replace("\"", "\"\"") + '"' : s;
+    }
+
+    // === Read ===
+
+    /* Reads a chart written in format from in. Does not close in.
+     */
+    public static Flowchart read(Reader in, Format format) throws IOException
+    {
+        Builder b = new Builder();
+        Source src = new Source(in);
+        switch(format)
+        {
+            case DOT: new DotParser(src, b).parse(); break;
+            case MERMAID: new MermaidParser(src, b).parse(); break;
+            default: new CsvParser(src, b).parse(); break;
+        }
+        return b.build();
+    }
+
+    /* Nodes and relations as read, in order of appearance.
+     */
+    private static final class Builder
+    {
+        String title = "Flowchart";
+        final Map<String, Integer> ids = new HashMap<>();
+        final List<String> names = new ArrayList<>();
+        final IntList src = new IntList(), dest = new IntList(), kinds = new IntList();
+
+        int node(String id)
+        {
+            Integer i = ids.get(id);
+            if(i != null) return i;
+            ids.put(id, names.size());
+            names.add(id);
+            return names.size() - 1;
+        }
+
+        void label(int i, String name) { names.set(i, name); }
+
+        void relate(int a, int b, int kind)
+        {
+            src.add(a);
+            dest.add(b);
+            kinds.add(kind);
+        }
+
+        Flowchart build()
+        {
+            Flowchart f = new Flowchart(title);
+            int n = names.size();
+            Node[] nodes = new Node[n];
+            for(int i = 0; i < n; i++)
+                nodes[i] = f.newNode(names.get(i));
+
+            //Edges as CSR for a topological order, so parents are placed before their children
+            int[] off = new int[n + 1];
+            int[] indegree = new int[n];
+            for(int e = 0; e < kinds.size(); e++)
+                if(kinds.get(e) == EDGE)
+                {
+                    off[src.get(e) + 1]++;
+                    if(src.get(e) != dest.get(e)) indegree[dest.get(e)]++;
+                }
+            for(int i = 0; i < n; i++)
+                off[i + 1] += off[i];
+            int[] fill = Arrays.copyOf(off, n);
+            int[] children = new int[off[n]];
+            for(int e = 0; e < kinds.size(); e++)
+                if(kinds.get(e) == EDGE)
+                    children[fill[src.get(e)]++] = dest.get(e);
+
+            FlowchartBatch batch = new FlowchartBatch(f);
+            int[] queue = new int[n];
+            boolean[] placed = new boolean[n];
+            int head = 0, tail = 0, next = 0;
+            for(int i = 0; i < n; i++)
+                if(indegree[i] == 0)
+                {
+                    placed[i] = true;
+                    queue[tail++] = i;
+                }
+            while(head < n)
+            {
+                if(head == tail)
+                {
+                    //Nothing free, so the earliest node left is on a cycle (or below one)
+                    while(placed[next]) next++;
+                    placed[next] = true;
+                    queue[tail++] = next;
+                }
+                int v = queue[head++];
+                batch.addNode(nodes[v]);
+                for(int k = off[v]; k < off[v + 1]; k++)
+                {
+                    int c = children[k];
+                    if(c != v && --indegree[c] == 0 && !placed[c])
+                    {
+                        placed[c] = true;
+                        queue[tail++] = c;
+                    }
+                }
+            }
+            for(int e = 0; e < kinds.size(); e++)
+                if(kinds.get(e) == EDGE)
+                    batch.addEdge(nodes[src.get(e)], nodes[dest.get(e)]);
+
+            f.atomically(() ->
+            {
+                batch.commit();
+                for(int e = 0; e < kinds.size(); e++)
+                {
+                    Node a = nodes[src.get(e)], b = nodes[dest.get(e)];
+                    if(kinds.get(e) == LINK && a != b) f.addLink(a, b);
+                    else if(kinds.get(e) == MENTION) f.addMention(a, b);
+                }
+                return null;
+            });
+            return f;
+        }
+    }
+
+    /* Characters of a Reader a buffer at a time, counting lines for errors.
+     */
+    private static final class Source
+    {
+        private final Reader in;
+        private final char[] buf = new char[BUFFER_SIZE];
+        private int pos, end;
+        private int line = 1;
+        private boolean inLine; //readLine leaves the newline, so errors name the line being parsed
+
+        Source(Reader in) { this.in = in; }
+
+        int peek() throws IOException
+        {
+            if(pos == end)
+            {
+                end = in.read(buf, 0, buf.length);
+                pos = 0;
+                if(end <= 0)
+                {
+                    end = 0;
+                    return -1;
+                }
+            }
+            return buf[pos];
+        }
+
+        int read() throws IOException
+        {
+            int c = peek();
+            if(c >= 0)
+            {
+                pos++;
+                if(c == '\n') line++;
+            }
+            return c;
+        }
+
+        /* Next line without its terminator, or null at the end.
+         */
+        String readLine(StringBuilder sb) throws IOException
+        {
+            sb.setLength(0);
+            if(inLine && peek() == '\n') read();
+            inLine = true;
+            if(peek() < 0) return null;
+            for(int c = peek(); c >= 0 && c != '\n'; c = peek())
+            {
+                read();
+                if(c != '\r') sb.append((char) c);
+            }
+            return sb.toString();
+        }
+
+        int line() { return line; }
+
+        IOException error(String message) { return error(line, message); }
+
+        IOException error(int line, String message)
+        {
+            return new IOException("Line " + line + ": " + message);
+        }
+    }
+
+    // === DOT ===
+
+    private static final class DotParser
+    {
+        private static final int EOF = -1, ID = -2, ARROW = -3, DASH = -4;
+
+        private final Source in;
+        private final Builder b;
+        private int type; //One of the above or the punctuation char itself
+        private String text;
+        private boolean quoted; //Last ID was a string, so never a keyword
+        private final StringBuilder sb = new StringBuilder();
+        private final IntList from = new IntList(), to = new IntList(), pairs = new IntList();
+        private final Map<String, String> attrs = new HashMap<>();
+
+        DotParser(Source in, Builder b)
+        {
+            this.in = in;
+            this.b = b;
+        }
+
+        void parse() throws IOException
+        {
+            next();
+            if(isKeyword("strict")) next();
+            if(!isKeyword("graph") && !isKeyword("digraph")) throw in.error("expected graph or digraph");
+            next();
+            if(type == ID)
+            {
+                b.title = text;
+                next();
+            }
+            expect('{');
+
+            int depth = 1;
+            while(depth > 0)
+            {
+                switch(type)
+                {
+                    case EOF: throw in.error("missing }");
+                    case '}': depth--; next(); break;
+                    case '{': depth++; next(); break;
+                    case ';':
+                    case ',': next(); break;
+                    case ID:
+                        if(isKeyword("subgraph"))
+                        {
+                            next();
+                            if(type == ID) next();
+                        }
+                        else if(isKeyword("graph") || isKeyword("node") || isKeyword("edge"))
+                        {
+                            next();
+                            while(type == '[') attributes();
+                        }
+                        else statement();
+                        break;
+                    default: throw in.error("unexpected " + describe());
+                }
+            }
+        }
+
+        /* A node, edge chain or graph attribute statement, from its first ID.
+         */
+        private void statement() throws IOException
+        {
+            String first = text;
+            next();
+            if(type == '=')
+            {
+                next();
+                if(type != ID) throw in.error("expected a value");
+                next();
+                return;
+            }
+
+            from.clear();
+            from.add(b.node(first));
+            skipPort();
+            pairs.clear();
+            while(type == ARROW || type == DASH)
+            {
+                next();
+                to.clear();
+                if(type == ID && !isKeyword("subgraph"))
+                {
+                    to.add(b.node(text));
+                    next();
+                    skipPort();
+                }
+                else
+                {
+                    if(type == ID) next(); //subgraph and its name
+                    if(type == ID) next();
+                    expect('{');
+                    while(type != '}')
+                    {
+                        if(type == ID) to.add(b.node(text));
+                        else if(type != ';' && type != ',') throw in.error("unexpected " + describe() + " in edge target");
+                        next();
+                    }
+                    next();
+                }
+                for(int i = 0; i < from.size(); i++)
+                    for(int j = 0; j < to.size(); j++)
+                    {
+                        pairs.add(from.get(i));
+                        pairs.add(to.get(j));
+                    }
+                from.clear();
+                for(int j = 0; j < to.size(); j++)
+                    from.add(to.get(j));
+            }
+
+            attrs.clear();
+            while(type == '[') attributes();
+            if(pairs.isEmpty())
+            {
+                String label = attrs.get("label");
+                if(label != null) b.label(b.node(first), label);
+                return;
+            }
+
+            String style = attrs.getOrDefault("style", "");
+            int kind = "none".equals(attrs.get("dir")) ? LINK : style.contains("dotted") ? MENTION : EDGE;
+            for(int i = 0; i < pairs.size(); i += 2)
+                b.relate(pairs.get(i), pairs.get(i + 1), kind);
+        }
+
+        private void skipPort() throws IOException
+        {
+            while(type == ':')
+            {
+                next();
+                if(type != ID) throw in.error("expected a port");
+                next();
+            }
+        }
+
+        /* [key = value, ...] into attrs, lower case keys.
+         */
+        private void attributes() throws IOException
+        {
+            next();
+            while(type != ']')
+            {
+                if(type == ';' || type == ',')
+                {
+                    next();
+                    continue;
+                }
+                if(type != ID) throw in.error("unexpected " + describe() + " in attributes");
+                String key = text.toLowerCase();
+                next();
+                String value = "true";
+                if(type == '=')
+                {
+                    next();
+                    if(type != ID) throw in.error("expected a value for " + key);
+                    value = text;
+                    next();
+                }
+                attrs.put(key, value);
+            }
+            next();
+        }
+
+        private boolean isKeyword(String k) { return type == ID && !quoted && text.equalsIgnoreCase(k); }
+
+        private void expect(int c) throws IOException
+        {
+            if(type != c) throw in.error("expected " + (char) c + " but found " + describe());
+            next();
+        }
+
+        private String describe()
+        {
+            switch(type)
+            {
+                case EOF: return "end of input";
+                case ID: return "'" + text + "'";
+                case ARROW: return "->";
+                case DASH: return "--";
+                default: return "'" + (char) type + "'";
+            }
+        }
+
+        private void next() throws IOException
+        {
+            skipSpace();
+            quoted = false;
+            int c = in.peek();
+            if(c < 0)
+            {
+                type = EOF;
+                return;
+            }
+            if(c == '"')
+            {
+                sb.setLength(0);
+                quotedString();
+                skipSpace();
+                while(in.peek() == '+') //"a" + "b"
+                {
+                    in.read();
+                    skipSpace();
+                    if(in.peek() != '"') throw in.error("expected a string after +");
+                    quotedString();
+                    skipSpace();
+                }
+                type = ID;
+                quoted = true;
+                text = sb.toString();
+                return;
+            }
+            if(c == '<')
+            {
+                in.read();
+                sb.setLength(0);
+                int depth = 1;
+                while(true)
+                {
+                    int h = in.read();
+                    if(h < 0) throw in.error("unclosed <");
+                    if(h == '<') depth++;
+                    else if(h == '>' && --depth == 0) break;
+                    sb.append((char) h);
+                }
+                type = ID;
+                quoted = true;
+                text = sb.toString();
+                return;
+            }
+            if(c == '-')
+            {
+                in.read();
+                int d = in.peek();
+                if(d == '>' || d == '-')
+                {
+                    in.read();
+                    type = d == '>' ? ARROW : DASH;
+                    return;
+                }
+                sb.setLength(0);
+                sb.append('-');
+                bare();
+                return;
+            }
+            if(isIdChar(c))
+            {
+                sb.setLength(0);
+                bare();
+                return;
+            }
+            in.read();
+            type = c;
+        }
+
+        private void bare() throws IOException
+        {
+            while(isIdChar(in.peek()))
+                sb.append((char) in.read());
+            if(sb.length() == 1 && sb.charAt(0) == '-') throw in.error("stray -");
+            type = ID;
+            text = sb.toString();
+        }
+
+        private static boolean isIdChar(int c)
+        {
+            return c == '_' || c == '.' || c >= 128 || Character.isLetterOrDigit(c);
+        }
+
+        private void quotedString() throws IOException
+        {
+            in.read();
+            while(true)
+            {
+                int c = in.read();
+                if(c < 0) throw in.error("unclosed string");
+                if(c == '"') return;
+                if(c != '\\')
+                {
+                    sb.append((char) c);
+                    continue;
+                }
+                int e = in.read();
+                if(e == '"' || e == '\\') sb.append((char) e);
+                else if(e == 'n') sb.append('\n');
+                else if(e == '\n') continue; //Line continued
+                else if(e >= 0) sb.append('\\').append((char) e);
+            }
+        }
+
+        private void skipSpace() throws IOException
+        {
+            while(true)
+            {
+                int c = in.peek();
+                if(c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f')
+                    in.read();
+                else if(c == '#')
+                    skipLine();
+                else if(c == '/')
+                {
+                    in.read();
+                    int d = in.read();
+                    if(d == '/') skipLine();
+                    else if(d == '*')
+                    {
+                        int prev = 0;
+                        while(true)
+                        {
+                            int e = in.read();
+                            if(e < 0) throw in.error("unclosed comment");
+                            if(prev == '*' && e == '/') break;
+                            prev = e;
+                        }
+                    }
+                    else throw in.error("stray /");
+                }
+                else return;
+            }
+        }
+
+        private void skipLine() throws IOException
+        {
+            int c;
+            do c = in.read(); while(c >= 0 && c != '\n');
+        }
+    }
+
+    // === Mermaid ===
+
+    private static final class MermaidParser
+    {
+        //A link, or the second half of one whose text sits in the middle ("-- text -->")
+        private static final Pattern LINK_END = Pattern.compile("<?[-.=]{2,}[>ox]?(?=[\\s\\w\"])|<?[-.=]*[-=]>");
+        private static final String SKIPPED = "|flowchart|graph|subgraph|end|classdef|class|style|linkstyle|click|direction|";
+
+        private final Source in;
+        private final Builder b;
+        private final StringBuilder sb = new StringBuilder();
+        private final IntList left = new IntList(), right = new IntList();
+        private final Matcher links = LINK_END.matcher("");
+        private String line;
+        private int at;
+
+        MermaidParser(Source in, Builder b)
+        {
+            this.in = in;
+            this.b = b;
+        }
+
+        void parse() throws IOException
+        {
+            boolean first = true;
+            for(String raw = in.readLine(sb); raw != null; raw = in.readLine(sb))
+            {
+                String l = raw.trim();
+                if(first && l.equals("---"))
+                {
+                    frontMatter();
+                    first = false;
+                    continue;
+                }
+                if(!l.isEmpty()) first = false;
+                while(l.endsWith(";")) l = l.substring(0, l.length() - 1).trim();
+                if(l.isEmpty() || l.startsWith("%%")) continue;
+
+                int space = 0;
+                while(space < l.length() && !Character.isWhitespace(l.charAt(space))) space++;
+                if(SKIPPED.contains("|" + l.substring(0, space).toLowerCase() + "|")) continue;
+                statement(l);
+            }
+        }
+
+        private void frontMatter() throws IOException
+        {
+            for(String raw = in.readLine(sb); raw != null; raw = in.readLine(sb))
+            {
+                String l = raw.trim();
+                if(l.equals("---")) return;
+                if(l.startsWith("title:")) b.title = unquote(l.substring(6).trim());
+            }
+            throw in.error("unclosed front matter");
+        }
+
+        private static String unquote(String s)
+        {
+            if(s.length() < 2 || s.charAt(0) != '"' || s.charAt(s.length() - 1) != '"') return s;
+            StringBuilder sb = new StringBuilder();
+            for(int i = 1; i < s.length() - 1; i++)
+            {
+                char c = s.charAt(i);
+                if(c == '\\' && i + 1 < s.length() - 1)
+                {
+                    char e = s.charAt(++i);
+                    sb.append(e == 'n' ? '\n' : e);
+                }
+                else sb.append(c);
+            }
+            return sb.toString();
+        }
+
+        /* A node, or a chain of node groups joined by links.
+         */
+        private void statement(String l) throws IOException
+        {
+            line = l;
+            at = 0;
+            links.reset(l);
+            group(left);
+            while(skipSpace())
+            {
+                int kind = link();
+                group(right);
+                for(int i = 0; i < left.size(); i++)
+                    for(int j = 0; j < right.size(); j++)
+                    {
+                        b.relate(left.get(i), right.get(j), kind);
+                        if(kind == -EDGE - 1) b.relate(right.get(j), left.get(i), EDGE);
+                    }
+                left.clear();
+                for(int j = 0; j < right.size(); j++)
+                    left.add(right.get(j));
+            }
+        }
+
+        /* Nodes joined with &, into dst.
+         */
+        private void group(IntList dst) throws IOException
+        {
+            dst.clear();
+            while(true)
+            {
+                skipSpace();
+                dst.add(node());
+                skipSpace();
+                if(at == line.length() || line.charAt(at) != '&') return;
+                at++;
+            }
+        }
+
+        private int node() throws IOException
+        {
+            int start = at;
+            while(at < line.length())
+            {
+                char c = line.charAt(at);
+                if(Character.isWhitespace(c) || "[({>&|;".indexOf(c) >= 0 || startsLink(at)) break;
+                if(c == ':' && line.startsWith(":::", at)) break;
+                at++;
+            }
+            if(at == start) throw in.error("expected a node in '" + line + "'");
+            int i = b.node(line.substring(start, at));
+
+            skipClass();
+            if(at < line.length() && "[({>".indexOf(line.charAt(at)) >= 0)
+                b.label(i, shape());
+            skipClass();
+            return i;
+        }
+
+        /* Skips a :::class shorthand.
+         */
+        private void skipClass()
+        {
+            if(!line.startsWith(":::", at)) return;
+            at += 3;
+            while(at < line.length() && !Character.isWhitespace(line.charAt(at)) && "[({>&".indexOf(line.charAt(at)) < 0
+                    && !startsLink(at))
+                at++;
+        }
+
+        /* The label inside a node shape such as [a], (a), ((a)), {a}, [/a/], >a] or ["a"].
+         */
+        private String shape() throws IOException
+        {
+            int open = 0;
+            if(line.charAt(at) == '>')
+            {
+                at++;
+                open = 1;
+            }
+            else
+                while(at < line.length() && "[({/\\".indexOf(line.charAt(at)) >= 0 && open < 3)
+                {
+                    at++;
+                    open++;
+                }
+
+            String label;
+            if(at < line.length() && line.charAt(at) == '"')
+            {
+                int close = line.indexOf('"', at + 1);
+                if(close < 0) throw in.error("unclosed label in '" + line + "'");
+                label = line.substring(at + 1, close);
+                at = close + 1;
+            }
+            else
+            {
+                int start = at;
+                while(at < line.length() && "])}".indexOf(line.charAt(at)) < 0) at++;
+                int end = at;
+                while(end > start && (line.charAt(end - 1) == '/' || line.charAt(end - 1) == '\\')) end--;
+                label = line.substring(start, end).trim();
+            }
+            for(int closed = 0; closed < open && at < line.length() && "])}/\\".indexOf(line.charAt(at)) >= 0; )
+            {
+                if("])}".indexOf(line.charAt(at)) >= 0) closed++;
+                at++;
+            }
+            return entities(label);
+        }
+
+        /* Reads a link and any text on it.
+         * @return its kind, or -EDGE - 1 for an edge both ways
+         */
+        private int link() throws IOException
+        {
+            Matcher m = links.region(at, line.length());
+            if(!m.lookingAt()) throw in.error("expected a link in '" + line + "'");
+            String op = m.group();
+            at = m.end();
+
+            //"-- text -->": the link so far is only its start
+            String start = op.startsWith("<") ? op.substring(1) : op;
+            if((start.equals("--") || start.equals("==") || start.equals("-.")) && skipSpace() && !line.startsWith("|", at))
+            {
+                m.region(at, line.length());
+                if(!m.find()) throw in.error("unclosed link text in '" + line + "'");
+                op = op + m.group();
+                at = m.end();
+            }
+            skipSpace();
+            if(at < line.length() && line.charAt(at) == '|')
+            {
+                int close = line.indexOf('|', at + 1);
+                if(close < 0) throw in.error("unclosed link text in '" + line + "'");
+                at = close + 1;
+            }
+
+            boolean arrow = op.endsWith(">");
+            if(op.contains(".")) return arrow ? MENTION : LINK;
+            if(arrow && op.startsWith("<")) return -EDGE - 1;
+            return EDGE;
+        }
+
+        private boolean startsLink(int i)
+        {
+            return line.startsWith("--", i) || line.startsWith("==", i) || line.startsWith("-.", i)
+                    || line.startsWith("<-", i) || line.startsWith("<=", i);
+        }
+
+        /* Skips whitespace, @return whether anything is left
+         */
+        private boolean skipSpace()
+        {
+            while(at < line.length() && Character.isWhitespace(line.charAt(at))) at++;
+            return at < line.length();
+        }
+
+        private static String entities(String s)
+        {
+            if(s.indexOf('#') < 0) return s;
+            StringBuilder sb = new StringBuilder(s.length());
+            for(int i = 0; i < s.length(); i++)
+            {
+                char c = s.charAt(i);
+                int semi = c == '#' ? s.indexOf(';', i) : -1;
+                if(semi < 0)
+                {
+                    sb.append(c);
+                    continue;
+                }
+                String code = s.substring(i + 1, semi);
+                switch(code)
+                {
+                    case "quot": sb.append('"'); break;
+                    case "amp": sb.append('&'); break;
+                    case "lt": sb.append('<'); break;
+                    case "gt": sb.append('>'); break;
+                    case "nbsp": sb.append(' '); break;
+                    default:
+                        if(!code.matches("\\d{1,6}"))
+                        {
+                            sb.append(c);
+                            continue;
+                        }
+                        sb.appendCodePoint(Integer.parseInt(code));
+                        break;
+                }
+                i = semi;
+            }
+            return sb.toString();
+        }
+    }
+
+    // === CSV ===
+
+    private static final class CsvParser
+    {
+        private final Source in;
+        private final Builder b;
+        private final List<String> fields = new ArrayList<>();
+        private final StringBuilder sb = new StringBuilder();
+
+        CsvParser(Source in, Builder b)
+        {
+            this.in = in;
+            this.b = b;
+        }
+
+        void parse() throws IOException
+        {
+            boolean first = true;
+            for(int line = in.line(); record(); line = in.line())
+            {
+                if(fields.size() == 1 && fields.get(0).isEmpty()) continue; //Blank line
+                if(first && fields.get(0).equalsIgnoreCase("source"))
+                {
+                    first = false;
+                    continue;
+                }
+                first = false;
+
+                int a = b.node(fields.get(0));
+                String target = fields.size() > 1 ? fields.get(1) : "";
+                if(target.isEmpty()) continue;
+
+                String kind = fields.size() > 2 ? fields.get(2).trim().toLowerCase() : "";
+                int k = kind.isEmpty() ? EDGE : Arrays.asList(KINDS).indexOf(kind);
+                if(k < 0) throw in.error(line, "unknown kind " + fields.get(2));
+                b.relate(a, b.node(target), k);
+            }
+        }
+
+        /* Reads the next record into fields.
+         * @return false at the end of input
+         */
+        private boolean record() throws IOException
+        {
+            fields.clear();
+            if(in.peek() < 0) return false;
+            while(true)
+            {
+                sb.setLength(0);
+                int c = in.peek();
+                if(c == '"')
+                {
+                    in.read();
+                    while(true)
+                    {
+                        c = in.read();
+                        if(c < 0) throw in.error("unclosed quote");
+                        if(c == '"')
+                        {
+                            if(in.peek() != '"') break;
+                            in.read();
+                        }
+                        sb.append((char) c);
+                    }
+                    c = in.peek();
+                    if(c >= 0 && c != ',' && c != '\n' && c != '\r') throw in.error("text after a quoted field");
+                }
+                else
+                    while((c = in.peek()) >= 0 && c != ',' && c != '\n' && c != '\r')
+                        sb.append((char) in.read());
+                fields.add(sb.toString());
+
+                c = in.read();
+                if(c == ',') continue;
+                if(c == '\r' && in.peek() == '\n') in.read();
+                return true;
+            }
+        }
+    }
+}
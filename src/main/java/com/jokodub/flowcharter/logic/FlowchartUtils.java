@@ -1,6 +1,10 @@
 package com.jokodub.flowcharter.logic;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import com.jokodub.flowcharter.model.classes.*;
 
@@ -19,6 +23,13 @@ public class FlowchartUtils
      * @param out as Set of nodes this node will point to
      */
     public static void insertNode(Flowchart f, Node newNode, Set<Node> in, Set<Node> out)
+    {
+        long start = FlowchartMetrics.start();
+        f.atomically(() -> { insert(f, newNode, in, out); return null; });
+        FlowchartMetrics.stop(Metric.INSERT_NANOS, start);
+    }
+
+    private static void insert(Flowchart f, Node newNode, Set<Node> in, Set<Node> out)
     {
         Node top = f.getTop();
         Node bottom = f.getBottom();
@@ -65,10 +76,12 @@ public class FlowchartUtils
          *
          * If newNode has some downstream nodes (that don't immediately point to newNode),
          * we cannot guarantee bottom was not disconnected later in the chain (ex. loop of 3 nodes).
-         * Recursively DFS the tree for bottom is unfortunately the only way I can resolve it.
+         * Recursively DFS the tree for bottom is unfortunately the only way I can resolve it,
+         * unless the chart keeps its reachability index, which answers it without walking.
          * 
          * Vice versa with top references downstream of newNode. 
          */
+        Reachability reach = f.hasReachability() ? f.reachability() : null;
 
         //Remove top and bottom from sets to skip unnecessary recursion
         Set<Node> uniqueOuts = uniqueOutboundSet(f, newNode);
@@ -81,9 +94,9 @@ public class FlowchartUtils
             f.addEdge(newNode, bottom);
             out.add(bottom); 
         }
-        else if(bottomDisconnectFlag) //Guarantee bottom exists somewhere downstream
+        else if(bottomDisconnectFlag && !reaches(reach, f, newNode, bottom)) //Guarantee bottom exists somewhere downstream
         {
-            System.out.println("DFS");
+            FlowchartMetrics.record(Metric.DFS_FALLBACKS, 1);
             bottomConnector(f, newNode);
         }
 
@@ -92,9 +105,9 @@ public class FlowchartUtils
             f.addEdge(top, newNode);
             in.add(top); 
         }
-        else if(topDisconnectFlag) //Guarantee top exists somewhere upstream
+        else if(topDisconnectFlag && !reaches(reach, f, top, newNode)) //Guarantee top exists somewhere upstream
         {
-            System.out.println("DFS");
+            FlowchartMetrics.record(Metric.DFS_FALLBACKS, 1);
             topConnector(f, newNode);
         }
 
@@ -145,6 +158,14 @@ public class FlowchartUtils
 
     }
 
+    /* Whether the index says a reaches b. Without an index, assumes it doesn't
+     * so the caller walks the chart to make sure.
+     */
+    private static boolean reaches(Reachability reach, Flowchart f, Node a, Node b)
+    {
+        return reach != null && reach.isReachableAt(f.slotOf(a), f.slotOf(b));
+    }
+
     /* Returns the set difference (A - B) between two Sets, defined as:
      * x in A ^ x not in B
      */
@@ -178,101 +199,379 @@ public class FlowchartUtils
         return setDifference(f.getOutboundSet(n), f.getInboundSet(n));
     }
 
-    /*
-     * 
+    /* Walk up a Flowchart from start to find where top is or should be attached.
+     * Follows unique inbounds, taking the first one not yet visited at each step.
+     * If top is not at the end of that chain, then it has been disconnected
+     * so we reattach at that point.
+     * Iterative, so the length of the chain is not limited by the call stack.
      */
     private static void topConnector(Flowchart f, Node start)
     {
-        recTopConnector(f, start, new HashSet<>());
+        int top = f.slotOf(f.getTop());
+
+        try(Traversal t = f.openTraversal())
+        {
+            int cur = f.slotOf(start);
+            while(!f.hasEdgeAt(top, cur)) //Stop once found
+            {
+                int next = firstUnvisitedUnique(f, t, Relation.INBOUND, cur);
+                if(next < 0)
+                {
+                    //Nothing upstream of this node is left, so add the connection here.
+                    //This should happen at the top of the graph, when no more inbounds exist.
+                    f.addEdge(f.getTop(), f.nodeAt(cur));
+                    break;
+                }
+                t.visit(next);
+                cur = next;
+            }
+            FlowchartMetrics.record(Metric.DFS_VISITED, t.visitedOrder().size() + 1);
+        }
     }
 
-    private static boolean recTopConnector(Flowchart f, Node cur, Set<Node> visited)
+    /* Walk down a Flowchart from start to find where bottom is or should be attached.
+     * By only going down the tree (unique outbounds), we get closer to where bottom should be.
+     * If bottom is not at the end of that chain, then it has been disconnected
+     * so we reattach at that point.
+     * Iterative, so the length of the chain is not limited by the call stack.
+     */
+    private static void bottomConnector(Flowchart f, Node start)
     {
-        boolean found = false; //Default to not found the top yet
+        int bottom = f.slotOf(f.getBottom());
 
-        if(f.hasEdge(f.getTop(), cur)) //Base case: found it!
-            return true;
-
-        //Recurse to find bottom (or end of a closed loop)
-        for(Node i : uniqueInboundSet(f, cur))
+        try(Traversal t = f.openTraversal())
         {
-            if(!visited.contains(i)) //Don't recurse to same place twice
+            int cur = f.slotOf(start);
+            while(!f.hasEdgeAt(cur, bottom)) //Stop once found
             {
-                visited.add(i);
-
-                found = recTopConnector(f, i, visited);
-                if(found) break; //Top is connected, we can end our search. 
+                int next = firstUnvisitedUnique(f, t, Relation.OUTBOUND, cur);
+                if(next < 0)
+                {
+                    //Nothing downstream of this node is left, so add the connection here.
+                    //This should happen at the bottom of the tree, when no more outbounds exist.
+                    f.addEdge(f.nodeAt(cur), f.getBottom());
+                    break;
+                }
+                t.visit(next);
+                cur = next;
             }
+            FlowchartMetrics.record(Metric.DFS_VISITED, t.visitedOrder().size() + 1);
         }
-        
-        if(!found)
+    }
+
+    /* Finds the first neighbour of cur in direction r that is not also
+     * a neighbour the other way (unique) and has not been visited yet.
+     * @return its slot, or -1 if there is none
+     */
+    private static int firstUnvisitedUnique(Flowchart f, Traversal t, Relation r, int cur)
+    {
+        IntList candidates = t.neighbours(r, cur);
+        for(int i = 0; i < candidates.size(); i++)
         {
-            //Nothing upstream of this node is connected to top, so add the connection here.
-            //This should happen at the top of the graph, when no more inbounds exist.
-            f.addEdge(f.getTop(), cur);
-            found = true;
+            int c = candidates.get(i);
+            boolean unique = (r == Relation.INBOUND) ? !f.hasEdgeAt(cur, c) : !f.hasEdgeAt(c, cur);
+            if(unique && !t.isVisited(c))
+                return c;
         }
-
-        return found;
+        return -1;
     }
+    
 
-    /* DFS recurse through a Flowchart to find where bottom is or should be attached.
-     * By only going down the tree (unique outbounds), we get closer to where bottom should be.
-     * If bottom is not at the end of that chain, then it has been disconnected
-     * so we reattach at that point.
+    // === Deleting ===
+
+    /* Deletes a node without breaking the flow through it: each of its parents is connected
+     * to each of its children, top and bottom are reattached only to nodes that lost their
+     * way to them, and nodes below it are pulled up to just under their lowest parent.
+     * A parent that was on a cycle through the node keeps it as an edge to itself.
+     * Only the region around the node is visited, see deleteNodes.
+     * @param f as Flowchart to operate on
+     * @param delNode as node to delete, not top or bottom
      */
-    private static void bottomConnector(Flowchart f, Node start)
+    public static void deleteNode(Flowchart f, Node delNode)
     {
-        recBottomConnector(f, start, new HashSet<>());
+        deleteNodes(f, List.of(delNode));
     }
 
-    private static boolean recBottomConnector(Flowchart f, Node cur, Set<Node> visited)
+    /* Deletes many nodes in one pass, as deleteNode would one by one: a parent outside
+     * the deleted nodes is connected to every child outside them it could reach through them.
+     * The chart is rebuilt once and every height repaired once.
+     * Costs the degrees of the deleted nodes, the part of the chart below them whose heights
+     * change, and for each node that lost a parent or child, a search up to top or down to
+     * bottom that stops at the first way found.
+     * @param f as Flowchart to operate on
+     * @param doomed as nodes to delete, not top or bottom, nodes not in f are ignored
+     */
+    public static void deleteNodes(Flowchart f, Collection<Node> doomed)
     {
-        boolean found = false; //Default to not found the bottom yet
+        long start = FlowchartMetrics.start();
+        f.atomically(() -> { delete(f, doomed); return null; });
+        FlowchartMetrics.stop(Metric.DELETE_NANOS, start);
+    }
 
-        if(f.hasEdge(cur, f.getBottom())) //Base case: found it!
-            return true;
+    private static void delete(Flowchart f, Collection<Node> doomed)
+    {
+        int top = f.slotOf(f.getTop());
+        int bottom = f.slotOf(f.getBottom());
+        IntList dead = new IntList(doomed.size());
+        IntList parents = new IntList(), children = new IntList();
+        IntList src = new IntList(), dest = new IntList();
 
-        //Recurse to find bottom (or end of a closed loop)
-        for(Node o : uniqueOutboundSet(f, cur))
+        try(Traversal gone = f.openTraversal(); Traversal up = f.openTraversal(); Traversal down = f.openTraversal())
         {
-            if(!visited.contains(o)) //Don't recurse to same place twice
+            for(Node n : doomed)
             {
-                visited.add(o);
+                int s = f.slotOf(n);
+                if(s == top || s == bottom) throw new IllegalArgumentException("Top and bottom can't be deleted");
+                if(s >= 0 && gone.visit(s)) dead.add(s);
+            }
+            if(dead.isEmpty()) return;
 
-                found = recBottomConnector(f, o, visited);
-                if(found) break; //Bottom is connected, we can end our search. 
+            //Surviving neighbours, each listed once
+            for(int i = 0; i < dead.size(); i++)
+            {
+                IntList in = up.neighbours(Relation.INBOUND, dead.get(i));
+                for(int j = 0; j < in.size(); j++)
+                    if(!gone.isVisited(in.get(j)) && up.visit(in.get(j)))
+                        parents.add(in.get(j));
+
+                IntList out = down.neighbours(Relation.OUTBOUND, dead.get(i));
+                for(int j = 0; j < out.size(); j++)
+                    if(!gone.isVisited(out.get(j)) && down.visit(out.get(j)))
+                        children.add(out.get(j));
+            }
+
+            //Bridge each parent to the children it reaches through deleted nodes
+            for(int i = 0; i < parents.size(); i++)
+            {
+                int p = parents.get(i);
+                if(p != top) bridge(f, gone, p, bottom, src, dest);
             }
         }
 
-        if(!found)
+        if(dead.size() == 1) f.removeNode(f.nodeAt(dead.get(0)));
+        else
         {
-            //Nothing downstream of this node is connected to bottom, so add the connection here.
-            //This should happen at the bottom of the tree, when no more outbounds exist.
-            f.addEdge(cur, f.getBottom());
-            found = true;
+            List<Node> nodes = new ArrayList<>(dead.size());
+            for(int i = 0; i < dead.size(); i++)
+                nodes.add(f.nodeAt(dead.get(i)));
+            f.removeNodes(nodes);
         }
+        f.addEdgesAt(src, dest);
+
+        //Bridges keep most neighbours attached, the rest get top or bottom back.
+        //Parents nearest bottom go first, so those above can reach it through them, and vice versa
+        int[] up = byHeight(f, parents);
+        for(int i = up.length - 1; i >= 0; i--)
+            if(up[i] != top && !reachesSentinel(f, Relation.OUTBOUND, up[i], bottom))
+                f.addEdge(f.nodeAt(up[i]), f.getBottom());
+        for(int c : byHeight(f, children))
+            if(c != bottom && !reachesSentinel(f, Relation.INBOUND, c, top))
+                f.addEdge(f.getTop(), f.nodeAt(c));
+
+        pullUp(f, children);
+    }
 
-        return found;
+    /* @return slots sorted from highest to lowest in the chart (by increasing height)
+     */
+    private static int[] byHeight(Flowchart f, IntList slots)
+    {
+        long[] keys = new long[slots.size()];
+        for(int i = 0; i < keys.length; i++)
+            keys[i] = key(f, slots.get(i));
+        Arrays.sort(keys);
+
+        int[] sorted = new int[keys.length];
+        for(int i = 0; i < keys.length; i++)
+            sorted[i] = (int) keys[i];
+        return sorted;
     }
-    
 
-    /* 
-     * 
+    /* Queues an edge from p to every surviving node it reaches through deleted nodes,
+     * p itself included when it was on a cycle through them.
      */
-    public static void deleteNode(Flowchart f, Node delNode)
+    private static void bridge(Flowchart f, Traversal gone, int p, int bottom, IntList src, IntList dest)
     {
-        
+        try(Traversal t = f.openTraversal())
+        {
+            t.visit(p);
+            t.push(p);
+            boolean looped = f.hasEdgeAt(p, p);
+            while(t.hasPending())
+            {
+                int cur = t.pop();
+                IntList out = t.neighbours(Relation.OUTBOUND, cur);
+                for(int i = 0; i < out.size(); i++)
+                {
+                    int c = out.get(i);
+                    if(c == p && !looped)
+                    {
+                        //Back at p through deleted nodes, which were on a cycle with it
+                        looped = true;
+                        src.add(p);
+                        dest.add(p);
+                    }
+                    if(!t.visit(c)) continue;
+                    if(gone.isVisited(c)) t.push(c); //Keep walking through the deleted
+                    else if(cur != p && c != bottom) //Ends outside, unless it was already a child of p
+                    {
+                        src.add(p);
+                        dest.add(c);
+                    }
+                }
+            }
+        }
     }
 
+    /* Whether the sentinel can be reached from start going in direction r.
+     * Uses the reachability index when kept, else walks and stops at the first way found.
+     */
+    private static boolean reachesSentinel(Flowchart f, Relation r, int start, int sentinel)
+    {
+        if(f.hasReachability())
+        {
+            Reachability reach = f.reachability();
+            return r == Relation.OUTBOUND ? reach.isReachableAt(start, sentinel) : reach.isReachableAt(sentinel, start);
+        }
+
+        try(Traversal t = f.openTraversal())
+        {
+            t.visitAndPush(start);
+            while(t.hasPending())
+            {
+                IntList next = t.neighbours(r, t.pop());
+                for(int i = 0; i < next.size(); i++)
+                {
+                    if(next.get(i) == sentinel) return true;
+                    t.visitAndPush(next.get(i));
+                }
+            }
+        }
+        return false;
+    }
 
-    /*
-     * 
+    /* Lowers nodes that lost a parent to just below their lowest remaining one above them,
+     * then their children in turn, in order of height so each node settles once.
+     * Height-linked nodes move together, and only if none of them is held back.
+     * Stops wherever nothing moves.
+     * @param start as slots that lost a parent
      */
-    public static void swapNodes(Node a, Node b)
+    private static void pullUp(Flowchart f, IntList start)
     {
+        int top = f.slotOf(f.getTop());
+        LongHeap heap = new LongHeap();
+        IntList group = new IntList();
+
+        try(Traversal queued = f.openTraversal(); Traversal t = f.openTraversal())
+        {
+            for(int i = 0; i < start.size(); i++)
+                if(start.get(i) != top && queued.visit(start.get(i)))
+                    heap.push(key(f, start.get(i)));
 
+            while(!heap.isEmpty())
+            {
+                int v = (int) heap.pop();
+                int h = f.heightAt(v);
+
+                //Its link group is level with it, so they are settled together
+                group.clear();
+                f.linkGroupMembersAt(v, group);
+                for(int i = 0; i < group.size(); i++)
+                    queued.visit(group.get(i));
+
+                int need = Integer.MIN_VALUE;
+                for(int i = 0; i < group.size(); i++)
+                {
+                    IntList in = t.neighbours(Relation.INBOUND, group.get(i));
+                    for(int j = 0; j < in.size(); j++)
+                        if(f.heightAt(in.get(j)) < f.heightAt(group.get(i)))
+                            need = Math.max(need, f.heightAt(in.get(j)) + 1);
+                }
+                if(need == Integer.MIN_VALUE || need >= h) continue; //Held in place, so is everything below
+
+                for(int i = 0; i < group.size(); i++)
+                {
+                    int m = group.get(i);
+                    if(f.heightAt(m) > need) f.setHeightAt(m, need);
+                }
+                FlowchartMetrics.record(Metric.HEIGHT_MOVED, group.size());
+
+                for(int i = 0; i < group.size(); i++)
+                {
+                    IntList out = t.neighbours(Relation.OUTBOUND, group.get(i));
+                    for(int j = 0; j < out.size(); j++)
+                    {
+                        int c = out.get(j);
+                        if(f.heightAt(c) > need && queued.visit(c))
+                            heap.push(key(f, c));
+                    }
+                }
+            }
+        }
+    }
+
+    private static long key(Flowchart f, int slot)
+    {
+        return (long) f.heightAt(slot) << 32 | slot;
+    }
+
+    // === Reducing ===
+
+    /* Removes every edge a -> b along which b could also be reached from a some longer way round,
+     * as one step, so nothing stops reaching anything it did. Only edges between strongly
+     * connected components are candidates: edges within a cycle are kept, and of several
+     * edges between the same two components none is removed for the others.
+     * Runs in parallel on every core, see the overload.
+     * @param f as Flowchart to operate on
+     * @return the edges removed, to put back or draw faintly
+     */
+    public static EdgeReduction reduceTransitively(Flowchart f)
+    {
+        return reduceTransitively(f, Runtime.getRuntime().availableProcessors());
+    }
+
+    /* As reduceTransitively(f), on up to parallelism threads. Takes about (V / 64) x E
+     * word operations over the condensation, and 16 MB of bitsets per thread however large
+     * the chart (see TransitiveReducer).
+     */
+    public static EdgeReduction reduceTransitively(Flowchart f, int parallelism)
+    {
+        long start = FlowchartMetrics.start();
+        long begin = System.nanoTime();
+        EdgeReduction removed = f.atomically(() ->
+        {
+            TransitiveReducer reducer = new TransitiveReducer(f);
+            IntList src = new IntList(), dest = new IntList();
+            reducer.reduce(parallelism, src, dest);
+
+            Node[] sources = new Node[src.size()], targets = new Node[src.size()];
+            for(int i = 0; i < sources.length; i++)
+            {
+                sources[i] = f.nodeAt(src.get(i));
+                targets[i] = f.nodeAt(dest.get(i));
+            }
+            f.removeEdgesAt(src, dest);
+            return new EdgeReduction(sources, targets, reducer.components, System.nanoTime() - begin);
+        });
+        FlowchartMetrics.stop(Metric.REDUCE_NANOS, start);
+        return removed;
+    }
+
+    // === Swapping ===
+
+    /* Swaps two nodes in place: each takes over the other's connections, height and rank.
+     * Runs in O(1), or O(degree of both) while the chart records edits.
+     * @param f as Flowchart to operate on
+     * @param a,b as nodes of f, not top or bottom
+     */
+    public static void swapNodes(Flowchart f, Node a, Node b)
+    {
+        f.atomically(() ->
+        {
+            int sa = f.slotOf(a), sb = f.slotOf(b);
+            if(sa < 0 || sb < 0)
+                throw new IllegalArgumentException("Nodes " + a + " and " + b + " must be part of " + f.getTitle());
+            f.swapAt(sa, sb);
+            return null;
+        });
     }
-    
-    
 }
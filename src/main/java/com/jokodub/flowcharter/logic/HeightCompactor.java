@@ -0,0 +1,117 @@
+package com.jokodub.flowcharter.logic;
+
+import java.util.Arrays;
+
+import com.jokodub.flowcharter.model.classes.*;
+
+/* Removes gaps in height and pulls every node up to the tightest layer its parents allow,
+ * without a full layout.
+ *
+ * Link groups move as one, so the sweep works on groups (see Flowchart.linkGroupAt).
+ * Edges are taken to point down when they do so now: sorting groups by their current
+ * height is then a topological order, by a counting sort in linear time. One sweep in that
+ * order puts each group just below its lowest parent group above it, or right under top
+ * if it has none. That is longest path layering, so no layer is left empty.
+ * Edges pointing up or sideways are ignored, as are ranks. Bottom goes under the last layer.
+ *
+ * O(nodes + edges) in all, or O(n log n) to sort heights spread out thinly.
+ */
+final class HeightCompactor
+{
+    //Used as a library, disallow instances
+    private HeightCompactor(){}
+
+    /* @return how many nodes changed height
+     */
+    static int run(Flowchart f)
+    {
+        int limit = f.slotLimit();
+        int top = f.linkGroupAt(f.slotOf(f.getTop()));
+        int bottom = f.linkGroupAt(f.slotOf(f.getBottom()));
+
+        //1. Groups in order of height
+        IntList roots = new IntList();
+        int low = Integer.MAX_VALUE, high = Integer.MIN_VALUE;
+        for(int s = 0; s < limit; s++)
+        {
+            if(f.nodeAt(s) == null || f.linkGroupAt(s) != s) continue;
+            roots.add(s);
+            low = Math.min(low, f.heightAt(s));
+            high = Math.max(high, f.heightAt(s));
+        }
+        int[] order = byHeight(f, roots, low, high);
+
+        //2. One sweep down, each group settling just below its lowest parent group above it
+        int[] level = new int[limit];
+        int deepest = 0;
+        IntList members = new IntList();
+        IntList parents = new IntList();
+        for(int u : order)
+        {
+            if(u == top || u == bottom) continue;
+
+            int h = f.heightAt(u), l = 1;
+            members.clear();
+            f.linkGroupMembersAt(u, members);
+            for(int i = 0; i < members.size(); i++)
+            {
+                parents.clear();
+                f.neighboursAt(Relation.INBOUND, members.get(i), parents);
+                for(int j = 0; j < parents.size(); j++)
+                {
+                    int p = f.linkGroupAt(parents.get(j));
+                    if(p != u && f.heightAt(p) < h)
+                        l = Math.max(l, level[p] + 1);
+                }
+            }
+            level[u] = l;
+            deepest = Math.max(deepest, l);
+        }
+        level[bottom] = deepest + 1;
+
+        //3. Write back only what moved
+        int moved = 0;
+        for(int s = 0; s < limit; s++)
+        {
+            if(f.nodeAt(s) == null) continue;
+            int l = level[f.linkGroupAt(s)];
+            if(f.heightAt(s) != l)
+            {
+                f.setHeightAt(s, l);
+                moved++;
+            }
+        }
+        return moved;
+    }
+
+    /* Sorts slots by height, in [low, high]. Counting sort, unless the heights
+     * are spread much wider than there are slots.
+     */
+    private static int[] byHeight(Flowchart f, IntList slots, int low, int high)
+    {
+        int n = slots.size();
+        int[] sorted = new int[n];
+        long range = (long) high - low + 1;
+        if(n == 0) return sorted;
+
+        if(range > 2L * n + 16)
+        {
+            long[] keys = new long[n];
+            for(int i = 0; i < n; i++)
+                keys[i] = (long) f.heightAt(slots.get(i)) << 32 | slots.get(i);
+            Arrays.sort(keys);
+            for(int i = 0; i < n; i++)
+                sorted[i] = (int) keys[i];
+            return sorted;
+        }
+
+        int[] start = new int[(int) range + 1];
+        for(int i = 0; i < n; i++)
+            start[f.heightAt(slots.get(i)) - low + 1]++;
+        for(int h = 1; h <= range; h++)
+            start[h] += start[h - 1];
+        for(int i = 0; i < n; i++)
+            sorted[start[f.heightAt(slots.get(i)) - low]++] = slots.get(i);
+        return sorted;
+    }
+}
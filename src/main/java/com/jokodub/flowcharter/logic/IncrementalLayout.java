@@ -0,0 +1,309 @@
+package com.jokodub.flowcharter.logic;
+
+import java.util.Arrays;
+
+import com.jokodub.flowcharter.model.classes.*;
+
+/* Re-orders only the layers touched by edits since the last optimization.
+ *
+ * Heights are taken as they are: insertNode, addLink and updateHeight already keep
+ * parents above children as they edit. The layers holding dirty nodes, plus one layer
+ * above and below each, are re-sorted by barycenter sweeps. Every other layer is a fixed
+ * anchor, so ranks elsewhere stay exactly as they were.
+ *
+ * Positions are compared across layers as fractions of the layer's width, since long
+ * edges have no dummies here. Layers are listed and counted through the chart's height
+ * buckets, and working state is kept per member of an affected layer rather than per slot,
+ * so the cost only depends on the size of the affected layers and their neighbours.
+ */
+final class IncrementalLayout
+{
+    // === Instance Variables ===
+
+    //Past this share of dirty nodes, a full optimization is cheaper and better
+    private static final int FULL_LAYOUT_RATIO = 4;
+
+    private final Flowchart f;
+    private final int top, bottom;
+    private final int[] affected; //Sorted heights being re-ordered
+    private final int[][] layers; //Members of each affected height, in order
+    private final int[] members; //Sorted slots of every affected layer, a member being its place here
+    private final int[] index; //Working position of each member in its layer
+    private final double[] key;
+    private final IntList buf = new IntList();
+    private int[] seq = new int[16]; //Scratch for crossing counts
+    private int[] merge = new int[16]; //Scratch for sorting a layer
+
+    // === Constructors ===
+
+    private IncrementalLayout(Flowchart f, IntList dirtySlots)
+    {
+        this.f = f;
+        top = f.slotOf(f.getTop());
+        bottom = f.slotOf(f.getBottom());
+
+        //Heights holding dirty nodes, and their neighbouring heights
+        IntList hs = new IntList();
+        for(int i = 0; i < dirtySlots.size(); i++)
+        {
+            int s = dirtySlots.get(i);
+            if(s == top || s == bottom) continue;
+            int h = f.heightAt(s);
+            hs.add(h - 1);
+            hs.add(h);
+            hs.add(h + 1);
+        }
+        int[] sorted = hs.toArray();
+        Arrays.sort(sorted);
+        int unique = 0;
+        for(int i = 0; i < sorted.length; i++)
+            if(unique == 0 || sorted[unique - 1] != sorted[i])
+                sorted[unique++] = sorted[i];
+        affected = Arrays.copyOf(sorted, unique);
+
+        //Members of each affected layer, straight from the height buckets,
+        //starting from the current ranks with new nodes (rank 0) tie-broken by slot
+        long[][] packed = new long[affected.length][];
+        int total = 0;
+        for(int i = 0; i < affected.length; i++)
+        {
+            buf.clear();
+            f.layerAt(affected[i], buf);
+            long[] layer = new long[buf.size()];
+            int n = 0;
+            for(int k = 0; k < buf.size(); k++)
+            {
+                int s = buf.get(k);
+                if(isLayered(s)) layer[n++] = ((long) f.rankAt(s) << 32) | s;
+            }
+            packed[i] = Arrays.copyOf(layer, n);
+            Arrays.sort(packed[i]);
+            total += n;
+        }
+
+        members = new int[total];
+        for(int i = 0, m = 0; i < affected.length; i++)
+            for(long p : packed[i])
+                members[m++] = (int) p;
+        Arrays.sort(members);
+        index = new int[total];
+        key = new double[total];
+
+        layers = new int[affected.length][];
+        for(int i = 0; i < affected.length; i++)
+        {
+            layers[i] = new int[packed[i].length];
+            for(int k = 0; k < layers[i].length; k++)
+            {
+                int m = memberOf((int) packed[i][k]);
+                layers[i][k] = m;
+                index[m] = k;
+            }
+        }
+    }
+
+    // === Layout Methods ===
+
+    /* Re-orders the layers around dirty nodes, or the whole chart when most of it is dirty.
+     * Clears the dirty marks either way.
+     */
+    static OptimizerResult run(Flowchart f, OptimizerSettings settings)
+    {
+        long start = System.nanoTime();
+
+        IntList dirty = new IntList();
+        f.drainDirty(dirty);
+        if(dirty.isEmpty())
+            return new OptimizerResult(0, 0, 0, 0, 0, 0, false, System.nanoTime() - start);
+        if(dirty.size() * FULL_LAYOUT_RATIO > f.nodeCount())
+            return FlowchartOptimizer.optimize(f, settings);
+
+        IncrementalLayout layout = new IncrementalLayout(f, dirty);
+        long deadline = System.nanoTime() + settings.getTimeBudgetMillis() * 1_000_000L;
+
+        int[][] best = layout.copyLayers();
+        long before = layout.crossings();
+        long bestCrossings = before;
+        int iterations = 0;
+        boolean timedOut = false;
+        for(; iterations < settings.getMaxIterations() && bestCrossings > 0; iterations++)
+        {
+            if(System.nanoTime() > deadline)
+            {
+                timedOut = true;
+                break;
+            }
+
+            layout.sweep(true);
+            layout.sweep(false);
+
+            long crossings = layout.crossings();
+            if(crossings >= bestCrossings) break; //Settled
+            bestCrossings = crossings;
+            best = layout.copyLayers();
+        }
+
+        layout.apply(best);
+        f.drainDirty(null); //Ranks written above are not edits
+
+        return new OptimizerResult(layout.affected.length, 0, 0, before, bestCrossings,
+                                   iterations, timedOut, System.nanoTime() - start);
+    }
+
+    /* Top and bottom sit outside the layers.
+     */
+    private boolean isLayered(int s)
+    {
+        return f.nodeAt(s) != null && s != top && s != bottom;
+    }
+
+    private int memberOf(int s) { return Arrays.binarySearch(members, s); }
+
+    /* Nodes at height h, without top and bottom.
+     */
+    private int widthAt(int h)
+    {
+        int w = f.layerSize(h);
+        if(f.heightAt(top) == h) w--;
+        if(f.heightAt(bottom) == h) w--;
+        return w;
+    }
+
+    /* Horizontal place of s as a fraction of its layer's width.
+     * Affected layers use their working order, the others the stored rank.
+     */
+    private double position(int s)
+    {
+        int h = f.heightAt(s);
+        int i = Arrays.binarySearch(affected, h);
+        if(i >= 0) return (index[memberOf(s)] + 0.5) / layers[i].length;
+        return (f.rankAt(s) + 0.5) / widthAt(h);
+    }
+
+    /* Sorts every affected layer by the barycenter of its neighbours above (down)
+     * or below (up). Nodes without such neighbours keep their place as key.
+     */
+    private void sweep(boolean down)
+    {
+        for(int step = 0; step < layers.length; step++)
+        {
+            int i = down ? step : layers.length - 1 - step;
+            int[] layer = layers[i];
+            int h = affected[i];
+
+            for(int m : layer)
+            {
+                int s = members[m];
+                buf.clear();
+                f.neighboursAt(down ? Relation.INBOUND : Relation.OUTBOUND, s, buf);
+                double sum = 0;
+                int count = 0;
+                for(int k = 0; k < buf.size(); k++)
+                {
+                    int nb = buf.get(k);
+                    if(!isLayered(nb)) continue;
+                    int nh = f.heightAt(nb);
+                    if(down ? nh < h : nh > h)
+                    {
+                        sum += position(nb);
+                        count++;
+                    }
+                }
+                key[m] = count > 0 ? sum / count : (index[m] + 0.5) / layer.length;
+            }
+
+            sortByKey(layer);
+            for(int k = 0; k < layer.length; k++)
+                index[layer[k]] = k;
+        }
+    }
+
+    /* Crossings between consecutive affected heights, over their direct edges.
+     * Same Fenwick tree inversion count as CrossingCounter.
+     */
+    private long crossings()
+    {
+        long total = 0;
+        for(int i = 0; i + 1 < affected.length; i++)
+        {
+            if(affected[i + 1] != affected[i] + 1) continue;
+
+            //Lower ends in order of upper end
+            int edges = 0;
+            for(int m : layers[i])
+            {
+                int start = edges;
+                buf.clear();
+                f.neighboursAt(Relation.OUTBOUND, members[m], buf);
+                for(int k = 0; k < buf.size(); k++)
+                {
+                    int o = buf.get(k);
+                    if(!isLayered(o) || f.heightAt(o) != affected[i + 1]) continue;
+                    if(edges == seq.length) seq = Arrays.copyOf(seq, edges << 1);
+                    seq[edges++] = index[memberOf(o)];
+                }
+                Arrays.sort(seq, start, edges);
+            }
+
+            int n = layers[i + 1].length;
+            int[] tree = new int[n + 1];
+            for(int k = 0; k < edges; k++)
+            {
+                int p = seq[k] + 1;
+                int atOrLeft = 0;
+                for(int j = p; j > 0; j -= j & -j) atOrLeft += tree[j];
+                total += k - atOrLeft;
+                for(int j = p; j <= n; j += j & -j) tree[j]++;
+            }
+        }
+        return total;
+    }
+
+    private int[][] copyLayers()
+    {
+        int[][] copy = new int[layers.length][];
+        for(int i = 0; i < layers.length; i++)
+            copy[i] = layers[i].clone();
+        return copy;
+    }
+
+    private void apply(int[][] order)
+    {
+        int deepest = Integer.MIN_VALUE;
+        for(int i = 0; i < order.length; i++)
+        {
+            for(int k = 0; k < order[i].length; k++)
+                f.setRankAt(members[order[i][k]], k);
+            if(order[i].length > 0) deepest = affected[i];
+        }
+
+        //Keep bottom below everything. Nodes edits pushed past it are dirty, so in an affected layer
+        if(deepest != Integer.MIN_VALUE && f.heightAt(bottom) <= deepest)
+            f.setHeightAt(bottom, deepest + 1);
+    }
+
+    /* Stable merge sort of layer by key, bottom up through the merge scratch.
+     */
+    private void sortByKey(int[] layer)
+    {
+        int n = layer.length;
+        if(merge.length < n) merge = new int[Math.max(n, merge.length << 1)];
+        int[] from = layer, to = merge;
+        for(int run = 1; run < n; run <<= 1)
+        {
+            for(int lo = 0; lo < n; lo += run << 1)
+            {
+                int mid = Math.min(lo + run, n), hi = Math.min(lo + (run << 1), n);
+                int a = lo, b = mid, k = lo;
+                while(a < mid && b < hi)
+                    to[k++] = key[from[b]] < key[from[a]] ? from[b++] : from[a++];
+                while(a < mid) to[k++] = from[a++];
+                while(b < hi) to[k++] = from[b++];
+            }
+            int[] swap = from;
+            from = to;
+            to = swap;
+        }
+        if(from != layer) System.arraycopy(from, 0, layer, 0, n);
+    }
+}
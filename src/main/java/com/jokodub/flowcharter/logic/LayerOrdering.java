@@ -0,0 +1,80 @@
+package com.jokodub.flowcharter.logic;
+
+import java.util.Arrays;
+
+/* The left-to-right order of every layer of a LayeredGraph.
+ * layers[l] lists the vertices of layer l in order, and pos[v] is v's index in its layer.
+ */
+final class LayerOrdering
+{
+    // === Instance Variables ===
+
+    final int[][] layers;
+    final int[] pos;
+
+    // === Constructors ===
+
+    private LayerOrdering(int[][] layers, int[] pos)
+    {
+        this.layers = layers;
+        this.pos = pos;
+    }
+
+    /* Starts from the ranks already stored in the chart, so that repeated
+     * optimisation stays close to the previous picture. Dummies follow the real vertices.
+     */
+    static LayerOrdering initial(LayeredGraph g)
+    {
+        int[] size = new int[g.layerCount];
+        for(int v = 0; v < g.vertexCount; v++)
+            size[g.layerOf[v]]++;
+
+        int[][] layers = new int[g.layerCount][];
+        for(int l = 0; l < g.layerCount; l++)
+            layers[l] = new int[size[l]];
+
+        int[] fill = new int[g.layerCount];
+        for(int v = 0; v < g.vertexCount; v++)
+            layers[g.layerOf[v]][fill[g.layerOf[v]]++] = v;
+
+        //Sort real vertices by (rank, slot), dummies keep creation order after them.
+        //Real vertices were numbered in slot order, so (rank, vertex) packs into one long.
+        int[] pos = new int[g.vertexCount];
+        long[] packed = new long[16];
+        for(int[] layer : layers)
+        {
+            int reals = 0;
+            while(reals < layer.length && !g.isDummy(layer[reals])) reals++;
+
+            if(packed.length < reals) packed = new long[Math.max(reals, packed.length << 1)];
+            for(int i = 0; i < reals; i++)
+                packed[i] = ((long) g.chart.rankAt(g.slotOf[layer[i]]) << 32) | layer[i];
+            Arrays.sort(packed, 0, reals);
+
+            for(int i = 0; i < layer.length; i++)
+            {
+                if(i < reals) layer[i] = (int) packed[i];
+                pos[layer[i]] = i;
+            }
+        }
+
+        return new LayerOrdering(layers, pos);
+    }
+
+    LayerOrdering copy()
+    {
+        int[][] layersCopy = new int[layers.length][];
+        for(int l = 0; l < layers.length; l++)
+            layersCopy[l] = layers[l].clone();
+        return new LayerOrdering(layersCopy, pos.clone());
+    }
+
+    /* Overwrites this ordering with other, which must come from the same graph.
+     */
+    void copyFrom(LayerOrdering other)
+    {
+        for(int l = 0; l < layers.length; l++)
+            System.arraycopy(other.layers[l], 0, layers[l], 0, layers[l].length);
+        System.arraycopy(other.pos, 0, pos, 0, pos.length);
+    }
+}
@@ -0,0 +1,389 @@
+package com.jokodub.flowcharter.logic;
+
+import java.util.Arrays;
+
+import com.jokodub.flowcharter.model.classes.*;
+
+/* A Flowchart broken into layers, ready for crossing reduction.
+ *
+ * Vertices 0 .. realCount-1 are the chart's nodes (top and bottom excluded),
+ * the rest are invisible dummies splitting edges that span more than one layer,
+ * so that every edge runs between adjacent layers. With edge concentration,
+ * the last junctionCount of them are junctions standing in for bicliques.
+ *
+ * Building it:
+ *  1. Height-linked nodes are merged into one group, which must share a layer.
+ *  2. Cycles are broken by reversing a small feedback arc set (Eades, Lin and Smyth).
+ *  3. Groups are layered by longest path, then pushed down towards their children
+ *     when that shortens more edges than it stretches. Empty layers are dropped.
+ *  4. Long edges are split with dummies.
+ *  5. If asked for, bicliques between adjacent layers are concentrated (see EdgeConcentrator).
+ * Everything is O(V + E) over int arrays, apart from sorting in step 5.
+ */
+final class LayeredGraph
+{
+    // === Instance Variables ===
+
+    final Flowchart chart;
+    final int realCount;
+    final int vertexCount;
+    final int layerCount;
+    final int reversedEdges;
+    final int junctionCount;
+    final int unconcentratedSegments; //Segments there were before concentration
+
+    final int[] slotOf; //Chart slot of each real vertex
+    final int[] layerOf; //0-based layer of each vertex, height is layer + 1
+    final int[] downOff, down; //CSR of neighbours in the layer below
+    final int[] upOff, up; //CSR of neighbours in the layer above
+
+    // === Constructors ===
+
+    private LayeredGraph(Flowchart chart, int realCount, int[] slotOf, int[] layerOf, int layerCount,
+                         IntList segUpper, IntList segLower, int reversedEdges,
+                         int junctionCount, int unconcentratedSegments)
+    {
+        this.chart = chart;
+        this.realCount = realCount;
+        this.vertexCount = layerOf.length;
+        this.slotOf = slotOf;
+        this.layerOf = layerOf;
+        this.layerCount = layerCount;
+        this.reversedEdges = reversedEdges;
+        this.junctionCount = junctionCount;
+        this.unconcentratedSegments = unconcentratedSegments;
+
+        downOff = new int[vertexCount + 1];
+        upOff = new int[vertexCount + 1];
+        down = csr(segUpper, segLower, downOff);
+        up = csr(segLower, segUpper, upOff);
+    }
+
+    // === Get-Set ===
+
+    int dummyCount() { return vertexCount - realCount - junctionCount; }
+    int segmentCount() { return up.length; }
+
+    //Junctions are invisible too, so count as dummies here
+    boolean isDummy(int v) { return v >= realCount; }
+    boolean isJunction(int v) { return v >= vertexCount - junctionCount; }
+
+    // === Build Methods ===
+
+    /* Lays out the nodes of f into layers. The chart itself is not modified.
+     */
+    static LayeredGraph build(Flowchart f)
+    {
+        return build(f, false);
+    }
+
+    /* @param concentrate as whether to replace bicliques between layers with junctions
+     */
+    static LayeredGraph build(Flowchart f, boolean concentrate)
+    {
+        int limit = f.slotLimit();
+        int top = f.slotOf(f.getTop());
+        int bottom = f.slotOf(f.getBottom());
+
+        //Real vertices are the live slots other than top and bottom
+        int[] vertexOfSlot = new int[limit];
+        Arrays.fill(vertexOfSlot, -1);
+        IntList slots = new IntList();
+        for(int s = 0; s < limit; s++)
+        {
+            if(f.nodeAt(s) == null || s == top || s == bottom) continue;
+            vertexOfSlot[s] = slots.size();
+            slots.add(s);
+        }
+        int n = slots.size();
+
+        //1. Merge height-linked vertices into groups
+        int[] parent = new int[n];
+        for(int v = 0; v < n; v++) parent[v] = v;
+        IntList buf = new IntList();
+        for(int v = 0; v < n; v++)
+        {
+            buf.clear();
+            f.neighboursAt(Relation.LINK, slots.get(v), buf);
+            for(int i = 0; i < buf.size(); i++)
+            {
+                int w = vertexOfSlot[buf.get(i)];
+                if(w >= 0) union(parent, v, w);
+            }
+        }
+        int[] groupOf = new int[n];
+        int groups = 0;
+        int[] groupOfRoot = new int[n];
+        Arrays.fill(groupOfRoot, -1);
+        for(int v = 0; v < n; v++)
+        {
+            int r = find(parent, v);
+            if(groupOfRoot[r] < 0) groupOfRoot[r] = groups++;
+            groupOf[v] = groupOfRoot[r];
+        }
+
+        //Edges between real vertices, and the same edges between groups
+        IntList edgeSrc = new IntList();
+        IntList edgeDst = new IntList();
+        IntList groupSrc = new IntList();
+        IntList groupDst = new IntList();
+        for(int v = 0; v < n; v++)
+        {
+            buf.clear();
+            f.neighboursAt(Relation.OUTBOUND, slots.get(v), buf);
+            for(int i = 0; i < buf.size(); i++)
+            {
+                int w = vertexOfSlot[buf.get(i)];
+                if(w < 0 || groupOf[v] == groupOf[w]) continue; //Sentinels and edges within a layer
+                edgeSrc.add(v);
+                edgeDst.add(w);
+                groupSrc.add(groupOf[v]);
+                groupDst.add(groupOf[w]);
+            }
+        }
+
+        //2. Order groups so that few edges point backwards
+        int[] gOutOff = new int[groups + 1];
+        int[] gInOff = new int[groups + 1];
+        int[] gOut = csr(groupSrc, groupDst, gOutOff);
+        int[] gIn = csr(groupDst, groupSrc, gInOff);
+        int[] seq = feedbackArcOrder(groups, gOutOff, gOut, gInOff, gIn);
+        int[] seqPos = new int[groups];
+        for(int i = 0; i < groups; i++) seqPos[seq[i]] = i;
+
+        //3. Longest path layering, following seq which is topological once back edges are reversed
+        int[] gLayer = new int[groups];
+        for(int i = 0; i < groups; i++)
+        {
+            int g = seq[i];
+            for(int k = gInOff[g]; k < gInOff[g + 1]; k++)
+                if(seqPos[gIn[k]] < i)
+                    gLayer[g] = Math.max(gLayer[g], gLayer[gIn[k]] + 1);
+            for(int k = gOutOff[g]; k < gOutOff[g + 1]; k++) //Reversed edges point up into g
+                if(seqPos[gOut[k]] < i)
+                    gLayer[g] = Math.max(gLayer[g], gLayer[gOut[k]] + 1);
+        }
+
+        //Push groups with more children than parents down next to their children
+        for(int i = groups - 1; i >= 0; i--)
+        {
+            int g = seq[i];
+            int below = 0, above = 0;
+            int limitLayer = Integer.MAX_VALUE;
+            for(int k = gOutOff[g]; k < gOutOff[g + 1]; k++)
+            {
+                int w = gOut[k];
+                if(seqPos[w] > i) { below++; limitLayer = Math.min(limitLayer, gLayer[w] - 1); }
+                else above++;
+            }
+            for(int k = gInOff[g]; k < gInOff[g + 1]; k++)
+            {
+                int w = gIn[k];
+                if(seqPos[w] > i) { below++; limitLayer = Math.min(limitLayer, gLayer[w] - 1); }
+                else above++;
+            }
+            if(below > above && limitLayer != Integer.MAX_VALUE && limitLayer > gLayer[g])
+                gLayer[g] = limitLayer;
+        }
+
+        //Drop empty layers
+        int maxLayer = 0;
+        for(int g = 0; g < groups; g++) maxLayer = Math.max(maxLayer, gLayer[g]);
+        int[] remap = new int[maxLayer + 1];
+        for(int g = 0; g < groups; g++) remap[gLayer[g]] = 1;
+        int layerCount = 0;
+        for(int l = 0; l <= maxLayer; l++)
+            remap[l] = remap[l] == 1 ? layerCount++ : -1;
+
+        //4. Split long edges with dummies, oriented from upper to lower layer
+        IntList layers = new IntList(n);
+        for(int v = 0; v < n; v++)
+            layers.add(remap[gLayer[groupOf[v]]]);
+
+        IntList segUpper = new IntList(edgeSrc.size());
+        IntList segLower = new IntList(edgeSrc.size());
+        int reversed = 0;
+        for(int e = 0; e < edgeSrc.size(); e++)
+        {
+            int a = edgeSrc.get(e);
+            int b = edgeDst.get(e);
+            if(layers.get(a) > layers.get(b))
+            {
+                int t = a; a = b; b = t;
+                reversed++;
+            }
+
+            int prev = a;
+            for(int l = layers.get(a) + 1; l < layers.get(b); l++)
+            {
+                int dummy = layers.size();
+                layers.add(l);
+                segUpper.add(prev);
+                segLower.add(dummy);
+                prev = dummy;
+            }
+            segUpper.add(prev);
+            segLower.add(b);
+        }
+
+        //5. Edge concentration
+        int unconcentrated = segUpper.size(), junctions = 0;
+        if(concentrate)
+        {
+            EdgeConcentrator c = new EdgeConcentrator(layers, segUpper, segLower, layerCount, n);
+            layerCount = c.layerCount;
+            junctions = c.junctionCount;
+        }
+
+        return new LayeredGraph(f, n, slots.toArray(), layers.toArray(), Math.max(layerCount, 1),
+                                segUpper, segLower, reversed, junctions, unconcentrated);
+    }
+
+    /* Greedy feedback arc set ordering of Eades, Lin and Smyth, in O(V + E).
+     * Repeatedly peels sinks to the back and sources to the front, otherwise
+     * moves the vertex with the largest (outdegree - indegree) to the front.
+     * Edges pointing backwards in the result form the feedback arc set.
+     * @return the vertices in order
+     */
+    static int[] feedbackArcOrder(int n, int[] outOff, int[] out, int[] inOff, int[] in)
+    {
+        int[] seq = new int[n];
+        if(n == 0) return seq;
+
+        //Buckets 0 .. 2n-2 hold delta = outdeg - indeg shifted by n-1, then sinks and sources
+        final int sinks = 2 * n - 1;
+        final int sources = 2 * n;
+        int[] head = new int[2 * n + 1];
+        Arrays.fill(head, -1);
+        int[] next = new int[n];
+        int[] prev = new int[n];
+        int[] bucketOf = new int[n];
+        int[] indeg = new int[n];
+        int[] outdeg = new int[n];
+        boolean[] removed = new boolean[n];
+
+        for(int v = 0; v < n; v++)
+        {
+            outdeg[v] = outOff[v + 1] - outOff[v];
+            indeg[v] = inOff[v + 1] - inOff[v];
+        }
+
+        int maxBucket = 0;
+        for(int v = 0; v < n; v++)
+        {
+            int b = bucket(n, indeg[v], outdeg[v]);
+            link(head, next, prev, bucketOf, v, b);
+            if(b < sinks) maxBucket = Math.max(maxBucket, b);
+        }
+
+        int left = 0, right = n - 1, remaining = n;
+        while(remaining > 0)
+        {
+            int v;
+            if(head[sinks] >= 0)
+            {
+                v = head[sinks];
+                seq[right--] = v;
+            }
+            else if(head[sources] >= 0)
+            {
+                v = head[sources];
+                seq[left++] = v;
+            }
+            else
+            {
+                while(head[maxBucket] < 0) maxBucket--;
+                v = head[maxBucket];
+                seq[left++] = v;
+            }
+
+            unlink(head, next, prev, bucketOf, v);
+            removed[v] = true;
+            remaining--;
+
+            for(int k = outOff[v]; k < outOff[v + 1]; k++)
+            {
+                int x = out[k];
+                if(removed[x]) continue;
+                indeg[x]--;
+                maxBucket = rebucket(n, head, next, prev, bucketOf, indeg, outdeg, x, maxBucket);
+            }
+            for(int k = inOff[v]; k < inOff[v + 1]; k++)
+            {
+                int u = in[k];
+                if(removed[u]) continue;
+                outdeg[u]--;
+                maxBucket = rebucket(n, head, next, prev, bucketOf, indeg, outdeg, u, maxBucket);
+            }
+        }
+
+        return seq;
+    }
+
+    private static int bucket(int n, int indeg, int outdeg)
+    {
+        if(outdeg == 0) return 2 * n - 1;
+        if(indeg == 0) return 2 * n;
+        return outdeg - indeg + n - 1;
+    }
+
+    private static int rebucket(int n, int[] head, int[] next, int[] prev, int[] bucketOf,
+                                int[] indeg, int[] outdeg, int v, int maxBucket)
+    {
+        unlink(head, next, prev, bucketOf, v);
+        int b = bucket(n, indeg[v], outdeg[v]);
+        link(head, next, prev, bucketOf, v, b);
+        return b < 2 * n - 1 ? Math.max(maxBucket, b) : maxBucket;
+    }
+
+    private static void link(int[] head, int[] next, int[] prev, int[] bucketOf, int v, int b)
+    {
+        bucketOf[v] = b;
+        prev[v] = -1;
+        next[v] = head[b];
+        if(head[b] >= 0) prev[head[b]] = v;
+        head[b] = v;
+    }
+
+    private static void unlink(int[] head, int[] next, int[] prev, int[] bucketOf, int v)
+    {
+        if(prev[v] >= 0) next[prev[v]] = next[v];
+        else head[bucketOf[v]] = next[v];
+        if(next[v] >= 0) prev[next[v]] = prev[v];
+    }
+
+    private static int find(int[] parent, int v)
+    {
+        while(parent[v] != v)
+        {
+            parent[v] = parent[parent[v]]; //Path halving
+            v = parent[v];
+        }
+        return v;
+    }
+
+    private static void union(int[] parent, int a, int b)
+    {
+        int ra = find(parent, a);
+        int rb = find(parent, b);
+        if(ra != rb) parent[Math.max(ra, rb)] = Math.min(ra, rb);
+    }
+
+    /* Counting sort of the pairs (from[i], to[i]) into CSR form.
+     * @param off as array of length (vertices + 1) to receive the offsets
+     * @return targets, grouped by source in order of appearance
+     */
+    static int[] csr(IntList from, IntList to, int[] off)
+    {
+        for(int i = 0; i < from.size(); i++)
+            off[from.get(i) + 1]++;
+        for(int v = 1; v < off.length; v++)
+            off[v] += off[v - 1];
+
+        int[] fill = Arrays.copyOf(off, off.length - 1);
+        int[] adj = new int[from.size()];
+        for(int i = 0; i < from.size(); i++)
+            adj[fill[from.get(i)]++] = to.get(i);
+        return adj;
+    }
+}
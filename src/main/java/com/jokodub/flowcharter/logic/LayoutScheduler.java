@@ -0,0 +1,226 @@
+package com.jokodub.flowcharter.logic;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.jokodub.flowcharter.model.classes.*;
+
+/* Keeps a Flowchart laid out without ever running the layout on the thread that edits it.
+ *
+ * Structural edits (nodes, edges and links, not moves) each ask for a layout. Requests within
+ * the coalescing delay of each other become one job, and a request while a job runs interrupts it,
+ * which stops its crossing reduction at the next sweep, and queues another after it.
+ * A job copies a snapshot of the chart, runs FlowchartOptimizer.optimize on the copy, which
+ * settles heights and ranks both, then hands the positions to the publisher, the FX thread
+ * for a UI (Platform::runLater). There they are written back in one atomically step,
+ * unless a later request superseded the job in the meantime.
+ * Only the snapshot and the write-back hold the chart, however long the layout takes.
+ *
+ * Jobs run one at a time on a virtual thread. The chart is read from that thread,
+ * so it should be a ConcurrentFlowchart if anything edits it while a job runs.
+ */
+public final class LayoutScheduler implements AutoCloseable
+{
+    // === Instance Variables ===
+
+    private static final long COALESCE_MILLIS = 50;
+
+    private final Flowchart f;
+    private final OptimizerSettings settings;
+    private final Executor publisher;
+    private final long coalesceMillis;
+    private final ScheduledExecutorService worker;
+    private final FlowchartListener listener = this::changed;
+    private volatile Consumer<OptimizerResult> onLayout;
+
+    //Guarded by this
+    private long requested; //Bumped by every request, a job only publishes if it is still the latest
+    private long published;
+    private Future<?> job;
+    private boolean closed;
+    private int runs;
+
+    // === Constructors ===
+
+    public LayoutScheduler(Flowchart f, Executor publisher)
+    {
+        this(f, new OptimizerSettings(), publisher, COALESCE_MILLIS);
+    }
+
+    /* Follows f's edits until closed.
+     * @param settings as settings for every layout
+     * @param publisher as thread to write positions back on, such as Platform::runLater
+     * @param coalesceMillis as quiet time after a request before its job starts
+     */
+    public LayoutScheduler(Flowchart f, OptimizerSettings settings, Executor publisher, long coalesceMillis)
+    {
+        this.f = f;
+        this.settings = settings;
+        this.publisher = publisher;
+        this.coalesceMillis = coalesceMillis;
+
+        ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(1,
+                Thread.ofVirtual().name("layout-", 0).factory());
+        pool.setRemoveOnCancelPolicy(true);
+        worker = pool;
+        f.addChangeListener(listener);
+    }
+
+    // === Get-Set ===
+
+    /* @param action as what to run on the publisher after positions are written back, or null
+     */
+    public void setOnLayout(Consumer<OptimizerResult> action) { onLayout = action; }
+
+    /* Layout jobs started so far, including those cancelled or superseded.
+     */
+    public synchronized int getRunCount() { return runs; }
+
+    /* Whether every request so far has been laid out and written back.
+     */
+    public synchronized boolean isIdle() { return published == requested || closed; }
+
+    // === Scheduling ===
+
+    /* Asks for a layout of the chart as it will be once edits pause for the coalescing delay.
+     * Any job already waiting or running is dropped in favour of it.
+     */
+    public synchronized void request()
+    {
+        if(closed) return;
+        long ticket = ++requested;
+        if(job != null) job.cancel(true);
+        job = worker.schedule(() -> run(ticket), coalesceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /* Waits until isIdle, for at most timeoutMillis.
+     * Must not be called on the publisher thread, which has to run for it to happen.
+     * @return whether it became idle in time
+     */
+    public synchronized boolean awaitIdle(long timeoutMillis) throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + timeoutMillis;
+        while(!isIdle())
+        {
+            long left = end - System.currentTimeMillis();
+            if(left <= 0) return false;
+            wait(left);
+        }
+        return true;
+    }
+
+    /* Stops following the chart and drops any job in progress. Positions already handed
+     * to the publisher are dropped there too.
+     */
+    @Override
+    public void close()
+    {
+        synchronized(this)
+        {
+            if(closed) return;
+            closed = true;
+            if(job != null) job.cancel(true);
+            notifyAll();
+        }
+        f.removeChangeListener(listener);
+        worker.shutdownNow();
+    }
+
+    private void changed(Flowchart chart, FlowchartChange change)
+    {
+        for(FlowchartEdit e : change.getEdits())
+        {
+            switch(e.getKind())
+            {
+                case MOVE_HEIGHT:
+                case MOVE_RANK:
+                case ADD_MENTION:
+                case REMOVE_MENTION: continue; //Layout doesn't depend on them
+                default:
+                    request();
+                    return;
+            }
+        }
+    }
+
+    private synchronized boolean isCurrent(long ticket)
+    {
+        return ticket == requested && !closed;
+    }
+
+    // === Jobs ===
+
+    private void run(long ticket)
+    {
+        synchronized(this)
+        {
+            if(!isCurrent(ticket)) return;
+            runs++;
+        }
+
+        //Lay out a copy, so the chart is only held while the snapshot is taken
+        Flowchart copy;
+        OptimizerResult result;
+        try
+        {
+            copy = f.snapshot().toFlowchart();
+            result = FlowchartOptimizer.optimize(copy, settings);
+        }
+        catch(RuntimeException e)
+        {
+            //Nothing will be published for this request, don't leave anyone waiting on it
+            synchronized(this)
+            {
+                if(ticket == requested) published = ticket;
+                notifyAll();
+            }
+            throw e;
+        }
+        if(Thread.currentThread().isInterrupted() || !isCurrent(ticket)) return;
+
+        int n = copy.slotLimit();
+        Node[] nodes = new Node[n];
+        int[] heights = new int[n], ranks = new int[n];
+        for(int s = 0; s < n; s++)
+        {
+            nodes[s] = copy.nodeAt(s);
+            heights[s] = copy.heightAt(s);
+            ranks[s] = copy.rankAt(s);
+        }
+        publisher.execute(() -> publish(ticket, nodes, heights, ranks, result));
+    }
+
+    /* Writes a finished layout back, on the publisher, unless it was superseded on the way.
+     */
+    private void publish(long ticket, Node[] nodes, int[] heights, int[] ranks, OptimizerResult result)
+    {
+        boolean applied = f.atomically(() ->
+        {
+            //Checked under the chart, so no structural edit can slip in before the write
+            if(!isCurrent(ticket)) return false;
+            for(int i = 0; i < nodes.length; i++)
+            {
+                int s = f.slotOf(nodes[i]);
+                if(s < 0) continue;
+                f.setHeightAt(s, heights[i]);
+                f.setRankAt(s, ranks[i]);
+            }
+            f.drainDirty(null);
+            return true;
+        });
+        if(!applied) return;
+
+        //Before going idle, so awaitIdle also waits for the callback
+        Consumer<OptimizerResult> action = onLayout;
+        if(action != null) action.accept(result);
+        synchronized(this)
+        {
+            published = ticket;
+            notifyAll();
+        }
+    }
+}
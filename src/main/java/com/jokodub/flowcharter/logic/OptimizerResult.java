@@ -0,0 +1,79 @@
+package com.jokodub.flowcharter.logic;
+
+/* What a run of FlowchartOptimizer did to a Flowchart.
+ */
+public class OptimizerResult
+{
+    // === Instance Variables ===
+
+    private final int layers;
+    private final int dummyNodes;
+    private final int reversedEdges;
+    private final int junctionNodes;
+    private final int segmentsBefore; //Edge segments between adjacent layers, before and after concentration
+    private final int segmentsAfter;
+    private final long crossingsBefore;
+    private final long crossingsAfter;
+    private final int iterations;
+    private final boolean timedOut;
+    private final long elapsedNanos;
+
+    // === Constructors ===
+
+    OptimizerResult(int layers, int dummyNodes, int reversedEdges, long crossingsBefore, long crossingsAfter,
+                    int iterations, boolean timedOut, long elapsedNanos)
+    {
+        this(layers, dummyNodes, reversedEdges, 0, 0, 0, crossingsBefore, crossingsAfter,
+             iterations, timedOut, elapsedNanos);
+    }
+
+    OptimizerResult(int layers, int dummyNodes, int reversedEdges, int junctionNodes, int segmentsBefore,
+                    int segmentsAfter, long crossingsBefore, long crossingsAfter,
+                    int iterations, boolean timedOut, long elapsedNanos)
+    {
+        this.layers = layers;
+        this.dummyNodes = dummyNodes;
+        this.reversedEdges = reversedEdges;
+        this.junctionNodes = junctionNodes;
+        this.segmentsBefore = segmentsBefore;
+        this.segmentsAfter = segmentsAfter;
+        this.crossingsBefore = crossingsBefore;
+        this.crossingsAfter = crossingsAfter;
+        this.iterations = iterations;
+        this.timedOut = timedOut;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    // === Get-Set ===
+
+    public int getLayers() { return layers; }
+    public int getDummyNodes() { return dummyNodes; }
+    public int getReversedEdges() { return reversedEdges; }
+    public int getJunctionNodes() { return junctionNodes; }
+    public int getSegmentsBefore() { return segmentsBefore; }
+    public int getSegmentsAfter() { return segmentsAfter; }
+
+    /* Edge segments left to route and draw per segment there was before edge concentration:
+     * 1 when nothing was concentrated, 0.1 for a tenth as many.
+     */
+    public double getConcentrationRatio()
+    {
+        return segmentsBefore == 0 ? 1 : (double) segmentsAfter / segmentsBefore;
+    }
+    public long getCrossingsBefore() { return crossingsBefore; }
+    public long getCrossingsAfter() { return crossingsAfter; }
+    public int getIterations() { return iterations; }
+    public boolean isTimedOut() { return timedOut; }
+    public long getElapsedNanos() { return elapsedNanos; }
+
+    @Override
+    public String toString()
+    {
+        return "Layers: " + layers + ", dummies: " + dummyNodes + ", reversed edges: " + reversedEdges
+             + (junctionNodes > 0 ? ", junctions: " + junctionNodes + " (segments " + segmentsBefore
+                                    + " -> " + segmentsAfter + ")" : "")
+             + ", crossings: " + crossingsBefore + " -> " + crossingsAfter
+             + " in " + iterations + " sweeps (" + (elapsedNanos / 1_000_000) + " ms"
+             + (timedOut ? ", timed out)" : ")");
+    }
+}
@@ -0,0 +1,65 @@
+package com.jokodub.flowcharter.logic;
+
+/* Tuning knobs for FlowchartOptimizer.
+ * Setters return this so settings can be chained.
+ */
+public class OptimizerSettings
+{
+    // === Instance Variables ===
+
+    public enum Heuristic { BARYCENTER, MEDIAN }
+
+    private long timeBudgetMillis = 500;
+    private int maxIterations = 24;
+    private Heuristic heuristic = Heuristic.BARYCENTER;
+    private int parallelism = 1;
+    private int restarts = 1;
+    private long seed = 0;
+    private ChartCoordinates coordinates;
+    private boolean concentrateEdges;
+
+    // === Get-Set ===
+
+    public long getTimeBudgetMillis() { return timeBudgetMillis; }
+    public int getMaxIterations() { return maxIterations; }
+    public Heuristic getHeuristic() { return heuristic; }
+    public int getParallelism() { return parallelism; }
+    public int getRestarts() { return restarts; }
+    public long getSeed() { return seed; }
+    public ChartCoordinates getCoordinates() { return coordinates; }
+    public boolean isConcentrateEdges() { return concentrateEdges; }
+
+    /* Wall-clock time crossing reduction may take. Layering always completes.
+     */
+    public OptimizerSettings setTimeBudgetMillis(long ms) { timeBudgetMillis = ms; return this; }
+
+    /* Maximum number of down-and-up sweeps of crossing reduction.
+     */
+    public OptimizerSettings setMaxIterations(int n) { maxIterations = n; return this; }
+    public OptimizerSettings setHeuristic(Heuristic h) { heuristic = h; return this; }
+
+    /* Worker threads for crossing reduction, 1 to stay on the calling thread.
+     * With several restarts they run side by side, otherwise crossing counts are split by layer.
+     */
+    public OptimizerSettings setParallelism(int threads) { parallelism = Math.max(1, threads); return this; }
+
+    /* Number of crossing reduction runs. The first starts from the current ranks,
+     * the others from layers shuffled by the seed. The run with fewest crossings wins,
+     * ties going to the earlier run, so the result only depends on the seed
+     * (unless the time budget runs out).
+     */
+    public OptimizerSettings setRestarts(int n) { restarts = Math.max(1, n); return this; }
+    public OptimizerSettings setSeed(long s) { seed = s; return this; }
+
+    /* Where to write the x and y of every node once layers are ordered, or null to only
+     * write heights and ranks. Long edges are kept straight and boxes as close as their
+     * widths allow, see CoordinateAssigner. Incremental optimization leaves them be.
+     */
+    public OptimizerSettings setCoordinates(ChartCoordinates c) { coordinates = c; return this; }
+
+    /* Whether to route each set of parents that all point at the same children through one
+     * invisible junction, in a layer of its own between them, see EdgeConcentrator.
+     * Heights then skip the junction layers. Worth it on dense many-to-many charts.
+     */
+    public OptimizerSettings setConcentrateEdges(boolean on) { concentrateEdges = on; return this; }
+}
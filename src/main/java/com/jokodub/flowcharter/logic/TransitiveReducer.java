@@ -0,0 +1,258 @@
+package com.jokodub.flowcharter.logic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.jokodub.flowcharter.model.classes.Flowchart;
+import com.jokodub.flowcharter.model.classes.IntList;
+import com.jokodub.flowcharter.model.classes.Reachability;
+import com.jokodub.flowcharter.model.classes.Relation;
+
+/* Finds the edges of a Flowchart that a transitive reduction would drop: a -> b is redundant
+ * when b can also be reached from a some longer way round.
+ *
+ * Works on the condensation, taken from the chart's Reachability: components numbered by
+ * their place in its topological order. Edges inside a component are always kept, as are
+ * several edges between the same two components, so only the condensation is reduced.
+ * Each component's successors are visited in topological order, building up the set of
+ * components reachable through those seen so far. An edge to a component already in the set
+ * is redundant, as only a successor placed before it could reach it.
+ *
+ * Those sets are bitsets, and all of them at once would take components^2 bits, so targets are
+ * taken a chunk of consecutive places at a time: each pass keeps one row of chunk bits per
+ * component, built from the last component back to the first, and judges the edges into
+ * the chunk. A component can only reach places after its own and up to the furthest one
+ * any of its successors reach, so rows outside that range are neither cleared nor read.
+ * Chunks share nothing but the finished condensation, so they run in parallel, each worker
+ * with rows of its own, ROW_WORDS longs at most. They are handed out in order, and an edge
+ * an earlier chunk found redundant is not followed again, as the successor that made it so
+ * covers it; a worker that does not see that flag yet just does the extra work.
+ * O(V log V + E) to build, then about (V / 64) x E word operations over all chunks.
+ */
+final class TransitiveReducer
+{
+    // === Instance Variables ===
+
+    private static final int ROW_WORDS = 1 << 21; //Longs of bitset rows per worker, 16 MB
+
+    final int components;
+
+    private final int[] edgeSrc, edgeDst; //Slots at either end, between components only
+    private final int[] target; //Component each edge goes to
+    private final int[] edgeOff; //Per component, its edges, sorted by target
+    private final int[] maxReach; //Per component, the furthest place it or any component below reaches
+    private final int chunkWords;
+    private final boolean[] redundant;
+
+    // === Constructors ===
+
+    /* Takes the condensation of f as it is now. Call inside f.atomically.
+     */
+    TransitiveReducer(Flowchart f)
+    {
+        this(f, ROW_WORDS);
+    }
+
+    /* @param rowWords as longs of bitset rows each worker may keep, for chunks that small
+     */
+    TransitiveReducer(Flowchart f, int rowWords)
+    {
+        Reachability r = f.reachability();
+        int n = f.slotLimit();
+
+        //Components renumbered by their place in the order, which may have gaps
+        long[] keys = new long[n];
+        int live = 0;
+        for(int s = 0; s < n; s++)
+            if(f.nodeAt(s) != null)
+                keys[live++] = (long) r.positionOf(r.componentAt(s)) << 32 | s;
+        Arrays.sort(keys, 0, live);
+        int[] compOf = new int[n];
+        int c = -1;
+        for(int i = 0; i < live; i++)
+        {
+            if(i == 0 || keys[i] >>> 32 != keys[i - 1] >>> 32) c++;
+            compOf[(int) keys[i]] = c;
+        }
+        components = c + 1;
+
+        //Edges between components, grouped by source and then sorted by target
+        IntList src = new IntList(), dst = new IntList(), buf = new IntList();
+        for(int s = 0; s < n; s++)
+        {
+            if(f.nodeAt(s) == null) continue;
+            buf.clear();
+            f.neighboursAt(Relation.OUTBOUND, s, buf);
+            for(int i = 0; i < buf.size(); i++)
+            {
+                int d = buf.get(i);
+                if(compOf[d] == compOf[s]) continue;
+                src.add(s);
+                dst.add(d);
+            }
+        }
+        int edges = src.size();
+        int[] targetOff = new int[components + 1];
+        edgeOff = new int[components + 1];
+        for(int e = 0; e < edges; e++)
+        {
+            targetOff[compOf[dst.get(e)] + 1]++;
+            edgeOff[compOf[src.get(e)] + 1]++;
+        }
+        for(int k = 0; k < components; k++)
+        {
+            targetOff[k + 1] += targetOff[k];
+            edgeOff[k + 1] += edgeOff[k];
+        }
+        int[] byTarget = new int[edges];
+        for(int e = 0; e < edges; e++)
+            byTarget[targetOff[compOf[dst.get(e)]]++] = e;
+
+        int[] fill = Arrays.copyOf(edgeOff, components);
+        edgeSrc = new int[edges];
+        edgeDst = new int[edges];
+        target = new int[edges];
+        for(int e : byTarget)
+        {
+            int k = fill[compOf[src.get(e)]]++;
+            edgeSrc[k] = src.get(e);
+            edgeDst[k] = dst.get(e);
+            target[k] = compOf[dst.get(e)];
+        }
+
+        maxReach = new int[components];
+        for(int k = components - 1; k >= 0; k--)
+        {
+            int m = k;
+            for(int e = edgeOff[k]; e < edgeOff[k + 1]; e++)
+                m = Math.max(m, maxReach[target[e]]);
+            maxReach[k] = m;
+        }
+
+        int words = Math.max(1, rowWords / Math.max(1, components));
+        chunkWords = Math.max(1, Math.min(words, (components + 63) >>> 6));
+        redundant = new boolean[edges];
+    }
+
+    // === Reducing ===
+
+    /* Judges every edge, on up to parallelism threads.
+     * @param src,dest as buffers to receive the slots at either end of each redundant edge
+     */
+    void reduce(int parallelism, IntList src, IntList dest)
+    {
+        int chunkBits = chunkWords << 6;
+        int chunks = (components + chunkBits - 1) / chunkBits;
+        AtomicInteger next = new AtomicInteger();
+        int workers = Math.max(1, Math.min(parallelism, chunks));
+
+        if(workers == 1)
+            new Worker(next, chunks).call();
+        else
+        {
+            List<Worker> runs = new ArrayList<>();
+            for(int w = 0; w < workers; w++)
+                runs.add(new Worker(next, chunks));
+            ForkJoinPool pool = new ForkJoinPool(workers);
+            try
+            {
+                pool.invokeAll(runs);
+            }
+            finally
+            {
+                pool.shutdown();
+            }
+        }
+
+        for(int e = 0; e < redundant.length; e++)
+        {
+            if(!redundant[e]) continue;
+            src.add(edgeSrc[e]);
+            dest.add(edgeDst[e]);
+        }
+    }
+
+    /* Judges the edges into places [lo, hi), from rows of (hi - lo) bits per component.
+     * Every edge has its target in exactly one chunk, so chunks never write the same flag.
+     */
+    private void reduceChunk(int lo, int hi, long[] rows)
+    {
+        for(int c = hi - 1; c >= 0; c--)
+        {
+            int from = Math.max(lo, c + 1), to = Math.min(hi - 1, maxReach[c]);
+            if(from > to) continue; //Reaches nothing in the chunk, row never read
+
+            int row = c * chunkWords;
+            Arrays.fill(rows, row + ((from - lo) >>> 6), row + ((to - lo) >>> 6) + 1, 0L);
+            int end = edgeOff[c + 1];
+            for(int e = edgeOff[c]; e < end; )
+            {
+                int d = target[e];
+                if(d >= hi) break;
+                int next = e + 1;
+                while(next < end && target[next] == d) next++;
+
+                if(d < lo && redundant[e])
+                {
+                    //Judged with an earlier chunk: an earlier successor reaches all d does
+                    e = next;
+                    continue;
+                }
+                if(d >= lo)
+                {
+                    int bit = d - lo;
+                    long mask = 1L << bit;
+                    if((rows[row + (bit >>> 6)] & mask) != 0)
+                    {
+                        //Reached through an earlier successor, which also reaches all d does
+                        for(; e < next; e++) redundant[e] = true;
+                        continue;
+                    }
+                    rows[row + (bit >>> 6)] |= mask;
+                }
+
+                int dFrom = Math.max(lo, d + 1), dTo = Math.min(hi - 1, maxReach[d]);
+                if(dFrom <= dTo)
+                {
+                    int other = d * chunkWords;
+                    for(int w = (dFrom - lo) >>> 6, last = (dTo - lo) >>> 6; w <= last; w++)
+                        rows[row + w] |= rows[other + w];
+                }
+                e = next;
+            }
+        }
+    }
+
+    // === Workers ===
+
+    /* Takes chunks off a shared counter until none are left.
+     */
+    private final class Worker implements Callable<Void>
+    {
+        private final AtomicInteger next;
+        private final int chunks;
+
+        Worker(AtomicInteger next, int chunks)
+        {
+            this.next = next;
+            this.chunks = chunks;
+        }
+
+        @Override
+        public Void call()
+        {
+            int chunkBits = chunkWords << 6;
+            long[] rows = null;
+            for(int k = next.getAndIncrement(); k < chunks; k = next.getAndIncrement())
+            {
+                if(rows == null) rows = new long[components * chunkWords];
+                reduceChunk(k * chunkBits, Math.min(components, (k + 1) * chunkBits), rows);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,549 @@
+package com.jokodub.flowcharter.model.classes;
+
+import java.util.Arrays;
+
+/* One relation (inbound, outbound, links or mentions) of a Flowchart,
+ * stored as int slots instead of Node sets.
+ *
+ * The bulk of the entries sit in a compact CSR base: every slot owns the segment
+ * targets[offsets[s] .. offsets[s+1]). Edits don't shift that array. Removals leave
+ * a tombstone (-1) in the base and additions go to a small per-slot overlay.
+ * Once the overlay and tombstones outgrow the base, everything is rebuilt into a new base.
+ *
+ * Slots with more than INDEX_THRESHOLD entries, such as top and bottom, which touch
+ * almost every node, also get an index: an open-addressing table of where each entry sits,
+ * hashed by the entry, so that contains, add and remove stay O(1) on them instead of
+ * scanning the whole segment. Indexes are kept up by every edit and rebuilt along with
+ * the base, never by reads.
+ */
+final class AdjacencyStore
+{
+    // === Instance Variables ===
+
+    private static final int TOMBSTONE = -1;
+    private static final int MIN_COMPACT_THRESHOLD = 1024;
+    private static final int INDEX_THRESHOLD = 16; //Entries a slot holds before it is indexed
+    private static final int FREE = Integer.MIN_VALUE; //Empty cell of an index
+
+    private int capacity; //Number of slots addressable
+    private int[] offsets; //Length capacity + 1
+    private int[] targets; //Base entries, TOMBSTONE where removed
+    private int[][] added; //Overlay entries per slot, null when empty
+    private int[] addedCount;
+    private int[] degree; //Live entries per slot, base and overlay combined
+    private int[][] index; //Per slot, base position or ~overlay position of each entry. Null until a slot needs one
+
+    private int baseLive; //Live entries in the base
+    private int overlaySize; //Live entries in all overlays
+    private int tombstones;
+    private boolean compactionDeferred; //Counters above are stale, the owner calls compact()
+
+    // === Constructors ===
+
+    AdjacencyStore(int initialCapacity)
+    {
+        capacity = initialCapacity;
+        offsets = new int[capacity + 1];
+        targets = new int[0];
+        added = new int[capacity][];
+        addedCount = new int[capacity];
+        degree = new int[capacity];
+    }
+
+    // === Get-Set ===
+
+    int degree(int s) { return degree[s]; }
+    int capacity() { return capacity; }
+
+    /* Total live entries across all slots. Only exact after compact() once compaction is deferred.
+     */
+    int entryCount() { return baseLive + overlaySize; }
+
+    /* Stops edits from compacting on their own, leaving it to the owner's calls to compact().
+     * Edits of a slot then only write that slot's own entries, so different slots
+     * may be edited from different threads at once.
+     */
+    void deferCompaction()
+    {
+        compactionDeferred = true;
+        if(index == null) index = new int[capacity][]; //Not made lazily by threads racing on different slots
+    }
+
+    // === Store Methods ===
+
+    /* Makes sure slots [0, newCapacity) can be addressed.
+     * New slots have empty segments at the end of the base.
+     */
+    void ensureCapacity(int newCapacity)
+    {
+        if(newCapacity <= capacity) return;
+
+        int end = offsets[capacity];
+        offsets = Arrays.copyOf(offsets, newCapacity + 1);
+        Arrays.fill(offsets, capacity + 1, newCapacity + 1, end);
+        added = Arrays.copyOf(added, newCapacity);
+        addedCount = Arrays.copyOf(addedCount, newCapacity);
+        degree = Arrays.copyOf(degree, newCapacity);
+        if(index != null) index = Arrays.copyOf(index, newCapacity);
+        capacity = newCapacity;
+    }
+
+    boolean contains(int s, int t)
+    {
+        if(isIndexed(s)) return find(s, t) >= 0;
+
+        for(int i = offsets[s], end = offsets[s + 1]; i < end; i++)
+            if(targets[i] == t)
+                return true;
+
+        int[] over = added[s];
+        for(int i = 0, n = addedCount[s]; i < n; i++)
+            if(over[i] == t)
+                return true;
+
+        return false;
+    }
+
+    /* Adds t to the segment of s, if not already present.
+     * @return true if the store changed
+     */
+    boolean add(int s, int t)
+    {
+        if(contains(s, t)) return false;
+
+        int[] over = added[s];
+        int n = addedCount[s];
+        if(over == null)
+            over = added[s] = new int[2];
+        else if(n == over.length)
+            over = added[s] = Arrays.copyOf(over, n << 1);
+
+        over[n] = t;
+        addedCount[s] = n + 1;
+        degree[s]++;
+        if(isIndexed(s) && degree[s] * 2 <= index[s].length)
+            insert(s, ~n);
+        else if(degree[s] > INDEX_THRESHOLD)
+            reindex(s); //First index, or a bigger one
+        if(compactionDeferred) return true;
+
+        overlaySize++;
+        maybeCompact();
+        return true;
+    }
+
+    /* Adds the pairs (src[i], dst[i]) in one linear pass, skipping any already present.
+     * Rebuilds the base with room for the new entries instead of growing overlays,
+     * so cost is O(slots + entries) regardless of how many land on one slot.
+     */
+    void addAll(IntList src, IntList dst)
+    {
+        if(src.isEmpty()) return;
+        compact(); //Base now holds every entry
+
+        //Size each segment for its current entries plus the new ones
+        int[] newOffsets = new int[capacity + 1];
+        for(int i = 0; i < src.size(); i++)
+            newOffsets[src.get(i) + 1]++;
+        for(int s = 0; s < capacity; s++)
+            newOffsets[s + 1] += newOffsets[s] + degree[s];
+
+        int[] newTargets = new int[newOffsets[capacity]];
+        int[] fill = new int[capacity];
+        for(int s = 0; s < capacity; s++)
+        {
+            int len = offsets[s + 1] - offsets[s];
+            System.arraycopy(targets, offsets[s], newTargets, newOffsets[s], len);
+            fill[s] = newOffsets[s] + len;
+        }
+        for(int i = 0; i < src.size(); i++)
+            newTargets[fill[src.get(i)]++] = dst.get(i);
+
+        //Drop duplicates within each segment, shifting entries left in place
+        int[] seenBy = new int[capacity]; //seenBy[t] == s + 1 means t is already in segment s
+        int k = 0;
+        for(int s = 0; s < capacity; s++)
+        {
+            int begin = newOffsets[s];
+            int end = fill[s];
+            newOffsets[s] = k;
+            for(int i = begin; i < end; i++)
+            {
+                int t = newTargets[i];
+                if(seenBy[t] != s + 1)
+                {
+                    seenBy[t] = s + 1;
+                    newTargets[k++] = t;
+                }
+            }
+            degree[s] = k - newOffsets[s];
+        }
+        newOffsets[capacity] = k;
+
+        offsets = newOffsets;
+        targets = k < newTargets.length ? Arrays.copyOf(newTargets, k) : newTargets;
+        baseLive = k;
+        reindexAll();
+    }
+
+    /* Replaces every entry with a ready-made base, such as one decoded by a loader.
+     * Slots past newOffsets.length - 1 are left empty.
+     * @param newOffsets as segment starts, ascending, at most capacity + 1 long
+     * @param newTargets as entries of every segment, back to back
+     */
+    void install(int[] newOffsets, int[] newTargets)
+    {
+        int count = newOffsets.length - 1;
+        int end = newOffsets[count];
+
+        offsets = Arrays.copyOf(newOffsets, capacity + 1);
+        Arrays.fill(offsets, count + 1, capacity + 1, end);
+        targets = newTargets;
+        for(int s = 0; s < capacity; s++)
+        {
+            degree[s] = offsets[s + 1] - offsets[s];
+            added[s] = null;
+            addedCount[s] = 0;
+        }
+        baseLive = end;
+        overlaySize = 0;
+        tombstones = 0;
+        reindexAll();
+    }
+
+    /* Replaces every entry with the reverse of other, in one counting pass:
+     * s lands in the segment of t here for every t in the segment of s there.
+     * Segments come out sorted when other was filled in slot order.
+     */
+    void installReverseOf(AdjacencyStore other)
+    {
+        other.compact();
+
+        int[] newOffsets = new int[capacity + 1];
+        int n = other.offsets[other.capacity];
+        for(int i = 0; i < n; i++)
+            newOffsets[other.targets[i] + 1]++;
+        for(int s = 0; s < capacity; s++)
+            newOffsets[s + 1] += newOffsets[s];
+
+        int[] newTargets = new int[n];
+        int[] fill = Arrays.copyOf(newOffsets, capacity);
+        for(int s = 0; s < other.capacity; s++)
+            for(int i = other.offsets[s], end = other.offsets[s + 1]; i < end; i++)
+                newTargets[fill[other.targets[i]]++] = s;
+
+        install(newOffsets, newTargets);
+    }
+
+    /* Removes t from the segment of s, if present.
+     * @return true if the store changed
+     */
+    boolean remove(int s, int t)
+    {
+        if(isIndexed(s))
+        {
+            int cell = find(s, t);
+            if(cell < 0) return false;
+            int at = index[s][cell];
+            erase(s, cell);
+            if(at >= 0)
+                removeFromBase(s, at);
+            else
+                removeFromOverlay(s, ~at);
+            return true;
+        }
+
+        for(int i = offsets[s], end = offsets[s + 1]; i < end; i++)
+        {
+            if(targets[i] == t)
+            {
+                removeFromBase(s, i);
+                return true;
+            }
+        }
+
+        int[] over = added[s];
+        for(int i = 0, n = addedCount[s]; i < n; i++)
+        {
+            if(over[i] == t)
+            {
+                removeFromOverlay(s, i);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /* Removes every entry t of s where marked[t] is set, in one pass over the segment.
+     * @return number of entries removed
+     */
+    int removeMarked(int s, boolean[] marked)
+    {
+        int removed = 0;
+
+        for(int i = offsets[s], end = offsets[s + 1]; i < end; i++)
+        {
+            int t = targets[i];
+            if(t != TOMBSTONE && t < marked.length && marked[t])
+            {
+                targets[i] = TOMBSTONE;
+                baseLive--;
+                tombstones++;
+                removed++;
+            }
+        }
+        degree[s] -= removed;
+
+        int[] over = added[s];
+        int n = addedCount[s];
+        int kept = 0;
+        for(int i = 0; i < n; i++)
+        {
+            int t = over[i];
+            if(t < marked.length && marked[t])
+                continue;
+            over[kept++] = t;
+        }
+        if(kept < n)
+        {
+            removed += n - kept;
+            degree[s] -= n - kept;
+            overlaySize -= n - kept;
+            addedCount[s] = kept;
+            if(kept == 0) added[s] = null;
+        }
+
+        if(removed > 0 && isIndexed(s)) reindex(s);
+        maybeCompact();
+        return removed;
+    }
+
+    /* Drops every entry of s.
+     */
+    void clear(int s)
+    {
+        for(int i = offsets[s], end = offsets[s + 1]; i < end; i++)
+        {
+            if(targets[i] != TOMBSTONE)
+            {
+                targets[i] = TOMBSTONE;
+                baseLive--;
+                tombstones++;
+            }
+        }
+
+        overlaySize -= addedCount[s];
+        added[s] = null;
+        addedCount[s] = 0;
+        degree[s] = 0;
+        if(index != null) index[s] = null;
+
+        maybeCompact();
+    }
+
+    /* Appends every entry of s to dst.
+     */
+    void appendTo(int s, IntList dst)
+    {
+        for(int i = offsets[s], end = offsets[s + 1]; i < end; i++)
+            if(targets[i] != TOMBSTONE)
+                dst.add(targets[i]);
+
+        int[] over = added[s];
+        for(int i = 0, n = addedCount[s]; i < n; i++)
+            dst.add(over[i]);
+    }
+
+    /* Copies every entry of s into a fresh array.
+     */
+    int[] toArray(int s)
+    {
+        int[] out = new int[degree[s]];
+        int k = 0;
+
+        for(int i = offsets[s], end = offsets[s + 1]; i < end; i++)
+            if(targets[i] != TOMBSTONE)
+                out[k++] = targets[i];
+
+        int[] over = added[s];
+        for(int i = 0, n = addedCount[s]; i < n; i++)
+            out[k++] = over[i];
+
+        return out;
+    }
+
+    /* Rebuilds the base so that it holds every live entry in slot order,
+     * with no tombstones and empty overlays.
+     */
+    void compact()
+    {
+        if(!compactionDeferred && overlaySize == 0 && tombstones == 0) return;
+
+        int[] newOffsets = new int[capacity + 1];
+        for(int s = 0; s < capacity; s++)
+            newOffsets[s + 1] = newOffsets[s] + degree[s];
+
+        int[] newTargets = new int[newOffsets[capacity]];
+        int k = 0;
+        for(int s = 0; s < capacity; s++)
+        {
+            for(int i = offsets[s], end = offsets[s + 1]; i < end; i++)
+                if(targets[i] != TOMBSTONE)
+                    newTargets[k++] = targets[i];
+
+            int[] over = added[s];
+            for(int i = 0, n = addedCount[s]; i < n; i++)
+                newTargets[k++] = over[i];
+
+            added[s] = null;
+            addedCount[s] = 0;
+        }
+
+        offsets = newOffsets;
+        targets = newTargets;
+        baseLive = k;
+        overlaySize = 0;
+        tombstones = 0;
+        reindexAll();
+    }
+
+    /* Approximate heap footprint of this store in bytes, for benchmarks.
+     */
+    long footprintBytes()
+    {
+        long bytes = 16L + 4L * offsets.length + 16L + 4L * targets.length
+                   + 16L + 8L * added.length + 16L + 4L * addedCount.length + 16L + 4L * degree.length;
+
+        if(index != null) bytes += 16L + 4L * index.length;
+        for(int s = 0; s < capacity; s++)
+        {
+            if(added[s] != null)
+                bytes += 16L + 4L * added[s].length;
+            if(isIndexed(s))
+                bytes += 16L + 4L * index[s].length;
+        }
+
+        return bytes;
+    }
+
+    private void removeFromBase(int s, int i)
+    {
+        targets[i] = TOMBSTONE;
+        degree[s]--;
+        if(compactionDeferred) return;
+
+        baseLive--;
+        tombstones++;
+        maybeCompact();
+    }
+
+    /* Swap-removes the overlay entry at i, order within a slot is not meaningful.
+     */
+    private void removeFromOverlay(int s, int i)
+    {
+        int[] over = added[s];
+        int last = addedCount[s] - 1;
+        if(i < last)
+        {
+            if(isIndexed(s)) index[s][find(s, over[last])] = ~i; //Still found at last, moved below
+            over[i] = over[last];
+        }
+        addedCount[s] = last;
+        if(last == 0) added[s] = null;
+        degree[s]--;
+        if(!compactionDeferred) overlaySize--;
+    }
+
+    // === Index ===
+
+    private boolean isIndexed(int s) { return index != null && index[s] != null; }
+
+    /* Entry of s at base position, or ~overlay position, at.
+     */
+    private int entryAt(int s, int at) { return at >= 0 ? targets[at] : added[s][~at]; }
+
+    private static int home(int t, int mask)
+    {
+        int h = t * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /* @return the cell of the index of s holding t, or -1
+     */
+    private int find(int s, int t)
+    {
+        int[] table = index[s];
+        int mask = table.length - 1;
+        for(int i = home(t, mask); table[i] != FREE; i = (i + 1) & mask)
+            if(entryAt(s, table[i]) == t)
+                return i;
+        return -1;
+    }
+
+    private void insert(int s, int at)
+    {
+        int[] table = index[s];
+        int mask = table.length - 1;
+        int i = home(entryAt(s, at), mask);
+        while(table[i] != FREE)
+            i = (i + 1) & mask;
+        table[i] = at;
+    }
+
+    /* Empties a cell, shifting later cells of its probe chain back so lookups never stop early.
+     */
+    private void erase(int s, int cell)
+    {
+        int[] table = index[s];
+        int mask = table.length - 1;
+        int gap = cell;
+        for(int i = (cell + 1) & mask; table[i] != FREE; i = (i + 1) & mask)
+        {
+            int h = home(entryAt(s, table[i]), mask);
+            if(((i - h) & mask) >= ((i - gap) & mask))
+            {
+                table[gap] = table[i];
+                gap = i;
+            }
+        }
+        table[gap] = FREE;
+    }
+
+    /* Indexes slot s from scratch, at most half full, if it holds enough entries; else drops its index.
+     */
+    private void reindex(int s)
+    {
+        if(degree[s] <= INDEX_THRESHOLD)
+        {
+            if(index != null) index[s] = null;
+            return;
+        }
+
+        if(index == null) index = new int[capacity][];
+        int[] table = new int[Integer.highestOneBit(degree[s] * 2) << 1];
+        Arrays.fill(table, FREE);
+        index[s] = table;
+        for(int i = offsets[s], end = offsets[s + 1]; i < end; i++)
+            if(targets[i] != TOMBSTONE)
+                insert(s, i);
+        for(int i = 0, n = addedCount[s]; i < n; i++)
+            insert(s, ~i);
+    }
+
+    private void reindexAll()
+    {
+        for(int s = 0; s < capacity; s++)
+            if(isIndexed(s) || degree[s] > INDEX_THRESHOLD)
+                reindex(s);
+    }
+
+    /* Rebuild once edits outweigh the base, so the cost is amortized over those edits.
+     */
+    private void maybeCompact()
+    {
+        if(compactionDeferred) return;
+        if(overlaySize + tombstones > Math.max(MIN_COMPACT_THRESHOLD, baseLive))
+            compact();
+    }
+}
@@ -0,0 +1,275 @@
+package com.jokodub.flowcharter.model.classes;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/* A Flowchart that many threads may edit at once, with the same API.
+ *
+ * Two levels of locking:
+ *  - A chart-wide read-write lock. Edits that only touch the slots of one or two nodes
+ *    (edges, mentions, positions) and reads share it. Edits that add or remove nodes
+ *    or links, move heights through the chart, or need a consistent picture of all
+ *    of it (addNode, removeNode, addLink, updateHeight, toString, atomically) take it alone.
+ *  - Striped locks over slots. Shared holders lock the stripes of every node they touch,
+ *    always in stripe order, so two threads editing the same nodes never deadlock.
+ *
+ * While history is kept, listeners are registered or reachability is kept current,
+ * every edit takes the chart alone, since those follow edits one after the other.
+ *
+ * Sets handed out are copies taken under the lock, not live views.
+ * The slot and traversal methods are not locked: call them inside atomically,
+ * as FlowchartUtils, FlowchartBatch and FlowchartOptimizer do.
+ */
+public class ConcurrentFlowchart extends Flowchart
+{
+    // === Instance Variables ===
+
+    private static final int STRIPES_PER_CORE = 16;
+    private static final int COMPACT_CHECK = 256; //Shared edits check for compaction about once per this many
+
+    private final ReentrantReadWriteLock structure = new ReentrantReadWriteLock();
+    private final ReentrantLock[] stripes;
+    private final int stripeMask;
+    private final LongAdder sharedEdits = new LongAdder(); //Since the last compaction
+
+    // === Constructors ===
+
+    public ConcurrentFlowchart(String title)
+    {
+        super(title, true);
+
+        int count = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * STRIPES_PER_CORE - 1) << 1;
+        stripes = new ReentrantLock[count];
+        for(int i = 0; i < count; i++)
+            stripes[i] = new ReentrantLock();
+        stripeMask = count - 1;
+    }
+
+    public ConcurrentFlowchart()
+    {
+        this("Flowchart");
+    }
+
+    // === Locking ===
+
+    @Override
+    public <T> T atomically(Supplier<T> op)
+    {
+        structure.writeLock().lock();
+        try
+        {
+            return super.atomically(op);
+        }
+        finally
+        {
+            structure.writeLock().unlock();
+        }
+    }
+
+    private void exclusively(Runnable op)
+    {
+        atomically(() -> { op.run(); return null; });
+    }
+
+    /* Runs op with the chart lock shared and the stripes of a and b held.
+     * Unknown nodes have no stripe, the operation itself then decides what to do with them.
+     */
+    private <T> T withNodes(Node a, Node b, Supplier<T> op)
+    {
+        structure.readLock().lock();
+        try
+        {
+            int sa = stripeOf(a), sb = stripeOf(b);
+            int first = Math.min(sa, sb), second = Math.max(sa, sb);
+            if(first >= 0) stripes[first].lock();
+            if(second >= 0 && second != first) stripes[second].lock();
+            try
+            {
+                return op.get();
+            }
+            finally
+            {
+                if(second >= 0 && second != first) stripes[second].unlock();
+                if(first >= 0) stripes[first].unlock();
+            }
+        }
+        finally
+        {
+            structure.readLock().unlock();
+        }
+    }
+
+    private <T> T withNode(Node n, Supplier<T> op)
+    {
+        return withNodes(n, n, op);
+    }
+
+    /* Runs op with only the chart lock shared, for reads of what only changes exclusively.
+     */
+    private <T> T shared(Supplier<T> op)
+    {
+        return withNodes(null, null, op);
+    }
+
+    /* Like withNodes, for edits, which compact the stores once enough have piled up.
+     * Edits that serialize (see Flowchart.serializesEdits) run alone instead.
+     */
+    private void editNodes(Node a, Node b, Runnable op)
+    {
+        if(!editShared(a, b, op))
+        {
+            exclusively(op);
+            return;
+        }
+
+        sharedEdits.increment();
+        if(ThreadLocalRandom.current().nextInt(COMPACT_CHECK) == 0)
+            maybeCompact();
+    }
+
+    /* Runs op under withNodes unless edits must serialize.
+     * Checked again under the lock, as that may have changed while waiting for it.
+     * @return whether op ran
+     */
+    private boolean editShared(Node a, Node b, Runnable op)
+    {
+        if(serializesEdits()) return false;
+        return withNodes(a, b, () ->
+        {
+            if(serializesEdits()) return false;
+            op.run();
+            return true;
+        });
+    }
+
+    private int stripeOf(Node n)
+    {
+        int slot = slotOf(n);
+        return slot < 0 ? -1 : slot & stripeMask;
+    }
+
+    /* Folds deferred edits into the stores once they are about as many as the nodes.
+     */
+    private void maybeCompact()
+    {
+        if(sharedEdits.sum() < Math.max(1024, nodeCount())) return;
+
+        exclusively(() ->
+        {
+            if(sharedEdits.sum() < Math.max(1024, nodeCount())) return; //Another thread did it
+            super.compact();
+            sharedEdits.reset();
+        });
+    }
+
+    // === Get-Set ===
+
+    @Override public int getHeight(Node n) { return withNode(n, () -> super.getHeight(n)); }
+    @Override public int getRank(Node n) { return withNode(n, () -> super.getRank(n)); }
+
+    @Override 
+    public void setHeight(Node n, int h) 
+    { 
+        if(!editShared(n, n, () -> super.setHeight(n, h))) exclusively(() -> super.setHeight(n, h)); 
+    }
+
+    @Override 
+    public void setRank(Node n, int r) 
+    { 
+        if(!editShared(n, n, () -> super.setRank(n, r))) exclusively(() -> super.setRank(n, r)); 
+    }
+
+
+    @Override
+    public Set<Node> getAllNodes()
+    {
+        return shared(() -> Collections.unmodifiableSet(new HashSet<>(super.getAllNodes())));
+    }
+
+    /* Copy of one of n's connection sets, taken under n's stripe.
+     */
+    @Override
+    public Set<Node> getRelationSet(Relation r, Node n)
+    {
+        return withNode(n, () -> Collections.unmodifiableSet(new HashSet<>(super.getRelationSet(r, n))));
+    }
+
+    @Override public String getTitle() { return shared(super::getTitle); }
+    @Override public void setTitle(String t) { exclusively(() -> super.setTitle(t)); }
+
+    @Override public int nodeCount() { return shared(super::nodeCount); }
+    @Override public boolean containsNode(Node n) { return shared(() -> super.containsNode(n)); }
+
+    // === Graph Methods ===
+
+    @Override public boolean hasEdge(Node src, Node dest) { return withNode(src, () -> super.hasEdge(src, dest)); }
+    @Override public Node getNodeById(int id) { return shared(() -> super.getNodeById(id)); }
+
+    @Override
+    public void addNode(Node n, Set<Node> inbound, Set<Node> outbound)
+    {
+        exclusively(() -> super.addNode(n, inbound, outbound));
+    }
+
+    @Override public void addNode(Node n) { exclusively(() -> super.addNode(n)); }
+    @Override public void removeNode(Node n) { exclusively(() -> super.removeNode(n)); }
+    @Override public void removeNodes(Collection<Node> doomed) { exclusively(() -> super.removeNodes(doomed)); }
+
+    @Override public void addEdge(Node src, Node dest) { editNodes(src, dest, () -> super.addEdge(src, dest)); }
+    @Override public void removeEdge(Node src, Node dest) { editNodes(src, dest, () -> super.removeEdge(src, dest)); }
+
+    @Override
+    public String toString()
+    {
+        return atomically(super::toString);
+    }
+
+    // === Link Methods ===
+
+    @Override public boolean hasLink(Node n, Node query) { return withNode(n, () -> super.hasLink(n, query)); }
+    @Override public void addLink(Node a, Node b) { exclusively(() -> super.addLink(a, b)); }
+    @Override public void removeLink(Node a, Node b) { exclusively(() -> super.removeLink(a, b)); } //Regroups the link group
+    @Override public Set<Node> getLinkGroup(Node n) { return shared(() -> super.getLinkGroup(n)); }
+
+    // === Mention Methods ===
+
+    @Override public boolean hasMention(Node n, Node query) { return withNode(n, () -> super.hasMention(n, query)); }
+    @Override public void addMention(Node src, Node dest) { editNodes(src, dest, () -> super.addMention(src, dest)); }
+    @Override public void removeMention(Node src, Node dest) { editNodes(src, dest, () -> super.removeMention(src, dest)); }
+    @Override public Set<Node> allMentionsTo(Node n) { return withNode(n, () -> super.allMentionsTo(n)); }
+
+    // === Height Methods ===
+
+    @Override public void updateHeight(Node start, int delta) { exclusively(() -> super.updateHeight(start, delta)); }
+
+    @Override
+    public void updateHeight(Node start, int delta, Set<Node> previousVisited, boolean allowUpwardRecursion)
+    {
+        exclusively(() -> super.updateHeight(start, delta, previousVisited, allowUpwardRecursion));
+    }
+
+    // === Store Methods ===
+
+    @Override
+    public void compact()
+    {
+        exclusively(() ->
+        {
+            super.compact();
+            sharedEdits.reset();
+        });
+    }
+
+    @Override public long footprintBytes() { return atomically(super::footprintBytes); }
+
+    @Override public boolean hasDirty() { return atomically(super::hasDirty); }
+    @Override public int dirtyCount() { return atomically(super::dirtyCount); }
+    @Override public void drainDirty(IntList dst) { exclusively(() -> super.drainDirty(dst)); }
+}
@@ -0,0 +1,207 @@
+package com.jokodub.flowcharter.model.classes;
+
+import java.util.Arrays;
+
+/* Append-only record of the primitive edits made to a Flowchart, grouped into undo steps.
+ *
+ * Each edit is four ints in one flat array: kind, node id, other id, delta.
+ * Connections store both ids, moves store the id and the delta, and node edits
+ * store the id and an index into refs, which keeps the Node itself so a removed
+ * node can be put back. Ids rather than slots are kept because slots are reused.
+ *
+ * Steps [first, done) can be undone and steps [done, stepEnds.size()) redone.
+ * A new edit after an undo drops the steps that could have been redone.
+ * Steps older than the limit are forgotten, and their space reclaimed once
+ * they are the larger part of the arrays, so memory follows the edits kept.
+ */
+final class EditLog
+{
+    // === Instance Variables ===
+
+    private static final int WIDTH = 4; //Ints per edit
+    private static final int MIN_RECLAIM = 1024; //Forgotten steps needed before the arrays shift
+
+    private int[] edits = new int[WIDTH * 64];
+    private int size; //Edits recorded
+
+    private Node[] refs = new Node[16];
+    private int refCount;
+
+    private final IntList stepEnds = new IntList(); //Edit count at the end of each step
+    private final IntList refEnds = new IntList(); //refCount at the end of each step
+    private int first; //Oldest step still undoable
+    private int done; //Steps currently applied
+
+    private int limit;
+
+    // === Constructors ===
+
+    EditLog(int limit)
+    {
+        this.limit = limit;
+    }
+
+    // === Get-Set ===
+
+    int limit() { return limit; }
+
+    void setLimit(int limit)
+    {
+        this.limit = limit;
+        forgetOld();
+    }
+
+    boolean canUndo() { return done > first; }
+    boolean canRedo() { return done < stepEnds.size(); }
+
+    /* Steps that can be undone.
+     */
+    int undoable() { return done - first; }
+
+    // === Recording ===
+
+    void add(FlowchartEdit.Kind kind, int id, int other, int delta)
+    {
+        if(canRedo()) dropRedo();
+        if(edits.length == size * WIDTH)
+            edits = Arrays.copyOf(edits, edits.length << 1);
+
+        int at = size++ * WIDTH;
+        edits[at] = kind.ordinal();
+        edits[at + 1] = id;
+        edits[at + 2] = other;
+        edits[at + 3] = delta;
+    }
+
+    void addNode(FlowchartEdit.Kind kind, Node n)
+    {
+        if(canRedo()) dropRedo();
+        if(refCount == refs.length)
+            refs = Arrays.copyOf(refs, refs.length << 1);
+        refs[refCount] = n;
+        add(kind, n.getId(), refCount++, 0);
+    }
+
+    /* Ends the step in progress. Steps with no edits are not kept.
+     * @return whether the step had any edits
+     */
+    boolean closeStep()
+    {
+        if(size == openStart()) return false;
+
+        stepEnds.add(size);
+        refEnds.add(refCount);
+        done++;
+        forgetOld();
+        return true;
+    }
+
+    /* Forgets every step, for when the chart is changed in ways the log cannot follow.
+     */
+    void clear()
+    {
+        size = 0;
+        Arrays.fill(refs, 0, refCount, null);
+        refCount = 0;
+        stepEnds.clear();
+        refEnds.clear();
+        first = 0;
+        done = 0;
+    }
+
+    // === Steps ===
+
+    int size() { return size; }
+
+    /* First edit of the step in progress, which starts after every closed step.
+     */
+    int openStart() { return stepEnds.isEmpty() ? 0 : stepEnds.peek(); }
+
+    int stepStart(int step) { return step == 0 ? 0 : stepEnds.get(step - 1); }
+    int stepEnd(int step) { return stepEnds.get(step); }
+
+    /* The step an undo reverts, and the one a redo reapplies.
+     */
+    int lastDone() { return done - 1; }
+    int nextUndone() { return done; }
+
+    void stepBack() { done--; }
+    void stepForward() { done++; }
+
+    FlowchartEdit.Kind kind(int e) { return FlowchartEdit.Kind.values()[edits[e * WIDTH]]; }
+    int id(int e) { return edits[e * WIDTH + 1]; }
+    int other(int e) { return edits[e * WIDTH + 2]; }
+    int delta(int e) { return edits[e * WIDTH + 3]; }
+    Node node(int e) { return refs[edits[e * WIDTH + 2]]; }
+
+    /* Forgets the undone steps, as the first edit of a new step is about to be recorded.
+     */
+    private void dropRedo()
+    {
+        size = stepStart(done);
+        int refsKept = done == 0 ? 0 : refEnds.get(done - 1);
+        Arrays.fill(refs, refsKept, refCount, null);
+        refCount = refsKept;
+        while(stepEnds.size() > done)
+        {
+            stepEnds.pop();
+            refEnds.pop();
+        }
+    }
+
+    /* Moves first up to keep at most limit steps undoable,
+     * then shifts the arrays down once most of them are forgotten steps.
+     */
+    private void forgetOld()
+    {
+        if(done - first > limit)
+            first = done - limit;
+        if(first == stepEnds.size() && size == openStart())
+        {
+            clear(); //Nothing left to undo or redo
+            return;
+        }
+        if(first < MIN_RECLAIM || first * 2 < stepEnds.size()) return;
+
+        int editShift = stepEnds.get(first - 1);
+        int refShift = refEnds.get(first - 1);
+        System.arraycopy(edits, editShift * WIDTH, edits, 0, (size - editShift) * WIDTH);
+        size -= editShift;
+        for(int e = 0; e < size; e++)
+        {
+            FlowchartEdit.Kind k = kind(e);
+            if(k == FlowchartEdit.Kind.ADD_NODE || k == FlowchartEdit.Kind.REMOVE_NODE)
+                edits[e * WIDTH + 2] -= refShift;
+        }
+        System.arraycopy(refs, refShift, refs, 0, refCount - refShift);
+        Arrays.fill(refs, refCount - refShift, refCount, null);
+        refCount -= refShift;
+
+        int steps = stepEnds.size() - first;
+        for(int i = 0; i < steps; i++)
+        {
+            stepEnds.set(i, stepEnds.get(i + first) - editShift);
+            refEnds.set(i, refEnds.get(i + first) - refShift);
+        }
+        while(stepEnds.size() > steps)
+        {
+            stepEnds.pop();
+            refEnds.pop();
+        }
+        done -= first;
+        first = 0;
+
+        //Give back space once the log has shrunk well below its arrays
+        if(edits.length > 256 && size * WIDTH * 4 < edits.length)
+            edits = Arrays.copyOf(edits, Math.max(size * WIDTH * 2, WIDTH * 64));
+        if(refs.length > 64 && refCount * 4 < refs.length)
+            refs = Arrays.copyOf(refs, Math.max(refCount * 2, 16));
+    }
+
+    /* Approximate heap footprint in bytes, excluding the Nodes kept.
+     */
+    long footprintBytes()
+    {
+        return 16L + 4L * edits.length + 4L * refs.length + 8L * stepEnds.size() + 64;
+    }
+}
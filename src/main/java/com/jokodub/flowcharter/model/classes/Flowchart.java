@@ -1,59 +1,189 @@
 package com.jokodub.flowcharter.model.classes;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.function.Supplier;
 
 public class Flowchart 
 {   
     // === Instance Variables ===
 
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int ID_BLOCK = 1024; //Ids taken from the shared allocator at a time
+
     private String title;
-    private Map<Node, List<Integer>> nodePositions; //[Height(vertical), Rank(horizontal)]
-    private Map<Node, List<Set<Node>>> nodeConnections; //[Inbound, Outbound, Links, Mentions]
+
+    //Every node owns an int slot, all per-node data is indexed by it
+    private Node[] nodes; //Slot -> Node, null if slot is free
+    private IntIntMap slotById; //Node id -> slot
+    private IntList freeSlots; //Slots released by removed nodes, reused first
+    private int slotLimit; //One past the highest slot ever used
+    private int nodeCount;
+
+    private int[] heights; //Vertical position per slot
+    private int[] ranks; //Horizontal position per slot
+    private final AdjacencyStore[] connections; //[Inbound, Outbound, Links, Mentions], see Relation
+    private final AdjacencyStore mentionedBy; //Reverse of Mentions, so removal doesn't scan the chart
+    private final LinkGroups linkGroups; //Nodes sharing a height through chains of links
+    private final HeightBuckets layers; //Live slots by height
+
     private final Node top;
     private final Node bottom;
 
+    //Block of ids reserved for newNode, [nextId, idLimit)
+    private int nextId;
+    private int idLimit;
+
+    private final ArrayDeque<Traversal> traversalPool = new ArrayDeque<>();
+    private int[] needed = new int[0]; //Height each slot queued by lowerGroup must reach
+
+    //Slots whose layout may be stale since the last optimization
+    private boolean[] dirty;
+    private final IntList dirtySlots = new IntList();
+    private Object dirtyLock; //Guards dirtySlots and changedSlots once slot edits may run in parallel, else null
+
+    //Slots edited since the last snapshot, only tracked once one has been taken
+    private FlowchartSnapshot lastSnapshot;
+    private boolean[] changed;
+    private final IntList changedSlots = new IntList();
+
+    //Record of edits for undo and listeners, null while neither is wanted
+    private EditLog log;
+    private int historyLimit;
+    private int stepDepth; //Public edits in progress, the outermost closes the step
+    private boolean replaying; //Undo or redo is applying the log, don't record it again
+    private final List<FlowchartListener> listeners = new ArrayList<>();
+
+    private Reachability reach; //Kept current once someone asks for it, else null
+
     // === Constructors ===
 
     public Flowchart(String title)
+    {
+        this(title, false);
+    }
+
+    public Flowchart()
+    {
+        this("Flowchart");
+    }
+
+    /* @param sharedSlots as whether slot edits may run in parallel from the start, see shareSlotEdits
+     */
+    Flowchart(String title, boolean sharedSlots)
     {
         this.title = title; 
 
-        //Initialize maps of node positions and connections
-        nodePositions = new HashMap<>();
-        nodeConnections = new HashMap<>();
+        //Initialize slot tables and the store of each relation
+        nodes = new Node[INITIAL_CAPACITY];
+        slotById = new IntIntMap(INITIAL_CAPACITY);
+        freeSlots = new IntList();
+        heights = new int[INITIAL_CAPACITY];
+        ranks = new int[INITIAL_CAPACITY];
+        dirty = new boolean[INITIAL_CAPACITY];
+        connections = new AdjacencyStore[Relation.values().length];
+        for(int i = 0; i < connections.length; i++)
+            connections[i] = new AdjacencyStore(INITIAL_CAPACITY);
+        mentionedBy = new AdjacencyStore(INITIAL_CAPACITY);
+        linkGroups = new LinkGroups(INITIAL_CAPACITY);
+        layers = new HeightBuckets(INITIAL_CAPACITY);
 
         //Initialize invisible top and bottom nodes for traversal
         top = new Node("Top");
         bottom = new Node("Bot");
         this.registerNode(top);
         this.registerNode(bottom);
-        this.addEdge(top, bottom);
-        this.setHeight(bottom, 1);
+        connect(slotOf(top), slotOf(bottom));
+        int b = slotOf(bottom);
+        leaveLayer(b);
+        heights[b] = 1;
+        joinLayer(b);
+        if(sharedSlots) shareSlotEdits();
     }
 
-    public Flowchart()
+    /* Starts a chart whose slots hold loaded in order, with the given positions
+     * and no connections yet. loaded[0] becomes top and loaded[1] bottom.
+     * Nothing is marked dirty, the positions are taken as already laid out.
+     * For loaders, which then fill the relations through installRelation.
+     */
+    Flowchart(String title, Node[] loaded, int[] loadedHeights, int[] loadedRanks)
     {
-        this("Flowchart");
+        this.title = title;
+
+        int capacity = Math.max(INITIAL_CAPACITY, loaded.length);
+        nodes = Arrays.copyOf(loaded, capacity);
+        slotById = new IntIntMap(capacity);
+        freeSlots = new IntList();
+        heights = Arrays.copyOf(loadedHeights, capacity);
+        ranks = Arrays.copyOf(loadedRanks, capacity);
+        dirty = new boolean[capacity];
+        connections = new AdjacencyStore[Relation.values().length];
+        for(int i = 0; i < connections.length; i++)
+            connections[i] = new AdjacencyStore(capacity);
+        mentionedBy = new AdjacencyStore(capacity);
+        linkGroups = new LinkGroups(capacity);
+        layers = new HeightBuckets(capacity);
+
+        for(int slot = 0; slot < loaded.length; slot++)
+        {
+            if(slotOf(loaded[slot]) >= 0)
+                throw new IllegalArgumentException("Node " + loaded[slot] + " is loaded twice");
+            slotById.put(loaded[slot].getId(), slot);
+            layers.add(slot, heights[slot]);
+        }
+        slotLimit = loaded.length;
+        nodeCount = loaded.length;
+
+        top = loaded[0];
+        bottom = loaded[1];
     }
 
     // === Get-Set ===
 
-    public int getHeight(Node n) { return nodePositions.get(n).get(0); }
-    public int getRank(Node n) { return nodePositions.get(n).get(1); }
-    public void setHeight(Node n, int h) { nodePositions.get(n).set(0, h); }
-    public void setRank(Node n, int r) { nodePositions.get(n).set(1, r); }
+    public int getHeight(Node n) { return heights[requireSlot(n)]; }
+    public int getRank(Node n) { return ranks[requireSlot(n)]; }
 
-    public Set<Node> getAllNodes() { return nodeConnections.keySet(); }
-    public Set<Node> getInboundSet(Node n) { return nodeConnections.get(n).get(0); }
-    public Set<Node> getOutboundSet(Node n) { return nodeConnections.get(n).get(1); }
-    public Set<Node> getLinkSet(Node n) { return nodeConnections.get(n).get(2); }
-    public Set<Node> getMentionSet(Node n) { return nodeConnections.get(n).get(3); }
+    public void setHeight(Node n, int h) 
+    { 
+        int slot = requireSlot(n);
+        beginStep();
+        setHeightAt(slot, h); 
+        endStep();
+    }
+
+    public void setRank(Node n, int r) 
+    { 
+        int slot = requireSlot(n);
+        beginStep();
+        setRankAt(slot, r); 
+        endStep();
+    }
+
+    /* The getters below return live, read-only views rather than the node's own sets,
+     * so add(), remove() and clear() on them throw UnsupportedOperationException.
+     * Edit connections through the Flowchart methods instead.
+     */
+    public Set<Node> getAllNodes() { return new NodeSetView(); }
+    public Set<Node> getInboundSet(Node n) { return getRelationSet(Relation.INBOUND, n); }
+    public Set<Node> getOutboundSet(Node n) { return getRelationSet(Relation.OUTBOUND, n); }
+    public Set<Node> getLinkSet(Node n) { return getRelationSet(Relation.LINK, n); }
+    public Set<Node> getMentionSet(Node n) { return getRelationSet(Relation.MENTION, n); }
+
+    /* Live, read-only view of one of n's connection sets.
+     * It follows n to a new slot after swapAt, and is empty once n is removed.
+     */
+    public Set<Node> getRelationSet(Relation r, Node n) { return new RelationSetView(r, n, requireSlot(n)); }
 
     public Node getTop() { return top; }
     public Node getBottom() { return bottom; }
@@ -61,20 +191,628 @@ public class Flowchart
     public String getTitle() { return title; }
     public void setTitle(String t) { title = t; }
 
+    public int nodeCount() { return nodeCount; }
+    public boolean containsNode(Node n) { return slotOf(n) >= 0; }
+
+    // === Slot Methods ===
+
+    /* Slots are small ints (0 <= slot < slotLimit()) that index every per-node array.
+     * They let traversals keep their state in plain arrays instead of Node sets.
+     * A slot is stable while its node stays in the Flowchart, and may be reused after removal.
+     */
+
+    public int slotLimit() { return slotLimit; }
+    public Node nodeAt(int slot) { return nodes[slot]; }
+    public int heightAt(int slot) { return heights[slot]; }
+    public int rankAt(int slot) { return ranks[slot]; }
+    public void setHeightAt(int slot, int h) { moveHeight(slot, h - heights[slot]); }
+    public void setRankAt(int slot, int r) { moveRank(slot, r - ranks[slot]); }
+    public int degreeAt(Relation r, int slot) { return connections[r.ordinal()].degree(slot); }
+    public boolean hasEdgeAt(int src, int dest) { return connections[Relation.OUTBOUND.ordinal()].contains(src, dest); }
+
+    /* Live nodes at height h, top and bottom included, counted without scanning the chart.
+     */
+    public int layerSize(int h) { return layers.sizeAt(h); }
+
+    /* Appends onto dst the slot of every live node at height h, in no particular order.
+     */
+    public void layerAt(int h, IntList dst) { layers.appendMembers(h, dst); }
+
+    /* @return slot of n, or -1 if n is not part of this Flowchart
+     */
+    public final int slotOf(Node n)
+    {
+        if(n == null) return -1;
+        return slotById.get(n.getId(), -1);
+    }
+
+    /* Link groups: nodes joined by a chain of height-links, which all share a height.
+     * Kept current as links and nodes come and go, so these take about O(1),
+     * or the size of the group to list it.
+     */
+
+    /* @return a slot standing for slot's link group, the same for every member
+     */
+    public int linkGroupAt(int slot) { return linkGroups.rootOf(slot); }
+    public int linkGroupSizeAt(int slot) { return linkGroups.sizeOf(slot); }
+
+    /* Appends every slot in slot's link group onto dst, slot first.
+     * @param dst as a reusable buffer, not cleared first
+     */
+    public void linkGroupMembersAt(int slot, IntList dst)
+    {
+        linkGroups.appendMembers(slot, dst);
+    }
+
+    /* Appends the slots connected to slot by relation r onto dst.
+     * @param dst as a reusable buffer, not cleared first
+     */
+    public void neighboursAt(Relation r, int slot, IntList dst)
+    {
+        connections[r.ordinal()].appendTo(slot, dst);
+    }
+
+    /* Registers nodes with no connections and height 0, growing the tables once.
+     * Meant for bulk loaders, which must connect every one of them (see addEdgesAt)
+     * so that the chart stays traversable from top to bottom.
+     * Nodes already in the Flowchart keep their slot.
+     * @param added as Nodes to register, in order
+     * @return the slot of each Node, in the same order
+     */
+    public int[] registerAll(List<Node> added)
+    {
+        ensureSlotCapacity(slotLimit + added.size());
+
+        int[] slots = new int[added.size()];
+        for(int i = 0; i < slots.length; i++)
+        {
+            registerNode(added.get(i));
+            slots[i] = slotOf(added.get(i));
+        }
+        return slots;
+    }
+
+    /* Adds the edges src[i] -> dest[i] in one linear pass over the adjacency arrays.
+     * Edges already present are skipped.
+     * @param src,dest as slots of live nodes, paired by index
+     */
+    public void addEdgesAt(IntList src, IntList dest)
+    {
+        if(reach != null) reach.invalidate();
+        if(recording())
+        {
+            //The log needs to know which edges are new, so go one at a time
+            for(int i = 0; i < src.size(); i++)
+                connect(src.get(i), dest.get(i));
+            return;
+        }
+
+        connections[Relation.OUTBOUND.ordinal()].addAll(src, dest);
+        connections[Relation.INBOUND.ordinal()].addAll(dest, src);
+        for(int i = 0; i < src.size(); i++)
+        {
+            markDirty(src.get(i));
+            markDirty(dest.get(i));
+        }
+    }
+
+    /* Removes the edges src[i] -> dest[i] that exist, one at a time as removeEdge would,
+     * so the reachability index and any log follow along.
+     * @param src,dest as slots of live nodes, paired by index
+     */
+    public void removeEdgesAt(IntList src, IntList dest)
+    {
+        for(int i = 0; i < src.size(); i++)
+            disconnect(src.get(i), dest.get(i));
+    }
+
+    /* Replaces every entry of relation r with a ready-made CSR over the slots,
+     * and rebuilds the reverse direction to match (inbound for outbound,
+     * the mention index for mentions). Inbound is never installed on its own.
+     * Links must already be symmetric.
+     * @param offsets as segment starts, slotLimit() + 1 long
+     * @param targets as slots of every segment, back to back
+     */
+    void installRelation(Relation r, int[] offsets, int[] targets)
+    {
+        if(r == Relation.INBOUND)
+            throw new IllegalArgumentException("Inbound is rebuilt from outbound");
+
+        if(reach != null) reach.invalidate();
+        connections[r.ordinal()].install(offsets, targets);
+        if(r == Relation.OUTBOUND)
+            connections[Relation.INBOUND.ordinal()].installReverseOf(connections[r.ordinal()]);
+        else if(r == Relation.MENTION)
+            mentionedBy.installReverseOf(connections[r.ordinal()]);
+        else if(r == Relation.LINK)
+        {
+            IntList buf = new IntList();
+            for(int slot = 0; slot < slotLimit; slot++)
+                linkGroups.reset(slot);
+            for(int slot = 0; slot < slotLimit; slot++)
+            {
+                buf.clear();
+                connections[r.ordinal()].appendTo(slot, buf);
+                for(int i = 0; i < buf.size(); i++)
+                    linkGroups.union(slot, buf.get(i));
+            }
+        }
+    }
+
+    /* Folds edits made since the last compaction into the dense adjacency arrays.
+     * This happens automatically as edits pile up, but is worth calling after a bulk load.
+     */
+    public void compact()
+    {
+        for(AdjacencyStore store : connections)
+            store.compact();
+        mentionedBy.compact();
+    }
+
+    /* Runs a multi-step operation as one unit. A plain Flowchart is meant for one thread
+     * at a time, so it just runs op. ConcurrentFlowchart holds every other thread off
+     * until op returns, which makes it the place to use the slot and traversal methods.
+     * @param op as operation on this chart, returning a result or null
+     */
+    public <T> T atomically(Supplier<T> op)
+    {
+        beginStep();
+        try
+        {
+            return op.get();
+        }
+        finally
+        {
+            endStep();
+        }
+    }
+
+    /* Immutable view of the chart as it is now, safe to read from any thread without locking.
+     * Consecutive snapshots share every page of slots not edited in between,
+     * so taking one costs about the size of what changed, not of the chart.
+     * Taking none costs nothing: edits are only tracked once the first is taken.
+     */
+    public FlowchartSnapshot snapshot()
+    {
+        return atomically(() ->
+        {
+            if(lastSnapshot == null)
+            {
+                changed = new boolean[nodes.length];
+                lastSnapshot = FlowchartSnapshot.of(this);
+            }
+            else if(!changedSlots.isEmpty() || !lastSnapshot.getTitle().equals(title))
+            {
+                lastSnapshot = lastSnapshot.advance(this, changedSlots);
+                for(int i = 0; i < changedSlots.size(); i++)
+                    changed[changedSlots.get(i)] = false;
+                changedSlots.clear();
+            }
+            return lastSnapshot;
+        });
+    }
+
+    /* Reachability and cycle queries over this chart's edges, built on first use
+     * and from then on kept current by every edit, which costs a little on each.
+     * Call dropReachability once it is no longer needed.
+     */
+    public Reachability reachability()
+    {
+        return atomically(() ->
+        {
+            if(reach == null) reach = new Reachability(this);
+            return reach;
+        });
+    }
+
+    /* Whether reachability() is being kept current, so queries on it are cheap.
+     */
+    public boolean hasReachability() { return reach != null; }
+
+    public void dropReachability()
+    {
+        atomically(() -> { reach = null; return null; });
+    }
+
+    /* Lets edits confined to the slots of one or two nodes run in parallel,
+     * as long as each slot is only edited by one thread at a time:
+     * the stores stop compacting on their own and dirty marks are queued under a lock.
+     * The caller then compacts while no other thread is editing.
+     */
+    private void shareSlotEdits()
+    {
+        for(AdjacencyStore store : connections)
+            store.deferCompaction();
+        mentionedBy.deferCompaction();
+        dirtyLock = new Object();
+    }
+
+    /* Approximate heap footprint of the graph store in bytes, excluding the Node objects.
+     */
+    public long footprintBytes()
+    {
+        long bytes = 16L + 4L * nodes.length + slotById.footprintBytes() 
+                   + 2 * (16L + 4L * heights.length);
+        for(AdjacencyStore store : connections)
+            bytes += store.footprintBytes();
+        bytes += mentionedBy.footprintBytes() + linkGroups.footprintBytes() + layers.footprintBytes();
+        if(log != null) bytes += log.footprintBytes();
+        return bytes;
+    }
+
+    // === History ===
+
+    /* Every public edit is recorded as the primitive edits it made (see FlowchartEdit),
+     * grouped into one step per call, or per call of atomically for multi-step operations.
+     * Steps can be undone and redone, and are handed to listeners as one FlowchartChange.
+     * Recording only happens while history is kept or someone is listening,
+     * and costs memory in proportion to the edits kept, not to the chart.
+     * Titles are not part of the history.
+     */
+
+    public int getHistoryLimit() { return historyLimit; }
+
+    /* Keeps the last steps edits for undo, forgetting older ones. 0 turns undo off.
+     * @param steps as how many steps undo can go back
+     */
+    public void setHistoryLimit(int steps)
+    {
+        if(steps < 0)
+            throw new IllegalArgumentException("History limit must not be negative: " + steps);
+        atomically(() ->
+        {
+            historyLimit = steps;
+            updateLog();
+            return null;
+        });
+    }
+
+    public boolean canUndo() { return atomically(() -> log != null && log.canUndo()); }
+    public boolean canRedo() { return atomically(() -> log != null && log.canRedo()); }
+
+    /* Reverts the last step that has not been undone yet.
+     * Does nothing when called from inside another edit, such as atomically.
+     * @return whether there was a step to undo
+     */
+    public boolean undo()
+    {
+        return atomically(() ->
+        {
+            if(log == null || stepDepth > 1 || !log.canUndo()) return false;
+
+            int step = log.lastDone();
+            int start = log.stepStart(step), end = log.stepEnd(step);
+            replaying = true;
+            try
+            {
+                for(int e = end - 1; e >= start; e--)
+                    replay(e, true);
+            }
+            finally
+            {
+                replaying = false;
+            }
+            log.stepBack();
+            fireChange(FlowchartChange.Origin.UNDO, start, end);
+            return true;
+        });
+    }
+
+    /* Applies the last undone step again. A new edit after an undo makes redo impossible.
+     * @return whether there was a step to redo
+     */
+    public boolean redo()
+    {
+        return atomically(() ->
+        {
+            if(log == null || stepDepth > 1 || !log.canRedo()) return false;
+
+            int step = log.nextUndone();
+            int start = log.stepStart(step), end = log.stepEnd(step);
+            replaying = true;
+            try
+            {
+                for(int e = start; e < end; e++)
+                    replay(e, false);
+            }
+            finally
+            {
+                replaying = false;
+            }
+            log.stepForward();
+            fireChange(FlowchartChange.Origin.REDO, start, end);
+            return true;
+        });
+    }
+
+    /* Forgets every step, so nothing before now can be undone or redone.
+     */
+    public void clearHistory()
+    {
+        atomically(() ->
+        {
+            if(log != null) log.clear();
+            return null;
+        });
+    }
+
+    public void addChangeListener(FlowchartListener l)
+    {
+        atomically(() ->
+        {
+            listeners.add(l);
+            updateLog();
+            return null;
+        });
+    }
+
+    public void removeChangeListener(FlowchartListener l)
+    {
+        atomically(() ->
+        {
+            listeners.remove(l);
+            updateLog();
+            return null;
+        });
+    }
+
+    /* Whether edits update shared state beyond their own slots (the edit log or
+     * the reachability index), in which case they must not run in parallel.
+     */
+    boolean serializesEdits() { return log != null || reach != null; }
+
+    private boolean recording() { return log != null && !replaying; }
+
+    private void updateLog()
+    {
+        if(historyLimit == 0 && listeners.isEmpty())
+        {
+            log = null;
+            stepDepth = 0;
+        }
+        else if(log == null)
+        {
+            log = new EditLog(historyLimit);
+            stepDepth = 0; //Edits already in progress are not part of any step
+        }
+        else
+            log.setLimit(historyLimit);
+    }
+
+    private void beginStep()
+    {
+        if(log != null) stepDepth++;
+    }
+
+    /* Closes the step once the outermost public edit returns, and tells the listeners.
+     */
+    private void endStep()
+    {
+        if(log == null || stepDepth == 0 || --stepDepth > 0) return;
+
+        int start = log.openStart(), end = log.size();
+        if(start == end) return;
+        FlowchartChange change = listeners.isEmpty() ? null : changeOf(FlowchartChange.Origin.EDIT, start, end);
+        log.closeStep();
+        if(change != null) fireChange(change);
+    }
+
+    private void record(FlowchartEdit.Kind kind, int slot, int other, int delta)
+    {
+        if(!recording()) return;
+        log.add(kind, nodes[slot].getId(), other < 0 ? 0 : nodes[other].getId(), delta);
+    }
+
+    /* Records the removal of every connection of slot, ahead of removing the node.
+     * Connections to other nodes being removed with it are recorded once, by whichever owns them.
+     * @param removing as slots being removed in the same pass, null if only slot is
+     */
+    private void recordDisconnect(int slot, boolean[] removing)
+    {
+        IntList buf = new IntList();
+        for(int k = 0; k < 5; k++)
+        {
+            buf.clear();
+            storeOf(k).appendTo(slot, buf);
+            for(int i = 0; i < buf.size(); i++)
+            {
+                int other = buf.get(i);
+                boolean leaving = removing == null ? other == slot : removing[other];
+                switch(k)
+                {
+                    case 0: if(!leaving) record(FlowchartEdit.Kind.REMOVE_EDGE, other, slot, 0); break;
+                    case 1: record(FlowchartEdit.Kind.REMOVE_EDGE, slot, other, 0); break;
+                    case 2: if(!leaving || slot <= other) record(FlowchartEdit.Kind.REMOVE_LINK, slot, other, 0); break;
+                    case 3: record(FlowchartEdit.Kind.REMOVE_MENTION, slot, other, 0); break;
+                    default: if(!leaving) record(FlowchartEdit.Kind.REMOVE_MENTION, other, slot, 0); break;
+                }
+            }
+        }
+    }
+
+    /* Applies edit e of the log, or its inverse when going backwards.
+     */
+    private void replay(int e, boolean backwards)
+    {
+        FlowchartEdit.Kind kind = backwards ? log.kind(e).inverse() : log.kind(e);
+        int delta = backwards ? -log.delta(e) : log.delta(e);
+        int a = slotById.get(log.id(e), -1);
+        int b = slotById.get(log.other(e), -1);
+
+        switch(kind)
+        {
+            case ADD_NODE: registerNode(log.node(e)); break;
+            case REMOVE_NODE: releaseSlot(a); break;
+            case ADD_EDGE: connect(a, b); break;
+            case REMOVE_EDGE: disconnect(a, b); break;
+            case ADD_LINK: link(a, b); break;
+            case REMOVE_LINK: unlink(a, b); break;
+            case ADD_MENTION: mention(a, b); break;
+            case REMOVE_MENTION: unmention(a, b); break;
+            case MOVE_HEIGHT: moveHeight(a, delta); break;
+            default: moveRank(a, delta); break;
+        }
+    }
+
+    private void fireChange(FlowchartChange.Origin origin, int start, int end)
+    {
+        if(!listeners.isEmpty())
+            fireChange(changeOf(origin, start, end));
+    }
+
+    private void fireChange(FlowchartChange change)
+    {
+        //Listeners may add or remove listeners while being told
+        for(FlowchartListener l : listeners.toArray(new FlowchartListener[0]))
+            l.flowchartChanged(this, change);
+    }
+
+    /* Edits [start, end) of the log as they were made, or as undone in reverse.
+     */
+    private FlowchartChange changeOf(FlowchartChange.Origin origin, int start, int end)
+    {
+        //Nodes added or removed here may not be in the chart any more
+        Map<Integer, Node> passing = new HashMap<>();
+        for(int e = start; e < end; e++)
+        {
+            FlowchartEdit.Kind kind = log.kind(e);
+            if(kind == FlowchartEdit.Kind.ADD_NODE || kind == FlowchartEdit.Kind.REMOVE_NODE)
+                passing.put(log.id(e), log.node(e));
+        }
+
+        List<FlowchartEdit> edits = new ArrayList<>(end - start);
+        for(int e = start; e < end; e++)
+        {
+            FlowchartEdit.Kind kind = log.kind(e);
+            Node node = passing.containsKey(log.id(e)) ? passing.get(log.id(e)) : getNodeById(log.id(e));
+            Node other = null;
+            if(kind.ordinal() >= FlowchartEdit.Kind.ADD_EDGE.ordinal() && kind.ordinal() <= FlowchartEdit.Kind.REMOVE_MENTION.ordinal())
+                other = passing.containsKey(log.other(e)) ? passing.get(log.other(e)) : getNodeById(log.other(e));
+
+            FlowchartEdit edit = new FlowchartEdit(kind, node, other, log.delta(e));
+            edits.add(origin == FlowchartChange.Origin.UNDO ? edit.inverse() : edit);
+        }
+        if(origin == FlowchartChange.Origin.UNDO)
+            Collections.reverse(edits);
+        return new FlowchartChange(origin, edits);
+    }
+
+    // === Dirty Tracking ===
+
+    /* Edits that can change the layout (nodes, edges, links and heights) mark the slots
+     * they touch as dirty, so an optimizer can redo only the affected part of the chart.
+     * Rank changes are not tracked, they are what an optimizer writes.
+     */
+
+    public boolean hasDirty() { return !dirtySlots.isEmpty(); }
+    public boolean isDirtyAt(int slot) { return slot < dirty.length && dirty[slot]; }
+
+    /* Number of slots marked since the last drain, including ones since removed.
+     */
+    public int dirtyCount() { return dirtySlots.size(); }
+
+    /* Moves the live dirty slots onto dst and clears every mark.
+     * @param dst as buffer to append to, may be null to just clear
+     */
+    public void drainDirty(IntList dst)
+    {
+        for(int i = 0; i < dirtySlots.size(); i++)
+        {
+            int slot = dirtySlots.get(i);
+            dirty[slot] = false;
+            if(dst != null && nodes[slot] != null)
+                dst.add(slot);
+        }
+        dirtySlots.clear();
+    }
+
+    private void markDirty(int slot)
+    {
+        markChanged(slot);
+        if(dirty[slot]) return;
+        dirty[slot] = true;
+        if(dirtyLock == null)
+            dirtySlots.add(slot);
+        else
+            synchronized(dirtyLock) { dirtySlots.add(slot); }
+    }
+
+    private void markChanged(int slot)
+    {
+        if(lastSnapshot == null || changed[slot]) return;
+        changed[slot] = true;
+        if(dirtyLock == null)
+            changedSlots.add(slot);
+        else
+            synchronized(dirtyLock) { changedSlots.add(slot); }
+    }
+
+    private int requireSlot(Node n)
+    {
+        int slot = slotOf(n);
+        if(slot < 0)
+            throw new IllegalArgumentException("Node " + n + " is not part of " + title);
+        return slot;
+    }
+
+    private void ensureSlotCapacity(int needed)
+    {
+        if(needed <= nodes.length) return;
+
+        int newCapacity = Math.max(needed, nodes.length + (nodes.length >> 1));
+        nodes = Arrays.copyOf(nodes, newCapacity);
+        heights = Arrays.copyOf(heights, newCapacity);
+        ranks = Arrays.copyOf(ranks, newCapacity);
+        dirty = Arrays.copyOf(dirty, newCapacity);
+        if(changed != null) changed = Arrays.copyOf(changed, newCapacity);
+        for(AdjacencyStore store : connections)
+            store.ensureCapacity(newCapacity);
+        mentionedBy.ensureCapacity(newCapacity);
+        linkGroups.ensureCapacity(newCapacity);
+        layers.ensureCapacity(newCapacity);
+    }
+
     // === Graph Methods ===
 
-    public boolean hasEdge(Node src, Node dest) { return getOutboundSet(src).contains(dest); }
+    public boolean hasEdge(Node src, Node dest) { return hasEdgeAt(requireSlot(src), requireSlot(dest)); }
 
-    /* Searches all nodes for one matching id
+    /* Looks a node up through the id index, which every add and remove keeps current.
      * @param id as id to search for
-     * @return first matching node (should be only one that exists)
+     * @return matching node, or null if none is part of this Flowchart
      */
     public Node getNodeById(int id)
     {
-        for(Node n : getAllNodes())
-            if(n.getId() == id)
-                return n;
-        return null; //else, Node not a part of this flowchart
+        int slot = slotById.get(id, -1);
+        return slot < 0 ? null : nodes[slot];
+    }
+
+    /* Creates a Node with an id from this chart's reserved block, without adding it.
+     * Only the first call per block touches the shared allocator, so charts being
+     * built on separate threads don't contend over ids.
+     * @param name as name of the new Node
+     */
+    public Node newNode(String name)
+    {
+        if(nextId == idLimit)
+        {
+            nextId = Node.IDS.reserve(ID_BLOCK);
+            idLimit = nextId + ID_BLOCK;
+        }
+        return new Node(nextId++, name);
+    }
+
+    public Node newNode()
+    {
+        return newNode("");
+    }
+
+    /* Reserves count consecutive ids for a bulk loader, to use with new Node(id, name).
+     * The range is unique across every chart and thread.
+     * @return first id of the range [first, first + count)
+     */
+    public static int reserveIds(int count)
+    {
+        return Node.IDS.reserve(count);
     }
 
     /* Creates an entry for this Node in the Flowchart's Maps,
@@ -84,32 +822,174 @@ public class Flowchart
      */
     private void registerNode(Node n)
     {
-        //Initialize a list of 4 sets,
-        //  [Inbound connections, Outbound connections, Height links, Mentions]
-        //Null check here as to not create 4 more Sets if entry exists. 
-        if(nodeConnections.putIfAbsent(n, new ArrayList<>(4)) == null)
-            for(int i = 0; i < 4; i++)
-                nodeConnections.get(n).add(new HashSet<>());
-        
-        //Initialize ist of 2 integers, [height, rank]
-        nodePositions.putIfAbsent(n, new ArrayList<>(Arrays.asList(0, 0)));
+        if(slotOf(n) >= 0) return; //Already registered
+
+        //Reuse a released slot before growing the tables
+        int slot;
+        if(!freeSlots.isEmpty())
+            slot = freeSlots.pop();
+        else
+        {
+            slot = slotLimit++;
+            ensureSlotCapacity(slotLimit);
+        }
+
+        //Connections of a fresh or released slot are already empty, position starts at [0, 0]
+        nodes[slot] = n;
+        slotById.put(n.getId(), slot);
+        heights[slot] = 0;
+        ranks[slot] = 0;
+        joinLayer(slot);
+        markDirty(slot);
+        nodeCount++;
+        if(recording()) log.addNode(FlowchartEdit.Kind.ADD_NODE, n);
+        if(reach != null) reach.nodeAdded(slot);
     }
 
-    /* Deletes a Node from the Flowchart's Maps,
+    /* Deletes a Node from the Flowchart's slot tables,
      * meaning all references to it will be removed.
+     * Only n's own neighbours are visited, as every relation can be followed backwards.
      * Node does not need to be registered previously, this will do nothing. 
      * @param n as Node to remove
+     * @return how many slots were freed, 0 or 1
      */
-    private void unregisterNode(Node n)
+    private int unregisterNode(Node n)
     {   
-        //Remove all connections to n in other entries
-        for(List<Set<Node>> list : nodeConnections.values())
-            for(Set<Node> set : list)
-                set.remove(n);
+        int slot = slotOf(n);
+        if(slot < 0) return 0;
+        if(recording()) recordDisconnect(slot, null);
+
+        //Remove all connections to n in its neighbours' entries
+        IntList buf = new IntList();
+        for(int k = 0; k < 5; k++)
+        {
+            buf.clear();
+            reverseOf(k).appendTo(slot, buf);
+            for(int i = 0; i < buf.size(); i++)
+            {
+                if(buf.get(i) == slot) continue;
+                storeOf(k).remove(buf.get(i), slot);
+                if(k < 3) markDirty(buf.get(i)); //Lost an edge or link, mentions don't affect layout
+                else markChanged(buf.get(i));
+            }
+        }
 
-        //Remove n's own entries
-        nodeConnections.remove(n); 
-        nodePositions.remove(n);
+        releaseSlot(slot);
+        return 1;
+    }
+
+    /* Deletes many Nodes at once. Neighbours shared by several of them
+     * are cleaned a single time, instead of once per removed node.
+     * Nodes not in the Flowchart are ignored.
+     * @param doomed as Nodes to remove
+     * @return how many slots were freed, counting each removed Node once
+     */
+    private int unregisterNodes(Collection<Node> doomed)
+    {
+        boolean[] removing = new boolean[slotLimit];
+        IntList slots = new IntList(doomed.size());
+        for(Node n : doomed)
+        {
+            int slot = slotOf(n);
+            if(slot >= 0 && !removing[slot])
+            {
+                removing[slot] = true;
+                slots.add(slot);
+            }
+        }
+        if(slots.isEmpty()) return 0;
+        if(recording())
+            for(int i = 0; i < slots.size(); i++)
+                recordDisconnect(slots.get(i), removing);
+
+        //For each store, gather the surviving neighbours that reference a removed slot
+        boolean[] queued = new boolean[slotLimit];
+        IntList touched = new IntList();
+        IntList buf = new IntList();
+        for(int k = 0; k < 5; k++)
+        {
+            touched.clear();
+            for(int i = 0; i < slots.size(); i++)
+            {
+                buf.clear();
+                reverseOf(k).appendTo(slots.get(i), buf);
+                for(int j = 0; j < buf.size(); j++)
+                {
+                    int nb = buf.get(j);
+                    if(!removing[nb] && !queued[nb])
+                    {
+                        queued[nb] = true;
+                        touched.add(nb);
+                    }
+                }
+            }
+
+            //Strip every removed slot from each neighbour in one pass
+            for(int i = 0; i < touched.size(); i++)
+            {
+                storeOf(k).removeMarked(touched.get(i), removing);
+                if(k < 3) markDirty(touched.get(i));
+                else markChanged(touched.get(i));
+                queued[touched.get(i)] = false;
+            }
+        }
+
+        for(int i = 0; i < slots.size(); i++)
+            releaseSlot(slots.get(i));
+        return slots.size();
+    }
+
+    /* Clears a slot's own entries and makes it available for reuse.
+     * References to it from other slots must already be gone.
+     */
+    private void releaseSlot(int slot)
+    {
+        //Removal is recorded as a move back to [0, 0], then taking the bare node out
+        if(recording())
+        {
+            if(heights[slot] != 0) record(FlowchartEdit.Kind.MOVE_HEIGHT, slot, -1, -heights[slot]);
+            if(ranks[slot] != 0) record(FlowchartEdit.Kind.MOVE_RANK, slot, -1, -ranks[slot]);
+            log.addNode(FlowchartEdit.Kind.REMOVE_NODE, nodes[slot]);
+        }
+        if(reach != null) reach.nodeRemoved(slot);
+
+        for(AdjacencyStore store : connections)
+            store.clear(slot);
+        mentionedBy.clear(slot);
+
+        slotById.remove(nodes[slot].getId());
+        nodes[slot] = null;
+        leaveLayer(slot);
+        freeSlots.add(slot);
+        nodeCount--;
+        markChanged(slot);
+        regroup(slot);
+    }
+
+    /* Appends the entries of slot in storeOf(k) onto dst, for snapshots.
+     */
+    void appendStoreAt(int k, int slot, IntList dst)
+    {
+        storeOf(k).appendTo(slot, dst);
+    }
+
+    /* The five stores by index: the four Relations, then the reverse mention index.
+     */
+    private AdjacencyStore storeOf(int k) { return k < 4 ? connections[k] : mentionedBy; }
+
+    /* The store holding the opposite direction of storeOf(k).
+     * If slot s appears in reverseOf(k) for slot x, then x appears in storeOf(k) for s.
+     */
+    private AdjacencyStore reverseOf(int k)
+    {
+        switch(k)
+        {
+            case 0: return connections[Relation.OUTBOUND.ordinal()];
+            case 1: return connections[Relation.INBOUND.ordinal()];
+            case 2: return connections[Relation.LINK.ordinal()];
+            case 3: return mentionedBy;
+            default: return connections[Relation.MENTION.ordinal()];
+        }
     }
 
     /* Places a node into the graph with some connections.
@@ -121,22 +1001,30 @@ public class Flowchart
      */
     public void addNode(Node n, Set<Node> inbound, Set<Node> outbound)
     {
-        registerNode(n);
+        beginStep();
+        try
+        {
+            registerNode(n);
 
-        //Ensure node with no connections is traverseable
-        if(inbound.isEmpty()) inbound.add(top);
-        if(outbound.isEmpty()) outbound.add(bottom);
+            //Ensure node with no connections is traverseable
+            if(inbound.isEmpty()) inbound.add(top);
+            if(outbound.isEmpty()) outbound.add(bottom);
 
-        //If n loops, ensure it is both parent AND child of itself
-        if(inbound.contains(n)) outbound.add(n);
-        if(outbound.contains(n)) inbound.add(n);
+            //If n loops, ensure it is both parent AND child of itself
+            if(inbound.contains(n)) outbound.add(n);
+            if(outbound.contains(n)) inbound.add(n);
 
-        //Draw all the edges to n
-        for(Node in : inbound)
-            addEdge(in, n);
+            //Draw all the edges to n
+            for(Node in : inbound)
+                addEdge(in, n);
 
-        for(Node out : outbound)
-            addEdge(n, out);
+            for(Node out : outbound)
+                addEdge(n, out);
+        }
+        finally
+        {
+            endStep();
+        }
     }
     
     public void addNode(Node n)
@@ -149,7 +1037,26 @@ public class Flowchart
      */
     public void removeNode(Node n)
     {
-        unregisterNode(n);
+        long start = FlowchartMetrics.start();
+        beginStep();
+        int removed = unregisterNode(n);
+        endStep();
+        FlowchartMetrics.stop(Metric.REMOVE_NANOS, start);
+        FlowchartMetrics.record(Metric.NODES_REMOVED, removed);
+    }
+
+    /* Removes many nodes from the graph, severing all their connections.
+     * Cheaper than removing them one by one when they share neighbours.
+     * @param doomed as nodes to remove
+     */
+    public void removeNodes(Collection<Node> doomed)
+    {
+        long start = FlowchartMetrics.start();
+        beginStep();
+        int removed = unregisterNodes(doomed);
+        endStep();
+        FlowchartMetrics.stop(Metric.REMOVE_NANOS, start);
+        FlowchartMetrics.record(Metric.NODES_REMOVED, removed);
     }
 
     /* Directionally connects two nodes. 
@@ -158,8 +1065,35 @@ public class Flowchart
      */
     public void addEdge(Node src, Node dest)
     {
-        getOutboundSet(src).add(dest);
-        getInboundSet(dest).add(src);
+        int s = requireSlot(src);
+        int d = requireSlot(dest);
+        beginStep();
+        connect(s, d);
+        endStep();
+    }
+
+    private void connect(int s, int d)
+    {
+        if(connections[Relation.OUTBOUND.ordinal()].add(s, d))
+        {
+            connections[Relation.INBOUND.ordinal()].add(d, s);
+            record(FlowchartEdit.Kind.ADD_EDGE, s, d, 0);
+            if(reach != null) reach.edgeAdded(s, d);
+        }
+        markDirty(s);
+        markDirty(d);
+    }
+
+    private void disconnect(int s, int d)
+    {
+        if(connections[Relation.OUTBOUND.ordinal()].remove(s, d))
+        {
+            connections[Relation.INBOUND.ordinal()].remove(d, s);
+            record(FlowchartEdit.Kind.REMOVE_EDGE, s, d, 0);
+            if(reach != null) reach.edgeRemoved(s, d);
+        }
+        markDirty(s);
+        markDirty(d);
     }
 
     /* Removes a directional connection, if it exists.
@@ -168,8 +1102,86 @@ public class Flowchart
      */
     public void removeEdge(Node src, Node dest)
     {
-        getOutboundSet(src).remove(dest);
-        getInboundSet(dest).remove(src);
+        int s = slotOf(src);
+        int d = slotOf(dest);
+        if(s < 0 || d < 0) return;
+
+        beginStep();
+        disconnect(s, d);
+        endStep();
+    }
+
+    /* Swaps the nodes in slots a and b: each takes over the other's connections,
+     * height and rank, so the chart keeps its shape with the two trading places.
+     * Only the slot tables change, in O(1), or O(degree of both) while edits are
+     * recorded for undo or listeners, which see it as rewired connections and moves.
+     * Top and bottom can't be swapped.
+     * @param a,b as slots of live nodes
+     */
+    public void swapAt(int a, int b)
+    {
+        Node na = nodes[a], nb = nodes[b];
+        if(na == top || na == bottom || nb == top || nb == bottom)
+            throw new IllegalArgumentException("Top and bottom can't be swapped");
+        if(a == b) return;
+
+        beginStep();
+        if(recording()) recordConnections(a, b, false);
+
+        nodes[a] = nb;
+        nodes[b] = na;
+        slotById.put(na.getId(), b);
+        slotById.put(nb.getId(), a);
+
+        if(recording())
+        {
+            recordConnections(a, b, true);
+            int dh = heights[a] - heights[b], dr = ranks[a] - ranks[b];
+            if(dh != 0)
+            {
+                record(FlowchartEdit.Kind.MOVE_HEIGHT, a, -1, dh);
+                record(FlowchartEdit.Kind.MOVE_HEIGHT, b, -1, -dh);
+            }
+            if(dr != 0)
+            {
+                record(FlowchartEdit.Kind.MOVE_RANK, a, -1, dr);
+                record(FlowchartEdit.Kind.MOVE_RANK, b, -1, -dr);
+            }
+        }
+        markDirty(a);
+        markDirty(b);
+        endStep();
+    }
+
+    /* Records every connection of slots a and b once, under the nodes now in them,
+     * as removed or as added. Connections between the two are recorded by their owner.
+     */
+    private void recordConnections(int a, int b, boolean adding)
+    {
+        FlowchartEdit.Kind edge = adding ? FlowchartEdit.Kind.ADD_EDGE : FlowchartEdit.Kind.REMOVE_EDGE;
+        FlowchartEdit.Kind link = adding ? FlowchartEdit.Kind.ADD_LINK : FlowchartEdit.Kind.REMOVE_LINK;
+        FlowchartEdit.Kind mention = adding ? FlowchartEdit.Kind.ADD_MENTION : FlowchartEdit.Kind.REMOVE_MENTION;
+
+        IntList buf = new IntList();
+        for(int slot : new int[] { a, b })
+            for(int k = 0; k < 5; k++)
+            {
+                buf.clear();
+                storeOf(k).appendTo(slot, buf);
+                for(int i = 0; i < buf.size(); i++)
+                {
+                    int other = buf.get(i);
+                    boolean pair = other == a || other == b;
+                    switch(k)
+                    {
+                        case 0: if(!pair) record(edge, other, slot, 0); break;
+                        case 1: record(edge, slot, other, 0); break;
+                        case 2: if(!pair || slot <= other) record(link, slot, other, 0); break;
+                        case 3: record(mention, slot, other, 0); break;
+                        default: if(!pair) record(mention, other, slot, 0); break;
+                    }
+                }
+            }
     }
 
     /* Summarizes the Flowchart by listing every node's
@@ -180,21 +1192,21 @@ public class Flowchart
     {
         StringBuilder sb = new StringBuilder();
 
-        sb.append(this.getTitle() + "\n");
+        sb.append(this.getTitle()).append('\n');
 
         //Display a summary of each node
         for(Node n : getAllNodes())
         {   
             //Display node's name and placement
             sb.append(n.toString());
-            sb.append(" (" + getHeight(n) + "," + getRank(n) + ") ");
+            sb.append(" (").append(getHeight(n)).append(',').append(getRank(n)).append(") ");
             sb.append("\t");
 
             //Display node's sets of connections
-            sb.append(" In: {"+getInboundSet(n).toString()+"} ");
-            sb.append("Out: {"+getOutboundSet(n).toString()+"} ");
-            sb.append("Lnk: {"+getLinkSet(n).toString()+"} ");
-            sb.append("Mnt: {"+getMentionSet(n).toString()+"} ");
+            sb.append(" In: {").append(getInboundSet(n)).append("} ");
+            sb.append("Out: {").append(getOutboundSet(n)).append("} ");
+            sb.append("Lnk: {").append(getLinkSet(n)).append("} ");
+            sb.append("Mnt: {").append(getMentionSet(n)).append("} ");
 
             sb.append("\n");
         } 
@@ -205,7 +1217,21 @@ public class Flowchart
 
     // === Link Methods ===
 
-    public boolean hasLink(Node n, Node query) { return getLinkSet(n).contains(query); } 
+    public boolean hasLink(Node n, Node query) { return getLinkSet(n).contains(query); }
+
+    /* Collects every node sharing n's height through a chain of links, n included.
+     * @param n as node to find the link group of
+     */
+    public Set<Node> getLinkGroup(Node n)
+    {
+        IntList members = new IntList();
+        linkGroups.appendMembers(requireSlot(n), members);
+
+        Set<Node> group = new HashSet<>();
+        for(int i = 0; i < members.size(); i++)
+            group.add(nodes[members.get(i)]);
+        return group;
+    }
 
     /* Links the heights of two nodes so they will
      * always be on the same height level for visual clarity.
@@ -213,20 +1239,66 @@ public class Flowchart
      */
     public void addLink(Node a, Node b)
     {
-        //When recursing in the next step, avoid recursing to the one we don't want to move.
-        Set<Node> abSet = new HashSet<>();
-        abSet.add(a);
-        abSet.add(b);
+        int sa = requireSlot(a);
+        int sb = requireSlot(b);
+        beginStep();
 
-        //Move highest node down to be level, easier than dragging upward
-        if(getHeight(a) > getHeight(b)) //b needs to be moved down
-            updateHeight(b, getHeight(a) - getHeight(b), abSet, false);
-        else if(getHeight(a) < getHeight(b))
-            updateHeight(a, getHeight(b) - getHeight(a), abSet, false);
+        //Move highest group down to be level, easier than dragging upward
+        if(heights[sa] > heights[sb]) lowerGroup(sb, sa);
+        else if(heights[sa] < heights[sb]) lowerGroup(sa, sb);
 
         //Acknowledge link from now on
-        getLinkSet(a).add(b);
-        getLinkSet(b).add(a);
+        link(sa, sb);
+        endStep();
+    }
+
+    private void link(int a, int b)
+    {
+        if(connections[Relation.LINK.ordinal()].add(a, b))
+            record(FlowchartEdit.Kind.ADD_LINK, a, b, 0);
+        connections[Relation.LINK.ordinal()].add(b, a);
+        linkGroups.union(a, b);
+        markDirty(a);
+        markDirty(b);
+    }
+
+    private void unlink(int a, int b)
+    {
+        if(connections[Relation.LINK.ordinal()].remove(a, b))
+        {
+            record(FlowchartEdit.Kind.REMOVE_LINK, a, b, 0);
+            connections[Relation.LINK.ordinal()].remove(b, a);
+            regroup(a);
+        }
+        markDirty(a);
+        markDirty(b);
+    }
+
+    /* Splits slot's link group back into the groups its members' remaining links make,
+     * after a link in it or one of its members is gone.
+     * Only the members are visited, not the chart.
+     */
+    private void regroup(int slot)
+    {
+        if(linkGroups.sizeOf(slot) == 1) return;
+
+        IntList members = new IntList();
+        linkGroups.appendMembers(slot, members);
+        for(int i = 0; i < members.size(); i++)
+            linkGroups.reset(members.get(i));
+
+        //Removed members may still list each other while a batch is being released
+        IntList buf = new IntList();
+        for(int i = 0; i < members.size(); i++)
+        {
+            int m = members.get(i);
+            if(nodes[m] == null) continue;
+            buf.clear();
+            connections[Relation.LINK.ordinal()].appendTo(m, buf);
+            for(int j = 0; j < buf.size(); j++)
+                if(nodes[buf.get(j)] != null)
+                    linkGroups.union(m, buf.get(j));
+        }
     }
 
     /* Removes the height link between two nodes.
@@ -235,8 +1307,13 @@ public class Flowchart
      */
     public void removeLink(Node a, Node b)
     {
-        getLinkSet(a).remove(b);
-        getLinkSet(b).remove(a);
+        int sa = slotOf(a);
+        int sb = slotOf(b);
+        if(sa < 0 || sb < 0) return;
+
+        beginStep();
+        unlink(sa, sb);
+        endStep();
     }
 
     // === Mention Methods ===
@@ -250,7 +1327,29 @@ public class Flowchart
      */
     public void addMention(Node src, Node dest)
     {
-        getMentionSet(src).add(dest);
+        int s = requireSlot(src);
+        int d = requireSlot(dest);
+        beginStep();
+        mention(s, d);
+        endStep();
+    }
+
+    private void mention(int s, int d)
+    {
+        if(connections[Relation.MENTION.ordinal()].add(s, d))
+            record(FlowchartEdit.Kind.ADD_MENTION, s, d, 0);
+        mentionedBy.add(d, s);
+        markChanged(s);
+        markChanged(d);
+    }
+
+    private void unmention(int s, int d)
+    {
+        if(connections[Relation.MENTION.ordinal()].remove(s, d))
+            record(FlowchartEdit.Kind.REMOVE_MENTION, s, d, 0);
+        mentionedBy.remove(d, s);
+        markChanged(s);
+        markChanged(d);
     }
 
     /* Removes src's footnote mention of dest, if it exists
@@ -259,71 +1358,355 @@ public class Flowchart
      */
     public void removeMention(Node src, Node dest)
     {
-        getMentionSet(src).remove(dest);
+        int s = slotOf(src);
+        int d = slotOf(dest);
+        if(s < 0 || d < 0) return;
+
+        beginStep();
+        unmention(s, d);
+        endStep();
     }
 
     /* Collects all mentions of n into a Set.
-     * Iterates over the connections map because nodes do
-     * not track mentions both ways (intended)
+     * Nodes only show their outgoing mentions, so this reads
+     * the reverse index kept alongside them.
      * @param n as node to search for mentions of
      */
     public Set<Node> allMentionsTo(Node n)
     {
         Set<Node> mentionsN = new HashSet<>(); 
 
-        //Iterate over all sets of mentions to find references to n
-        for(Node i : getAllNodes())
-            if(getMentionSet(i).contains(n))
-                mentionsN.add(i);
+        IntList sources = new IntList();
+        mentionedBy.appendTo(requireSlot(n), sources);
+        for(int i = 0; i < sources.size(); i++)
+            mentionsN.add(nodes[sources.get(i)]);
         
         return mentionsN;
     }
     
     // === Height Methods ===
 
-    /* Recursively update the height of this node and all of its children,
+    /* Update the height of this node and all of its children,
      * keeping them packed together. 
      * @param start as the Node whose children and itself will be updated
      * @param delta as how much to change height by, positive or negative.
      */
     public void updateHeight(Node start, int delta)
     {
-        recUpdateHeight(start, delta, new HashSet<>(), true);
+        int slot = requireSlot(start);
+        beginStep();
+        try(Traversal t = openTraversal())
+        {
+            propagateHeight(t, slot, delta, true);
+        }
+        endStep();
     }
 
-    /* Overload to support multiple recursions without updating shared children
-     * @param previousVisited as a set to be defined outside this call across multiple recursions
-     * @param allowUpwardRecursion to allow recursion to travel to nodes higher than this one
+    /* Overload to support multiple updates without updating shared children
+     * @param previousVisited as a set to be defined outside this call across multiple updates,
+     *        nodes moved by this call are added to it
+     * @param allowUpwardRecursion to allow the update to travel to nodes higher than this one
      */
     public void updateHeight(Node start, int delta, Set<Node> previousVisited, boolean allowUpwardRecursion)
     {
-        recUpdateHeight(start, delta, previousVisited, allowUpwardRecursion);
+        int first = requireSlot(start);
+        beginStep();
+        try(Traversal t = openTraversal())
+        {
+            for(Node n : previousVisited)
+            {
+                int slot = slotOf(n);
+                if(slot >= 0) t.visit(slot);
+            }
+
+            propagateHeight(t, first, delta, allowUpwardRecursion);
+
+            IntList moved = t.visitedOrder();
+            for(int i = 0; i < moved.size(); i++)
+                previousVisited.add(nodes[moved.get(i)]);
+        }
+        endStep();
     }
 
-    private void recUpdateHeight(Node cur, int delta, Set<Node> visited, boolean allowUpwardRecursion)
+    /* Shifts start by delta, along with every node it drags with it:
+     * children at or below their parent (any child if allowUpward), and height-links.
+     * Nodes already visited in t are left alone, except start which always moves.
+     * Runs on t's explicit stack, so chart depth is not limited by the call stack.
+     * @param t as an open Traversal, possibly holding nodes to exclude
+     * @param start as slot to move
+     * @param delta as how much to change height by, positive or negative.
+     * @param allowUpward to allow travel to children higher than their parent
+     */
+    void propagateHeight(Traversal t, int start, int delta, boolean allowUpward)
     {
-        visited.add(cur); //Prevent updating this node again
+        t.visitedOrder().clear(); //From here on it lists exactly the nodes to move
+        if(!t.visit(start))
+            t.visitedOrder().add(start); //Excluded by the caller but still moves
+        t.push(start);
+
+        //Collect every node to move first. Heights are compared before any of them change.
+        while(t.hasPending())
+        {
+            int cur = t.pop();
 
-        //Recurse to all children not yet visited
-        //Only recurse upward if allowed
-        for(Node child : getOutboundSet(cur))
-            if(!visited.contains(child) && (!(getHeight(child) < getHeight(cur)) || allowUpwardRecursion))
-                recUpdateHeight(child, delta, visited, allowUpwardRecursion);
+            IntList children = t.neighbours(Relation.OUTBOUND, cur);
+            for(int i = 0; i < children.size(); i++)
+            {
+                int child = children.get(i);
+                if(allowUpward || heights[child] >= heights[cur])
+                    t.visitAndPush(child);
+            }
 
-        //Recurse to all height-links not yet visited
-        for(Node link : getLinkSet(cur))
-            if(!visited.contains(link))
-                recUpdateHeight(cur, delta, visited, allowUpwardRecursion);
+            IntList links = t.neighbours(Relation.LINK, cur);
+            for(int i = 0; i < links.size(); i++)
+                t.visitAndPush(links.get(i));
+        }
 
-        //Recursion has reached every node needed, change heights now.
-        setHeight(cur, getHeight(cur) + delta);
+        IntList moved = t.visitedOrder();
+        if(FlowchartMetrics.isEnabled())
+            recordPropagation(moved);
+        for(int i = 0; i < moved.size(); i++)
+            moveHeight(moved.get(i), delta);
     }
-}
 
+    /* Lowers the link group of start to the height of anchor, then pushes down only what
+     * that leaves too high: children that were not above their parent and are now
+     * no lower than it, with their link groups. Nodes with room to spare stop the push,
+     * unlike propagateHeight, which shifts everything below by the same amount.
+     * Groups are settled in order of height, so each moves once, and anchor's group stays put.
+     * @param start as slot whose group moves
+     * @param anchor as slot whose height it moves to, lower than start's
+     */
+    private void lowerGroup(int start, int anchor)
+    {
+        LongHeap heap = new LongHeap();
+        IntList group = new IntList();
+        int moved = 0, low = Integer.MAX_VALUE, high = Integer.MIN_VALUE;
+        if(needed.length < slotLimit) needed = new int[nodes.length];
 
+        //queued marks the slots whose entry in needed is current
+        try(Traversal t = openTraversal(); Traversal queued = openTraversal())
+        {
+            linkGroups.appendMembers(anchor, group);
+            for(int i = 0; i < group.size(); i++)
+                t.visit(group.get(i));
 
+            queued.visit(start);
+            needed[start] = heights[anchor];
+            heap.push((long) heights[start] << 32 | start);
+            while(!heap.isEmpty())
+            {
+                int v = (int) heap.pop();
+                if(t.isVisited(v)) continue;
 
+                group.clear();
+                linkGroups.appendMembers(v, group);
+                int from = heights[v], to = from;
+                for(int i = 0; i < group.size(); i++)
+                {
+                    t.visit(group.get(i));
+                    if(queued.isVisited(group.get(i))) to = Math.max(to, needed[group.get(i)]);
+                }
+                if(to == from) continue; //Has room, so does everything below
 
+                for(int i = 0; i < group.size(); i++)
+                {
+                    int m = group.get(i), old = heights[m];
+                    low = Math.min(low, old);
+                    high = Math.max(high, old);
+                    moveHeight(m, to - from);
 
-    
-    
+                    IntList children = t.neighbours(Relation.OUTBOUND, m);
+                    for(int j = 0; j < children.size(); j++)
+                    {
+                        int c = children.get(j);
+                        if(t.isVisited(c) || heights[c] < old || heights[c] > heights[m]) continue;
+                        //Its key is its height, which holds until it is popped, so it is queued once
+                        if(queued.visit(c))
+                        {
+                            needed[c] = heights[m] + 1;
+                            heap.push((long) Math.max(heights[c], from) << 32 | c);
+                        }
+                        else needed[c] = Math.max(needed[c], heights[m] + 1);
+                    }
+                }
+                moved += group.size();
+            }
+        }
+
+        if(FlowchartMetrics.isEnabled() && moved > 0)
+        {
+            FlowchartMetrics.record(Metric.HEIGHT_MOVED, moved);
+            FlowchartMetrics.record(Metric.HEIGHT_DEPTH, high - low + 1);
+        }
+    }
+
+    private void recordPropagation(IntList moved)
+    {
+        int low = Integer.MAX_VALUE, high = Integer.MIN_VALUE;
+        for(int i = 0; i < moved.size(); i++)
+        {
+            low = Math.min(low, heights[moved.get(i)]);
+            high = Math.max(high, heights[moved.get(i)]);
+        }
+        FlowchartMetrics.record(Metric.HEIGHT_MOVED, moved.size());
+        FlowchartMetrics.record(Metric.HEIGHT_DEPTH, high - low + 1);
+    }
+
+    private void moveHeight(int slot, int delta)
+    {
+        boolean live = delta != 0 && nodes[slot] != null;
+        if(live) leaveLayer(slot);
+        heights[slot] += delta;
+        if(live) joinLayer(slot);
+        markDirty(slot);
+        if(delta != 0) record(FlowchartEdit.Kind.MOVE_HEIGHT, slot, -1, delta);
+    }
+
+    //Height buckets are shared between slots, so they go under the dirty lock like the marks
+    private void joinLayer(int slot)
+    {
+        if(dirtyLock == null)
+            layers.add(slot, heights[slot]);
+        else
+            synchronized(dirtyLock) { layers.add(slot, heights[slot]); }
+    }
+
+    private void leaveLayer(int slot)
+    {
+        if(dirtyLock == null)
+            layers.remove(slot, heights[slot]);
+        else
+            synchronized(dirtyLock) { layers.remove(slot, heights[slot]); }
+    }
+
+    private void moveRank(int slot, int delta)
+    {
+        ranks[slot] += delta;
+        markChanged(slot);
+        if(delta != 0) record(FlowchartEdit.Kind.MOVE_RANK, slot, -1, delta);
+    }
+
+    // === Traversal Methods ===
+
+    /* Hands out a Traversal sized for this Flowchart, reusing a released one when possible.
+     * Close it when done. Several may be open at once.
+     */
+    public Traversal openTraversal()
+    {
+        Traversal t = traversalPool.pollFirst();
+        if(t == null) t = new Traversal(this);
+        t.reset();
+        return t;
+    }
+
+    void releaseTraversal(Traversal t)
+    {
+        traversalPool.addFirst(t);
+    }
+
+    // === Set Views ===
+
+    /* Read-only Set over the nodes held in one relation of one slot.
+     * Iteration works on a copy of the slots taken when it starts,
+     * so the Flowchart may be edited while iterating.
+     */
+    private final class RelationSetView extends AbstractSet<Node>
+    {
+        private final AdjacencyStore store;
+        private final Node owner;
+        private int slot;
+
+        RelationSetView(Relation r, Node owner, int slot)
+        {
+            this.store = connections[r.ordinal()];
+            this.owner = owner;
+            this.slot = slot;
+        }
+
+        //The owner may have been swapped to another slot, or removed, since the view was made
+        private boolean live()
+        {
+            if(slot < 0 || !owner.equals(nodes[slot])) slot = slotOf(owner);
+            return slot >= 0;
+        }
+
+        @Override
+        public int size() { return live() ? store.degree(slot) : 0; }
+
+        @Override
+        public boolean contains(Object o)
+        {
+            if(!(o instanceof Node) || !live()) return false;
+            int other = slotOf((Node) o);
+            return other >= 0 && store.contains(slot, other);
+        }
+
+        @Override
+        public Iterator<Node> iterator()
+        {
+            final int[] slots = live() ? store.toArray(slot) : new int[0];
+
+            return new Iterator<Node>()
+            {
+                private int i = 0;
+
+                @Override
+                public boolean hasNext() { return i < slots.length; }
+
+                @Override
+                public Node next()
+                {
+                    if(!hasNext()) throw new NoSuchElementException();
+                    return nodes[slots[i++]];
+                }
+            };
+        }
+    }
+
+    /* Read-only Set over every node in the Flowchart, in slot order.
+     */
+    private final class NodeSetView extends AbstractSet<Node>
+    {
+        @Override
+        public int size() { return nodeCount; }
+
+        @Override
+        public boolean contains(Object o)
+        {
+            return o instanceof Node && slotOf((Node) o) >= 0;
+        }
+
+        @Override
+        public Iterator<Node> iterator()
+        {
+            return new Iterator<Node>()
+            {
+                private int next = advance(0);
+
+                private int advance(int from)
+                {
+                    while(from < slotLimit && nodes[from] == null) from++;
+                    return from;
+                }
+
+                //Re-check, the node may have been removed since the last step
+                @Override
+                public boolean hasNext() 
+                { 
+                    next = advance(next);
+                    return next < slotLimit; 
+                }
+
+                @Override
+                public Node next()
+                {
+                    if(!hasNext()) throw new NoSuchElementException();
+                    Node n = nodes[next];
+                    next = advance(next + 1);
+                    return n;
+                }
+            };
+        }
+    }
+}
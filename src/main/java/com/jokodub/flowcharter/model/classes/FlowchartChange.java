@@ -0,0 +1,82 @@
+package com.jokodub.flowcharter.model.classes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/* Everything one public edit, undo or redo did to a Flowchart, in the order it happened.
+ * Edits inside Flowchart.atomically arrive as a single change.
+ */
+public final class FlowchartChange
+{
+    public enum Origin
+    {
+        EDIT,
+        UNDO,
+        REDO
+    }
+
+    // === Instance Variables ===
+
+    private final Origin origin;
+    private final List<FlowchartEdit> edits;
+
+    // === Constructors ===
+
+    FlowchartChange(Origin origin, List<FlowchartEdit> edits)
+    {
+        this.origin = origin;
+        this.edits = Collections.unmodifiableList(edits);
+    }
+
+    // === Get-Set ===
+
+    public Origin getOrigin() { return origin; }
+    public List<FlowchartEdit> getEdits() { return edits; }
+
+    public Set<Node> getAddedNodes() { return nodesOf(FlowchartEdit.Kind.ADD_NODE); }
+    public Set<Node> getRemovedNodes() { return nodesOf(FlowchartEdit.Kind.REMOVE_NODE); }
+    public Set<Node> getHeightChanged() { return nodesOf(FlowchartEdit.Kind.MOVE_HEIGHT); }
+    public Set<Node> getRankChanged() { return nodesOf(FlowchartEdit.Kind.MOVE_RANK); }
+
+    /* Edges added or removed, in order.
+     */
+    public List<FlowchartEdit> getEdgeEdits()
+    {
+        List<FlowchartEdit> found = new ArrayList<>();
+        for(FlowchartEdit e : edits)
+            if(e.getKind() == FlowchartEdit.Kind.ADD_EDGE || e.getKind() == FlowchartEdit.Kind.REMOVE_EDGE)
+                found.add(e);
+        return found;
+    }
+
+    /* Every node some edit refers to, including removed ones.
+     */
+    public Set<Node> getTouchedNodes()
+    {
+        Set<Node> touched = new LinkedHashSet<>();
+        for(FlowchartEdit e : edits)
+        {
+            touched.add(e.getNode());
+            if(e.getOther() != null) touched.add(e.getOther());
+        }
+        return touched;
+    }
+
+    private Set<Node> nodesOf(FlowchartEdit.Kind kind)
+    {
+        Set<Node> found = new LinkedHashSet<>();
+        for(FlowchartEdit e : edits)
+            if(e.getKind() == kind)
+                found.add(e.getNode());
+        return found;
+    }
+
+    @Override
+    public String toString()
+    {
+        return origin + " " + edits;
+    }
+}
@@ -0,0 +1,80 @@
+package com.jokodub.flowcharter.model.classes;
+
+/* One primitive change to a Flowchart, as recorded in its edit log.
+ * Every public edit breaks down into these. Removing a node, for example, is
+ * the removal of each of its connections, moves back to [0, 0], then REMOVE_NODE.
+ */
+public final class FlowchartEdit
+{
+    public enum Kind
+    {
+        ADD_NODE,
+        REMOVE_NODE,
+        ADD_EDGE,
+        REMOVE_EDGE,
+        ADD_LINK,
+        REMOVE_LINK,
+        ADD_MENTION,
+        REMOVE_MENTION,
+        MOVE_HEIGHT,
+        MOVE_RANK;
+
+        /* The kind that undoes this one. Moves undo themselves with the delta negated.
+         */
+        public Kind inverse()
+        {
+            switch(this)
+            {
+                case MOVE_HEIGHT: 
+                case MOVE_RANK: return this;
+                default: return values()[ordinal() ^ 1]; //Adds and removes come in pairs
+            }
+        }
+    }
+
+    // === Instance Variables ===
+
+    private final Kind kind;
+    private final Node node;
+    private final Node other;
+    private final int delta;
+
+    // === Constructors ===
+
+    FlowchartEdit(Kind kind, Node node, Node other, int delta)
+    {
+        this.kind = kind;
+        this.node = node;
+        this.other = other;
+        this.delta = delta;
+    }
+
+    // === Get-Set ===
+
+    public Kind getKind() { return kind; }
+
+    /* The node added, removed or moved, or the source of a connection.
+     */
+    public Node getNode() { return node; }
+
+    /* The target of a connection, null for node edits and moves.
+     */
+    public Node getOther() { return other; }
+
+    /* How far a move went, 0 for every other kind.
+     */
+    public int getDelta() { return delta; }
+
+    public FlowchartEdit inverse()
+    {
+        return new FlowchartEdit(kind.inverse(), node, other, -delta);
+    }
+
+    @Override
+    public String toString()
+    {
+        if(other != null) return kind + " " + node + " " + other;
+        if(delta != 0) return kind + " " + node + " by " + delta;
+        return kind + " " + node;
+    }
+}
@@ -0,0 +1,340 @@
+package com.jokodub.flowcharter.model.classes;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/* Compact binary save format for a Flowchart.
+ *
+ * Layout, where varints are unsigned LEB128 and signed values are zigzag varints:
+ *  - magic "FLCH" (4 bytes) and format version (varint),
+ *  - title (varint byte length, UTF-8 bytes),
+ *  - node count n, then per node its name (as title), height and rank (signed).
+ *    Nodes are numbered 0 .. n-1 in this order, top is 0 and bottom is 1.
+ *  - outbound, link and mention adjacency, each as the total entry count,
+ *    then per node its degree followed by its distinct targets sorted ascending,
+ *    the first as is and the rest as the gap from the previous one,
+ *    each link stored from both of its ends,
+ *  - magic again, to catch truncated files.
+ * Inbound edges and the mention index are the reverse of outbound and mentions,
+ * so they are rebuilt on load instead of stored.
+ *
+ * Node ids are not part of the file. Loading creates Nodes with the saved names and
+ * a freshly reserved range of ids, so a loaded chart never clashes with the one saved.
+ */
+public final class FlowchartFile
+{
+    // === Instance Variables ===
+
+    private static final int MAGIC = 0x464C4348; //"FLCH"
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    //Relations stored in the file, in order. The rest are derived.
+    private static final Relation[] STORED = { Relation.OUTBOUND, Relation.LINK, Relation.MENTION };
+
+    //Used as a library, disallow instances
+    private FlowchartFile(){}
+
+    // === Save ===
+
+    /* Writes f to file, replacing whatever was there.
+     */
+    public static void save(Flowchart f, Path file) throws IOException
+    {
+        try(FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+        {
+            save(f, out);
+        }
+    }
+
+    /* Streams f onto out through a fixed size buffer. Does not close out.
+     * Edits from other threads wait until the whole chart is written.
+     */
+    public static void save(Flowchart f, WritableByteChannel out) throws IOException
+    {
+        IOException failed = f.atomically(() ->
+        {
+            try
+            {
+                write(f, out);
+                return null;
+            }
+            catch(IOException e)
+            {
+                return e;
+            }
+        });
+        if(failed != null) throw failed;
+    }
+
+    private static void write(Flowchart f, WritableByteChannel out) throws IOException
+    {
+        Sink sink = new Sink(out);
+
+        //File numbering: top, bottom, then live slots in order
+        int top = f.slotOf(f.getTop());
+        int bottom = f.slotOf(f.getBottom());
+        int[] order = new int[f.nodeCount()];
+        int[] index = new int[f.slotLimit()];
+        int n = 0;
+        order[n++] = top;
+        order[n++] = bottom;
+        for(int s = 0; s < f.slotLimit(); s++)
+            if(f.nodeAt(s) != null && s != top && s != bottom)
+                order[n++] = s;
+        for(int i = 0; i < n; i++)
+            index[order[i]] = i;
+
+        sink.putInt(MAGIC);
+        sink.putVarint(VERSION);
+        sink.putString(f.getTitle());
+
+        sink.putVarint(n);
+        for(int i = 0; i < n; i++)
+        {
+            sink.putString(f.nodeAt(order[i]).getName());
+            sink.putSigned(f.heightAt(order[i]));
+            sink.putSigned(f.rankAt(order[i]));
+        }
+
+        IntList buf = new IntList();
+        int[] sorted = new int[16];
+        for(Relation r : STORED)
+        {
+            long entries = 0;
+            for(int i = 0; i < n; i++)
+                entries += f.degreeAt(r, order[i]);
+            sink.putVarint((int) entries);
+
+            for(int i = 0; i < n; i++)
+            {
+                buf.clear();
+                f.neighboursAt(r, order[i], buf);
+                int degree = buf.size();
+                if(sorted.length < degree) sorted = new int[Math.max(degree, sorted.length << 1)];
+                for(int k = 0; k < degree; k++)
+                    sorted[k] = index[buf.get(k)];
+                Arrays.sort(sorted, 0, degree);
+
+                sink.putVarint(degree);
+                int prev = 0;
+                for(int k = 0; k < degree; k++)
+                {
+                    sink.putVarint(sorted[k] - prev);
+                    prev = sorted[k];
+                }
+            }
+        }
+
+        sink.putInt(MAGIC);
+        sink.flush();
+    }
+
+    // === Load ===
+
+    /* Reads a chart saved by save, mapping the file instead of reading it through a stream.
+     * Adjacency is decoded straight into the chart's own arrays.
+     * @throws IOException if the file is not a Flowchart, from a newer version, or damaged
+     */
+    public static Flowchart load(Path file) throws IOException
+    {
+        try(FileChannel in = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            if(in.size() > Integer.MAX_VALUE)
+                throw new IOException(file + " is too large to map");
+            return load(in.map(FileChannel.MapMode.READ_ONLY, 0, in.size()));
+        }
+    }
+
+    /* Reads a chart from the remaining bytes of in, such as a mapped file.
+     */
+    public static Flowchart load(ByteBuffer in) throws IOException
+    {
+        try
+        {
+            if(in.getInt() != MAGIC)
+                throw new IOException("Not a Flowchart file");
+            int version = getVarint(in);
+            if(version != VERSION)
+                throw new IOException("Unsupported Flowchart file version " + version);
+            String title = getString(in);
+
+            int n = getVarint(in);
+            if(n < 2)
+                throw new IOException("Flowchart file is missing top and bottom");
+            if(n > in.remaining())
+                throw new IOException("Flowchart file declares " + n + " nodes");
+            Node[] nodes = new Node[n];
+            int[] heights = new int[n];
+            int[] ranks = new int[n];
+            int firstId = Flowchart.reserveIds(n);
+            for(int i = 0; i < n; i++)
+            {
+                nodes[i] = new Node(firstId + i, getString(in));
+                heights[i] = getSigned(in);
+                ranks[i] = getSigned(in);
+            }
+            Flowchart f = new Flowchart(title, nodes, heights, ranks);
+
+            for(Relation r : STORED)
+            {
+                int entries = getVarint(in);
+                if(entries < 0 || entries > in.remaining())
+                    throw new IOException("Flowchart file declares " + entries + " " + r + " entries");
+                int[] offsets = new int[n + 1];
+                int[] targets = new int[entries];
+                int k = 0;
+                for(int i = 0; i < n; i++)
+                {
+                    int degree = getVarint(in);
+                    if(degree < 0 || degree > entries - k)
+                        throw new IOException("Flowchart file has more " + r + " entries than declared");
+
+                    int t = 0;
+                    for(int d = 0; d < degree; d++)
+                    {
+                        int gap = getVarint(in);
+                        if(d > 0 && gap == 0)
+                            throw new IOException("Flowchart file repeats a " + r + " entry of node " + i);
+                        t += gap;
+                        if(t < 0 || t >= n)
+                            throw new IOException("Flowchart file refers to node " + t + " of " + n);
+                        targets[k++] = t;
+                    }
+                    offsets[i + 1] = k;
+                }
+                if(k != entries)
+                    throw new IOException("Flowchart file has fewer " + r + " entries than declared");
+                if(r == Relation.LINK)
+                    checkSymmetric(offsets, targets);
+
+                f.installRelation(r, offsets, targets);
+            }
+
+            if(in.getInt() != MAGIC)
+                throw new IOException("Flowchart file is damaged");
+            return f;
+        }
+        catch(BufferUnderflowException e)
+        {
+            throw new IOException("Flowchart file is truncated", e);
+        }
+    }
+
+    /* Links are undirected, so every a -> b read must come with its b -> a.
+     * Each node's targets are sorted, so the partner is found by binary search.
+     */
+    private static void checkSymmetric(int[] offsets, int[] targets) throws IOException
+    {
+        for(int a = 0; a + 1 < offsets.length; a++)
+        {
+            for(int k = offsets[a]; k < offsets[a + 1]; k++)
+            {
+                int b = targets[k];
+                if(Arrays.binarySearch(targets, offsets[b], offsets[b + 1], a) < 0)
+                    throw new IOException("Flowchart file links node " + a + " to " + b + " but not back");
+            }
+        }
+    }
+
+    // === Encoding ===
+
+    private static int getVarint(ByteBuffer in) throws IOException
+    {
+        int value = 0;
+        for(int shift = 0; shift < 35; shift += 7)
+        {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if(b >= 0) return value;
+        }
+        throw new IOException("Flowchart file has a malformed number");
+    }
+
+    private static int getSigned(ByteBuffer in) throws IOException
+    {
+        int v = getVarint(in);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static String getString(ByteBuffer in) throws IOException
+    {
+        int length = getVarint(in);
+        if(length == 0) return "";
+        if(length < 0 || length > in.remaining())
+            throw new IOException("Flowchart file is truncated");
+
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /* Write buffer in front of a channel, drained whenever it runs low.
+     */
+    private static final class Sink
+    {
+        private final WritableByteChannel out;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        Sink(WritableByteChannel out)
+        {
+            this.out = out;
+        }
+
+        void putInt(int v) throws IOException
+        {
+            ensure(4);
+            buf.putInt(v);
+        }
+
+        void putVarint(int v) throws IOException
+        {
+            ensure(5);
+            while((v & ~0x7F) != 0)
+            {
+                buf.put((byte) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            buf.put((byte) v);
+        }
+
+        void putSigned(int v) throws IOException
+        {
+            putVarint((v << 1) ^ (v >> 31));
+        }
+
+        void putString(String s) throws IOException
+        {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            putVarint(bytes.length);
+            for(int off = 0; off < bytes.length; )
+            {
+                ensure(1);
+                int len = Math.min(buf.remaining(), bytes.length - off);
+                buf.put(bytes, off, len);
+                off += len;
+            }
+        }
+
+        void flush() throws IOException
+        {
+            buf.flip();
+            while(buf.hasRemaining())
+                out.write(buf);
+            buf.clear();
+        }
+
+        private void ensure(int bytes) throws IOException
+        {
+            if(buf.remaining() < bytes) flush();
+        }
+    }
+}
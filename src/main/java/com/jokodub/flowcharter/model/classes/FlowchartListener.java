@@ -0,0 +1,10 @@
+package com.jokodub.flowcharter.model.classes;
+
+/* Told about every change to a Flowchart, one call per public edit, undo or redo.
+ * Called on the editing thread once the edit is complete, while the chart is still
+ * held by it (see Flowchart.atomically), so reading the chart is safe but blocking is not.
+ */
+public interface FlowchartListener
+{
+    void flowchartChanged(Flowchart f, FlowchartChange change);
+}
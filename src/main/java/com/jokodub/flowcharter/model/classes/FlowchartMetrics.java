@@ -0,0 +1,53 @@
+package com.jokodub.flowcharter.model.classes;
+
+/* Where Flowchart, FlowchartUtils and FlowchartOptimizer report what they do (see Metric).
+ * Nothing is reported until a sink is installed: a MetricsRegistry to read counts and
+ * percentiles back, a JfrMetricsSink for Flight Recorder, or both through andThen.
+ *
+ * With no sink, instrumented code pays one field read and branch per operation
+ * and never reads the clock, so it can stay in place in production:
+ *
+ *     long start = FlowchartMetrics.start();
+ *     ...
+ *     FlowchartMetrics.stop(Metric.INSERT_NANOS, start);
+ */
+public final class FlowchartMetrics
+{
+    // === Instance Variables ===
+
+    private static volatile MetricsSink sink;
+
+    //Used as a library, disallow instances
+    private FlowchartMetrics(){}
+
+    // === Get-Set ===
+
+    /* Sends everything recorded from now on to s, or to nothing if s is null.
+     */
+    public static void install(MetricsSink s) { sink = s; }
+    public static MetricsSink installed() { return sink; }
+    public static boolean isEnabled() { return sink != null; }
+
+    // === Recording ===
+
+    public static void record(Metric m, long value)
+    {
+        MetricsSink s = sink;
+        if(s != null) s.record(m, value);
+    }
+
+    /* @return the clock to pass to stop, 0 when nothing is installed
+     */
+    public static long start()
+    {
+        return sink != null ? System.nanoTime() : 0;
+    }
+
+    /* Records the nanoseconds since start, unless nothing was installed when it was taken.
+     */
+    public static void stop(Metric m, long start)
+    {
+        MetricsSink s = sink;
+        if(s != null && start != 0) s.record(m, System.nanoTime() - start);
+    }
+}
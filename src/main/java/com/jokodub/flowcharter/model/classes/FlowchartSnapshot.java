@@ -0,0 +1,532 @@
+package com.jokodub.flowcharter.model.classes;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/* A read-only version of a Flowchart, taken by Flowchart.snapshot().
+ * Nothing in it ever changes, so any number of threads may read it without locking
+ * while the chart itself keeps being edited.
+ *
+ * Slots are split into pages of PAGE slots. Each page holds its nodes, positions and
+ * a small CSR per store (the four Relations and the reverse mention index).
+ * The next snapshot copies only the page tables and rebuilds the pages holding edited
+ * slots, sharing every other page with this one. Node ids are found through IdIndex,
+ * shared the same way.
+ */
+public final class FlowchartSnapshot
+{
+    // === Instance Variables ===
+
+    static final int PAGE_BITS = 8;
+    static final int PAGE = 1 << PAGE_BITS;
+    private static final int STORES = 5; //Relations, then the reverse mention index
+
+    private final String title;
+    private final long version;
+    private final Node top;
+    private final Node bottom;
+    private final int slotLimit;
+    private final int nodeCount;
+
+    //Per page of slots
+    private final Node[][] nodes;
+    private final int[][] heights;
+    private final int[][] ranks;
+    private final int[][][] offsets; //[store][page], PAGE + 1 segment starts into targets
+    private final int[][][] targets; //[store][page]
+
+    private final IdIndex ids;
+
+    // === Constructors ===
+
+    private FlowchartSnapshot(String title, long version, Node top, Node bottom, int slotLimit, int nodeCount,
+                              Node[][] nodes, int[][] heights, int[][] ranks, int[][][] offsets, int[][][] targets,
+                              IdIndex ids)
+    {
+        this.title = title;
+        this.version = version;
+        this.top = top;
+        this.bottom = bottom;
+        this.slotLimit = slotLimit;
+        this.nodeCount = nodeCount;
+        this.nodes = nodes;
+        this.heights = heights;
+        this.ranks = ranks;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.ids = ids;
+    }
+
+    /* First snapshot of f, building every page.
+     */
+    static FlowchartSnapshot of(Flowchart f)
+    {
+        int pages = pagesFor(f.slotLimit());
+        FlowchartSnapshot s = new FlowchartSnapshot(f.getTitle(), 0, f.getTop(), f.getBottom(),
+                f.slotLimit(), f.nodeCount(), new Node[pages][], new int[pages][], new int[pages][],
+                new int[STORES][pages][], new int[STORES][pages][], null);
+
+        IntList buf = new IntList();
+        for(int p = 0; p < pages; p++)
+            s.buildPage(f, p, buf);
+        return s.withIds(IdIndex.of(s));
+    }
+
+    /* Next snapshot of f, rebuilding only the pages holding a changed slot.
+     * @param changedSlots as every slot edited since this snapshot was taken
+     */
+    FlowchartSnapshot advance(Flowchart f, IntList changedSlots)
+    {
+        int pages = pagesFor(f.slotLimit());
+        int[][][] newOffsets = new int[STORES][][];
+        int[][][] newTargets = new int[STORES][][];
+        for(int k = 0; k < STORES; k++)
+        {
+            newOffsets[k] = Arrays.copyOf(offsets[k], pages);
+            newTargets[k] = Arrays.copyOf(targets[k], pages);
+        }
+        FlowchartSnapshot s = new FlowchartSnapshot(f.getTitle(), version + 1, top, bottom,
+                f.slotLimit(), f.nodeCount(), Arrays.copyOf(nodes, pages), Arrays.copyOf(heights, pages),
+                Arrays.copyOf(ranks, pages), newOffsets, newTargets, null);
+
+        boolean[] rebuilt = new boolean[pages];
+        IntList buf = new IntList();
+        for(int i = 0; i < changedSlots.size(); i++)
+        {
+            int p = changedSlots.get(i) >>> PAGE_BITS;
+            if(rebuilt[p]) continue;
+            rebuilt[p] = true;
+            s.buildPage(f, p, buf);
+        }
+        return s.withIds(ids.advance(this, s, changedSlots));
+    }
+
+    private FlowchartSnapshot withIds(IdIndex index)
+    {
+        return new FlowchartSnapshot(title, version, top, bottom, slotLimit, nodeCount,
+                                     nodes, heights, ranks, offsets, targets, index);
+    }
+
+    /* Copies page p of f into this snapshot's (not yet shared) page tables.
+     */
+    private void buildPage(Flowchart f, int p, IntList buf)
+    {
+        int base = p << PAGE_BITS;
+        int end = Math.min(base + PAGE, f.slotLimit());
+
+        Node[] pageNodes = new Node[PAGE];
+        int[] pageHeights = new int[PAGE];
+        int[] pageRanks = new int[PAGE];
+        for(int slot = base; slot < end; slot++)
+        {
+            pageNodes[slot - base] = f.nodeAt(slot);
+            pageHeights[slot - base] = f.heightAt(slot);
+            pageRanks[slot - base] = f.rankAt(slot);
+        }
+        nodes[p] = pageNodes;
+        heights[p] = pageHeights;
+        ranks[p] = pageRanks;
+
+        for(int k = 0; k < STORES; k++)
+        {
+            buf.clear();
+            int[] off = new int[PAGE + 1];
+            for(int slot = base; slot < base + PAGE; slot++)
+            {
+                if(slot < end && f.nodeAt(slot) != null)
+                    f.appendStoreAt(k, slot, buf);
+                off[slot - base + 1] = buf.size();
+            }
+            offsets[k][p] = off;
+            targets[k][p] = buf.toArray();
+        }
+    }
+
+    private static int pagesFor(int slots)
+    {
+        return (slots + PAGE - 1) >>> PAGE_BITS;
+    }
+
+    // === Get-Set ===
+
+    public String getTitle() { return title; }
+    public Node getTop() { return top; }
+    public Node getBottom() { return bottom; }
+    public int nodeCount() { return nodeCount; }
+
+    /* Snapshots of one chart count up from 0, a new number meaning something changed.
+     */
+    public long getVersion() { return version; }
+
+    public int getHeight(Node n) { return heightAt(requireSlot(n)); }
+    public int getRank(Node n) { return rankAt(requireSlot(n)); }
+
+    public Set<Node> getAllNodes() { return new NodeSet(); }
+    public Set<Node> getInboundSet(Node n) { return getRelationSet(Relation.INBOUND, n); }
+    public Set<Node> getOutboundSet(Node n) { return getRelationSet(Relation.OUTBOUND, n); }
+    public Set<Node> getLinkSet(Node n) { return getRelationSet(Relation.LINK, n); }
+    public Set<Node> getMentionSet(Node n) { return getRelationSet(Relation.MENTION, n); }
+    public Set<Node> getRelationSet(Relation r, Node n) { return new SegmentSet(r.ordinal(), requireSlot(n)); }
+
+    public boolean containsNode(Node n) { return slotOf(n) >= 0; }
+    public boolean hasEdge(Node src, Node dest) { return getOutboundSet(src).contains(dest); }
+    public boolean hasLink(Node n, Node query) { return getLinkSet(n).contains(query); }
+    public boolean hasMention(Node n, Node query) { return getMentionSet(n).contains(query); }
+
+    public Node getNodeById(int id)
+    {
+        int slot = ids.get(id);
+        return slot < 0 ? null : nodeAt(slot);
+    }
+
+    /* Every node that mentions n.
+     */
+    public Set<Node> allMentionsTo(Node n) { return new SegmentSet(STORES - 1, requireSlot(n)); }
+
+    // === Slot Methods ===
+
+    /* Same slots as the Flowchart had when this was taken.
+     */
+
+    public int slotLimit() { return slotLimit; }
+    public Node nodeAt(int slot) { return nodes[slot >>> PAGE_BITS][slot & (PAGE - 1)]; }
+    public int heightAt(int slot) { return heights[slot >>> PAGE_BITS][slot & (PAGE - 1)]; }
+    public int rankAt(int slot) { return ranks[slot >>> PAGE_BITS][slot & (PAGE - 1)]; }
+
+    public int degreeAt(Relation r, int slot)
+    {
+        int[] off = offsets[r.ordinal()][slot >>> PAGE_BITS];
+        int i = slot & (PAGE - 1);
+        return off[i + 1] - off[i];
+    }
+
+    /* @return slot of n, or -1 if n was not part of the chart
+     */
+    public int slotOf(Node n)
+    {
+        if(n == null) return -1;
+        return ids.get(n.getId());
+    }
+
+    /* Appends the slots connected to slot by relation r onto dst.
+     */
+    public void neighboursAt(Relation r, int slot, IntList dst)
+    {
+        appendTo(r.ordinal(), slot, dst);
+    }
+
+    private void appendTo(int k, int slot, IntList dst)
+    {
+        int p = slot >>> PAGE_BITS, i = slot & (PAGE - 1);
+        int[] off = offsets[k][p];
+        int[] t = targets[k][p];
+        for(int e = off[i]; e < off[i + 1]; e++)
+            dst.add(t[e]);
+    }
+
+    private int requireSlot(Node n)
+    {
+        int slot = slotOf(n);
+        if(slot < 0)
+            throw new IllegalArgumentException("Node " + n + " is not part of " + title);
+        return slot;
+    }
+
+    /* A Flowchart holding this version, made of the same Node objects, free to edit
+     * without touching the chart it was taken from. Slots are packed: top and bottom first,
+     * then the other nodes in slot order. Like a loaded chart, nothing in it is dirty.
+     * For work on a private copy, such as a layout running off the editing thread.
+     */
+    public Flowchart toFlowchart()
+    {
+        //Old slot of each new one, and the other way round
+        int[] order = new int[nodeCount];
+        int[] packed = new int[slotLimit];
+        order[0] = slotOf(top);
+        order[1] = slotOf(bottom);
+        int n = 2;
+        for(int slot = 0; slot < slotLimit; slot++)
+            if(nodeAt(slot) != null && slot != order[0] && slot != order[1])
+                order[n++] = slot;
+
+        Node[] loaded = new Node[nodeCount];
+        int[] loadedHeights = new int[nodeCount], loadedRanks = new int[nodeCount];
+        for(int i = 0; i < nodeCount; i++)
+        {
+            packed[order[i]] = i;
+            loaded[i] = nodeAt(order[i]);
+            loadedHeights[i] = heightAt(order[i]);
+            loadedRanks[i] = rankAt(order[i]);
+        }
+
+        Flowchart f = new Flowchart(title, loaded, loadedHeights, loadedRanks);
+        IntList buf = new IntList();
+        for(Relation r : new Relation[]{ Relation.OUTBOUND, Relation.LINK, Relation.MENTION })
+        {
+            int[] off = new int[nodeCount + 1];
+            buf.clear();
+            for(int i = 0; i < nodeCount; i++)
+            {
+                int start = buf.size();
+                neighboursAt(r, order[i], buf);
+                for(int e = start; e < buf.size(); e++)
+                    buf.set(e, packed[buf.get(e)]);
+                off[i + 1] = buf.size();
+            }
+            f.installRelation(r, off, buf.toArray());
+        }
+        return f;
+    }
+
+    /* Pages this snapshot shares with other, for tests of structural sharing.
+     */
+    int pagesSharedWith(FlowchartSnapshot other)
+    {
+        int shared = 0;
+        for(int p = 0; p < Math.min(nodes.length, other.nodes.length); p++)
+            if(nodes[p] == other.nodes[p] && targets[0][p] == other.targets[0][p])
+                shared++;
+        return shared;
+    }
+
+    /* Same summary as Flowchart.toString, of this version.
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(title).append('\n');
+        for(Node n : getAllNodes())
+        {
+            sb.append(n.toString());
+            sb.append(" (").append(getHeight(n)).append(',').append(getRank(n)).append(") ");
+            sb.append("\t");
+            sb.append(" In: {").append(getInboundSet(n)).append("} ");
+            sb.append("Out: {").append(getOutboundSet(n)).append("} ");
+            sb.append("Lnk: {").append(getLinkSet(n)).append("} ");
+            sb.append("Mnt: {").append(getMentionSet(n)).append("} ");
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+
+    // === Set Views ===
+
+    /* The nodes of one store segment. Never changes, like the snapshot.
+     */
+    private final class SegmentSet extends AbstractSet<Node>
+    {
+        private final int[] t;
+        private final int start, end;
+
+        SegmentSet(int k, int slot)
+        {
+            int[] off = offsets[k][slot >>> PAGE_BITS];
+            int i = slot & (PAGE - 1);
+            t = targets[k][slot >>> PAGE_BITS];
+            start = off[i];
+            end = off[i + 1];
+        }
+
+        @Override
+        public int size() { return end - start; }
+
+        @Override
+        public boolean contains(Object o)
+        {
+            if(!(o instanceof Node)) return false;
+            int slot = slotOf((Node) o);
+            if(slot < 0) return false;
+            for(int e = start; e < end; e++)
+                if(t[e] == slot) return true;
+            return false;
+        }
+
+        @Override
+        public Iterator<Node> iterator()
+        {
+            return new Iterator<Node>()
+            {
+                private int e = start;
+
+                @Override
+                public boolean hasNext() { return e < end; }
+
+                @Override
+                public Node next()
+                {
+                    if(e >= end) throw new NoSuchElementException();
+                    return nodeAt(t[e++]);
+                }
+            };
+        }
+    }
+
+    /* Every node of the snapshot, in slot order.
+     */
+    private final class NodeSet extends AbstractSet<Node>
+    {
+        @Override
+        public int size() { return nodeCount; }
+
+        @Override
+        public boolean contains(Object o) { return o instanceof Node && containsNode((Node) o); }
+
+        @Override
+        public Iterator<Node> iterator()
+        {
+            return new Iterator<Node>()
+            {
+                private int slot = advance(0);
+
+                private int advance(int from)
+                {
+                    while(from < slotLimit && nodeAt(from) == null) from++;
+                    return from;
+                }
+
+                @Override
+                public boolean hasNext() { return slot < slotLimit; }
+
+                @Override
+                public Node next()
+                {
+                    if(slot >= slotLimit) throw new NoSuchElementException();
+                    Node n = nodeAt(slot);
+                    slot = advance(slot + 1);
+                    return n;
+                }
+            };
+        }
+    }
+
+    // === Id Index ===
+
+    /* Node id -> slot, as a hash table of small buckets grouped into directory pages.
+     * Like the slot pages, an edit copies only the buckets and directory pages it touches.
+     * Each bucket is a fresh array of (id, slot) pairs, never written once shared.
+     */
+    static final class IdIndex
+    {
+        private static final int DIR_BITS = 10;
+        private static final int LOAD = 4; //Average pairs per bucket before growing
+        private static final int[] EMPTY = new int[0];
+
+        private final int bucketBits;
+        private final int[][][] dir; //[directory page][bucket] -> id, slot, id, slot...
+
+        private IdIndex(int bucketBits, int[][][] dir)
+        {
+            this.bucketBits = bucketBits;
+            this.dir = dir;
+        }
+
+        static IdIndex of(FlowchartSnapshot s)
+        {
+            int bits = 4;
+            while((LOAD << bits) < s.nodeCount) bits++;
+            int buckets = 1 << bits;
+            int[][][] dir = new int[Math.max(1, buckets >>> DIR_BITS)][Math.min(buckets, 1 << DIR_BITS)][];
+            for(int[][] page : dir)
+                Arrays.fill(page, EMPTY);
+
+            //Count per bucket first, so each is allocated once
+            int[] size = new int[buckets];
+            for(int slot = 0; slot < s.slotLimit; slot++)
+                if(s.nodeAt(slot) != null)
+                    size[bucket(s.nodeAt(slot).getId(), bits)] += 2;
+
+            IdIndex index = new IdIndex(bits, dir);
+            for(int b = 0; b < buckets; b++)
+                if(size[b] > 0)
+                    index.setBucket(b, new int[size[b]]);
+
+            int[] fill = new int[buckets];
+            for(int slot = 0; slot < s.slotLimit; slot++)
+            {
+                Node n = s.nodeAt(slot);
+                if(n == null) continue;
+                int b = bucket(n.getId(), bits);
+                int[] pairs = index.bucketAt(b);
+                pairs[fill[b]++] = n.getId();
+                pairs[fill[b]++] = slot;
+            }
+            return index;
+        }
+
+        /* Index of next, applying the changes between prev and next at the changed slots.
+         * Rebuilt in full once the chart outgrows the buckets, amortized over the growth.
+         */
+        IdIndex advance(FlowchartSnapshot prev, FlowchartSnapshot next, IntList changedSlots)
+        {
+            if(next.nodeCount > (LOAD << bucketBits) * 2) return of(next);
+
+            int[][][] newDir = dir.clone();
+            boolean[] copied = new boolean[dir.length];
+            IdIndex index = new IdIndex(bucketBits, newDir);
+            //Drop every id that left its slot before placing any, as a node may have moved
+            for(int pass = 0; pass < 2; pass++)
+            {
+                for(int i = 0; i < changedSlots.size(); i++)
+                {
+                    int slot = changedSlots.get(i);
+                    Node before = slot < prev.slotLimit ? prev.nodeAt(slot) : null;
+                    Node after = next.nodeAt(slot);
+                    if(before == after) continue;
+
+                    if(pass == 0 && before != null) index.edit(before.getId(), -1, copied);
+                    if(pass == 1 && after != null) index.edit(after.getId(), slot, copied);
+                }
+            }
+            return index;
+        }
+
+        int get(int id)
+        {
+            int[] pairs = bucketAt(bucket(id, bucketBits));
+            for(int i = 0; i < pairs.length; i += 2)
+                if(pairs[i] == id) return pairs[i + 1];
+            return -1;
+        }
+
+        /* Removes id, then maps it to slot unless slot is -1.
+         */
+        private void edit(int id, int slot, boolean[] copied)
+        {
+            int b = bucket(id, bucketBits);
+            int d = b >>> DIR_BITS;
+            if(!copied[d])
+            {
+                dir[d] = dir[d].clone();
+                copied[d] = true;
+            }
+
+            int[] pairs = bucketAt(b);
+            int[] kept = new int[pairs.length + 2];
+            int k = 0;
+            for(int i = 0; i < pairs.length; i += 2)
+            {
+                if(pairs[i] == id) continue;
+                kept[k++] = pairs[i];
+                kept[k++] = pairs[i + 1];
+            }
+            if(slot >= 0)
+            {
+                kept[k++] = id;
+                kept[k++] = slot;
+            }
+            setBucket(b, k == 0 ? EMPTY : Arrays.copyOf(kept, k));
+        }
+
+        private int[] bucketAt(int b) { return dir[b >>> DIR_BITS][b & ((1 << DIR_BITS) - 1)]; }
+        private void setBucket(int b, int[] pairs) { dir[b >>> DIR_BITS][b & ((1 << DIR_BITS) - 1)] = pairs; }
+
+        private static int bucket(int id, int bits)
+        {
+            return (id * 0x9E3779B9) >>> (32 - bits);
+        }
+    }
+}
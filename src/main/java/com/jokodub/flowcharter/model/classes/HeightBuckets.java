@@ -0,0 +1,112 @@
+package com.jokodub.flowcharter.model.classes;
+
+import java.util.Arrays;
+
+/* Live slots of a Flowchart grouped by height, so the nodes of one layer can be listed
+ * and counted without a pass over the whole chart. Kept current by the Flowchart
+ * as nodes come and go and heights move.
+ *
+ * The members of a height form a circular list through their slots, as in LinkGroups,
+ * found from the height through a map to one of them. Adding and removing are O(1).
+ * The map reserves Integer.MIN_VALUE as a key, so that height is kept on the side.
+ */
+final class HeightBuckets
+{
+    // === Instance Variables ===
+
+    private int[] next, prev; //Slot -> neighbours in its height's circle
+    private final IntIntMap first = new IntIntMap(16); //Height -> one of its members
+    private final IntIntMap count = new IntIntMap(16); //Height -> members
+    private int lowestFirst = -1, lowestCount; //Integer.MIN_VALUE, which the maps can't hold
+
+    // === Constructors ===
+
+    HeightBuckets(int capacity)
+    {
+        next = new int[capacity];
+        prev = new int[capacity];
+    }
+
+    // === Get-Set ===
+
+    int sizeAt(int h) { return h == Integer.MIN_VALUE ? lowestCount : count.get(h, 0); }
+
+    /* Appends every slot at height h onto dst, in no particular order.
+     */
+    void appendMembers(int h, IntList dst)
+    {
+        int head = firstAt(h);
+        if(head < 0) return;
+        int s = head;
+        do
+        {
+            dst.add(s);
+            s = next[s];
+        }
+        while(s != head);
+    }
+
+    // === Bucket Methods ===
+
+    void add(int slot, int h)
+    {
+        int head = firstAt(h);
+        if(head < 0)
+        {
+            next[slot] = slot;
+            prev[slot] = slot;
+            set(h, slot, 1);
+            return;
+        }
+        next[slot] = head;
+        prev[slot] = prev[head];
+        next[prev[head]] = slot;
+        prev[head] = slot;
+        set(h, head, sizeAt(h) + 1);
+    }
+
+    void remove(int slot, int h)
+    {
+        int left = sizeAt(h) - 1;
+        if(left == 0)
+        {
+            set(h, -1, 0);
+            return;
+        }
+        next[prev[slot]] = next[slot];
+        prev[next[slot]] = prev[slot];
+        int head = firstAt(h);
+        set(h, head == slot ? next[slot] : head, left);
+    }
+
+    private int firstAt(int h) { return h == Integer.MIN_VALUE ? lowestFirst : first.get(h, -1); }
+
+    //Empty heights are dropped from the maps
+    private void set(int h, int head, int size)
+    {
+        if(h == Integer.MIN_VALUE)
+        {
+            lowestFirst = head;
+            lowestCount = size;
+        }
+        else if(size == 0)
+        {
+            first.remove(h);
+            count.remove(h);
+        }
+        else
+        {
+            first.put(h, head);
+            count.put(h, size);
+        }
+    }
+
+    void ensureCapacity(int capacity)
+    {
+        if(capacity <= next.length) return;
+        next = Arrays.copyOf(next, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+    }
+
+    long footprintBytes() { return 2 * (16L + 4L * next.length) + first.footprintBytes() + count.footprintBytes(); }
+}
@@ -0,0 +1,119 @@
+package com.jokodub.flowcharter.model.classes;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/* Distribution of non-negative longs in fixed memory, in the style of HdrHistogram.
+ * Values below 128 get a bucket each. Above that, each power of two is split into
+ * 64 linear buckets, so a bucket is never wider than 1/64 of the values in it and
+ * percentiles come back within 1.6% of the recorded value, from 0 up to Long.MAX_VALUE.
+ * Recording is lock free and safe from any thread, reading while recording sees
+ * a state that may be a few values behind.
+ */
+public final class Histogram
+{
+    // === Instance Variables ===
+
+    private static final int SUB_BITS = 7;
+    private static final int SUB = 1 << SUB_BITS; //Exact values below this
+    private static final int HALF = SUB >> 1; //Buckets per power of two above it
+    private static final int BUCKETS = SUB + (64 - SUB_BITS) * HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    // === Get-Set ===
+
+    public long getCount() { return count.get(); }
+    public long getSum() { return sum.get(); }
+
+    /* @return the smallest value recorded, 0 if none
+     */
+    public long getMin() { return count.get() == 0 ? 0 : min.get(); }
+
+    /* @return the largest value recorded, 0 if none
+     */
+    public long getMax() { return count.get() == 0 ? 0 : max.get(); }
+
+    public double getMean()
+    {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    // === Recording ===
+
+    /* @param value as value to count, negative values count as 0
+     */
+    public void record(long value)
+    {
+        long v = Math.max(value, 0);
+        counts.incrementAndGet(indexOf(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        min.accumulateAndGet(v, Math::min);
+        max.accumulateAndGet(v, Math::max);
+    }
+
+    public void reset()
+    {
+        for(int i = 0; i < BUCKETS; i++)
+            counts.set(i, 0);
+        count.set(0);
+        sum.set(0);
+        min.set(Long.MAX_VALUE);
+        max.set(Long.MIN_VALUE);
+    }
+
+    /* The value below which percentile percent of the recorded values fall,
+     * as the highest value of its bucket but never above the largest recorded.
+     * @param percentile as 0 to 100
+     */
+    public long valueAtPercentile(double percentile)
+    {
+        long n = count.get();
+        if(n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * n));
+
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++)
+        {
+            seen += counts.get(i);
+            if(seen >= rank)
+                return Math.min(highestOf(i), getMax());
+        }
+        return getMax();
+    }
+
+    // === Buckets ===
+
+    static int indexOf(long v)
+    {
+        if(v < SUB) return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - (SUB_BITS - 1); //v >>> shift is in [HALF, SUB)
+        return SUB + (shift - 1) * HALF + (int) (v >>> shift) - HALF;
+    }
+
+    /* @return the largest value that falls in bucket i
+     */
+    static long highestOf(int i)
+    {
+        if(i < SUB) return i;
+        int shift = (i - SUB) / HALF + 1;
+        long lowest = (long) ((i - SUB) % HALF + HALF) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    @Override
+    public String toString()
+    {
+        return new StringBuilder().append("n=").append(getCount())
+                .append(" mean=").append(Math.round(getMean()))
+                .append(" p50=").append(valueAtPercentile(50))
+                .append(" p99=").append(valueAtPercentile(99))
+                .append(" max=").append(getMax()).toString();
+    }
+}
@@ -0,0 +1,46 @@
+package com.jokodub.flowcharter.model.classes;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Hands out unique Node ids, safely from any number of threads.
+ * Single ids cost one atomic increment. Callers that create many Nodes reserve
+ * a range at once and count through it themselves, as each Flowchart does.
+ */
+public final class IdAllocator
+{
+    // === Instance Variables ===
+
+    private final AtomicInteger next;
+
+    // === Constructors ===
+
+    public IdAllocator(int first)
+    {
+        next = new AtomicInteger(first);
+    }
+
+    // === Allocation Methods ===
+
+    public int next()
+    {
+        return next.getAndIncrement();
+    }
+
+    /* Reserves count consecutive ids that no other caller will receive.
+     * @param count as number of ids wanted, at least 0
+     * @return the first id of the range [first, first + count)
+     */
+    public int reserve(int count)
+    {
+        if(count < 0)
+            throw new IllegalArgumentException("Cannot reserve " + count + " ids");
+        return next.getAndAdd(count);
+    }
+
+    /* @return id the next call to next() would return, if no other thread gets there first
+     */
+    public int peek()
+    {
+        return next.get();
+    }
+}
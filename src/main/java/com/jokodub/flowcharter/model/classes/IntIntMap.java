@@ -0,0 +1,132 @@
+package com.jokodub.flowcharter.model.classes;
+
+import java.util.Arrays;
+
+/* Open-addressing map from int keys to int values, without boxing.
+ * Used to find a Node's slot from its id.
+ */
+final class IntIntMap
+{
+    // === Instance Variables ===
+
+    private static final int EMPTY = Integer.MIN_VALUE; //Reserved, never a valid key
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
+
+    // === Constructors ===
+
+    IntIntMap(int expected)
+    {
+        int cap = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+        allocate(cap);
+    }
+
+    // === Get-Set ===
+
+    int size() { return size; }
+
+    // === Map Methods ===
+
+    /* @return value stored for key, or missing if absent
+     */
+    int get(int key, int missing)
+    {
+        int i = index(key);
+        while(keys[i] != EMPTY)
+        {
+            if(keys[i] == key) return values[i];
+            i = (i + 1) & mask;
+        }
+        return missing;
+    }
+
+    void put(int key, int value)
+    {
+        if(key == EMPTY)
+            throw new IllegalArgumentException("Key " + key + " is reserved");
+
+        int i = index(key);
+        while(keys[i] != EMPTY)
+        {
+            if(keys[i] == key)
+            {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+
+        keys[i] = key;
+        values[i] = value;
+        if(++size * 2 > keys.length) rehash(keys.length << 1);
+    }
+
+    void remove(int key)
+    {
+        int i = index(key);
+        while(keys[i] != key)
+        {
+            if(keys[i] == EMPTY) return; //Not present
+            i = (i + 1) & mask;
+        }
+
+        //Shift later entries of the probe chain back so lookups never stop early
+        int gap = i;
+        i = (i + 1) & mask;
+        while(keys[i] != EMPTY)
+        {
+            int home = index(keys[i]);
+            if(((i - home) & mask) >= ((i - gap) & mask))
+            {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[gap] = EMPTY;
+        size--;
+    }
+
+    void clear()
+    {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    /* Approximate heap footprint of this map in bytes, for benchmarks.
+     */
+    long footprintBytes()
+    {
+        return 32L + 8L * keys.length;
+    }
+
+    private int index(int key)
+    {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void allocate(int cap)
+    {
+        keys = new int[cap];
+        values = new int[cap];
+        Arrays.fill(keys, EMPTY);
+        mask = cap - 1;
+    }
+
+    private void rehash(int cap)
+    {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(cap);
+        size = 0;
+
+        for(int i = 0; i < oldKeys.length; i++)
+            if(oldKeys[i] != EMPTY)
+                put(oldKeys[i], oldValues[i]);
+    }
+}
@@ -0,0 +1,70 @@
+package com.jokodub.flowcharter.model.classes;
+
+import java.util.Arrays;
+
+/* A growable list of primitive ints.
+ * Used as a reusable buffer for slot traversal so that hot paths
+ * don't box every neighbour into an Integer.
+ */
+public final class IntList
+{
+    // === Instance Variables ===
+
+    private int[] data;
+    private int size;
+
+    // === Constructors ===
+
+    public IntList(int initialCapacity)
+    {
+        data = new int[Math.max(initialCapacity, 4)];
+    }
+
+    public IntList()
+    {
+        this(16);
+    }
+
+    // === Get-Set ===
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+    public int get(int i) { return data[i]; }
+    public void set(int i, int value) { data[i] = value; }
+
+    // === List Methods ===
+
+    public void add(int value)
+    {
+        if(size == data.length)
+            data = Arrays.copyOf(data, data.length << 1);
+        data[size++] = value;
+    }
+
+    /* Removes and returns the last element, for use as a stack.
+     */
+    public int pop() { return data[--size]; }
+    public int peek() { return data[size - 1]; }
+
+    public void clear() { size = 0; }
+
+    /* Drops every element from index newSize on.
+     */
+    public void truncate(int newSize) { size = Math.min(size, newSize); }
+
+    public boolean contains(int value)
+    {
+        for(int i = 0; i < size; i++)
+            if(data[i] == value)
+                return true;
+        return false;
+    }
+
+    public int[] toArray() { return Arrays.copyOf(data, size); }
+
+    @Override
+    public String toString()
+    {
+        return Arrays.toString(toArray());
+    }
+}
@@ -0,0 +1,74 @@
+package com.jokodub.flowcharter.model.classes;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/* Turns every value recorded into a JDK Flight Recorder event, under Flowcharter in JMC:
+ * com.jokodub.flowcharter.Timing for the *_NANOS metrics, com.jokodub.flowcharter.Count for the rest.
+ * Events are only built while a recording has them enabled, e.g.
+ *
+ *     java -XX:StartFlightRecording:filename=chart.jfr ...
+ *
+ * and install with FlowchartMetrics.install(new JfrMetricsSink()).
+ */
+public final class JfrMetricsSink implements MetricsSink
+{
+    @Name("com.jokodub.flowcharter.Timing")
+    @Label("Flowchart Timing")
+    @Description("Time taken by a flowchart operation or optimizer phase")
+    @Category("Flowcharter")
+    @StackTrace(false)
+    static final class TimingEvent extends Event
+    {
+        @Label("Metric")
+        String metric;
+
+        @Label("Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long nanos;
+    }
+
+    @Name("com.jokodub.flowcharter.Count")
+    @Label("Flowchart Count")
+    @Description("Size of a flowchart operation, such as nodes moved or visited")
+    @Category("Flowcharter")
+    @StackTrace(false)
+    static final class CountEvent extends Event
+    {
+        @Label("Metric")
+        String metric;
+
+        @Label("Value")
+        long value;
+
+        @Label("Unit")
+        String unit;
+    }
+
+    @Override
+    public void record(Metric m, long value)
+    {
+        if(m.getUnit().equals("ns"))
+        {
+            TimingEvent e = new TimingEvent();
+            if(!e.isEnabled()) return;
+            e.metric = m.name();
+            e.nanos = value;
+            e.commit();
+        }
+        else
+        {
+            CountEvent e = new CountEvent();
+            if(!e.isEnabled()) return;
+            e.metric = m.name();
+            e.value = value;
+            e.unit = m.getUnit();
+            e.commit();
+        }
+    }
+}
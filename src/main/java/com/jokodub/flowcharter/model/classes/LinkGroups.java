@@ -0,0 +1,106 @@
+package com.jokodub.flowcharter.model.classes;
+
+import java.util.Arrays;
+
+/* Height-link groups of a Flowchart: nodes joined by a chain of links, which share a height.
+ * Kept current by the Flowchart as links and nodes come and go.
+ *
+ * A union-find where every slot points straight at its group's root, so finding a group
+ * is a single array read that never writes, and readers can share the chart lock.
+ * Unions relabel the smaller group, so no slot is relabelled more than log2(n) times.
+ * The members of a group form a circular list through their slots, to list a group
+ * in time proportional to its size.
+ * Links can't be taken back out of a union-find, so removing one regroups only the
+ * members of the group it was in, from their remaining links (see Flowchart.regroup).
+ */
+final class LinkGroups
+{
+    // === Instance Variables ===
+
+    private int[] root; //Slot -> root slot of its group
+    private int[] next; //Slot -> next member of its group, back round to itself
+    private int[] size; //Root slot -> members in its group
+
+    // === Constructors ===
+
+    LinkGroups(int capacity)
+    {
+        root = new int[0];
+        next = new int[0];
+        size = new int[0];
+        ensureCapacity(capacity);
+    }
+
+    // === Get-Set ===
+
+    int rootOf(int slot) { return root[slot]; }
+    int sizeOf(int slot) { return size[root[slot]]; }
+
+    /* Appends every member of slot's group onto dst, slot first.
+     */
+    void appendMembers(int slot, IntList dst)
+    {
+        int s = slot;
+        do
+        {
+            dst.add(s);
+            s = next[s];
+        }
+        while(s != slot);
+    }
+
+    // === Group Methods ===
+
+    /* Makes slot a group of its own. Any group it was in must be reset along with it.
+     */
+    void reset(int slot)
+    {
+        root[slot] = slot;
+        next[slot] = slot;
+        size[slot] = 1;
+    }
+
+    /* Joins the groups of a and b.
+     * @return whether they were separate
+     */
+    boolean union(int a, int b)
+    {
+        int ra = root[a], rb = root[b];
+        if(ra == rb) return false;
+        if(size[ra] < size[rb])
+        {
+            int swap = ra;
+            ra = rb;
+            rb = swap;
+        }
+
+        int s = rb;
+        do
+        {
+            root[s] = ra;
+            s = next[s];
+        }
+        while(s != rb);
+
+        //Splice the two circles into one
+        int after = next[ra];
+        next[ra] = next[rb];
+        next[rb] = after;
+        size[ra] += size[rb];
+        return true;
+    }
+
+    void ensureCapacity(int capacity)
+    {
+        int old = root.length;
+        if(capacity <= old) return;
+
+        root = Arrays.copyOf(root, capacity);
+        next = Arrays.copyOf(next, capacity);
+        size = Arrays.copyOf(size, capacity);
+        for(int s = old; s < capacity; s++)
+            reset(s);
+    }
+
+    long footprintBytes() { return 3 * (16L + 4L * root.length); }
+}
@@ -0,0 +1,54 @@
+package com.jokodub.flowcharter.model.classes;
+
+import java.util.Arrays;
+
+/* A binary min-heap of primitive longs.
+ * Used to visit slots in order of height, keyed as (long) height << 32 | slot.
+ */
+public final class LongHeap
+{
+    // === Instance Variables ===
+
+    private long[] heap = new long[16];
+    private int size;
+
+    // === Get-Set ===
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+    public void clear() { size = 0; }
+
+    // === Heap Methods ===
+
+    public void push(long v)
+    {
+        if(size == heap.length) heap = Arrays.copyOf(heap, size << 1);
+        int i = size++;
+        while(i > 0 && heap[(i - 1) >> 1] > v)
+        {
+            heap[i] = heap[(i - 1) >> 1];
+            i = (i - 1) >> 1;
+        }
+        heap[i] = v;
+    }
+
+    /* Removes and returns the smallest value. The heap must not be empty.
+     */
+    public long pop()
+    {
+        long min = heap[0];
+        long last = heap[--size];
+        int i = 0;
+        while(true)
+        {
+            int c = 2 * i + 1;
+            if(c >= size) break;
+            if(c + 1 < size && heap[c + 1] < heap[c]) c++;
+            if(heap[c] >= last) break;
+            heap[i] = heap[c];
+            i = c;
+        }
+        heap[i] = last;
+        return min;
+    }
+}
@@ -0,0 +1,35 @@
+package com.jokodub.flowcharter.model.classes;
+
+/* What FlowchartMetrics can report. Counters add up the values recorded,
+ * histograms keep their distribution (see Histogram).
+ */
+public enum Metric
+{
+    INSERT_NANOS(true, "ns"),        //FlowchartUtils.insertNode, whole call
+    REMOVE_NANOS(true, "ns"),        //Flowchart.removeNode and removeNodes, whole call
+    DELETE_NANOS(true, "ns"),        //FlowchartUtils.deleteNode and deleteNodes, whole call
+    REDUCE_NANOS(true, "ns"),        //FlowchartUtils.reduceTransitively, whole call
+    NODES_REMOVED(false, "nodes"),
+    HEIGHT_MOVED(true, "nodes"),     //Nodes shifted by one height propagation
+    HEIGHT_DEPTH(true, "layers"),    //Layers spanned by the nodes shifted
+    DFS_FALLBACKS(false, "calls"),   //insertNode walking for top or bottom without a reachability index
+    DFS_VISITED(true, "nodes"),      //Nodes walked by one such search
+    LAYERING_NANOS(true, "ns"),      //FlowchartOptimizer: layered graph and first ordering
+    CROSSING_NANOS(true, "ns"),      //FlowchartOptimizer: crossing reduction sweeps
+    APPLY_NANOS(true, "ns"),         //FlowchartOptimizer: writing heights and ranks back
+    COORDINATES_NANOS(true, "ns"),   //FlowchartOptimizer: x and y positions, when asked for
+    OPTIMIZE_NANOS(true, "ns"),      //FlowchartOptimizer.optimize, whole call
+    INCREMENTAL_NANOS(true, "ns");   //FlowchartOptimizer.optimizeIncremental, whole call
+
+    private final boolean histogram;
+    private final String unit;
+
+    Metric(boolean histogram, String unit)
+    {
+        this.histogram = histogram;
+        this.unit = unit;
+    }
+
+    public boolean isHistogram() { return histogram; }
+    public String getUnit() { return unit; }
+}
@@ -0,0 +1,80 @@
+package com.jokodub.flowcharter.model.classes;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/* Keeps a running total for every counter Metric and a Histogram for every other,
+ * to be read back or printed. Thread safe.
+ *
+ *     MetricsRegistry metrics = new MetricsRegistry();
+ *     FlowchartMetrics.install(metrics);
+ *     ...
+ *     System.out.println(metrics);
+ */
+public final class MetricsRegistry implements MetricsSink
+{
+    // === Instance Variables ===
+
+    private static final Metric[] METRICS = Metric.values();
+
+    private final LongAdder[] totals = new LongAdder[METRICS.length];
+    private final Histogram[] histograms = new Histogram[METRICS.length];
+
+    // === Constructors ===
+
+    public MetricsRegistry()
+    {
+        for(Metric m : METRICS)
+        {
+            if(m.isHistogram()) histograms[m.ordinal()] = new Histogram();
+            else totals[m.ordinal()] = new LongAdder();
+        }
+    }
+
+    // === Get-Set ===
+
+    /* @return the total of a counter, or how many values a histogram holds
+     */
+    public long getCount(Metric m)
+    {
+        return m.isHistogram() ? histograms[m.ordinal()].getCount() : totals[m.ordinal()].sum();
+    }
+
+    /* @return m's histogram, or null for a counter
+     */
+    public Histogram getHistogram(Metric m) { return histograms[m.ordinal()]; }
+
+    // === Recording ===
+
+    @Override
+    public void record(Metric m, long value)
+    {
+        if(m.isHistogram()) histograms[m.ordinal()].record(value);
+        else totals[m.ordinal()].add(value);
+    }
+
+    public void reset()
+    {
+        for(Metric m : METRICS)
+        {
+            if(m.isHistogram()) histograms[m.ordinal()].reset();
+            else totals[m.ordinal()].reset();
+        }
+    }
+
+    /* One line per metric that recorded anything.
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        for(Metric m : METRICS)
+        {
+            if(getCount(m) == 0) continue;
+            sb.append(m).append(" (").append(m.getUnit()).append("): ");
+            if(m.isHistogram()) sb.append(histograms[m.ordinal()]);
+            else sb.append(totals[m.ordinal()].sum());
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,21 @@
+package com.jokodub.flowcharter.model.classes;
+
+/* Receives every value recorded while installed in FlowchartMetrics.
+ * Called on the thread doing the work, often while it holds a chart,
+ * so it must be thread safe and quick.
+ */
+public interface MetricsSink
+{
+    void record(Metric m, long value);
+
+    /* A sink that hands every value to this one, then to other.
+     */
+    default MetricsSink andThen(MetricsSink other)
+    {
+        return (m, value) ->
+        {
+            record(m, value);
+            other.record(m, value);
+        };
+    }
+}
@@ -6,7 +6,10 @@ public class Node
 {    
     // === Instance Variables ===
 
-    private static int nodeCount = -2; //First real node should be 1, after Top and Bottom
+    //Shared by every Flowchart, so ids stay unique across charts and threads
+    //First real node should be 1, after the first chart's Top and Bottom
+    static final IdAllocator IDS = new IdAllocator(-1);
+
     private final int id;
     private final String name;
 
@@ -19,7 +22,15 @@ public class Node
 
     public Node(String s)
     {
-        id = ++nodeCount;
+        this(IDS.next(), s);
+    }
+
+    /* For ids reserved in advance, see Flowchart.newNode and Flowchart.reserveIds.
+     * @param id as id no other Node holds
+     */
+    public Node(int id, String s)
+    {
+        this.id = id;
         name = s;
     }
 
@@ -0,0 +1,846 @@
+package com.jokodub.flowcharter.model.classes;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/* Reachability and cycle queries over the edges of a Flowchart, kept current as it is edited.
+ * Obtain it with Flowchart.reachability().
+ *
+ * Nodes are grouped into strongly connected components (found with an iterative Tarjan),
+ * which form a DAG, the condensation. Components are kept in a topological order, and
+ * each carries a label: the furthest position in that order it can reach.
+ * Labels are paired with the pre/post numbers of a depth-first spanning forest of the
+ * condensation: b is reachable from a if its interval nests inside a's.
+ * A query a -> b is then answered:
+ *  - at once if a and b share a component, or b sits before a in the order,
+ *    or past the furthest position a's label allows, or b's interval nests in a's,
+ *  - otherwise by a search of the condensation that skips every component
+ *    past b or whose label cannot reach b.
+ * Top and bottom would make labels useless, as every node reaches bottom, so bottom
+ * is left out of them while it has no outbound edges. Queries towards bottom just search.
+ *
+ * Edits are followed as they happen:
+ *  - new nodes get a component of their own at the end of the order,
+ *  - an edge along the order only raises the labels of its source's ancestors,
+ *  - an edge against the order reorders just the part of the order between its ends
+ *    (Pearce & Kelly), merging the components on any cycle it closes,
+ *  - removing an edge between components changes nothing, the labels just grow loose,
+ *    but the spanning forest may have lost an edge so its intervals are no longer used.
+ * Labels and intervals that were left behind are rebuilt once queries have searched about as much
+ * as a rebuild costs. Removing an edge or node inside a cycle, or a bulk edit,
+ * rebuilds everything before the next query.
+ *
+ * Queries on Nodes lock the chart as atomically does. The slot methods do not,
+ * call them inside atomically.
+ */
+public final class Reachability
+{
+    // === Instance Variables ===
+
+    private static final int LABEL_BUDGET = 256; //Components relabelled per edge before giving up on the labels
+
+    private final Flowchart f;
+
+    private boolean stale = true; //Rebuilt from scratch before the next query
+    private boolean labelsExact; //Labels are not just sound but tight
+    private boolean labelsSound;
+    private boolean treeValid; //Spanning forest intervals still prove reachability
+    private long searchWork; //Components searched since the labels were last built or tight
+
+    //Per slot
+    private int[] comp = new int[0];
+    private int[] nextMember = new int[0]; //Members of a component as a list through their slots, -1 ends it
+
+    //Per component
+    private int[] firstMember = new int[0];
+    private int[] lastMember = new int[0];
+    private int[] size = new int[0];
+    private int[] pos = new int[0]; //Place in the topological order
+    private int[] reachMax = new int[0]; //Furthest position reachable, from here or any component below
+    private int[] pre = new int[0]; //Spanning forest interval, -1 for components newer than it
+    private int[] post = new int[0];
+    private int compLimit;
+    private int compCount;
+    private final IntList freeComps = new IntList();
+
+    //Topological order, compAt[p] is the component at position p or -1
+    private int[] compAt = new int[0];
+    private int posLimit;
+
+    //Search marks per component, cleared by bumping the generation
+    private int[] markF = new int[0];
+    private int[] markB = new int[0];
+    private int generation;
+
+    private final IntList stack = new IntList();
+    private final IntList buf = new IntList();
+
+    // === Constructors ===
+
+    Reachability(Flowchart f)
+    {
+        this.f = f;
+    }
+
+    // === Queries ===
+
+    /* @return true if there is a path of edges from a to b. Every node reaches itself.
+     */
+    public boolean isReachable(Node a, Node b)
+    {
+        return f.atomically(() -> isReachableAt(slotOf(a), slotOf(b)));
+    }
+
+    /* @return true if n lies on a cycle, including an edge to itself
+     */
+    public boolean isInCycle(Node n)
+    {
+        return f.atomically(() -> isInCycleAt(slotOf(n)));
+    }
+
+    /* Every node with a path to n. n itself is included only if it is in a cycle.
+     */
+    public Set<Node> upstream(Node n)
+    {
+        return f.atomically(() -> collect(slotOf(n), Relation.INBOUND));
+    }
+
+    /* Every node n has a path to. n itself is included only if it is in a cycle.
+     */
+    public Set<Node> downstream(Node n)
+    {
+        return f.atomically(() -> collect(slotOf(n), Relation.OUTBOUND));
+    }
+
+    /* Every node in the same strongly connected component as n, n included.
+     */
+    public Set<Node> cycleOf(Node n)
+    {
+        return f.atomically(() ->
+        {
+            int c = componentAt(slotOf(n));
+            Set<Node> members = new HashSet<>();
+            for(int m = firstMember[c]; m >= 0; m = nextMember[m])
+                members.add(f.nodeAt(m));
+            return members;
+        });
+    }
+
+    public int componentCount()
+    {
+        return f.atomically(() ->
+        {
+            ensureBuilt();
+            return compCount;
+        });
+    }
+
+    // === Slot Methods ===
+
+    public boolean isReachableAt(int a, int b)
+    {
+        ensureBuilt();
+        int ca = comp[a], cb = comp[b];
+        if(ca == cb) return true;
+        if(pos[ca] > pos[cb]) return false;
+
+        boolean labelled = labelsSound && !isExcluded(cb);
+        if(labelled && reachMax[ca] < pos[cb]) return false;
+        if(treeValid && pre[ca] >= 0 && pre[cb] >= 0 && pre[ca] <= pre[cb] && post[cb] <= post[ca]) return true;
+
+        //Search the components between a and b in the order, as far as labels allow
+        int target = pos[cb];
+        int gen = nextGeneration();
+        int searched = 0;
+        boolean found = false;
+        stack.clear();
+        stack.add(ca);
+        markF[ca] = gen;
+        search:
+        while(!stack.isEmpty())
+        {
+            int c = stack.pop();
+            searched++;
+            successors(c);
+            for(int i = 0; i < buf.size(); i++)
+            {
+                int d = buf.get(i);
+                if(d == cb)
+                {
+                    found = true;
+                    break search;
+                }
+                if(markF[d] == gen || pos[d] > target) continue;
+                if(labelled && reachMax[d] < target) continue;
+                markF[d] = gen;
+                stack.add(d);
+            }
+        }
+
+        chargeSearch(searched);
+        return found;
+    }
+
+    public boolean isInCycleAt(int slot)
+    {
+        ensureBuilt();
+        return size[comp[slot]] > 1 || f.hasEdgeAt(slot, slot);
+    }
+
+    /* Component of slot, a small int that may be reused once the component is gone.
+     */
+    public int componentAt(int slot)
+    {
+        ensureBuilt();
+        return comp[slot];
+    }
+
+    public int componentSize(int c) { return size[c]; }
+
+    /* Place of component c in the topological order. Edges only go from lower to higher places.
+     */
+    public int positionOf(int c) { return pos[c]; }
+
+    /* Appends the slots of component c onto dst.
+     */
+    public void membersOf(int c, IntList dst)
+    {
+        for(int m = firstMember[c]; m >= 0; m = nextMember[m])
+            dst.add(m);
+    }
+
+    /* Appends the components c has an edge to in the condensation onto dst, each once.
+     */
+    public void successorsOf(int c, IntList dst)
+    {
+        neighbours(c, Relation.OUTBOUND);
+        int gen = nextGeneration();
+        for(int i = 0; i < buf.size(); i++)
+        {
+            int d = buf.get(i);
+            if(markF[d] != gen)
+            {
+                markF[d] = gen;
+                dst.add(d);
+            }
+        }
+    }
+
+    // === Edit Tracking ===
+
+    /* Called by the Flowchart after each change to its nodes or edges.
+     */
+
+    void nodeAdded(int slot)
+    {
+        if(stale) return;
+        ensureSlotCapacity(f.slotLimit());
+
+        int c = newComponent();
+        comp[slot] = c;
+        nextMember[slot] = -1;
+        firstMember[c] = lastMember[c] = slot;
+        size[c] = 1;
+
+        if(posLimit == compAt.length)
+        {
+            if(posLimit > 2 * compCount + 64) renumber();
+            else compAt = Arrays.copyOf(compAt, Math.max(16, posLimit << 1));
+        }
+        pos[c] = posLimit;
+        compAt[posLimit++] = c;
+        reachMax[c] = pos[c];
+        pre[c] = post[c] = -1;
+    }
+
+    /* The node's edges are already gone, without edgeRemoved calls.
+     */
+    void nodeRemoved(int slot)
+    {
+        if(stale) return;
+
+        int c = comp[slot];
+        if(size[c] > 1)
+        {
+            stale = true; //The rest of its cycle may fall apart
+            return;
+        }
+        compAt[pos[c]] = -1;
+        releaseComponent(c);
+        labelsExact = treeValid = false;
+    }
+
+    void edgeAdded(int s, int d)
+    {
+        if(stale) return;
+
+        int cs = comp[s], cd = comp[d];
+        if(cs == cd) return;
+        if(s == f.slotOf(f.getBottom())) labelsSound = labelsExact = false; //Bottom stops being a sink
+
+        if(pos[cs] < pos[cd])
+            raiseLabels(cs, cd);
+        else
+            reorder(cs, cd);
+    }
+
+    void edgeRemoved(int s, int d)
+    {
+        if(stale) return;
+
+        int c = comp[s];
+        treeValid = false;
+        if(c != comp[d])
+        {
+            labelsExact = false; //Still sound, only less tight
+            return;
+        }
+        if(splits(c)) stale = true;
+    }
+
+    /* For edits the index cannot follow one by one, such as bulk loads.
+     */
+    void invalidate()
+    {
+        stale = true;
+    }
+
+    // === Building ===
+
+    private void ensureBuilt()
+    {
+        if(stale) rebuild();
+    }
+
+    /* Finds every component with an iterative Tarjan, then orders and labels them.
+     */
+    private void rebuild()
+    {
+        int n = f.slotLimit();
+        comp = new int[n];
+        nextMember = new int[n];
+        allocateComponents(Math.max(16, n));
+        freeComps.clear();
+        compLimit = 0;
+        compCount = 0;
+
+        IntList sccEnds = new IntList();
+        IntList sccSlots = new IntList(n);
+        int[] index = new int[n];
+        int[] low = new int[n];
+        boolean[] onStack = new boolean[n];
+        int[] counter = { 0 };
+        for(int s = 0; s < n; s++)
+            if(f.nodeAt(s) != null && index[s] == 0)
+                tarjan(s, -1, index, low, onStack, counter, sccEnds, sccSlots);
+
+        //Tarjan finishes components sinks first, so the order is theirs reversed
+        int count = sccEnds.size();
+        compAt = new int[Math.max(16, count)];
+        posLimit = count;
+        for(int k = 0, start = 0; k < count; k++)
+        {
+            int c = newComponent();
+            int end = sccEnds.get(k);
+            for(int i = start; i < end; i++)
+                addMember(c, sccSlots.get(i));
+            start = end;
+
+            pos[c] = count - 1 - k;
+            compAt[pos[c]] = c;
+        }
+
+        stale = false;
+        rebuildLabels();
+    }
+
+    /* Sets every label from the order, last component first.
+     */
+    private void rebuildLabels()
+    {
+        for(int p = posLimit - 1; p >= 0; p--)
+        {
+            int c = compAt[p];
+            if(c < 0) continue;
+
+            int max = p;
+            successors(c);
+            for(int i = 0; i < buf.size(); i++)
+            {
+                int d = buf.get(i);
+                if(!isExcluded(d) && reachMax[d] > max) max = reachMax[d];
+            }
+            reachMax[c] = max;
+        }
+        labelsSound = labelsExact = true;
+        searchWork = 0;
+        rebuildForest();
+    }
+
+    /* Numbers a depth-first spanning forest of the condensation, roots taken in order,
+     * so a component's descendants in it are exactly those with intervals nested in its own.
+     */
+    private void rebuildForest()
+    {
+        int gen = nextGeneration();
+        int counter = 0;
+        IntList frames = new IntList();
+        IntList cursors = new IntList();
+        IntList starts = new IntList();
+        IntList edges = new IntList();
+        for(int p = 0; p < posLimit; p++)
+        {
+            int root = compAt[p];
+            if(root < 0 || markF[root] == gen) continue;
+
+            markF[root] = gen;
+            pre[root] = counter++;
+            frames.add(root);
+            starts.add(edges.size());
+            cursors.add(edges.size());
+            appendSuccessors(root, edges);
+            while(!frames.isEmpty())
+            {
+                int top = frames.size() - 1;
+                int cur = cursors.get(top);
+                if(cur < edges.size())
+                {
+                    cursors.set(top, cur + 1);
+                    int d = edges.get(cur);
+                    if(markF[d] == gen) continue;
+
+                    markF[d] = gen;
+                    pre[d] = counter++;
+                    frames.add(d);
+                    starts.add(edges.size());
+                    cursors.add(edges.size());
+                    appendSuccessors(d, edges);
+                    continue;
+                }
+
+                post[frames.pop()] = counter++;
+                cursors.pop();
+                edges.truncate(starts.pop());
+            }
+        }
+        treeValid = true;
+    }
+
+    private void appendSuccessors(int c, IntList dst)
+    {
+        successors(c);
+        for(int i = 0; i < buf.size(); i++)
+            dst.add(buf.get(i));
+    }
+
+    /* Tarjan from root without recursion, only following edges that stay inside
+     * component within (or any edge if within is -1).
+     * Completed components are appended to sccSlots, each ending at the next sccEnds entry.
+     */
+    private void tarjan(int root, int within, int[] index, int[] low, boolean[] onStack, int[] counter,
+                        IntList sccEnds, IntList sccSlots)
+    {
+        IntList frames = new IntList();
+        IntList cursors = new IntList();
+        IntList starts = new IntList();
+        IntList edges = new IntList(); //Neighbours of every open frame, back to back
+        IntList open = new IntList(); //Tarjan's stack of slots not yet in a component
+
+        pushFrame(root, within, index, low, onStack, counter, frames, cursors, starts, edges, open);
+        while(!frames.isEmpty())
+        {
+            int top = frames.size() - 1;
+            int v = frames.get(top);
+            int cur = cursors.get(top);
+            if(cur < edges.size())
+            {
+                cursors.set(top, cur + 1);
+                int w = edges.get(cur);
+                if(index[w] == 0)
+                    pushFrame(w, within, index, low, onStack, counter, frames, cursors, starts, edges, open);
+                else if(onStack[w] && index[w] < low[v])
+                    low[v] = index[w];
+                continue;
+            }
+
+            //All of v's edges are done
+            frames.pop();
+            cursors.pop();
+            edges.truncate(starts.pop());
+            if(!frames.isEmpty())
+            {
+                int parent = frames.peek();
+                if(low[v] < low[parent]) low[parent] = low[v];
+            }
+
+            if(low[v] == index[v]) //v roots a component
+            {
+                int w;
+                do
+                {
+                    w = open.pop();
+                    onStack[w] = false;
+                    sccSlots.add(w);
+                }
+                while(w != v);
+                sccEnds.add(sccSlots.size());
+            }
+        }
+    }
+
+    private void pushFrame(int v, int within, int[] index, int[] low, boolean[] onStack, int[] counter,
+                           IntList frames, IntList cursors, IntList starts, IntList edges, IntList open)
+    {
+        index[v] = low[v] = ++counter[0];
+        onStack[v] = true;
+        open.add(v);
+        frames.add(v);
+        starts.add(edges.size());
+        cursors.add(edges.size());
+
+        int from = edges.size();
+        f.neighboursAt(Relation.OUTBOUND, v, edges);
+        if(within < 0) return;
+
+        //Keep only edges inside the component
+        int k = from;
+        for(int i = from; i < edges.size(); i++)
+            if(comp[edges.get(i)] == within)
+                edges.set(k++, edges.get(i));
+        edges.truncate(k);
+    }
+
+    /* Whether component c no longer holds together, after one of its inner edges was removed.
+     */
+    private boolean splits(int c)
+    {
+        int n = f.slotLimit();
+        int[] index = new int[n];
+        int[] low = new int[n];
+        boolean[] onStack = new boolean[n];
+        IntList sccEnds = new IntList();
+        tarjan(firstMember[c], c, index, low, onStack, new int[] { 0 }, sccEnds, new IntList(size[c]));
+        return sccEnds.size() > 1 || sccEnds.get(0) < size[c];
+    }
+
+    // === Incremental Order ===
+
+    /* Edge cs -> cd along the order. The order holds, labels of cs and
+     * everything above it may need to reach as far as cd does.
+     */
+    private void raiseLabels(int cs, int cd)
+    {
+        if(!labelsSound || isExcluded(cd)) return;
+
+        int target = reachMax[cd];
+        if(reachMax[cs] >= target) return;
+
+        stack.clear();
+        reachMax[cs] = target;
+        stack.add(cs);
+        int budget = LABEL_BUDGET;
+        while(!stack.isEmpty())
+        {
+            neighbours(stack.pop(), Relation.INBOUND);
+            for(int i = 0; i < buf.size(); i++)
+            {
+                int p = buf.get(i);
+                if(reachMax[p] >= target) continue;
+                if(--budget < 0)
+                {
+                    labelsSound = labelsExact = false; //Rebuilt once queries need them
+                    return;
+                }
+                reachMax[p] = target;
+                stack.add(p);
+            }
+        }
+    }
+
+    /* Edge cs -> cd against the order (Pearce & Kelly). Only components placed between
+     * the two can be affected: those cd reaches (forward) and those reaching cs (backward).
+     * Backward ones move before forward ones, within the positions they held between them.
+     * If cd reaches cs the edge closed a cycle, and the components on both lists merge.
+     */
+    private void reorder(int cs, int cd)
+    {
+        int lower = pos[cd], upper = pos[cs];
+        int gen = nextGeneration();
+
+        IntList forward = new IntList();
+        boolean cycle = false;
+        stack.clear();
+        stack.add(cd);
+        markF[cd] = gen;
+        while(!stack.isEmpty())
+        {
+            int c = stack.pop();
+            forward.add(c);
+            successors(c);
+            for(int i = 0; i < buf.size(); i++)
+            {
+                int d = buf.get(i);
+                if(d == cs) cycle = true;
+                if(markF[d] != gen && pos[d] <= upper)
+                {
+                    markF[d] = gen;
+                    stack.add(d);
+                }
+            }
+        }
+
+        IntList backward = new IntList();
+        stack.clear();
+        stack.add(cs);
+        markB[cs] = gen;
+        while(!stack.isEmpty())
+        {
+            int c = stack.pop();
+            backward.add(c);
+            neighbours(c, Relation.INBOUND);
+            for(int i = 0; i < buf.size(); i++)
+            {
+                int p = buf.get(i);
+                if(markB[p] != gen && pos[p] >= lower)
+                {
+                    markB[p] = gen;
+                    stack.add(p);
+                }
+            }
+        }
+
+        //Free the positions held, then refill them: backward, the merged cycle, forward
+        int[] pool = new int[forward.size() + backward.size()];
+        int k = 0;
+        for(int i = 0; i < backward.size(); i++)
+            pool[k++] = pos[backward.get(i)];
+        for(int i = 0; i < forward.size(); i++)
+            if(markB[forward.get(i)] != gen) pool[k++] = pos[forward.get(i)];
+        pool = Arrays.copyOf(pool, k);
+        Arrays.sort(pool);
+        for(int p : pool)
+            compAt[p] = -1;
+
+        int[] before = byPosition(backward, gen, false);
+        int[] after = byPosition(forward, gen, false);
+        for(int i = 0; i < before.length; i++)
+            place(before[i], pool[i]);
+        for(int i = 0; i < after.length; i++)
+            place(after[i], pool[pool.length - after.length + i]);
+
+        if(cycle)
+        {
+            int[] merging = byPosition(backward, gen, true);
+            for(int c : merging)
+                if(c != cs) merge(cs, c);
+            place(cs, pool[before.length]);
+            treeValid = false; //Merged components lose their intervals
+        }
+
+        labelsSound = labelsExact = false;
+    }
+
+    /* Components of list sorted by position, either those on both searches or those on one.
+     */
+    private int[] byPosition(IntList list, int gen, boolean onBoth)
+    {
+        long[] keyed = new long[list.size()];
+        int k = 0;
+        for(int i = 0; i < list.size(); i++)
+        {
+            int c = list.get(i);
+            boolean both = markF[c] == gen && markB[c] == gen;
+            if(both == onBoth)
+                keyed[k++] = ((long) pos[c] << 32) | c;
+        }
+        keyed = Arrays.copyOf(keyed, k);
+        Arrays.sort(keyed);
+
+        int[] sorted = new int[k];
+        for(int i = 0; i < k; i++)
+            sorted[i] = (int) keyed[i];
+        return sorted;
+    }
+
+    private void place(int c, int p)
+    {
+        pos[c] = p;
+        compAt[p] = c;
+    }
+
+    /* Moves every member of component from into component into.
+     */
+    private void merge(int into, int from)
+    {
+        for(int m = firstMember[from]; m >= 0; m = nextMember[m])
+            comp[m] = into;
+        nextMember[lastMember[into]] = firstMember[from];
+        lastMember[into] = lastMember[from];
+        size[into] += size[from];
+        releaseComponent(from);
+    }
+
+    /* Packs the order down to its live components, keeping it as it is.
+     */
+    private void renumber()
+    {
+        int k = 0;
+        for(int p = 0; p < posLimit; p++)
+        {
+            int c = compAt[p];
+            if(c >= 0) place(c, k++);
+        }
+        posLimit = k;
+        compAt = Arrays.copyOf(compAt, Math.max(16, k << 1));
+        Arrays.fill(compAt, k, compAt.length, -1);
+        labelsSound = labelsExact = false; //Labels point at old positions
+    }
+
+    // === Helpers ===
+
+    /* Whether c is left out of labels: bottom on its own while nothing leaves it.
+     */
+    private boolean isExcluded(int c)
+    {
+        int bottom = f.slotOf(f.getBottom());
+        return size[c] == 1 && firstMember[c] == bottom && f.degreeAt(Relation.OUTBOUND, bottom) == 0;
+    }
+
+    /* Pays for a search done without tight labels or intervals, and rebuilds them
+     * once searching has cost about as much as building them would.
+     */
+    private void chargeSearch(int searched)
+    {
+        if(labelsExact && treeValid) return;
+        searchWork += searched;
+        if(searchWork > compCount) rebuildLabels();
+    }
+
+    /* Fills buf with the components next to c in direction r, other than c, possibly repeated.
+     */
+    private void neighbours(int c, Relation r)
+    {
+        buf.clear();
+        for(int m = firstMember[c]; m >= 0; m = nextMember[m])
+            f.neighboursAt(r, m, buf);
+
+        int k = 0;
+        for(int i = 0; i < buf.size(); i++)
+        {
+            int d = comp[buf.get(i)];
+            if(d != c) buf.set(k++, d);
+        }
+        buf.truncate(k);
+    }
+
+    private void successors(int c)
+    {
+        neighbours(c, Relation.OUTBOUND);
+    }
+
+    private Set<Node> collect(int slot, Relation direction)
+    {
+        ensureBuilt();
+        int start = comp[slot];
+        int gen = nextGeneration();
+        Set<Node> found = new HashSet<>();
+        stack.clear();
+
+        //Members of start only count when start is a cycle
+        if(isInCycleAt(slot))
+            for(int m = firstMember[start]; m >= 0; m = nextMember[m])
+                found.add(f.nodeAt(m));
+
+        markF[start] = gen;
+        stack.add(start);
+        while(!stack.isEmpty())
+        {
+            neighbours(stack.pop(), direction);
+            for(int i = 0; i < buf.size(); i++)
+            {
+                int d = buf.get(i);
+                if(markF[d] == gen) continue;
+                markF[d] = gen;
+                stack.add(d);
+                for(int m = firstMember[d]; m >= 0; m = nextMember[m])
+                    found.add(f.nodeAt(m));
+            }
+        }
+        return found;
+    }
+
+    private int slotOf(Node n)
+    {
+        int slot = f.slotOf(n);
+        if(slot < 0)
+            throw new IllegalArgumentException("Node " + n + " is not part of " + f.getTitle());
+        return slot;
+    }
+
+    private int nextGeneration()
+    {
+        if(++generation == Integer.MAX_VALUE)
+        {
+            Arrays.fill(markF, 0);
+            Arrays.fill(markB, 0);
+            generation = 1;
+        }
+        return generation;
+    }
+
+    private int newComponent()
+    {
+        int c;
+        if(!freeComps.isEmpty())
+            c = freeComps.pop();
+        else
+        {
+            c = compLimit++;
+            if(c == size.length) allocateComponents(Math.max(16, c << 1));
+        }
+        firstMember[c] = lastMember[c] = -1;
+        size[c] = 0;
+        compCount++;
+        return c;
+    }
+
+    private void releaseComponent(int c)
+    {
+        firstMember[c] = lastMember[c] = -1;
+        size[c] = 0;
+        freeComps.add(c);
+        compCount--;
+    }
+
+    private void addMember(int c, int slot)
+    {
+        comp[slot] = c;
+        nextMember[slot] = -1;
+        if(firstMember[c] < 0) firstMember[c] = slot;
+        else nextMember[lastMember[c]] = slot;
+        lastMember[c] = slot;
+        size[c]++;
+    }
+
+    private void allocateComponents(int capacity)
+    {
+        firstMember = Arrays.copyOf(firstMember, capacity);
+        lastMember = Arrays.copyOf(lastMember, capacity);
+        size = Arrays.copyOf(size, capacity);
+        pos = Arrays.copyOf(pos, capacity);
+        reachMax = Arrays.copyOf(reachMax, capacity);
+        pre = Arrays.copyOf(pre, capacity);
+        post = Arrays.copyOf(post, capacity);
+        markF = Arrays.copyOf(markF, capacity);
+        markB = Arrays.copyOf(markB, capacity);
+    }
+
+    private void ensureSlotCapacity(int needed)
+    {
+        if(needed <= comp.length) return;
+        int capacity = Math.max(needed, comp.length + (comp.length >> 1));
+        comp = Arrays.copyOf(comp, capacity);
+        nextMember = Arrays.copyOf(nextMember, capacity);
+    }
+}
@@ -0,0 +1,12 @@
+package com.jokodub.flowcharter.model.classes;
+
+/* The four kinds of connection a Node keeps in a Flowchart,
+ * in the order they have always been listed: [Inbound, Outbound, Links, Mentions]
+ */
+public enum Relation
+{
+    INBOUND,
+    OUTBOUND,
+    LINK,
+    MENTION
+}
@@ -0,0 +1,114 @@
+package com.jokodub.flowcharter.model.classes;
+
+import java.util.Arrays;
+
+/* Reusable state for walking a Flowchart without recursion.
+ * Holds a generation-stamped visited array (one int per slot, cleared by bumping
+ * the generation instead of refilling), an explicit stack, and scratch buffers.
+ * Obtain one with Flowchart.openTraversal() and close it when done so it can be reused:
+ *
+ *     try(Traversal t = f.openTraversal()) { ... }
+ */
+public final class Traversal implements AutoCloseable
+{
+    // === Instance Variables ===
+
+    private final Flowchart owner;
+    private int[] stamps; //stamps[slot] == generation means visited
+    private int generation;
+
+    private final IntList stack;
+    private final IntList order; //Every slot visited since reset, in visit order
+    private final IntList buffer; //Scratch for neighbour lists
+
+    // === Constructors ===
+
+    Traversal(Flowchart owner)
+    {
+        this.owner = owner;
+        stamps = new int[Math.max(owner.slotLimit(), 16)];
+        stack = new IntList();
+        order = new IntList();
+        buffer = new IntList();
+    }
+
+    // === Get-Set ===
+
+    public Flowchart getFlowchart() { return owner; }
+
+    /* Slots visited since the last reset, in visit order.
+     * Callers may clear it to start a fresh record without forgetting the visits.
+     */
+    public IntList visitedOrder() { return order; }
+
+    // === Traversal Methods ===
+
+    /* Forgets every visit and empties the stack, in O(1).
+     */
+    void reset()
+    {
+        if(stamps.length < owner.slotLimit())
+            stamps = new int[Math.max(owner.slotLimit(), stamps.length << 1)];
+
+        if(++generation == Integer.MAX_VALUE) //Stamps would become ambiguous, start over
+        {
+            Arrays.fill(stamps, 0);
+            generation = 1;
+        }
+
+        stack.clear();
+        order.clear();
+    }
+
+    public boolean isVisited(int slot)
+    {
+        return slot < stamps.length && stamps[slot] == generation;
+    }
+
+    /* Marks slot as visited.
+     * @return true if it had not been visited yet
+     */
+    public boolean visit(int slot)
+    {
+        if(slot >= stamps.length) //Chart grew while walking
+            stamps = Arrays.copyOf(stamps, Math.max(owner.slotLimit(), slot + 1));
+
+        if(stamps[slot] == generation) return false;
+
+        stamps[slot] = generation;
+        order.add(slot);
+        return true;
+    }
+
+    /* Visits slot and schedules it on the stack, unless it was visited already.
+     * @return true if it was newly visited
+     */
+    public boolean visitAndPush(int slot)
+    {
+        if(!visit(slot)) return false;
+        stack.add(slot);
+        return true;
+    }
+
+    public void push(int slot) { stack.add(slot); }
+    public int pop() { return stack.pop(); }
+    public boolean hasPending() { return !stack.isEmpty(); }
+
+    /* Fills the scratch buffer with the neighbours of slot.
+     * The buffer is shared, so finish reading it before the next call.
+     */
+    public IntList neighbours(Relation r, int slot)
+    {
+        buffer.clear();
+        owner.neighboursAt(r, slot, buffer);
+        return buffer;
+    }
+
+    /* Hands this Traversal back to its Flowchart for reuse.
+     */
+    @Override
+    public void close()
+    {
+        owner.releaseTraversal(this);
+    }
+}
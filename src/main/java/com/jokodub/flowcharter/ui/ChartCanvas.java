@@ -0,0 +1,450 @@
+package com.jokodub.flowcharter.ui;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.input.MouseButton;
+import javafx.scene.paint.Color;
+
+import com.jokodub.flowcharter.logic.ChartHierarchy;
+import com.jokodub.flowcharter.model.classes.*;
+import com.jokodub.flowcharter.model.interfaces.*;
+
+/* Draws a whole Flowchart onto one Canvas, straight from the packed buffers of a ChartGeometry,
+ * instead of keeping a scene graph Node per box and line.
+ *
+ * Painting only ever touches what is stale:
+ *  - edits repaint the dirty regions the geometry reports, clipped to each,
+ *  - panning, zooming and resizing repaint the whole view,
+ * and at most one repaint runs per pulse, however many edits arrived since the last.
+ * Within a repaint, the geometry's spatial indexes pick out the boxes and segments in the region,
+ * which go out as a few large paths (BATCH shapes each) rather than one draw call per shape.
+ * Edges concentrated by the layout come as segments into and out of their junctions,
+ * so a dense section costs a line per node rather than one per edge.
+ * Zoomed far out, boxes are smaller than DOT_WIDTH pixels and the chart is rasterized as
+ * dots into a pixel buffer written in one call, with edges and labels left out.
+ * Given a ChartHierarchy, zooming out below DETAIL_SCALE draws its coarser levels instead,
+ * each through a geometry of its own made the first time it is shown.
+ *
+ * Drag to pan, scroll to zoom around the cursor, click to select a node.
+ */
+public final class ChartCanvas extends Canvas implements Drawable, Movable
+{
+    // === Instance Variables ===
+
+    private static final int BATCH = 4096; //Shapes per path
+    private static final double DOT_WIDTH = 4; //Box width in pixels below which boxes become dots
+    private static final double LABEL_SCALE = 0.6; //Zoom from which names are drawn
+    private static final double MIN_SCALE = 1e-3, MAX_SCALE = 8;
+    private static final double DETAIL_SCALE = 0.25; //Zoom below which a hierarchy's coarser levels take over
+
+    private static final Color BACKGROUND = Color.WHITE;
+    private static final Color EDGE = Color.gray(0.45);
+    private static final Color BOX = Color.rgb(232, 238, 247);
+    private static final Color BOX_SELECTED = Color.rgb(255, 214, 120);
+    private static final Color BOX_HIGHLIGHTED = Color.rgb(190, 225, 190);
+    private static final Color OUTLINE = Color.rgb(60, 80, 110);
+    private static final Color TEXT = Color.BLACK;
+
+    private final ChartGeometry geometry;
+    private ChartHierarchy hierarchy;
+    private ChartGeometry[] levels = new ChartGeometry[0]; //Per level of the hierarchy, null until shown
+    private ChartGeometry shown; //Geometry being drawn, of the chart or one of its levels
+    private double originX, originY; //World point at the top left corner
+    private double scale = 1;
+    private boolean viewChanged = true;
+
+    private final float[] regions = new float[32 * 4];
+    private final IntList visible = new IntList(); //Slots of the boxes in the region being painted
+    private final IntList visibleSegments = new IntList();
+    private int[] pixels = new int[0];
+
+    private boolean drawPending;
+    private final AtomicBoolean changeQueued = new AtomicBoolean();
+    private final AnimationTimer pulse = new AnimationTimer()
+    {
+        @Override
+        public void handle(long now)
+        {
+            stop();
+            drawPending = false;
+            draw();
+        }
+    };
+
+    private double dragX, dragY;
+    private boolean dragged;
+
+    // === Constructors ===
+
+    public ChartCanvas(Flowchart f)
+    {
+        this(new ChartGeometry(f));
+    }
+
+    public ChartCanvas(ChartGeometry geometry)
+    {
+        this.geometry = geometry;
+        shown = geometry;
+
+        //Edits may come from any thread, hand them to the FX thread once per burst
+        geometry.setOnChange(() ->
+        {
+            if(changeQueued.compareAndSet(false, true))
+                Platform.runLater(() ->
+                {
+                    changeQueued.set(false);
+                    requestDraw();
+                });
+        });
+        widthProperty().addListener(o -> viewChanged());
+        heightProperty().addListener(o -> viewChanged());
+
+        setOnMousePressed(e ->
+        {
+            dragX = e.getX();
+            dragY = e.getY();
+            dragged = false;
+        });
+        setOnMouseDragged(e ->
+        {
+            setPosition(originX - (e.getX() - dragX) / scale, originY - (e.getY() - dragY) / scale);
+            dragX = e.getX();
+            dragY = e.getY();
+            dragged = true;
+        });
+        setOnMouseClicked(e ->
+        {
+            if(dragged || e.getButton() != MouseButton.PRIMARY) return;
+            Node hit = shown.nodeAt(toWorldX(e.getX()), toWorldY(e.getY()));
+            if(!e.isShortcutDown()) shown.clearSelection();
+            if(hit != null) shown.setSelected(hit, true);
+            requestDraw();
+        });
+        setOnScroll(e ->
+        {
+            if(e.getDeltaY() != 0)
+                zoom(Math.pow(1.0015, e.getDeltaY()), e.getX(), e.getY());
+        });
+    }
+
+    // === Get-Set ===
+
+    public ChartGeometry getGeometry() { return geometry; }
+    public ChartHierarchy getHierarchy() { return hierarchy; }
+
+    /* @return geometry drawn at the current zoom, of the chart or of a coarser level
+     */
+    public ChartGeometry getShownGeometry() { return shown; }
+
+    /* Draws the coarser levels of h when zoomed out, or only the chart itself if h is null.
+     * Level 0 of h must be this canvas's chart. Must be called on the FX thread.
+     */
+    public void setHierarchy(ChartHierarchy h)
+    {
+        for(int l = 1; l < levels.length; l++)
+            if(levels[l] != null) levels[l].dispose();
+        hierarchy = h;
+        levels = new ChartGeometry[h == null ? 0 : h.levelCount()];
+        if(levels.length > 0) levels[0] = geometry;
+        shown = geometry;
+        viewChanged();
+    }
+    public double getOriginX() { return originX; }
+    public double getOriginY() { return originY; }
+    public double getScale() { return scale; }
+
+    /* Pans so that world point (x, y) is at the top left corner.
+     */
+    @Override
+    public void setPosition(double x, double y)
+    {
+        originX = x;
+        originY = y;
+        viewChanged();
+    }
+
+    /* Zooms by factor, keeping the world point under canvas point (px, py) in place.
+     */
+    public void zoom(double factor, double px, double py)
+    {
+        double wx = toWorldX(px), wy = toWorldY(py);
+        scale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale * factor));
+        setPosition(wx - px / scale, wy - py / scale);
+    }
+
+    /* Zooms and pans so the whole chart fits the canvas.
+     */
+    public void fit()
+    {
+        geometry.update();
+        double w = Math.max(geometry.getWidth(), 1), h = Math.max(geometry.getHeight(), 1);
+        scale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, Math.min(getWidth() / w, getHeight() / h)));
+        setPosition(0, 0);
+    }
+
+    public double toWorldX(double x) { return originX + x / scale; }
+    public double toWorldY(double y) { return originY + y / scale; }
+
+    private void viewChanged()
+    {
+        viewChanged = true;
+        requestDraw();
+    }
+
+    // === Layout ===
+
+    //Let layout panes size the canvas like any other region
+
+    @Override
+    public boolean isResizable() { return true; }
+
+    @Override
+    public double prefWidth(double height) { return getWidth(); }
+
+    @Override
+    public double prefHeight(double width) { return getHeight(); }
+
+    @Override
+    public double minWidth(double height) { return 0; }
+
+    @Override
+    public double minHeight(double width) { return 0; }
+
+    @Override
+    public double maxWidth(double height) { return Double.MAX_VALUE; }
+
+    @Override
+    public double maxHeight(double width) { return Double.MAX_VALUE; }
+
+    @Override
+    public void resize(double width, double height)
+    {
+        setWidth(width);
+        setHeight(height);
+    }
+
+    // === Drawing ===
+
+    /* Schedules draw for the next pulse, once however often it is asked.
+     * Must be called on the FX thread.
+     */
+    public void requestDraw()
+    {
+        if(drawPending) return;
+        drawPending = true;
+        pulse.start();
+    }
+
+    /* Brings the geometry up to date and repaints whatever went stale.
+     * Must be called on the FX thread.
+     */
+    @Override
+    public void draw()
+    {
+        geometry.update();
+        ChartGeometry g = levelShown();
+        if(g != shown)
+        {
+            shown = g;
+            viewChanged = true;
+        }
+        if(g != geometry) g.update();
+        boolean full = viewChanged || g.isAllDirty();
+        int n = full ? 0 : g.dirtyRegions(regions);
+        geometry.clearDirty();
+        g.clearDirty();
+        viewChanged = false;
+
+        GraphicsContext gc = getGraphicsContext2D();
+        if(scale * ChartGeometry.BOX_WIDTH < DOT_WIDTH)
+        {
+            paintDots(gc);
+            return;
+        }
+
+        double x0 = toWorldX(0), y0 = toWorldY(0), x1 = toWorldX(getWidth()), y1 = toWorldY(getHeight());
+        if(full)
+        {
+            paint(gc, x0, y0, x1, y1);
+            return;
+        }
+        for(int i = 0; i < n; i++)
+        {
+            int at = i * 4;
+            double rx0 = Math.max(x0, regions[at]), ry0 = Math.max(y0, regions[at + 1]);
+            double rx1 = Math.min(x1, regions[at] + regions[at + 2]), ry1 = Math.min(y1, regions[at + 1] + regions[at + 3]);
+            if(rx0 < rx1 && ry0 < ry1)
+                paint(gc, rx0, ry0, rx1, ry1);
+        }
+    }
+
+    /* Geometry of the hierarchy level readable at the current zoom.
+     */
+    private ChartGeometry levelShown()
+    {
+        if(hierarchy == null) return geometry;
+        int l = hierarchy.levelFor(scale / DETAIL_SCALE);
+        if(levels[l] == null) levels[l] = new ChartGeometry(hierarchy.getLevel(l));
+        return levels[l];
+    }
+
+    /* Repaints the world rectangle [x0, x1] x [y0, y1], clipped to its pixels.
+     */
+    private void paint(GraphicsContext gc, double x0, double y0, double x1, double y1)
+    {
+        //Whole pixels, so antialiased edges of the region are repainted too
+        double sx0 = Math.floor((x0 - originX) * scale), sy0 = Math.floor((y0 - originY) * scale);
+        double sx1 = Math.ceil((x1 - originX) * scale), sy1 = Math.ceil((y1 - originY) * scale);
+        x0 = toWorldX(sx0);
+        y0 = toWorldY(sy0);
+        x1 = toWorldX(sx1);
+        y1 = toWorldY(sy1);
+
+        gc.save();
+        gc.beginPath();
+        gc.rect(sx0, sy0, sx1 - sx0, sy1 - sy0);
+        gc.clip();
+        gc.setFill(BACKGROUND);
+        gc.fillRect(sx0, sy0, sx1 - sx0, sy1 - sy0);
+        gc.setTransform(scale, 0, 0, scale, -originX * scale, -originY * scale);
+        gc.setLineWidth(1 / scale);
+
+        paintSegments(gc, x0, y0, x1, y1);
+        collectBoxes(x0, y0, x1, y1);
+        paintBoxes(gc, (byte) 0, BOX);
+        paintBoxes(gc, ChartGeometry.HIGHLIGHTED, BOX_HIGHLIGHTED);
+        paintBoxes(gc, ChartGeometry.SELECTED, BOX_SELECTED);
+        if(scale >= LABEL_SCALE) paintLabels(gc);
+        gc.restore();
+    }
+
+    private void paintSegments(GraphicsContext gc, double x0, double y0, double x1, double y1)
+    {
+        FloatBuffer seg = shown.segments();
+        visibleSegments.clear();
+        shown.segmentsIn(x0, y0, x1, y1, visibleSegments);
+        gc.setStroke(EDGE);
+        gc.beginPath();
+        int batched = 0;
+        for(int i = 0; i < visibleSegments.size(); i++)
+        {
+            int k = visibleSegments.get(i);
+            gc.moveTo(seg.get(k * 4), seg.get(k * 4 + 1));
+            gc.lineTo(seg.get(k * 4 + 2), seg.get(k * 4 + 3));
+            if(++batched == BATCH)
+            {
+                gc.stroke();
+                gc.beginPath();
+                batched = 0;
+            }
+        }
+        if(batched > 0) gc.stroke();
+    }
+
+    /* Gathers the slots of the boxes overlapping [x0, x1] x [y0, y1] into visible.
+     */
+    private void collectBoxes(double x0, double y0, double x1, double y1)
+    {
+        visible.clear();
+        shown.boxesIn(x0, y0, x1, y1, visible);
+    }
+
+    /* Fills and outlines the visible boxes whose strongest flag is flag (0 for plain ones).
+     */
+    private void paintBoxes(GraphicsContext gc, byte flag, Color fill)
+    {
+        FloatBuffer box = shown.boxes();
+        gc.setFill(fill);
+        gc.setStroke(OUTLINE);
+        gc.beginPath();
+        int batched = 0;
+        for(int i = 0; i < visible.size(); i++)
+        {
+            int s = visible.get(i);
+            if(strongest(shown.flagsAt(s)) != flag) continue;
+
+            gc.rect(box.get(s * 4), box.get(s * 4 + 1), box.get(s * 4 + 2), box.get(s * 4 + 3));
+            if(++batched == BATCH)
+            {
+                gc.fill();
+                gc.stroke();
+                gc.beginPath();
+                batched = 0;
+            }
+        }
+        if(batched > 0)
+        {
+            gc.fill();
+            gc.stroke();
+        }
+    }
+
+    private static byte strongest(byte flags)
+    {
+        if((flags & ChartGeometry.SELECTED) != 0) return ChartGeometry.SELECTED;
+        return (byte) (flags & ChartGeometry.HIGHLIGHTED);
+    }
+
+    private void paintLabels(GraphicsContext gc)
+    {
+        gc.setFill(TEXT);
+        for(int i = 0; i < visible.size(); i++)
+        {
+            int s = visible.get(i);
+            float x = shown.boxX(s), y = shown.boxY(s), w = shown.boxWidth(s), h = shown.boxHeight(s);
+            String name = shown.nodeAt(s).getName();
+            if(name != null && !name.isEmpty())
+                gc.fillText(name, x + 6, y + h / 2 + 4, w - 12);
+        }
+    }
+
+    /* Rasterizes every box in view as a dot into one ARGB buffer and writes it in a single call.
+     */
+    private void paintDots(GraphicsContext gc)
+    {
+        int w = (int) Math.ceil(getWidth()), h = (int) Math.ceil(getHeight());
+        if(w == 0 || h == 0) return;
+        if(pixels.length < w * h) pixels = new int[w * h];
+        Arrays.fill(pixels, 0, w * h, argb(BACKGROUND));
+
+        int plain = argb(OUTLINE), selected = argb(BOX_SELECTED), highlighted = argb(BOX_HIGHLIGHTED);
+        FloatBuffer box = shown.boxes();
+        int size = Math.max(1, (int) (scale * ChartGeometry.BOX_WIDTH));
+        for(int s = 0, n = shown.slotCount(); s < n; s++)
+        {
+            float bw = box.get(s * 4 + 2);
+            if(bw == 0) continue;
+            int px = (int) ((box.get(s * 4) - originX) * scale), py = (int) ((box.get(s * 4 + 1) - originY) * scale);
+            if(px + size <= 0 || py < 0 || px >= w || py >= h) continue;
+
+            byte flag = strongest(shown.flagsAt(s));
+            int color = flag == ChartGeometry.SELECTED ? selected : flag == ChartGeometry.HIGHLIGHTED ? highlighted : plain;
+            int row = py * w;
+            for(int x = Math.max(px, 0); x < Math.min(px + size, w); x++)
+                pixels[row + x] = color;
+        }
+        gc.getPixelWriter().setPixels(0, 0, w, h, PixelFormat.getIntArgbInstance(), pixels, 0, w);
+    }
+
+    private static int argb(Color c)
+    {
+        return 0xFF000000 | (int) Math.round(c.getRed() * 255) << 16
+                | (int) Math.round(c.getGreen() * 255) << 8 | (int) Math.round(c.getBlue() * 255);
+    }
+
+    // === Nodes ===
+
+    /* Handle for selecting and highlighting n on this canvas.
+     */
+    public NodeSprite sprite(Node n)
+    {
+        return new NodeSprite(this, n);
+    }
+}
@@ -0,0 +1,769 @@
+package com.jokodub.flowcharter.ui;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.jokodub.flowcharter.logic.ChartCoordinates;
+import com.jokodub.flowcharter.model.classes.*;
+
+/* World space geometry of a Flowchart, packed into off-heap float buffers for the renderer.
+ *
+ * Every node is a box kept as four floats (x, y, width, height) at its slot, with width 0
+ * for empty slots. Nodes placed by the last layout into getCoordinates() go where it put them,
+ * any other is a BOX_WIDTH x BOX_HEIGHT box on a grid by rank (x) and height (y).
+ * Every outbound edge is one segment (x1, y1, x2, y2) from the bottom middle of its source
+ * to the top middle of its target. Segments are grouped by source slot, CSR style,
+ * so the ones to patch when a node moves are found from its slot alone.
+ * Where the last layout concentrated edges, each junction it left stands in for every edge
+ * from its sources to its targets, drawn as one segment from each source into the junction
+ * and one out of it to each target, grouped after the slots as if it were one more.
+ * A junction is only kept while all of its nodes are placed and all of its edges remain.
+ * Edges out of top and into bottom only anchor the chart, and would run from every
+ * source and sink across the whole drawing, so they are left out unless asked for.
+ *
+ * The geometry follows the chart through a change listener, which only queues what changed
+ * and may run on any thread. update() applies the queue on the rendering thread:
+ *  - moves patch the node's box and the segments touching it in place,
+ *  - anything structural rebuilds both buffers in one linear pass into spares,
+ *    diffs them against the current ones and swaps.
+ * Either way, the world space area whose pixels went stale is queued as dirty regions.
+ *
+ * Boxes and segments each have a SpatialIndex, built along with the buffers and moved
+ * with them, so hit-tests, culling and nearest edge lookups never scan the whole chart.
+ */
+public final class ChartGeometry
+{
+    // === Instance Variables ===
+
+    public static final float BOX_WIDTH = 120;
+    public static final float BOX_HEIGHT = 40;
+    public static final float GAP_X = 30;
+    public static final float GAP_Y = 50;
+
+    public static final byte SELECTED = 1;
+    public static final byte HIGHLIGHTED = 2;
+
+    private static final int MAX_REGIONS = 32; //Dirty regions kept before they all merge
+
+    private final Flowchart f;
+    private final FlowchartListener listener = this::queue;
+
+    private FloatBuffer boxes = allocate(0); //4 per slot
+    private FloatBuffer segments = allocate(0); //4 per edge
+    private FloatBuffer spareBoxes = allocate(0);
+    private FloatBuffer spareSegments = allocate(0);
+    private int slotCount; //Slots covered by boxes
+    private int segmentCount;
+    private int[] segmentStart = new int[1]; //Per source slot then junction, slotCount + junctionCount + 1 long
+    private int[] segmentTarget = new int[0];
+    private int[] segmentSource = new int[0];
+    private Node[] drawn = new Node[0]; //Node at each slot as of the last update
+    private boolean[] onJunction = new boolean[0]; //Per slot, whether its edges go through a junction
+    private int junctionCount;
+    private float width, height; //Extent of everything drawn
+
+    private final Set<Node> selected = new HashSet<>();
+    private final Set<Node> highlighted = new HashSet<>();
+    private byte[] flags = new byte[0];
+
+    //Queued by the listener, guarded by moved
+    private final Set<Node> moved = new HashSet<>();
+    private boolean restructured = true; //Nothing built yet
+    private final ChartCoordinates coordinates = new ChartCoordinates(BOX_WIDTH, BOX_HEIGHT, GAP_X, GAP_Y);
+    private int coordinatesVersion; //Of the coordinates as last built
+    private volatile Runnable onChange;
+    private boolean sentinelEdges;
+
+    private final float[] regions = new float[MAX_REGIONS * 4];
+    private int regionCount;
+    private boolean allDirty = true;
+
+    private final SpatialIndex boxIndex = new SpatialIndex();
+    private final SpatialIndex segmentIndex = new SpatialIndex();
+    private float[] rects = new float[0]; //Scratch for building the indexes
+
+    private final IntList buf = new IntList();
+
+    //Junctions kept by the last rebuild, their slots laid end to end
+    private float[] junctionX = new float[0], junctionY = new float[0];
+    private final IntList junctionSources = new IntList(), sourceEnd = new IntList();
+    private final IntList junctionTargets = new IntList(), targetEnd = new IntList();
+
+    // === Constructors ===
+
+    /* Follows f until dispose is called. The first update builds everything.
+     */
+    public ChartGeometry(Flowchart f)
+    {
+        this.f = f;
+        f.addChangeListener(listener);
+    }
+
+    /* Stops following the chart.
+     */
+    public void dispose()
+    {
+        f.removeChangeListener(listener);
+    }
+
+    // === Get-Set ===
+
+    public Flowchart getFlowchart() { return f; }
+
+    /* Called after every change to the chart, on the thread that made it,
+     * so a view can schedule an update and repaint. Should only hand off.
+     */
+    public void setOnChange(Runnable r) { onChange = r; }
+
+    /* Positions to draw nodes at, for OptimizerSettings.setCoordinates. Box sizes set in it
+     * are laid out with but only drawn for nodes it has placed.
+     */
+    public ChartCoordinates getCoordinates() { return coordinates; }
+
+    public boolean isSentinelEdgesShown() { return sentinelEdges; }
+
+    /* Whether to draw the edges out of top and into bottom. Takes effect on the next update.
+     */
+    public void setSentinelEdgesShown(boolean shown)
+    {
+        synchronized(moved)
+        {
+            if(sentinelEdges == shown) return;
+            sentinelEdges = shown;
+            restructured = true;
+        }
+    }
+
+    public int slotCount() { return slotCount; }
+    public int segmentCount() { return segmentCount; }
+
+    /* Junctions the segments are routed through, as of the last update.
+     */
+    public int junctionCount() { return junctionCount; }
+    public float getWidth() { return width; }
+    public float getHeight() { return height; }
+
+    /* The buffers the renderer reads, valid until the next update.
+     * Boxes are 4 floats per slot and segments 4 floats per edge.
+     */
+    public FloatBuffer boxes() { return boxes.asReadOnlyBuffer(); }
+    public FloatBuffer segments() { return segments.asReadOnlyBuffer(); }
+
+    public Node nodeAt(int slot) { return drawn[slot]; }
+    public byte flagsAt(int slot) { return flags[slot]; }
+    public float boxX(int slot) { return boxes.get(slot * 4); }
+    public float boxY(int slot) { return boxes.get(slot * 4 + 1); }
+    public float boxWidth(int slot) { return boxes.get(slot * 4 + 2); }
+    public float boxHeight(int slot) { return boxes.get(slot * 4 + 3); }
+
+    /* @return the box of n as {x, y, width, height}, or null if n is not drawn
+     */
+    public float[] boxOf(Node n)
+    {
+        int s = drawnSlot(n);
+        if(s < 0) return null;
+        return new float[]{ boxX(s), boxY(s), boxWidth(s), boxHeight(s) };
+    }
+
+    /* @return the segment of edge src -> dest as {x1, y1, x2, y2}, or null if it is not drawn
+     * or goes through a junction
+     */
+    public float[] segmentOf(Node src, Node dest)
+    {
+        int s = drawnSlot(src), d = drawnSlot(dest);
+        if(s < 0 || d < 0) return null;
+        for(int k = segmentStart[s]; k < segmentStart[s + 1]; k++)
+            if(segmentTarget[k] == d)
+                return new float[]{ segments.get(k * 4), segments.get(k * 4 + 1),
+                                    segments.get(k * 4 + 2), segments.get(k * 4 + 3) };
+        return null;
+    }
+
+    /* Nodes at either end of segment k, null for an end at a junction.
+     */
+    public Node segmentSource(int k) { return endpoint(segmentSource[k]); }
+    public Node segmentTarget(int k) { return endpoint(segmentTarget[k]); }
+
+    // === Queries ===
+
+    /* Node whose box contains the world point (x, y), or null.
+     * Later slots win where boxes overlap, as they are drawn on top.
+     */
+    public Node nodeAt(double x, double y)
+    {
+        buf.clear();
+        boxIndex.search(x, y, x, y, buf);
+        int top = -1;
+        for(int i = 0; i < buf.size(); i++)
+            top = Math.max(top, buf.get(i));
+        return top < 0 ? null : drawn[top];
+    }
+
+    /* Appends onto dst the slot of every box overlapping the world rectangle [x0, x1] x [y0, y1].
+     */
+    public void boxesIn(double x0, double y0, double x1, double y1, IntList dst)
+    {
+        boxIndex.search(x0, y0, x1, y1, dst);
+    }
+
+    /* Appends onto dst every segment whose bounds overlap the world rectangle [x0, x1] x [y0, y1].
+     */
+    public void segmentsIn(double x0, double y0, double x1, double y1, IntList dst)
+    {
+        segmentIndex.search(x0, y0, x1, y1, dst);
+    }
+
+    /* Segment closest to the world point (x, y), within maxDistance of it.
+     * @return the segment, for segmentSource and segmentTarget, or -1 if none is that close
+     */
+    public int nearestSegment(double x, double y, double maxDistance)
+    {
+        return segmentIndex.nearest(x, y, maxDistance, this::distanceToSegment);
+    }
+
+    private double distanceToSegment(int k, double x, double y)
+    {
+        double ax = segments.get(k * 4), ay = segments.get(k * 4 + 1);
+        double dx = segments.get(k * 4 + 2) - ax, dy = segments.get(k * 4 + 3) - ay;
+        double length = dx * dx + dy * dy;
+        double t = length == 0 ? 0 : Math.max(0, Math.min(1, ((x - ax) * dx + (y - ay) * dy) / length));
+        double px = ax + t * dx - x, py = ay + t * dy - y;
+        return Math.sqrt(px * px + py * py);
+    }
+
+    /* Grid cell nearest the world point, as the rank and height a box there would have.
+     */
+    public static int rankAt(double x) { return (int) Math.round(x / (BOX_WIDTH + GAP_X)); }
+    public static int heightAt(double y) { return (int) Math.round(y / (BOX_HEIGHT + GAP_Y)); }
+
+    // === Selection ===
+
+    public boolean isSelected(Node n) { return selected.contains(n); }
+    public boolean isHighlighted(Node n) { return highlighted.contains(n); }
+
+    public void setSelected(Node n, boolean on) { setFlag(n, on, SELECTED, selected); }
+    public void setHighlighted(Node n, boolean on) { setFlag(n, on, HIGHLIGHTED, highlighted); }
+
+    public void clearSelection()
+    {
+        for(Node n : new HashSet<>(selected)) setSelected(n, false);
+        for(Node n : new HashSet<>(highlighted)) setHighlighted(n, false);
+    }
+
+    private void setFlag(Node n, boolean on, byte flag, Set<Node> members)
+    {
+        if(!(on ? members.add(n) : members.remove(n))) return;
+
+        int s = drawnSlot(n);
+        if(s < 0) return; //Picked up by the next rebuild
+        flags[s] = (byte) (on ? flags[s] | flag : flags[s] & ~flag);
+        dirtyBox(s);
+    }
+
+    // === Dirty Regions ===
+
+    /* Whether everything must be repainted, rather than just the dirty regions.
+     */
+    public boolean isAllDirty() { return allDirty; }
+    public int dirtyRegionCount() { return regionCount; }
+
+    /* Copies the dirty regions as {x, y, width, height} quads onto dst.
+     * @return the number of regions copied
+     */
+    public int dirtyRegions(float[] dst)
+    {
+        int n = Math.min(regionCount, dst.length / 4);
+        System.arraycopy(regions, 0, dst, 0, n * 4);
+        return n;
+    }
+
+    public void clearDirty()
+    {
+        regionCount = 0;
+        allDirty = false;
+    }
+
+    public void markAllDirty() { allDirty = true; }
+
+    /* Queues a world space rectangle for repainting, merging everything
+     * into a full repaint once there are too many to track one by one.
+     */
+    public void markDirty(float x, float y, float w, float h)
+    {
+        if(allDirty || w <= 0 || h <= 0) return;
+        for(int i = 0; i < regionCount; i++)
+        {
+            int at = i * 4;
+            if(x >= regions[at] && y >= regions[at + 1]
+                    && x + w <= regions[at] + regions[at + 2] && y + h <= regions[at + 1] + regions[at + 3])
+                return; //Already covered
+        }
+        if(regionCount == MAX_REGIONS)
+        {
+            allDirty = true;
+            regionCount = 0;
+            return;
+        }
+        int at = regionCount++ * 4;
+        regions[at] = x;
+        regions[at + 1] = y;
+        regions[at + 2] = w;
+        regions[at + 3] = h;
+    }
+
+    private void dirtyBox(int s)
+    {
+        if(boxWidth(s) > 0)
+            markDirty(boxX(s) - 1, boxY(s) - 1, boxWidth(s) + 2, boxHeight(s) + 2);
+    }
+
+    private void dirtySegment(FloatBuffer from, int k)
+    {
+        float x1 = from.get(k * 4), y1 = from.get(k * 4 + 1);
+        float x2 = from.get(k * 4 + 2), y2 = from.get(k * 4 + 3);
+        markDirty(Math.min(x1, x2) - 1, Math.min(y1, y2) - 1, Math.abs(x2 - x1) + 2, Math.abs(y2 - y1) + 2);
+    }
+
+    // === Updating ===
+
+    /* Whether changes are waiting for update.
+     */
+    public boolean isStale()
+    {
+        synchronized(moved)
+        {
+            return restructured || !moved.isEmpty();
+        }
+    }
+
+    /* Applies the changes queued since the last update, reading the chart as one unit.
+     */
+    public void update()
+    {
+        boolean rebuild;
+        Node[] movedNodes;
+        synchronized(moved)
+        {
+            rebuild = restructured || coordinatesVersion != coordinates.getVersion();
+            movedNodes = rebuild ? null : moved.toArray(new Node[0]);
+            moved.clear();
+            restructured = false;
+        }
+        if(!rebuild && movedNodes.length == 0) return;
+
+        f.atomically(() ->
+        {
+            if(rebuild || movesJunction(movedNodes))
+            {
+                coordinatesVersion = coordinates.getVersion();
+                rebuild();
+            }
+            else
+                for(Node n : movedNodes)
+                    patch(n);
+            if(boxIndex.needsRebuild() || segmentIndex.needsRebuild())
+                reindex();
+            return null;
+        });
+    }
+
+    private void queue(Flowchart chart, FlowchartChange change)
+    {
+        synchronized(moved)
+        {
+            for(FlowchartEdit e : change.getEdits())
+            {
+                switch(e.getKind())
+                {
+                    case MOVE_HEIGHT:
+                    case MOVE_RANK: moved.add(e.getNode()); break;
+                    case ADD_NODE:
+                    case REMOVE_NODE:
+                    case ADD_EDGE:
+                    case REMOVE_EDGE: restructured = true; break;
+                    default: break; //Links and mentions are not drawn
+                }
+            }
+        }
+        Runnable r = onChange;
+        if(r != null) r.run();
+    }
+
+    /* Whether any of the nodes is drawn with edges through a junction, which moving it undoes.
+     */
+    private boolean movesJunction(Node[] nodes)
+    {
+        for(Node n : nodes)
+        {
+            int s = drawnSlot(n);
+            if(s >= 0 && onJunction[s]) return true;
+        }
+        return false;
+    }
+
+    /* Moves n's box and every segment ending at it to its current height and rank.
+     * Only called for nodes not on a junction.
+     */
+    private void patch(Node n)
+    {
+        int s = f.slotOf(n);
+        if(s < 0 || s >= slotCount || drawn[s] != n) return; //Removed, or waiting on a rebuild
+
+        boolean placed = coordinates.isPlaced(f, s);
+        float x = xOf(s, placed), y = yOf(s, placed), bw = widthOf(s, placed), bh = heightOf(s, placed);
+        if(x == boxX(s) && y == boxY(s) && bw == boxWidth(s) && bh == boxHeight(s)) return;
+
+        dirtyBox(s);
+        putQuad(boxes, s, x, y, bw, bh);
+        dirtyBox(s);
+        boxIndex.update(s, x, y, x + bw, y + bh);
+        width = Math.max(width, x + bw);
+        height = Math.max(height, y + bh);
+
+        for(int k = segmentStart[s]; k < segmentStart[s + 1]; k++)
+        {
+            dirtySegment(segments, k);
+            segments.put(k * 4, x + bw / 2);
+            segments.put(k * 4 + 1, y + bh);
+            dirtySegment(segments, k);
+            indexSegment(k);
+        }
+
+        buf.clear();
+        f.neighboursAt(Relation.INBOUND, s, buf);
+        for(int i = 0; i < buf.size(); i++)
+        {
+            int p = buf.get(i);
+            for(int k = segmentStart[p]; k < segmentStart[p + 1]; k++)
+            {
+                if(segmentTarget[k] != s) continue;
+                dirtySegment(segments, k);
+                segments.put(k * 4 + 2, x + bw / 2);
+                segments.put(k * 4 + 3, y);
+                dirtySegment(segments, k);
+                indexSegment(k);
+            }
+        }
+    }
+
+    /* Lays every box and segment out again into the spare buffers,
+     * marks what differs from the current ones dirty, then swaps them in.
+     */
+    private void rebuild()
+    {
+        int limit = f.slotLimit();
+        int top = sentinelEdges ? -1 : f.slotOf(f.getTop());
+        int bottom = sentinelEdges ? -1 : f.slotOf(f.getBottom());
+        int edges = 0;
+        for(int s = 0; s < limit; s++)
+            if(f.nodeAt(s) != null && s != top)
+                edges += f.degreeAt(Relation.OUTBOUND, s);
+        int junctions = collectJunctions(limit);
+        edges += junctionSources.size() + junctionTargets.size();
+
+        //Per source slot, the junctions its edges go through
+        int[] viaStart = new int[limit + 1], via = new int[junctionSources.size()];
+        boolean[] newOnJunction = new boolean[limit];
+        for(int i = 0; i < junctionSources.size(); i++)
+            viaStart[junctionSources.get(i) + 1]++;
+        for(int s = 0; s < limit; s++)
+            viaStart[s + 1] += viaStart[s];
+        int[] fill = Arrays.copyOf(viaStart, limit);
+        for(int j = 0, i = 0; j < junctions; j++)
+            for(; i < sourceEnd.get(j); i++)
+                via[fill[junctionSources.get(i)]++] = j;
+        int[] routedFor = new int[limit]; //Per target slot, 1 + the source whose edge to it is routed
+        for(int i = 0; i < junctionSources.size(); i++) newOnJunction[junctionSources.get(i)] = true;
+        for(int i = 0; i < junctionTargets.size(); i++) newOnJunction[junctionTargets.get(i)] = true;
+
+        if(spareBoxes.capacity() < limit * 4) spareBoxes = allocate(grow(limit * 4));
+        if(spareSegments.capacity() < edges * 4) spareSegments = allocate(grow(edges * 4));
+        int[] newStart = new int[limit + junctions + 1];
+        int[] newTarget = new int[edges];
+        int[] newSource = new int[edges];
+        Node[] newDrawn = new Node[limit];
+
+        FloatBuffer nb = spareBoxes, ns = spareSegments;
+        float w = 0, h = 0;
+        int k = 0;
+        for(int s = 0; s < limit; s++)
+        {
+            newStart[s] = k;
+            Node n = f.nodeAt(s);
+            newDrawn[s] = n;
+            if(n == null)
+            {
+                putQuad(nb, s, 0, 0, 0, 0);
+                continue;
+            }
+
+            boolean placed = coordinates.isPlaced(f, s);
+            float x = xOf(s, placed), y = yOf(s, placed), bw = widthOf(s, placed), bh = heightOf(s, placed);
+            putQuad(nb, s, x, y, bw, bh);
+            w = Math.max(w, x + bw);
+            h = Math.max(h, y + bh);
+
+            for(int v = viaStart[s]; v < viaStart[s + 1]; v++)
+            {
+                int j = via[v];
+                for(int i = j == 0 ? 0 : targetEnd.get(j - 1); i < targetEnd.get(j); i++)
+                    routedFor[junctionTargets.get(i)] = s + 1;
+            }
+
+            buf.clear();
+            if(s != top) f.neighboursAt(Relation.OUTBOUND, s, buf);
+            for(int i = 0; i < buf.size(); i++)
+            {
+                int d = buf.get(i);
+                if(d == bottom || routedFor[d] == s + 1) continue;
+                boolean to = coordinates.isPlaced(f, d);
+                putQuad(ns, k, x + bw / 2, y + bh, xOf(d, to) + widthOf(d, to) / 2, yOf(d, to));
+                newSource[k] = s;
+                newTarget[k++] = d;
+            }
+            for(int v = viaStart[s]; v < viaStart[s + 1]; v++)
+            {
+                int j = via[v];
+                putQuad(ns, k, x + bw / 2, y + bh, junctionX[j], junctionY[j]);
+                newSource[k] = s;
+                newTarget[k++] = limit + j;
+            }
+        }
+
+        //Then out of each junction to its targets, all placed
+        for(int j = 0, i = 0; j < junctions; j++)
+        {
+            newStart[limit + j] = k;
+            for(; i < targetEnd.get(j); i++)
+            {
+                int d = junctionTargets.get(i);
+                putQuad(ns, k, junctionX[j], junctionY[j], xOf(d, true) + widthOf(d, true) / 2, yOf(d, true));
+                newSource[k] = limit + j;
+                newTarget[k++] = d;
+            }
+        }
+        newStart[limit + junctions] = k;
+
+        boolean boxesMoved = allDirty || diff(nb, ns, newStart, newTarget, limit);
+
+        spareBoxes = boxes;
+        spareSegments = segments;
+        boxes = nb;
+        segments = ns;
+        segmentStart = newStart;
+        segmentTarget = newTarget;
+        segmentSource = newSource;
+        drawn = newDrawn;
+        onJunction = newOnJunction;
+        slotCount = limit;
+        junctionCount = junctions;
+        segmentCount = k;
+        width = w;
+        height = h;
+        refreshFlags();
+        if(boxesMoved)
+            reindex();
+        else
+            indexSegments(); //Edge edits leave every box where it was
+    }
+
+    /* Gathers the junctions of the last layout that still stand for edges of the chart:
+     * every node on one placed where the layout put it, and every edge from its sources
+     * to its targets still there. Others are dropped, their edges drawn one by one.
+     * @return the number of junctions kept
+     */
+    private int collectJunctions(int limit)
+    {
+        junctionSources.clear();
+        sourceEnd.clear();
+        junctionTargets.clear();
+        targetEnd.clear();
+        int available = coordinates.junctionCount();
+        if(junctionX.length < available)
+        {
+            junctionX = new float[grow(available)];
+            junctionY = new float[junctionX.length];
+        }
+
+        int kept = 0;
+        IntList in = new IntList(), out = new IntList();
+        for(int j = 0; j < available; j++)
+        {
+            in.clear();
+            out.clear();
+            coordinates.junctionSources(j, in);
+            coordinates.junctionTargets(j, out);
+            if(!stillStands(in, out, limit)) continue;
+
+            junctionX[kept] = (float) coordinates.junctionX(j);
+            junctionY[kept++] = (float) coordinates.junctionY(j);
+            for(int i = 0; i < in.size(); i++) junctionSources.add(in.get(i));
+            for(int i = 0; i < out.size(); i++) junctionTargets.add(out.get(i));
+            sourceEnd.add(junctionSources.size());
+            targetEnd.add(junctionTargets.size());
+        }
+        return kept;
+    }
+
+    private boolean stillStands(IntList in, IntList out, int limit)
+    {
+        if(in.size() == 0 || out.size() == 0) return false;
+        for(int i = 0; i < in.size(); i++)
+        {
+            int s = in.get(i);
+            if(s >= limit || !coordinates.isPlaced(f, s)) return false;
+        }
+        for(int i = 0; i < out.size(); i++)
+        {
+            int d = out.get(i);
+            if(d >= limit || !coordinates.isPlaced(f, d)) return false;
+            for(int k = 0; k < in.size(); k++)
+                if(!f.hasEdgeAt(in.get(k), d)) return false;
+        }
+        return true;
+    }
+
+    /* Builds both indexes afresh from the buffers.
+     */
+    private void reindex()
+    {
+        if(rects.length < slotCount * 4) rects = new float[grow(slotCount * 4)];
+        for(int s = 0; s < slotCount; s++)
+        {
+            float x = boxX(s), y = boxY(s), w = boxWidth(s);
+            rects[s * 4] = w > 0 ? x : Float.NaN;
+            rects[s * 4 + 1] = y;
+            rects[s * 4 + 2] = x + w;
+            rects[s * 4 + 3] = y + boxHeight(s);
+        }
+        boxIndex.build(rects, slotCount);
+        indexSegments();
+    }
+
+    private void indexSegments()
+    {
+        if(rects.length < segmentCount * 4) rects = new float[grow(segmentCount * 4)];
+        for(int k = 0; k < segmentCount; k++)
+        {
+            float x1 = segments.get(k * 4), y1 = segments.get(k * 4 + 1);
+            float x2 = segments.get(k * 4 + 2), y2 = segments.get(k * 4 + 3);
+            rects[k * 4] = Math.min(x1, x2);
+            rects[k * 4 + 1] = Math.min(y1, y2);
+            rects[k * 4 + 2] = Math.max(x1, x2);
+            rects[k * 4 + 3] = Math.max(y1, y2);
+        }
+        segmentIndex.build(rects, segmentCount);
+    }
+
+    private void indexSegment(int k)
+    {
+        float x1 = segments.get(k * 4), y1 = segments.get(k * 4 + 1);
+        float x2 = segments.get(k * 4 + 2), y2 = segments.get(k * 4 + 3);
+        segmentIndex.update(k, Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2));
+    }
+
+    /* Marks dirty every box and every slot's or junction's segments that differ between
+     * the current buffers and the new ones, old and new position both.
+     * @return whether any box differs
+     */
+    private boolean diff(FloatBuffer nb, FloatBuffer ns, int[] newStart, int[] newTarget, int limit)
+    {
+        boolean boxesMoved = false;
+        int oldEnds = segmentStart.length - 1, newEnds = newStart.length - 1;
+        for(int s = 0; s < Math.max(oldEnds, newEnds); s++)
+        {
+            boolean boxInOld = s < slotCount, boxInNew = s < limit;
+            boolean sameBox = boxInOld && boxInNew && drawn[s] == f.nodeAt(s);
+            for(int i = 0; sameBox && i < 4; i++)
+                sameBox = boxes.get(s * 4 + i) == nb.get(s * 4 + i);
+            if(!sameBox && (boxInOld || boxInNew))
+            {
+                boxesMoved = true;
+                if(boxInOld) dirtyBox(s);
+                if(boxInNew && nb.get(s * 4 + 2) > 0)
+                    markDirty(nb.get(s * 4) - 1, nb.get(s * 4 + 1) - 1, nb.get(s * 4 + 2) + 2, nb.get(s * 4 + 3) + 2);
+            }
+
+            boolean inOld = s < oldEnds, inNew = s < newEnds;
+            int oldFrom = inOld ? segmentStart[s] : 0, oldTo = inOld ? segmentStart[s + 1] : 0;
+            int newFrom = inNew ? newStart[s] : 0, newTo = inNew ? newStart[s + 1] : 0;
+            boolean sameEdges = oldTo - oldFrom == newTo - newFrom;
+            for(int i = 0; sameEdges && i < oldTo - oldFrom; i++)
+            {
+                sameEdges = segmentTarget[oldFrom + i] == newTarget[newFrom + i];
+                for(int j = 0; sameEdges && j < 4; j++)
+                    sameEdges = segments.get((oldFrom + i) * 4 + j) == ns.get((newFrom + i) * 4 + j);
+            }
+            if(sameEdges) continue;
+
+            for(int e = oldFrom; e < oldTo; e++) dirtySegment(segments, e);
+            for(int e = newFrom; e < newTo; e++) dirtySegment(ns, e);
+        }
+        return boxesMoved;
+    }
+
+    /* Recomputes the per-slot flags from the selection, dropping nodes no longer drawn.
+     */
+    private void refreshFlags()
+    {
+        if(flags.length < slotCount) flags = new byte[grow(slotCount)];
+        else Arrays.fill(flags, (byte) 0);
+
+        selected.removeIf(n -> drawnSlot(n) < 0);
+        highlighted.removeIf(n -> drawnSlot(n) < 0);
+        for(Node n : selected) flags[drawnSlot(n)] |= SELECTED;
+        for(Node n : highlighted) flags[drawnSlot(n)] |= HIGHLIGHTED;
+    }
+
+    // === Helpers ===
+
+    private Node endpoint(int e) { return e < slotCount ? drawn[e] : null; }
+
+    private int drawnSlot(Node n)
+    {
+        int s = f.slotOf(n);
+        return s >= 0 && s < slotCount && drawn[s] == n ? s : -1;
+    }
+
+    static float xOf(int rank) { return rank * (BOX_WIDTH + GAP_X); }
+    static float yOf(int height) { return height * (BOX_HEIGHT + GAP_Y); }
+
+    //Box of the node at slot s, from the coordinates if they have placed it, else on the grid
+    private float xOf(int s, boolean placed) { return placed ? (float) coordinates.boxX(s) : xOf(f.rankAt(s)); }
+    private float yOf(int s, boolean placed) { return placed ? (float) coordinates.boxY(s) : yOf(f.heightAt(s)); }
+    private float widthOf(int s, boolean placed) { return placed ? (float) coordinates.boxWidth(s) : BOX_WIDTH; }
+    private float heightOf(int s, boolean placed) { return placed ? (float) coordinates.boxHeight(s) : BOX_HEIGHT; }
+
+    private static void putQuad(FloatBuffer b, int i, float a, float c, float d, float e)
+    {
+        b.put(i * 4, a);
+        b.put(i * 4 + 1, c);
+        b.put(i * 4 + 2, d);
+        b.put(i * 4 + 3, e);
+    }
+
+    private static int grow(int needed)
+    {
+        return Math.max(64, needed + (needed >> 1));
+    }
+
+    private static FloatBuffer allocate(int floats)
+    {
+        return ByteBuffer.allocateDirect(floats * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    /* Approximate footprint in bytes, off-heap buffers included.
+     */
+    public long footprintBytes()
+    {
+        return 4L * (boxes.capacity() + segments.capacity() + spareBoxes.capacity() + spareSegments.capacity())
+                + 4L * (segmentStart.length + segmentTarget.length + segmentSource.length + rects.length)
+                + 8L * drawn.length + flags.length + onJunction.length + 8L * junctionX.length
+                + 4L * (junctionSources.size() + junctionTargets.size() + sourceEnd.size() + targetEnd.size())
+                + boxIndex.footprintBytes() + segmentIndex.footprintBytes();
+    }
+}
@@ -0,0 +1,71 @@
+package com.jokodub.flowcharter.ui;
+
+import com.jokodub.flowcharter.model.classes.Flowchart;
+import com.jokodub.flowcharter.model.classes.Node;
+import com.jokodub.flowcharter.model.interfaces.*;
+
+/* One node as drawn on a ChartCanvas. Holds no geometry of its own, just the Node,
+ * so handing them out is free. Selecting and highlighting only repaint the node's box.
+ * Moving it moves the node in the chart, which the geometry and its index then follow.
+ */
+public final class NodeSprite implements Drawable, Movable, Selectable
+{
+    // === Instance Variables ===
+
+    private final ChartCanvas canvas;
+    private final Node node;
+
+    // === Constructors ===
+
+    NodeSprite(ChartCanvas canvas, Node node)
+    {
+        this.canvas = canvas;
+        this.node = node;
+    }
+
+    // === Get-Set ===
+
+    public Node getNode() { return node; }
+
+    public boolean isSelected() { return canvas.getGeometry().isSelected(node); }
+    public boolean isHighlighted() { return canvas.getGeometry().isHighlighted(node); }
+
+    public void setSelected(boolean on)
+    {
+        canvas.getGeometry().setSelected(node, on);
+        canvas.requestDraw();
+    }
+
+    public void setHighlighted(boolean on)
+    {
+        canvas.getGeometry().setHighlighted(node, on);
+        canvas.requestDraw();
+    }
+
+    // === Interfaces ===
+
+    /* Drops the node into the grid cell nearest world point (x, y), as one undo step.
+     */
+    @Override
+    public void setPosition(double x, double y)
+    {
+        Flowchart f = canvas.getGeometry().getFlowchart();
+        f.atomically(() ->
+        {
+            f.setRank(node, ChartGeometry.rankAt(x));
+            f.setHeight(node, ChartGeometry.heightAt(y));
+            return null;
+        });
+    }
+
+    @Override
+    public void select() { setSelected(true); }
+
+    @Override
+    public void highlight() { setHighlighted(true); }
+
+    /* Repaints the canvas, which picks up this node's box along with anything else stale.
+     */
+    @Override
+    public void draw() { canvas.draw(); }
+}
@@ -0,0 +1,409 @@
+package com.jokodub.flowcharter.ui;
+
+import java.util.Arrays;
+
+import com.jokodub.flowcharter.model.classes.IntList;
+
+/* Packed R-tree over rectangles identified by small ints, for hit-testing and culling.
+ *
+ * Built in one go (Flatbush style): items are sorted along a Hilbert curve through their
+ * centres with a linear radix sort, packed NODE_SIZE to a leaf node, and each level above
+ * holds the bounds of NODE_SIZE nodes of the one below. Every level lives back to back in
+ * one float array, leaves first, so a node's children and parent are found by arithmetic.
+ * Rectangle and point queries cost O(log n + hits); nearest queries walk the tree best first.
+ *
+ * Moving an item rewrites its leaf and widens the bounds above it, O(log n). Bounds never
+ * shrink on a move, so queries slowly visit more of the tree; needsRebuild() says when
+ * enough items have moved for a fresh build to pay off.
+ */
+public final class SpatialIndex
+{
+    // === Instance Variables ===
+
+    private static final int NODE_SIZE = 16;
+    private static final int HILBERT_MAX = (1 << 16) - 1;
+
+    private int count; //Items indexed
+    private int idLimit; //Ids covered by leafOf
+    private float[] bounds = new float[0]; //minX, minY, maxX, maxY per entry, leaves first
+    private int[] ids = new int[0]; //Item of each leaf
+    private int[] leafOf = new int[0]; //Leaf of each item id, -1 if not indexed
+    private int[] levelEnds = new int[0]; //Entry index each level ends at, leaves first
+    private int moves; //Updates since the last build
+
+    //Reused across builds and queries
+    private int[] keys = new int[0];
+    private int[] sortedKeys = new int[0];
+    private int[] sortedIds = new int[0];
+    private final IntList stack = new IntList();
+    private float[] heapKeys = new float[64];
+    private int[] heapValues = new int[64];
+
+    /* Distance from a point to one item, for nearest.
+     */
+    public interface Distance
+    {
+        double to(int id, double x, double y);
+    }
+
+    // === Get-Set ===
+
+    public int size() { return count; }
+
+    /* Whether so many items moved since the last build that it is worth building again.
+     */
+    public boolean needsRebuild() { return moves > 64 && moves > count / 4; }
+
+    // === Building ===
+
+    /* Indexes items 0 .. n-1, item i covering [rects[4i], rects[4i+2]] x [rects[4i+1], rects[4i+3]].
+     * Items whose min x is NaN are left out.
+     */
+    public void build(float[] rects, int n)
+    {
+        if(leafOf.length < n) leafOf = new int[n];
+        Arrays.fill(leafOf, 0, n, -1);
+        idLimit = n;
+        if(keys.length < n)
+        {
+            keys = new int[n];
+            sortedKeys = new int[n];
+            sortedIds = new int[n];
+        }
+
+        //Extent of every item, to scale centres onto the curve
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        int live = 0;
+        for(int i = 0; i < n; i++)
+        {
+            if(Float.isNaN(rects[i * 4])) continue;
+            minX = Math.min(minX, rects[i * 4]);
+            minY = Math.min(minY, rects[i * 4 + 1]);
+            maxX = Math.max(maxX, rects[i * 4 + 2]);
+            maxY = Math.max(maxY, rects[i * 4 + 3]);
+            sortedIds[live++] = i;
+        }
+        //One scale for both axes, so nodes come out square even on a tall, narrow chart
+        float span = Math.max(Math.max(maxX - minX, maxY - minY), Float.MIN_NORMAL);
+        for(int k = 0; k < live; k++)
+        {
+            int i = sortedIds[k];
+            int hx = (int) (HILBERT_MAX * ((rects[i * 4] + rects[i * 4 + 2]) / 2 - minX) / span);
+            int hy = (int) (HILBERT_MAX * ((rects[i * 4 + 1] + rects[i * 4 + 3]) / 2 - minY) / span);
+            keys[k] = hilbert(hx, hy);
+        }
+        radixSort(live);
+
+        //Leaves in curve order, then one level of parents at a time
+        count = live;
+        int entries = live, levels = 1;
+        for(int width = live; width > 1; levels++)
+        {
+            width = (width + NODE_SIZE - 1) / NODE_SIZE;
+            entries += width;
+        }
+        if(bounds.length < entries * 4) bounds = new float[entries * 4];
+        if(ids.length < live) ids = new int[live];
+        levelEnds = new int[levels];
+
+        for(int k = 0; k < live; k++)
+        {
+            int i = sortedIds[k];
+            ids[k] = i;
+            leafOf[i] = k;
+            System.arraycopy(rects, i * 4, bounds, k * 4, 4);
+        }
+        int start = 0, end = live;
+        levelEnds[0] = live;
+        for(int l = 1; l < levels; l++)
+        {
+            int at = end;
+            for(int child = start; child < end; child += NODE_SIZE, at++)
+            {
+                float nx0 = Float.POSITIVE_INFINITY, ny0 = Float.POSITIVE_INFINITY;
+                float nx1 = Float.NEGATIVE_INFINITY, ny1 = Float.NEGATIVE_INFINITY;
+                for(int c = child; c < Math.min(child + NODE_SIZE, end); c++)
+                {
+                    nx0 = Math.min(nx0, bounds[c * 4]);
+                    ny0 = Math.min(ny0, bounds[c * 4 + 1]);
+                    nx1 = Math.max(nx1, bounds[c * 4 + 2]);
+                    ny1 = Math.max(ny1, bounds[c * 4 + 3]);
+                }
+                bounds[at * 4] = nx0;
+                bounds[at * 4 + 1] = ny0;
+                bounds[at * 4 + 2] = nx1;
+                bounds[at * 4 + 3] = ny1;
+            }
+            start = end;
+            end = at;
+            levelEnds[l] = end;
+        }
+        moves = 0;
+    }
+
+    /* Moves item id to a new rectangle, widening the nodes above it to match.
+     * Items not indexed at the last build are ignored.
+     */
+    public void update(int id, float x0, float y0, float x1, float y1)
+    {
+        if(id >= idLimit || leafOf[id] < 0) return;
+
+        int e = leafOf[id];
+        bounds[e * 4] = x0;
+        bounds[e * 4 + 1] = y0;
+        bounds[e * 4 + 2] = x1;
+        bounds[e * 4 + 3] = y1;
+        moves++;
+
+        int start = 0;
+        for(int l = 0; l + 1 < levelEnds.length; l++)
+        {
+            int parent = levelEnds[l] + (e - start) / NODE_SIZE;
+            boolean grew = false;
+            if(x0 < bounds[parent * 4]) { bounds[parent * 4] = x0; grew = true; }
+            if(y0 < bounds[parent * 4 + 1]) { bounds[parent * 4 + 1] = y0; grew = true; }
+            if(x1 > bounds[parent * 4 + 2]) { bounds[parent * 4 + 2] = x1; grew = true; }
+            if(y1 > bounds[parent * 4 + 3]) { bounds[parent * 4 + 3] = y1; grew = true; }
+            if(!grew) return; //Everything higher already covers it
+
+            start = levelEnds[l];
+            e = parent;
+        }
+    }
+
+    // === Queries ===
+
+    /* Appends onto dst the id of every item overlapping [x0, x1] x [y0, y1], edges included.
+     */
+    public void search(double x0, double y0, double x1, double y1, IntList dst)
+    {
+        if(count == 0) return;
+
+        int root = levelEnds[levelEnds.length - 1] - 1;
+        if(!overlaps(root, x0, y0, x1, y1)) return;
+        if(levelEnds.length == 1)
+        {
+            dst.add(ids[root]);
+            return;
+        }
+
+        //Children are tested before they go on the stack, so only overlapping nodes are pushed
+        stack.clear();
+        stack.add(root);
+        stack.add(levelEnds.length - 1);
+        while(!stack.isEmpty())
+        {
+            int level = stack.pop();
+            int e = stack.pop();
+            int first = childrenStart(e, level);
+            for(int c = first; c < Math.min(first + NODE_SIZE, levelEnds[level - 1]); c++)
+            {
+                if(!overlaps(c, x0, y0, x1, y1)) continue;
+                if(level == 1)
+                    dst.add(ids[c]);
+                else
+                {
+                    stack.add(c);
+                    stack.add(level - 1);
+                }
+            }
+        }
+    }
+
+    private boolean overlaps(int e, double x0, double y0, double x1, double y1)
+    {
+        return bounds[e * 4] <= x1 && bounds[e * 4 + 2] >= x0 && bounds[e * 4 + 1] <= y1 && bounds[e * 4 + 3] >= y0;
+    }
+
+    /* Id of the item closest to (x, y) by distance, searching nodes nearest first
+     * and stopping at the first item no node can beat.
+     * @param maxDistance as how far away an item may be
+     * @return the id, or -1 if nothing lies within maxDistance
+     */
+    public int nearest(double x, double y, double maxDistance, Distance distance)
+    {
+        if(count == 0) return -1;
+
+        int heapSize = 0;
+        int root = levelEnds[levelEnds.length - 1] - 1;
+        heapSize = push(heapSize, boxDistance(root, x, y), encode(root, levelEnds.length - 1));
+        while(heapSize > 0)
+        {
+            float d = heapKeys[0];
+            int value = heapValues[0];
+            heapSize = pop(heapSize);
+            if(d > maxDistance) return -1;
+            if(value < 0) return ~value; //Item, nearer than anything left
+
+            int e = value >>> 5, level = value & 31;
+            if(level == 0)
+            {
+                //Only the root can be a leaf
+                heapSize = push(heapSize, (float) distance.to(ids[e], x, y), ~ids[e]);
+                continue;
+            }
+            int first = childrenStart(e, level);
+            for(int c = first; c < Math.min(first + NODE_SIZE, levelEnds[level - 1]); c++)
+            {
+                float bd = boxDistance(c, x, y);
+                if(bd > maxDistance) continue;
+                if(level == 1)
+                {
+                    //Items go in at their own distance, which their box only bounds from below
+                    float d2 = (float) distance.to(ids[c], x, y);
+                    if(d2 <= maxDistance) heapSize = push(heapSize, d2, ~ids[c]);
+                }
+                else
+                    heapSize = push(heapSize, bd, encode(c, level - 1));
+            }
+        }
+        return -1;
+    }
+
+    private int childrenStart(int e, int level)
+    {
+        int levelStart = levelEnds[level - 1];
+        int childLevelStart = level == 1 ? 0 : levelEnds[level - 2];
+        return childLevelStart + (e - levelStart) * NODE_SIZE;
+    }
+
+    private float boxDistance(int e, double x, double y)
+    {
+        double dx = Math.max(0, Math.max(bounds[e * 4] - x, x - bounds[e * 4 + 2]));
+        double dy = Math.max(0, Math.max(bounds[e * 4 + 1] - y, y - bounds[e * 4 + 3]));
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private static int encode(int entry, int level) { return entry << 5 | level; }
+
+    // === Heap ===
+
+    //Min-heap of distances, with entries (entry << 5 | level) or items (~id) as values
+
+    private int push(int size, float key, int value)
+    {
+        if(size == heapKeys.length)
+        {
+            heapKeys = Arrays.copyOf(heapKeys, size << 1);
+            heapValues = Arrays.copyOf(heapValues, size << 1);
+        }
+        int i = size;
+        while(i > 0)
+        {
+            int parent = (i - 1) >> 1;
+            if(heapKeys[parent] <= key) break;
+            heapKeys[i] = heapKeys[parent];
+            heapValues[i] = heapValues[parent];
+            i = parent;
+        }
+        heapKeys[i] = key;
+        heapValues[i] = value;
+        return size + 1;
+    }
+
+    private int pop(int size)
+    {
+        size--;
+        float key = heapKeys[size];
+        int value = heapValues[size];
+        int i = 0;
+        while(true)
+        {
+            int child = 2 * i + 1;
+            if(child >= size) break;
+            if(child + 1 < size && heapKeys[child + 1] < heapKeys[child]) child++;
+            if(heapKeys[child] >= key) break;
+            heapKeys[i] = heapKeys[child];
+            heapValues[i] = heapValues[child];
+            i = child;
+        }
+        heapKeys[i] = key;
+        heapValues[i] = value;
+        return size;
+    }
+
+    // === Sorting ===
+
+    /* Sorts sortedIds[0, n) by keys[0, n), unsigned, in four byte-wide counting passes.
+     */
+    private void radixSort(int n)
+    {
+        int[] srcKeys = keys, srcIds = sortedIds, dstKeys = sortedKeys, dstIds = new int[n];
+        int[] counts = new int[257];
+        for(int shift = 0; shift < 32; shift += 8)
+        {
+            Arrays.fill(counts, 0);
+            for(int i = 0; i < n; i++)
+                counts[((srcKeys[i] >>> shift) & 0xFF) + 1]++;
+            for(int b = 0; b < 256; b++)
+                counts[b + 1] += counts[b];
+            for(int i = 0; i < n; i++)
+            {
+                int at = counts[(srcKeys[i] >>> shift) & 0xFF]++;
+                dstKeys[at] = srcKeys[i];
+                dstIds[at] = srcIds[i];
+            }
+            int[] t = srcKeys; srcKeys = dstKeys; dstKeys = t;
+            t = srcIds; srcIds = dstIds; dstIds = t;
+        }
+        //Four passes, so the sorted run ends up back in keys and sortedIds
+    }
+
+    /* Position of (x, y) along a Hilbert curve filling a 2^16 square.
+     * From "Fast Hilbert curve generation, sorting and range queries" (rawrunprotected.com).
+     */
+    static int hilbert(int x, int y)
+    {
+        int a = x ^ y;
+        int b = 0xFFFF ^ a;
+        int c = 0xFFFF ^ (x | y);
+        int d = x & (y ^ 0xFFFF);
+
+        int A = a | (b >> 1);
+        int B = (a >> 1) ^ a;
+        int C = ((c >> 1) ^ (b & (d >> 1))) ^ c;
+        int D = ((a & (c >> 1)) ^ (d >> 1)) ^ d;
+
+        a = A; b = B; c = C; d = D;
+        A = (a & (a >> 2)) ^ (b & (b >> 2));
+        B = (a & (b >> 2)) ^ (b & ((a ^ b) >> 2));
+        C ^= (a & (c >> 2)) ^ (b & (d >> 2));
+        D ^= (b & (c >> 2)) ^ ((a ^ b) & (d >> 2));
+
+        a = A; b = B; c = C; d = D;
+        A = (a & (a >> 4)) ^ (b & (b >> 4));
+        B = (a & (b >> 4)) ^ (b & ((a ^ b) >> 4));
+        C ^= (a & (c >> 4)) ^ (b & (d >> 4));
+        D ^= (b & (c >> 4)) ^ ((a ^ b) & (d >> 4));
+
+        a = A; b = B; c = C; d = D;
+        C ^= (a & (c >> 8)) ^ (b & (d >> 8));
+        D ^= (b & (c >> 8)) ^ ((a ^ b) & (d >> 8));
+
+        a = C ^ (C >> 1);
+        b = D ^ (D >> 1);
+
+        int i0 = x ^ y;
+        int i1 = b | (0xFFFF ^ (i0 | a));
+
+        return (interleave(i1) << 1) | interleave(i0);
+    }
+
+    private static int interleave(int x)
+    {
+        x = (x | (x << 8)) & 0x00FF00FF;
+        x = (x | (x << 4)) & 0x0F0F0F0F;
+        x = (x | (x << 2)) & 0x33333333;
+        x = (x | (x << 1)) & 0x55555555;
+        return x;
+    }
+
+    /* Approximate heap footprint in bytes.
+     */
+    public long footprintBytes()
+    {
+        return 4L * (bounds.length + ids.length + leafOf.length + keys.length + sortedKeys.length + sortedIds.length
+                + heapKeys.length + heapValues.length);
+    }
+}
@@ -0,0 +1,131 @@
+package com.jokodub.flowcharter.bench;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+import com.jokodub.flowcharter.logic.FlowchartBatch;
+import com.jokodub.flowcharter.model.classes.*;
+
+/* Reproducible Flowcharts for benchmarks. Same arguments, same chart.
+ * Nodes are created in insertion order, so nodes(f) lists them parents first.
+ */
+public class ChartGenerators 
+{
+    //Used as a library, disallow instances
+    private ChartGenerators(){}
+
+    /* A single path of n nodes, one per height.
+     */
+    public static Flowchart chain(int n)
+    {
+        Flowchart f = new Flowchart("Chain " + n);
+        FlowchartBatch batch = new FlowchartBatch(f);
+        Node prev = null;
+        for(int i = 0; i < n; i++)
+        {
+            Node cur = new Node();
+            batch.addNode(cur);
+            if(prev != null) batch.addEdge(prev, cur);
+            prev = cur;
+        }
+        batch.commit();
+        return f;
+    }
+
+    /* One root pointing to n - 1 children, all on the same height.
+     */
+    public static Flowchart fanOut(int n)
+    {
+        Flowchart f = new Flowchart("Fan out " + n);
+        FlowchartBatch batch = new FlowchartBatch(f);
+        Node root = new Node();
+        batch.addNode(root);
+        for(int i = 1; i < n; i++)
+        {
+            Node child = new Node();
+            batch.addNode(child);
+            batch.addEdge(root, child);
+        }
+        batch.commit();
+        return f;
+    }
+
+    /* Layered DAG where each node has up to maxParents parents among the
+     * previous window nodes, plus backEdges edges pointing upwards to form cycles.
+     */
+    public static Flowchart randomDag(long seed, int nodes, int maxParents, int window, int backEdges)
+    {
+        return randomDag(new Flowchart("DAG " + seed), i -> "", seed, nodes, maxParents, window, backEdges);
+    }
+
+    /* The same DAG grown into f, with node i named names.apply(i), for tests that compare charts by name.
+     */
+    public static Flowchart randomDag(Flowchart f, IntFunction<String> names, long seed, int nodes, int maxParents,
+                                      int window, int backEdges)
+    {
+        Random rng = new Random(seed);
+        FlowchartBatch batch = new FlowchartBatch(f);
+        List<Node> placed = new ArrayList<>(nodes);
+
+        for(int i = 0; i < nodes; i++)
+        {
+            Node n = new Node(names.apply(i));
+            Set<Node> parents = new HashSet<>();
+            int count = placed.isEmpty() ? 0 : 1 + rng.nextInt(maxParents);
+            for(int k = 0; k < count; k++)
+                parents.add(placed.get(Math.max(0, placed.size() - 1 - rng.nextInt(window))));
+            batch.addNode(n, parents);
+            placed.add(n);
+        }
+        for(int i = 0; i < backEdges; i++)
+        {
+            int a = rng.nextInt(nodes), b = rng.nextInt(nodes);
+            if(a != b) batch.addEdge(placed.get(Math.max(a, b)), placed.get(Math.min(a, b)));
+        }
+        batch.commit();
+        return f;
+    }
+
+    /* rows x cols grid where each node points to the one below it, 
+     * and every row is height-linked along its length.
+     */
+    public static Flowchart linkedGrid(int rows, int cols)
+    {
+        Flowchart f = new Flowchart("Grid " + rows + "x" + cols);
+        FlowchartBatch batch = new FlowchartBatch(f);
+        Node[][] grid = new Node[rows][cols];
+        for(int r = 0; r < rows; r++)
+        {
+            for(int c = 0; c < cols; c++)
+            {
+                grid[r][c] = new Node();
+                batch.addNode(grid[r][c]);
+                if(r > 0) batch.addEdge(grid[r - 1][c], grid[r][c]);
+            }
+        }
+        batch.commit();
+
+        for(Node[] row : grid)
+            for(int c = 1; c < cols; c++)
+                f.addLink(row[c - 1], row[c]);
+        return f;
+    }
+
+    /* Every node of f other than top and bottom, in slot order.
+     */
+    public static List<Node> nodes(Flowchart f)
+    {
+        List<Node> list = new ArrayList<>(f.nodeCount());
+        for(int s = 0; s < f.slotLimit(); s++)
+        {
+            Node n = f.nodeAt(s);
+            if(n != null && !n.equals(f.getTop()) && !n.equals(f.getBottom()))
+                list.add(n);
+        }
+        return list;
+    }
+}
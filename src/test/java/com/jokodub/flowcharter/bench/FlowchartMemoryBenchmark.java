@@ -0,0 +1,87 @@
+package com.jokodub.flowcharter.bench;
+
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.jokodub.flowcharter.model.classes.*;
+
+/* Measures retained heap per node of the Flowchart store against the
+ * previous layout of Map<Node, List<Set<Node>>> and Map<Node, List<Integer>>.
+ * Run with: mvn exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.jokodub.flowcharter.bench.FlowchartMemoryBenchmark
+ */
+public class FlowchartMemoryBenchmark 
+{
+    private static final int DEFAULT_NODES = 200_000;
+
+    public static void main(String[] args)
+    {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_NODES;
+
+        Node[] nodes = new Node[n];
+        for(int i = 0; i < n; i++)
+            nodes[i] = new Node();
+
+        long baseline = usedHeap();
+
+        //Previous layout: 4 HashSets and a boxed position list per node
+        Map<Node, List<Set<Node>>> connections = new HashMap<>();
+        Map<Node, List<Integer>> positions = new HashMap<>();
+        for(int i = 0; i < n; i++)
+        {
+            List<Set<Node>> sets = new ArrayList<>(4);
+            for(int k = 0; k < 4; k++)
+                sets.add(new HashSet<>());
+            connections.put(nodes[i], sets);
+            positions.put(nodes[i], new ArrayList<>(Arrays.asList(i, 0)));
+        }
+        for(int i = 1; i < n; i++)
+        {
+            connections.get(nodes[i - 1]).get(1).add(nodes[i]);
+            connections.get(nodes[i]).get(0).add(nodes[i - 1]);
+        }
+        long legacyBytes = usedHeap() - baseline;
+        //Keep both maps reachable until the heap has been read, or the JIT may let them go early
+        Reference.reachabilityFence(connections);
+        Reference.reachabilityFence(positions);
+        report("Map<Node, List<Set<Node>>>", legacyBytes, n);
+
+        connections = null; //Release before measuring the next layout
+        positions = null;
+        baseline = usedHeap();
+
+        //Current layout: int slots and adjacency arrays
+        Flowchart f = new Flowchart();
+        for(int i = 0; i < n; i++)
+            f.addNode(nodes[i]);
+        for(int i = 1; i < n; i++)
+            f.addEdge(nodes[i - 1], nodes[i]);
+        f.compact();
+        long slotBytes = usedHeap() - baseline;
+        report("Flowchart (int slots)", slotBytes, f.nodeCount() - 2);
+        System.out.printf("  estimated store footprint: %.1f bytes/node%n", (double) f.footprintBytes() / n);
+
+        System.out.printf("Reduction: %.1fx%n", (double) legacyBytes / slotBytes);
+    }
+
+    private static void report(String label, long bytes, int n)
+    {
+        System.out.printf("%-28s %,14d bytes  %8.1f bytes/node%n", label, bytes, (double) bytes / n);
+    }
+
+    private static long usedHeap()
+    {
+        Runtime rt = Runtime.getRuntime();
+        for(int i = 0; i < 4; i++)
+        {
+            System.gc();
+            try { Thread.sleep(50); } catch(InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,180 @@
+package com.jokodub.flowcharter.logic;
+
+import static com.jokodub.flowcharter.bench.ChartGenerators.nodes;
+import static com.jokodub.flowcharter.bench.ChartGenerators.randomDag;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.jokodub.flowcharter.model.classes.*;
+
+/**
+ * Unit tests for ChartHierarchy: every level must account for each node and edge of the chart.
+ */
+public class ChartHierarchyTest
+{
+    /* A random DAG laid out 20 to a row in insertion order.
+     */
+    private static Flowchart randomChart(long seed, int n)
+    {
+        Flowchart f = randomDag(new Flowchart(), i -> "n" + i, seed, n, 2, n, 0);
+        List<Node> placed = nodes(f);
+        for(int i = 0; i < placed.size(); i++)
+        {
+            f.setHeight(placed.get(i), i / 20 + 1);
+            f.setRank(placed.get(i), i % 20);
+        }
+        return f;
+    }
+
+    /* Aggregates must partition the chart, and their edges bundle exactly the edges between them.
+     */
+    private static void assertConsistent(ChartHierarchy h)
+    {
+        Flowchart f = h.getLevel(0);
+        for(int l = 1; l < h.levelCount(); l++)
+        {
+            Flowchart coarse = h.getLevel(l);
+            assertTrue(coarse.nodeCount() < h.getLevel(l - 1).nodeCount());
+            assertSame(coarse.getTop(), h.coarseOf(l, f.getTop()));
+            assertSame(coarse.getBottom(), h.coarseOf(l, f.getBottom()));
+
+            int total = 0;
+            for(Node a : coarse.getAllNodes())
+            {
+                total += h.sizeOf(l, a);
+                for(Node m : h.membersOf(l, a))
+                    assertSame(a, h.coarseOf(l, m));
+                assertEquals(h.sizeOf(l, a), h.membersOf(l, a).size());
+            }
+            assertEquals(f.nodeCount() - 2, total);
+
+            Map<List<Node>, Integer> bundles = new HashMap<>();
+            for(Node n : f.getAllNodes())
+                for(Node d : f.getOutboundSet(n))
+                {
+                    Node a = h.coarseOf(l, n), b = h.coarseOf(l, d);
+                    if(a != b) bundles.merge(List.of(a, b), 1, Integer::sum);
+                }
+            int edges = 0;
+            for(Node a : coarse.getAllNodes())
+                for(Node b : coarse.getOutboundSet(a))
+                {
+                    assertEquals(a + " -> " + b, bundles.get(List.of(a, b)), (Integer) h.bundleSize(l, a, b));
+                    edges++;
+                }
+            assertEquals(bundles.size(), edges);
+        }
+    }
+
+    @Test
+    public void linkGroupsAndCyclesBecomeOneNode()
+    {
+        Flowchart f = new Flowchart();
+        Node a = new Node("a"), b = new Node("b"), c = new Node("c"), d = new Node("d"), e = new Node("e");
+        for(Node n : List.of(a, b, c, d, e))
+            f.addNode(n);
+        f.addEdge(a, b);
+        f.addEdge(b, a);
+        f.addEdge(b, c);
+        f.addLink(c, d);
+        f.addEdge(d, e);
+
+        ChartHierarchy h = ChartHierarchy.build(f, 1);
+        assertTrue(h.levelCount() >= 2);
+        assertFalse(f.hasReachability());
+        assertConsistent(h);
+
+        Node cycle = h.coarseOf(1, a), linked = h.coarseOf(1, c);
+        assertSame(cycle, h.coarseOf(1, b));
+        assertSame(linked, h.coarseOf(1, d));
+        assertNotSame(cycle, linked);
+        assertEquals(2, h.sizeOf(1, cycle));
+        assertEquals(3, h.getLevel(1).nodeCount() - 2);
+        assertEquals(1, h.bundleSize(1, cycle, linked));
+        assertEquals("a (+1)", cycle.getName());
+    }
+
+    @Test
+    public void subtreesFoldIntoTheirRoots()
+    {
+        Flowchart f = new Flowchart();
+        Node root = new Node("root");
+        f.addNode(root);
+        Set<Node> leaves = new HashSet<>();
+        for(int i = 0; i < 100; i++)
+        {
+            Node leaf = new Node("leaf" + i);
+            f.addNode(leaf);
+            f.addEdge(root, leaf);
+            f.setRank(leaf, i);
+            f.setHeight(leaf, 2);
+            leaves.add(leaf);
+        }
+
+        ChartHierarchy h = ChartHierarchy.build(f, 1);
+        assertEquals(2, h.levelCount());
+        assertConsistent(h);
+        Node all = h.coarseOf(1, root);
+        assertEquals(101, h.sizeOf(1, all));
+        assertEquals(new HashSet<>(h.membersOf(1, all)).size(), 101);
+        assertTrue(leaves.stream().allMatch(n -> h.coarseOf(1, n) == all));
+
+        //Placed at the mean of its members
+        assertEquals(Math.round((1 + 2 * 100) / 101.0), h.getLevel(1).getHeight(all));
+        assertEquals(Math.round(4950 / 101.0), h.getLevel(1).getRank(all));
+    }
+
+    @Test
+    public void randomChartsCoarsenConsistently()
+    {
+        Random rng = new Random(11);
+        for(int round = 0; round < 5; round++)
+        {
+            Flowchart f = randomChart(rng.nextLong(), 600);
+            for(int i = 0; i < 20; i++)
+            {
+                List<Node> nodes = new ArrayList<>(f.getAllNodes());
+                Node a = nodes.get(rng.nextInt(nodes.size())), b = nodes.get(rng.nextInt(nodes.size()));
+                if(a == f.getTop() || a == f.getBottom() || b == f.getTop() || b == f.getBottom()) continue;
+                if(i % 2 == 0) f.addLink(a, b);
+                else f.addEdge(a, b);
+            }
+
+            ChartHierarchy h = ChartHierarchy.build(f, 16);
+            assertTrue(h.levelCount() > 2);
+            assertConsistent(h);
+        }
+    }
+
+    @Test
+    public void zoomPicksCoarserLevelsFurtherOut()
+    {
+        ChartHierarchy h = ChartHierarchy.build(randomChart(3, 2000), 16);
+        assertTrue(h.getLevel(h.levelCount() - 1).nodeCount() < 200);
+        assertEquals(0, h.levelFor(1));
+        assertEquals(0, h.levelFor(4));
+        assertEquals(h.levelCount() - 1, h.levelFor(1e-6));
+
+        int last = 0;
+        for(double scale = 1; scale > 1e-3; scale *= 0.8)
+        {
+            int l = h.levelFor(scale);
+            assertTrue(l >= last);
+            assertTrue(l == h.levelCount() - 1 || scale * h.spreadOf(l) >= 1);
+            last = l;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.jokodub.flowcharter.logic;
+
+import static com.jokodub.flowcharter.logic.FlowchartUtilsTest.newSet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import com.jokodub.flowcharter.model.classes.*;
+
+/**
+ * Differential tests: a committed FlowchartBatch must match inserting one node at a time.
+ */
+public class FlowchartBatchTest 
+{
+    /* Describes a chart independently of which Top and Bottom instances it owns.
+     */
+    static String describe(Flowchart f)
+    {
+        List<Node> all = new ArrayList<>(f.getAllNodes());
+        all.sort((a, b) -> Integer.compare(key(f, a), key(f, b)));
+
+        StringBuilder sb = new StringBuilder();
+        for(Node n : all)
+        {
+            sb.append(key(f, n)).append(" h=").append(f.getHeight(n));
+            sb.append(" out=").append(keys(f, f.getOutboundSet(n)));
+            sb.append(" in=").append(keys(f, f.getInboundSet(n))).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static int key(Flowchart f, Node n)
+    {
+        if(n.equals(f.getTop())) return Integer.MIN_VALUE;
+        if(n.equals(f.getBottom())) return Integer.MAX_VALUE;
+        return n.getId();
+    }
+
+    private static Set<Integer> keys(Flowchart f, Set<Node> nodes)
+    {
+        Set<Integer> keys = new TreeSet<>();
+        for(Node n : nodes)
+            keys.add(key(f, n));
+        return keys;
+    }
+
+    private static void differential(long seed, int existing, int batched, int maxParents)
+    {
+        Random rng = new Random(seed);
+        Flowchart single = new Flowchart();
+        Flowchart bulk = new Flowchart();
+        List<Node> placed = new ArrayList<>();
+
+        //Both charts start from the same prefix
+        for(int i = 0; i < existing; i++)
+        {
+            Node n = new Node();
+            Set<Node> parents = randomParents(rng, placed, maxParents);
+            FlowchartUtils.insertNode(single, n, new HashSet<>(parents), newSet());
+            FlowchartUtils.insertNode(bulk, n, new HashSet<>(parents), newSet());
+            placed.add(n);
+        }
+
+        FlowchartBatch batch = new FlowchartBatch(bulk);
+        for(int i = 0; i < batched; i++)
+        {
+            Node n = new Node();
+            Set<Node> parents = randomParents(rng, placed, maxParents);
+            if(rng.nextInt(20) == 0) parents.add(n); //Occasional self loop
+
+            FlowchartUtils.insertNode(single, n, new HashSet<>(parents), newSet());
+            batch.addNode(n, parents);
+            placed.add(n);
+        }
+        batch.commit();
+
+        assertEquals("seed " + seed, describe(single), describe(bulk));
+    }
+
+    private static Set<Node> randomParents(Random rng, List<Node> placed, int maxParents)
+    {
+        Set<Node> parents = newSet();
+        int count = placed.isEmpty() ? 0 : rng.nextInt(maxParents + 1);
+        for(int i = 0; i < count; i++)
+            parents.add(placed.get(rng.nextInt(placed.size())));
+        return parents;
+    }
+
+    @Test
+    public void batchIntoEmptyChartMatchesInsertNode()
+    {
+        for(long seed = 0; seed < 20; seed++)
+            differential(seed, 0, 200, 3);
+    }
+
+    @Test
+    public void batchOntoExistingChartMatchesInsertNode()
+    {
+        for(long seed = 100; seed < 120; seed++)
+            differential(seed, 50, 200, 4);
+    }
+
+    @Test
+    public void wideForestMatchesInsertNode()
+    {
+        differential(7, 0, 3000, 1);
+    }
+
+    @Test
+    public void backEdgeIsKeptWithoutMovingNodes()
+    {
+        Flowchart f = new Flowchart();
+        Node a = new Node("a");
+        Node b = new Node("b");
+
+        new FlowchartBatch(f)
+            .addNode(a)
+            .addNode(b, newSet(a))
+            .addEdge(b, a)
+            .commit();
+
+        assertTrue(f.hasEdge(b, a));
+        assertTrue(f.hasEdge(f.getTop(), a));
+        assertTrue(f.hasEdge(b, f.getBottom()));
+        assertEquals(1, f.getHeight(a));
+        assertEquals(2, f.getHeight(b));
+        assertEquals(3, f.getHeight(f.getBottom()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void edgeIntoPlacedNodeIsRejected()
+    {
+        Flowchart f = new Flowchart();
+        Node a = new Node("a");
+        FlowchartUtils.insertNode(f, a, newSet(), newSet());
+
+        Node b = new Node("b");
+        new FlowchartBatch(f).addNode(b).addEdge(b, a);
+    }
+}
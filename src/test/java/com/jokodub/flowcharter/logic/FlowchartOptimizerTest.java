@@ -0,0 +1,565 @@
+package com.jokodub.flowcharter.logic;
+
+import static com.jokodub.flowcharter.bench.ChartGenerators.nodes;
+import static com.jokodub.flowcharter.bench.ChartGenerators.randomDag;
+import static com.jokodub.flowcharter.logic.FlowchartUtilsTest.newSet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import com.jokodub.flowcharter.model.classes.*;
+
+/**
+ * Tests for the layered layout behind FlowchartOptimizer.optimize.
+ */
+public class FlowchartOptimizerTest 
+{
+    private static int upwardEdges(Flowchart f)
+    {
+        int up = 0;
+        for(Node n : f.getAllNodes())
+            for(Node o : f.getOutboundSet(n))
+                if(!n.equals(o) && f.getHeight(o) <= f.getHeight(n) && !f.hasLink(n, o))
+                    up++;
+        return up;
+    }
+
+    private static void assertRanksArePermutations(Flowchart f)
+    {
+        Map<Integer, Set<Integer>> ranksByHeight = new HashMap<>();
+        for(Node n : f.getAllNodes())
+            assertTrue("duplicate rank for " + n,
+                       ranksByHeight.computeIfAbsent(f.getHeight(n), h -> new HashSet<>()).add(f.getRank(n)));
+        for(Set<Integer> ranks : ranksByHeight.values())
+            for(int r = 0; r < ranks.size(); r++)
+                assertTrue(ranks.contains(r));
+    }
+
+    @Test
+    public void acyclicChartHasOnlyDownwardEdges()
+    {
+        Flowchart f = randomDag(1, 500, 3, 50, 0);
+        OptimizerResult result = FlowchartOptimizer.optimize(f);
+
+        assertEquals(0, result.getReversedEdges());
+        assertEquals(0, upwardEdges(f));
+        assertRanksArePermutations(f);
+        assertTrue(result.getCrossingsAfter() <= result.getCrossingsBefore());
+    }
+
+    @Test
+    public void cycleReversesOneEdge()
+    {
+        Flowchart f = new Flowchart();
+        Node a = new Node("a"), b = new Node("b"), c = new Node("c");
+        new FlowchartBatch(f).addNode(a).addNode(b, newSet(a)).addNode(c, newSet(b)).addEdge(c, a).commit();
+
+        OptimizerResult result = FlowchartOptimizer.optimize(f);
+
+        assertEquals(1, result.getReversedEdges());
+        assertEquals(1, upwardEdges(f));
+        assertEquals(3, result.getLayers());
+        assertEquals(4, f.getHeight(f.getBottom()));
+    }
+
+    @Test
+    public void crossingPairIsUntangled()
+    {
+        Flowchart f = new Flowchart();
+        Node a = new Node("a"), b = new Node("b"), c = new Node("c"), d = new Node("d");
+        new FlowchartBatch(f).addNode(a).addNode(b).addNode(c, newSet(b)).addNode(d, newSet(a)).commit();
+        f.setRank(a, 0);
+        f.setRank(b, 1);
+        f.setRank(c, 0);
+        f.setRank(d, 1);
+
+        OptimizerResult result = FlowchartOptimizer.optimize(f);
+
+        assertEquals(1, result.getCrossingsBefore());
+        assertEquals(0, result.getCrossingsAfter());
+        assertEquals(f.getRank(a) < f.getRank(b), f.getRank(d) < f.getRank(c));
+    }
+
+    @Test
+    public void linkedNodesShareHeight()
+    {
+        Flowchart f = randomDag(2, 300, 2, 50, 10);
+        List<Node> nodes = new ArrayList<>(f.getAllNodes());
+        Node x = nodes.get(10), y = nodes.get(250), z = nodes.get(120);
+        f.addLink(x, y);
+        f.addLink(y, z);
+
+        FlowchartOptimizer.optimize(f);
+
+        assertEquals(f.getHeight(x), f.getHeight(y));
+        assertEquals(f.getHeight(y), f.getHeight(z));
+        assertTrue(f.getHeight(f.getBottom()) > f.getHeight(x));
+    }
+
+    @Test
+    public void layersHaveNoGaps()
+    {
+        Flowchart f = randomDag(3, 2000, 3, 50, 40);
+        OptimizerResult result = FlowchartOptimizer.optimize(f);
+
+        Set<Integer> heights = new HashSet<>();
+        for(Node n : f.getAllNodes())
+            heights.add(f.getHeight(n));
+        assertEquals(result.getLayers() + 2, heights.size()); //Plus top and bottom
+        assertRanksArePermutations(f);
+    }
+
+    @Test
+    public void largeChartFitsTimeBudget()
+    {
+        Flowchart f = randomDag(4, 10_000, 2, 1000, 200);
+        OptimizerSettings settings = new OptimizerSettings().setTimeBudgetMillis(400).setMaxIterations(50);
+
+        OptimizerResult result = FlowchartOptimizer.optimize(f, settings);
+
+        assertTrue(result.toString(), result.getElapsedNanos() < 3_000_000_000L);
+        assertTrue(result.toString(), result.getCrossingsAfter() < result.getCrossingsBefore());
+    }
+
+    @Test
+    public void iterationCapIsHonoured()
+    {
+        Flowchart f = randomDag(5, 1000, 3, 50, 20);
+        OptimizerResult result = FlowchartOptimizer.optimize(f, new OptimizerSettings()
+            .setMaxIterations(1).setHeuristic(OptimizerSettings.Heuristic.MEDIAN));
+
+        assertTrue(result.getIterations() <= 1);
+    }
+
+    @Test
+    public void parallelCrossingCountMatchesSequential()
+    {
+        Flowchart f = randomDag(6, 3000, 3, 50, 60);
+        LayeredGraph g = LayeredGraph.build(f);
+        LayerOrdering o = LayerOrdering.initial(g);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try
+        {
+            assertEquals(new CrossingCounter(g).total(o), CrossingCounter.totalParallel(g, o, pool));
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    private static List<Integer> ranks(Flowchart f)
+    {
+        List<Integer> ranks = new ArrayList<>();
+        for(Node n : f.getAllNodes())
+            ranks.add(f.getRank(n));
+        return ranks;
+    }
+
+    @Test
+    public void restartsAreDeterministicForSeed()
+    {
+        OptimizerSettings sequential = new OptimizerSettings()
+            .setTimeBudgetMillis(60_000).setRestarts(6).setSeed(42);
+        OptimizerSettings parallel = new OptimizerSettings()
+            .setTimeBudgetMillis(60_000).setRestarts(6).setSeed(42).setParallelism(4);
+
+        Flowchart a = randomDag(7, 2000, 3, 50, 40);
+        Flowchart b = randomDag(7, 2000, 3, 50, 40);
+        OptimizerResult ra = FlowchartOptimizer.optimize(a, sequential);
+        OptimizerResult rb = FlowchartOptimizer.optimize(b, parallel);
+
+        assertEquals(ra.getCrossingsAfter(), rb.getCrossingsAfter());
+        assertEquals(ranks(a), ranks(b));
+    }
+
+    @Test
+    public void restartsNeverLoseToSingleRun()
+    {
+        OptimizerSettings single = new OptimizerSettings().setTimeBudgetMillis(60_000);
+        OptimizerSettings restarts = new OptimizerSettings().setTimeBudgetMillis(60_000)
+            .setRestarts(4).setParallelism(4).setSeed(9);
+
+        OptimizerResult one = FlowchartOptimizer.optimize(randomDag(8, 1500, 3, 50, 30), single);
+        OptimizerResult many = FlowchartOptimizer.optimize(randomDag(8, 1500, 3, 50, 30), restarts);
+
+        assertTrue(many.getCrossingsAfter() <= one.getCrossingsAfter());
+    }
+
+    @Test
+    public void incrementalOnlyTouchesLayersAroundEdit()
+    {
+        Flowchart f = randomDag(10, 3000, 3, 50, 30);
+        FlowchartOptimizer.optimize(f);
+        assertTrue(!f.hasDirty());
+
+        List<Node> nodes = new ArrayList<>(f.getAllNodes());
+        Map<Node, Integer> ranksBefore = new HashMap<>();
+        for(Node n : nodes)
+            ranksBefore.put(n, f.getRank(n));
+
+        Node parent = nodes.get(1500);
+        int h = f.getHeight(parent);
+        FlowchartUtils.insertNode(f, new Node("new"), newSet(parent), newSet());
+        OptimizerResult result = FlowchartOptimizer.optimizeIncremental(f);
+
+        assertTrue(result.getLayers() <= 4);
+        assertTrue(result.getCrossingsAfter() <= result.getCrossingsBefore());
+        assertTrue(!f.hasDirty());
+        for(Node n : nodes)
+            if(f.getHeight(n) < h - 1 || f.getHeight(n) > h + 2)
+                assertEquals(ranksBefore.get(n), (Integer) f.getRank(n));
+        assertRanksArePermutations(f);
+    }
+
+    @Test
+    public void incrementalWithoutEditsDoesNothing()
+    {
+        Flowchart f = randomDag(11, 200, 2, 50, 0);
+        FlowchartOptimizer.optimize(f);
+
+        OptimizerResult result = FlowchartOptimizer.optimizeIncremental(f);
+        assertEquals(0, result.getLayers());
+        assertEquals(0, result.getIterations());
+    }
+
+    @Test
+    public void compactHeightsClosesGapsAndKeepsLinksLevel()
+    {
+        Random rng = new Random(13);
+        Flowchart f = randomDag(13, 600, 3, 50, 0);
+        FlowchartOptimizer.optimize(f);
+        for(Node n : f.getAllNodes())
+            f.setHeight(n, f.getHeight(n) * 3 + rng.nextInt(3));
+        List<Node> nodes = new ArrayList<>(f.getAllNodes());
+        for(int i = 0; i < 40; i++)
+        {
+            Node a = nodes.get(2 + rng.nextInt(nodes.size() - 2)), b = nodes.get(2 + rng.nextInt(nodes.size() - 2));
+            if(!a.equals(b)) f.addLink(a, b);
+        }
+        Map<Node, Integer> before = new HashMap<>();
+        for(Node n : nodes)
+            before.put(n, f.getHeight(n));
+
+        assertTrue(FlowchartOptimizer.compactHeights(f) > 0);
+
+        Set<Integer> heights = new HashSet<>();
+        int deepest = 0;
+        for(Node n : nodes)
+        {
+            heights.add(f.getHeight(n));
+            if(n != f.getBottom()) deepest = Math.max(deepest, f.getHeight(n));
+            for(Node l : f.getLinkSet(n))
+                assertEquals(f.getHeight(n), f.getHeight(l));
+
+            //Edges that pointed down still do, and each group sits right under its lowest parent
+            if(n == f.getTop() || n == f.getBottom()) continue;
+            int need = 1;
+            for(Node m : f.getLinkGroup(n))
+                for(Node p : f.getInboundSet(m))
+                    if(before.get(p) < before.get(m) && !f.getLinkGroup(n).contains(p))
+                    {
+                        assertTrue(p + " -> " + m, f.getHeight(p) < f.getHeight(m));
+                        need = Math.max(need, f.getHeight(p) + 1);
+                    }
+            assertEquals(n.toString(), need, f.getHeight(n));
+        }
+        assertEquals(0, f.getHeight(f.getTop()));
+        assertEquals(deepest + 1, f.getHeight(f.getBottom()));
+        assertEquals(deepest + 2, heights.size()); //Every height from top to bottom is used
+        assertEquals(0, FlowchartOptimizer.compactHeights(f));
+    }
+
+    @Test
+    public void coordinatesKeepBoxesApartInRankOrder()
+    {
+        Flowchart f = randomDag(21, 1500, 3, 50, 20);
+        ChartCoordinates c = new ChartCoordinates(100, 30, 20, 40);
+        Random rng = new Random(21);
+        for(Node n : f.getAllNodes())
+            c.setBoxSize(f.slotOf(n), 40 + rng.nextInt(120), 20 + rng.nextInt(30));
+
+        FlowchartOptimizer.optimize(f, new OptimizerSettings().setCoordinates(c));
+
+        Map<Integer, List<Node>> rows = new HashMap<>();
+        for(Node n : f.getAllNodes())
+        {
+            int s = f.slotOf(n);
+            assertTrue(n.toString(), c.isPlaced(f, s));
+            assertTrue(c.boxX(s) >= 0 && c.boxX(s) + c.boxWidth(s) <= c.getWidth() + 1e-6);
+            rows.computeIfAbsent(f.getHeight(n), h -> new ArrayList<>()).add(n);
+        }
+        double rowTop = -1, lastBottom = 0;
+        for(int h = 0; h < rows.size(); h++)
+        {
+            List<Node> row = rows.get(h);
+            row.sort((a, b) -> f.getRank(a) - f.getRank(b));
+            double y = c.boxY(f.slotOf(row.get(0))), bottom = 0;
+            assertTrue("row " + h, y > rowTop && y >= lastBottom);
+            for(int i = 0; i < row.size(); i++)
+            {
+                int s = f.slotOf(row.get(i));
+                assertEquals(y, c.boxY(s), 0);
+                bottom = Math.max(bottom, y + c.boxHeight(s) + c.getGapY());
+                if(i > 0)
+                {
+                    int left = f.slotOf(row.get(i - 1));
+                    assertTrue("row " + h + " at " + i, c.boxX(s) >= c.boxX(left) + c.boxWidth(left) + c.getGapX() - 1e-6);
+                }
+            }
+            rowTop = y;
+            lastBottom = bottom;
+        }
+
+        //Moving a node takes it out of the layout
+        Node moved = rows.get(2).get(0);
+        f.setRank(moved, 1000);
+        assertTrue(!c.isPlaced(f, f.slotOf(moved)));
+    }
+
+    @Test
+    public void coordinatesKeepEdgesStraight()
+    {
+        //Two chains of boxes of all widths, and a node over three children, which it sits among
+        Flowchart f = new Flowchart();
+        Node[] left = new Node[5], right = new Node[5];
+        FlowchartBatch batch = new FlowchartBatch(f);
+        for(int i = 0; i < 5; i++)
+        {
+            left[i] = new Node("l" + i);
+            right[i] = new Node("r" + i);
+            batch.addNode(left[i], i == 0 ? newSet() : newSet(left[i - 1]));
+            batch.addNode(right[i], i == 0 ? newSet() : newSet(right[i - 1]));
+        }
+        Node parent = new Node("p");
+        Node[] children = { new Node("c0"), new Node("c1"), new Node("c2") };
+        batch.addNode(parent);
+        for(Node child : children)
+            batch.addNode(child, newSet(parent));
+        batch.commit();
+
+        ChartCoordinates c = new ChartCoordinates(100, 30, 20, 40);
+        for(int i = 0; i < 5; i++)
+        {
+            c.setBoxSize(f.slotOf(left[i]), 50 + 40 * i, 30);
+            c.setBoxSize(f.slotOf(right[i]), 210 - 40 * i, 30);
+        }
+        FlowchartOptimizer.optimize(f, new OptimizerSettings().setCoordinates(c));
+
+        for(Node[] chain : new Node[][]{ left, right })
+            for(int i = 1; i < 5; i++)
+                assertEquals(chain[i].toString(), centre(f, c, chain[0]), centre(f, c, chain[i]), 1e-6);
+        double low = Double.POSITIVE_INFINITY, high = Double.NEGATIVE_INFINITY;
+        for(Node child : children)
+        {
+            low = Math.min(low, centre(f, c, child));
+            high = Math.max(high, centre(f, c, child));
+        }
+        assertTrue(centre(f, c, parent) > low && centre(f, c, parent) < high);
+    }
+
+    @Test
+    public void coordinatesStraightenShortEdgesOfAWideChart()
+    {
+        //What CoordinateBenchmark times. A node lines up with one parent at most, so most edges stay bent
+        Flowchart f = randomDag(1, 4000, 3, 500, 0);
+        ChartCoordinates c = new ChartCoordinates(120, 40, 30, 50);
+        OptimizerSettings settings = new OptimizerSettings().setMaxIterations(2).setTimeBudgetMillis(60_000).setCoordinates(c);
+        for(int i = 0; i < 3; i++)
+            FlowchartOptimizer.optimize(f, settings);
+
+        assertTrue(straightShare(f, c) > 0.05);
+        for(int s = 0; s < f.slotLimit(); s++)
+            if(f.nodeAt(s) != null) assertTrue(c.isPlaced(f, s));
+    }
+
+    private static double centre(Flowchart f, ChartCoordinates c, Node n)
+    {
+        int s = f.slotOf(n);
+        return c.boxX(s) + c.boxWidth(s) / 2;
+    }
+
+    /* Share of the edges between adjacent layers whose ends line up.
+     */
+    private static double straightShare(Flowchart f, ChartCoordinates c)
+    {
+        int edges = 0, straight = 0;
+        IntList out = new IntList();
+        for(int s = 0; s < f.slotLimit(); s++)
+        {
+            if(f.nodeAt(s) == null || f.nodeAt(s) == f.getTop()) continue;
+            out.clear();
+            f.neighboursAt(Relation.OUTBOUND, s, out);
+            for(int i = 0; i < out.size(); i++)
+            {
+                int d = out.get(i);
+                if(f.nodeAt(d) == f.getBottom() || f.heightAt(d) != f.heightAt(s) + 1) continue;
+                edges++;
+                if(Math.abs(c.boxX(s) + c.boxWidth(s) / 2 - c.boxX(d) - c.boxWidth(d) / 2) < 1e-6) straight++;
+            }
+        }
+        return (double) straight / Math.max(1, edges);
+    }
+
+    /* Real vertices reachable from each real vertex of g, as sets of chart slots.
+     */
+    private static Map<Integer, Set<Integer>> reachable(LayeredGraph g)
+    {
+        Map<Integer, Set<Integer>> reach = new HashMap<>();
+        for(int v = 0; v < g.realCount; v++)
+        {
+            Set<Integer> found = new HashSet<>();
+            boolean[] seen = new boolean[g.vertexCount];
+            IntList stack = new IntList();
+            stack.add(v);
+            while(!stack.isEmpty())
+            {
+                int u = stack.pop();
+                for(int k = g.downOff[u]; k < g.downOff[u + 1]; k++)
+                {
+                    int w = g.down[k];
+                    if(seen[w]) continue;
+                    seen[w] = true;
+                    stack.add(w);
+                    if(!g.isDummy(w)) found.add(g.slotOf[w]);
+                }
+            }
+            reach.put(g.slotOf[v], found);
+        }
+        return reach;
+    }
+
+    /* Every one of parents points at every one of children.
+     */
+    private static void addBiclique(FlowchartBatch batch, List<Node> parents, List<Node> children)
+    {
+        for(Node p : parents)
+            for(Node c : children)
+                batch.addEdge(p, c);
+    }
+
+    private static List<Node> newNodes(FlowchartBatch batch, int count)
+    {
+        List<Node> nodes = new ArrayList<>();
+        for(int i = 0; i < count; i++)
+        {
+            Node n = new Node();
+            batch.addNode(n);
+            nodes.add(n);
+        }
+        return nodes;
+    }
+
+    @Test
+    public void denseSectionGoesThroughOneJunction()
+    {
+        Flowchart f = new Flowchart();
+        FlowchartBatch batch = new FlowchartBatch(f);
+        List<Node> parents = newNodes(batch, 40), children = newNodes(batch, 30), small = newNodes(batch, 4);
+        addBiclique(batch, parents, children);
+        Node aside = new Node("aside");
+        batch.addNode(aside);
+        batch.addEdge(parents.get(0), aside);
+        addBiclique(batch, small.subList(0, 2), small.subList(2, 4)); //Saves nothing
+        batch.commit();
+
+        OptimizerResult result = FlowchartOptimizer.optimize(f, new OptimizerSettings().setConcentrateEdges(true));
+
+        assertEquals(1, result.getJunctionNodes());
+        assertEquals(40 * 30 + 1 + 4, result.getSegmentsBefore());
+        assertEquals(40 + 30 + 2 + 8, result.getSegmentsAfter()); //aside and the small ones go through dummies
+        assertTrue(result.toString(), result.getConcentrationRatio() < 0.1);
+        for(Node c : children)
+            assertEquals(f.getHeight(parents.get(0)) + 2, f.getHeight(c));
+        assertEquals(0, upwardEdges(f));
+        assertEquals(reachable(LayeredGraph.build(f)), reachable(LayeredGraph.build(f, true)));
+
+        //The junction is left for the renderer, joining the same nodes
+        ChartCoordinates c = new ChartCoordinates(100, 30, 20, 40);
+        FlowchartOptimizer.optimize(f, new OptimizerSettings().setConcentrateEdges(true).setCoordinates(c));
+        assertEquals(1, c.junctionCount());
+        IntList in = new IntList(), out = new IntList();
+        c.junctionSources(0, in);
+        c.junctionTargets(0, out);
+        assertEquals(40, in.size());
+        assertEquals(30, out.size());
+        assertTrue(c.junctionY(0) > c.boxY(in.get(0)) + c.boxHeight(in.get(0)));
+        assertTrue(c.junctionY(0) < c.boxY(out.get(0)));
+    }
+
+    @Test
+    public void denseSectionOfARandomChartIsConcentrated()
+    {
+        //What ConcentrationBenchmark times: 200 parents under one node, each over the same 150 children
+        Flowchart f = randomDag(1, 1000, 2, 100, 0);
+        List<Node> nodes = nodes(f);
+        FlowchartBatch batch = new FlowchartBatch(f);
+        List<Node> parents = newNodes(batch, 200), children = newNodes(batch, 150);
+        for(Node p : parents)
+            batch.addEdge(nodes.get(nodes.size() / 4), p);
+        addBiclique(batch, parents, children);
+        batch.commit();
+        for(int i = 0; i < children.size(); i += 10)
+            f.addEdge(children.get(i), nodes.get(nodes.size() / 2 + i));
+
+        ChartCoordinates c = new ChartCoordinates(120, 40, 30, 50);
+        OptimizerResult result = FlowchartOptimizer.optimize(f, new OptimizerSettings().setConcentrateEdges(true)
+                .setTimeBudgetMillis(60_000).setCoordinates(c));
+        assertEquals(1, result.getJunctionNodes());
+        assertTrue(result.toString(), result.getSegmentsBefore() > 200 * 150);
+        assertTrue(result.toString(), result.getConcentrationRatio() < 0.2);
+
+        //The renderer draws 350 lines through the junction instead of 30000
+        assertEquals(1, c.junctionCount());
+        IntList in = new IntList(), out = new IntList();
+        c.junctionSources(0, in);
+        c.junctionTargets(0, out);
+        assertEquals(200, in.size());
+        assertEquals(150, out.size());
+    }
+
+    @Test
+    public void concentrationKeepsReachability()
+    {
+        Flowchart f = randomDag(31, 200, 2, 50, 5);
+        List<Node> nodes = new ArrayList<>(f.getAllNodes());
+        Random rng = new Random(31);
+        FlowchartBatch batch = new FlowchartBatch(f);
+        List<Node> below = new ArrayList<>();
+        for(int i = 0; i < 8; i++)
+        {
+            List<Node> parents = newNodes(batch, 4 + rng.nextInt(12)), children = newNodes(batch, 4 + rng.nextInt(12));
+            addBiclique(batch, parents, children);
+            Node above = nodes.get(2 + rng.nextInt(nodes.size() - 2));
+            for(Node p : parents)
+                batch.addEdge(above, p);
+            below.add(children.get(0));
+        }
+        batch.commit();
+        for(Node c : below)
+            f.addEdge(c, nodes.get(2 + rng.nextInt(nodes.size() - 2)));
+
+        LayeredGraph plain = LayeredGraph.build(f), concentrated = LayeredGraph.build(f, true);
+        assertTrue(concentrated.junctionCount > 0);
+        assertTrue(concentrated.segmentCount() < plain.segmentCount());
+        assertEquals(reachable(plain), reachable(concentrated));
+        for(int v = 0; v < concentrated.vertexCount; v++)
+            for(int k = concentrated.downOff[v]; k < concentrated.downOff[v + 1]; k++)
+                assertEquals(concentrated.layerOf[v] + 1, concentrated.layerOf[concentrated.down[k]]);
+
+        OptimizerResult result = FlowchartOptimizer.optimize(f, new OptimizerSettings().setConcentrateEdges(true));
+        assertEquals(concentrated.junctionCount, result.getJunctionNodes());
+        assertRanksArePermutations(f);
+    }
+}
@@ -0,0 +1,199 @@
+package com.jokodub.flowcharter.logic;
+
+import static com.jokodub.flowcharter.bench.ChartGenerators.nodes;
+import static com.jokodub.flowcharter.bench.ChartGenerators.randomDag;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import com.jokodub.flowcharter.logic.FlowchartText.Format;
+import com.jokodub.flowcharter.model.classes.*;
+
+/**
+ * Unit tests for FlowchartText: each format must give back the chart it wrote, byte for byte on a second pass.
+ */
+public class FlowchartTextTest
+{
+    /* A random DAG with names that need quoting, plus links, mentions and cycles.
+     */
+    private static Flowchart randomChart(long seed, int n)
+    {
+        Random rng = new Random(seed);
+        Flowchart f = randomDag(new Flowchart("Random \"chart\""), i -> "node " + i + (i % 7 == 0 ? ", \"quoted\" #" + i : ""),
+                                seed, n, 2, n, 0);
+        List<Node> placed = nodes(f);
+        for(int i = 0; i < n / 10; i++)
+        {
+            Node a = placed.get(rng.nextInt(n)), b = placed.get(rng.nextInt(n));
+            if(a == b) continue;
+            if(i % 3 == 0) f.addLink(a, b);
+            else if(i % 3 == 1) f.addMention(a, b);
+            else f.addEdge(b.getId() > a.getId() ? b : a, b.getId() > a.getId() ? a : b); //Cycles
+        }
+        return f;
+    }
+
+    /* Every relation between real nodes, by name.
+     */
+    private static TreeSet<String> relations(Flowchart f)
+    {
+        TreeSet<String> all = new TreeSet<>();
+        for(Node n : f.getAllNodes())
+        {
+            if(n == f.getTop() || n == f.getBottom()) continue;
+            all.add(n.getName());
+            for(Node d : f.getOutboundSet(n))
+                if(d != f.getBottom()) all.add(n.getName() + " -> " + d.getName());
+            for(Node d : f.getLinkSet(n))
+                all.add(n.getName() + " - " + d.getName());
+            for(Node d : f.getMentionSet(n))
+                all.add(n.getName() + " ~> " + d.getName());
+        }
+        return all;
+    }
+
+    private static String write(Flowchart f, Format format) throws IOException
+    {
+        StringWriter out = new StringWriter();
+        FlowchartText.write(f, format, out);
+        return out.toString();
+    }
+
+    private static Flowchart read(String text, Format format) throws IOException
+    {
+        return FlowchartText.read(new StringReader(text), format);
+    }
+
+    @Test
+    public void everyFormatRoundTrips() throws IOException
+    {
+        Flowchart f = randomChart(1, 300);
+        for(Format format : Format.values())
+        {
+            String text = write(f, format);
+            Flowchart loaded = read(text, format);
+            assertEquals(format.toString(), relations(f), relations(loaded));
+            assertEquals(format.toString(), f.nodeCount(), loaded.nodeCount());
+            if(format != Format.CSV)
+            {
+                assertEquals(f.getTitle(), loaded.getTitle());
+                assertEquals(format.toString(), text, write(loaded, format));
+            }
+        }
+    }
+
+    @Test
+    public void outputOnlyGrowsWithTheChart() throws IOException
+    {
+        Flowchart f = randomChart(2, 100);
+        String before = write(f, Format.DOT);
+        assertEquals(before, write(f, Format.DOT));
+
+        Node last = f.newNode("last");
+        f.addNode(last);
+        String after = write(f, Format.DOT);
+        String body = before.substring(0, before.indexOf(" -> ")); //Header and node lines
+        assertTrue(after.startsWith(body.substring(0, body.lastIndexOf('\n') + 1)));
+        assertTrue(after.contains("    n100 [label=\"last\"];\n"));
+    }
+
+    @Test
+    public void importedNodesSitBelowTheirParents() throws IOException
+    {
+        //Children written before their parents still get placed under them
+        Flowchart f = read("d,e\nc,d\nb,c\na,b\na,e\n", Format.CSV);
+        assertEquals(7, f.nodeCount());
+        for(Node n : f.getAllNodes())
+            for(Node d : f.getOutboundSet(n))
+                assertTrue(n + " -> " + d, f.getHeight(n) < f.getHeight(d));
+        assertEquals(new TreeSet<>(List.of("a", "b", "c", "d", "e", "a -> b", "a -> e", "b -> c", "c -> d", "d -> e")),
+                     relations(f));
+    }
+
+    @Test
+    public void readsHandWrittenDot() throws IOException
+    {
+        Flowchart f = read("/* header */ strict digraph \"My \" + \"graph\" {\n"
+                           + "  graph [rankdir=LR]; node [shape=box]\n"
+                           + "  rankdir = TB // a comment\n"
+                           + "  # another\n"
+                           + "  start [label=<<b>Start</b>>]\n"
+                           + "  start:s -> mid -> {left; right}\n"
+                           + "  subgraph cluster_0 { left -> end [color=red] }\n"
+                           + "  right -> end; left -> right [dir=none, style=dashed]\n"
+                           + "  end -> start [style=\"dotted\"]\n"
+                           + "  \"quoted \\\"name\\\"\" -> -1.5\n"
+                           + "}\n", Format.DOT);
+        assertEquals("My graph", f.getTitle());
+        assertEquals(new TreeSet<>(List.of("<b>Start</b>", "mid", "left", "right", "end", "quoted \"name\"", "-1.5",
+                                           "<b>Start</b> -> mid", "mid -> left", "mid -> right", "left -> end", "right -> end",
+                                           "left - right", "right - left", "end ~> <b>Start</b>", "quoted \"name\" -> -1.5")),
+                     relations(f));
+    }
+
+    @Test
+    public void readsHandWrittenMermaid() throws IOException
+    {
+        Flowchart f = read("%% comment\n"
+                           + "graph LR\n"
+                           + "    A[Christmas] -->|Get money| B(Go shopping)\n"
+                           + "    B --> C{Let me think}\n"
+                           + "    C -- One --> D[Laptop] & E((iPhone))\n"
+                           + "    classDef big font-size:20px\n"
+                           + "    subgraph extras\n"
+                           + "    D -.- E\n"
+                           + "    E -. maybe .-> F[/\"Car #quot;new#quot;\"/]:::big;\n"
+                           + "    end\n"
+                           + "    F-->G---H\n", Format.MERMAID);
+        assertEquals(new TreeSet<>(List.of("Christmas", "Go shopping", "Let me think", "Laptop", "iPhone", "Car \"new\"", "G", "H",
+                                           "Christmas -> Go shopping", "Go shopping -> Let me think",
+                                           "Let me think -> Laptop", "Let me think -> iPhone",
+                                           "Laptop - iPhone", "iPhone - Laptop", "iPhone ~> Car \"new\"",
+                                           "Car \"new\" -> G", "G -> H")),
+                     relations(f));
+    }
+
+    @Test
+    public void csvQuotesWhatNeedsIt() throws IOException
+    {
+        Flowchart f = new Flowchart();
+        Node a = new Node("a, \"b\""), b = new Node("line\nbreak"), lone = new Node("lone"), unnamed = new Node("");
+        for(Node n : List.of(a, b, lone, unnamed))
+            f.addNode(n);
+        f.addEdge(a, b);
+
+        String text = write(f, Format.CSV);
+        assertEquals("source,target,kind\n\"a, \"\"b\"\"\",\"line\nbreak\",edge\nlone,,\nn3,,\n", text);
+        assertEquals(new TreeSet<>(List.of("a, \"b\"", "line\nbreak", "lone", "n3", "a, \"b\" -> line\nbreak")),
+                     relations(read(text, Format.CSV)));
+        assertEquals(new TreeSet<>(List.of("x", "y", "z", "x -> y")), relations(read("x,y\r\nz,\r\n", Format.CSV)));
+    }
+
+    @Test
+    public void malformedInputNamesTheLine()
+    {
+        String[][] cases = { { "digraph {\n a -> \n}", "DOT" }, { "digraph {\n a [label=\"x]\n}", "DOT" },
+                             { "graph TD\nA --> B\nA ==", "MERMAID" }, { "a,b\nc,d,sideways\n", "CSV" } };
+        for(String[] c : cases)
+        {
+            try
+            {
+                read(c[0], Format.valueOf(c[1]));
+                fail(c[0]);
+            }
+            catch(IOException e)
+            {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Line "));
+            }
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package com.jokodub.flowcharter.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import com.jokodub.flowcharter.model.classes.*;
+
+/**
+ * Tests for FlowchartUtils.insertNode, deleteNode, swapNodes and reduceTransitively.
+ */
+public class FlowchartUtilsTest 
+{
+    static Set<Node> newSet(Node... nodes)
+    {
+        Set<Node> mySet = new HashSet<>();
+        for(Node n : nodes)
+            mySet.add(n);
+        return mySet;
+    }
+
+    @Test
+    public void closingLongLoopReattachesBottom()
+    {
+        Flowchart f = new Flowchart();
+        int length = 20_000;
+        Node[] chain = new Node[length];
+        for(int i = 0; i < length; i++)
+        {
+            chain[i] = new Node();
+            FlowchartUtils.insertNode(f, chain[i], i == 0 ? newSet() : newSet(chain[i - 1]), newSet());
+        }
+        assertEquals(length, f.getHeight(chain[length - 1]));
+
+        //Loop from the end back to the start: walks the whole chain to place top and bottom
+        Node back = new Node("back");
+        FlowchartUtils.insertNode(f, back, newSet(chain[length - 1]), newSet(chain[0]));
+
+        assertTrue(f.hasEdge(back, chain[0]));
+        assertTrue(f.hasEdge(back, f.getBottom()));
+        assertTrue(f.hasEdge(f.getTop(), back));
+        assertEquals(length + 1, f.getHeight(back));
+
+        //The whole chain was pushed below back
+        assertEquals(length + 2, f.getHeight(chain[0]));
+        assertEquals(2 * length + 1, f.getHeight(chain[length - 1]));
+    }
+
+    @Test
+    public void insertKeepsChartAttachedWithReachability()
+    {
+        Flowchart f = new Flowchart();
+        Reachability r = f.reachability();
+        Node[] nodes = new Node[300];
+        Random rng = new Random(7);
+        for(int i = 0; i < nodes.length; i++)
+        {
+            nodes[i] = new Node();
+            Set<Node> in = i == 0 ? newSet() : newSet(nodes[rng.nextInt(i)]);
+            Set<Node> out = i < 2 || rng.nextInt(4) > 0 ? newSet() : newSet(nodes[rng.nextInt(i)]);
+            FlowchartUtils.insertNode(f, nodes[i], in, out);
+        }
+
+        //Every node still hangs between top and bottom
+        for(Node n : nodes)
+        {
+            assertTrue(r.isReachable(f.getTop(), n));
+            assertTrue(r.isReachable(n, f.getBottom()));
+        }
+    }
+
+    /* Every node hangs between top and bottom, and each sits just below its lowest parent.
+     * For charts without cycles.
+     */
+    private static void assertAttachedAndTight(Flowchart f)
+    {
+        Reachability r = f.reachability();
+        for(Node n : f.getAllNodes())
+        {
+            if(n == f.getTop()) continue;
+            assertTrue(n + " from top", r.isReachable(f.getTop(), n));
+            if(n != f.getBottom()) assertTrue(n + " to bottom", r.isReachable(n, f.getBottom()));
+
+            int max = Integer.MIN_VALUE;
+            for(Node p : f.getInboundSet(n))
+                max = Math.max(max, f.getHeight(p));
+            assertEquals(n.toString(), max + 1, f.getHeight(n));
+        }
+        f.dropReachability();
+    }
+
+    /* Edges between named nodes, and every height, by name.
+     */
+    private static Set<String> describe(Flowchart f)
+    {
+        Set<String> all = new TreeSet<>();
+        for(Node n : f.getAllNodes())
+        {
+            all.add(n.getName() + "@" + f.getHeight(n));
+            for(Node d : f.getOutboundSet(n))
+                all.add(n.getName() + " -> " + d.getName());
+        }
+        return all;
+    }
+
+    private static List<Node> randomDag(Flowchart f, Random rng, int n)
+    {
+        List<Node> nodes = new ArrayList<>();
+        for(int i = 0; i < n; i++)
+        {
+            Node v = new Node("n" + i);
+            Set<Node> in = newSet();
+            for(int p = i == 0 ? 0 : rng.nextInt(3); p > 0; p--)
+                in.add(nodes.get(rng.nextInt(i)));
+            FlowchartUtils.insertNode(f, v, in, newSet());
+            nodes.add(v);
+        }
+        return nodes;
+    }
+
+    @Test
+    public void deleteBridgesParentsToChildren()
+    {
+        Flowchart f = new Flowchart();
+        Node a = new Node("a"), x = new Node("x"), d = new Node("d"), b = new Node("b"), c = new Node("c");
+        FlowchartUtils.insertNode(f, a, newSet(), newSet());
+        FlowchartUtils.insertNode(f, x, newSet(), newSet());
+        FlowchartUtils.insertNode(f, d, newSet(a, x), newSet());
+        FlowchartUtils.insertNode(f, b, newSet(d), newSet());
+        FlowchartUtils.insertNode(f, c, newSet(d), newSet());
+        assertEquals(3, f.getHeight(b));
+
+        FlowchartUtils.deleteNode(f, d);
+        assertFalse(f.containsNode(d));
+        for(Node p : List.of(a, x))
+            assertEquals(newSet(b, c), f.getOutboundSet(p));
+        assertEquals(2, f.getHeight(b));
+        assertEquals(2, f.getHeight(c));
+        assertEquals(3, f.getHeight(f.getBottom()));
+        assertAttachedAndTight(f);
+    }
+
+    @Test
+    public void deleteKeepsCyclesThroughDeletedNodes()
+    {
+        Flowchart f = new Flowchart();
+        Node p = new Node("p"), d = new Node("d"), e = new Node("e"), q = new Node("q"), r = new Node("r");
+        FlowchartUtils.insertNode(f, p, newSet(), newSet());
+        FlowchartUtils.insertNode(f, d, newSet(p), newSet());
+        FlowchartUtils.insertNode(f, e, newSet(d), newSet());
+        f.addEdge(e, p); //p -> d -> e -> p
+        FlowchartUtils.insertNode(f, q, newSet(), newSet());
+        FlowchartUtils.insertNode(f, r, newSet(q), newSet());
+        f.addEdge(r, q); //q -> r -> q
+
+        //The whole way round is deleted, p keeps its cycle as an edge to itself
+        FlowchartUtils.deleteNodes(f, List.of(d, e));
+        assertTrue(f.hasEdge(p, p));
+        assertTrue(f.reachability().isInCycle(p));
+
+        //Deleting what p already loops through changes nothing more
+        Node s = new Node("s");
+        FlowchartUtils.insertNode(f, s, newSet(p), newSet());
+        f.addEdge(s, p);
+        FlowchartUtils.deleteNode(f, s);
+        assertEquals(newSet(p, f.getBottom()), f.getOutboundSet(p));
+
+        //Only part of the way round is deleted, the rest still closes the cycle
+        Node t = new Node("t");
+        FlowchartUtils.insertNode(f, t, newSet(q), newSet(r));
+        f.removeEdge(q, r);
+        FlowchartUtils.deleteNode(f, t);
+        assertTrue(f.hasEdge(q, r));
+        assertFalse(f.hasEdge(q, q));
+        assertTrue(f.reachability().isInCycle(q));
+    }
+
+    @Test
+    public void deleteRestoresSentinelsOnlyWhereLost()
+    {
+        Flowchart f = new Flowchart();
+        Node a = new Node("a"), b = new Node("b"), c = new Node("c"), side = new Node("side");
+        FlowchartUtils.insertNode(f, a, newSet(), newSet());
+        FlowchartUtils.insertNode(f, b, newSet(a), newSet());
+        FlowchartUtils.insertNode(f, c, newSet(b), newSet());
+        FlowchartUtils.insertNode(f, side, newSet(a), newSet());
+
+        //Root and leaf of the chain go, b becomes both
+        FlowchartUtils.deleteNode(f, a);
+        FlowchartUtils.deleteNode(f, c);
+        assertTrue(f.hasEdge(f.getTop(), b));
+        assertTrue(f.hasEdge(b, f.getBottom()));
+        assertTrue(f.hasEdge(f.getTop(), side));
+        assertEquals(1, f.getHeight(b));
+        assertAttachedAndTight(f);
+
+        //A cycle whose only way in was the deleted node gets top back
+        Flowchart g = new Flowchart();
+        Node d = new Node("d"), p = new Node("p"), q = new Node("q");
+        FlowchartUtils.insertNode(g, d, newSet(), newSet());
+        FlowchartUtils.insertNode(g, p, newSet(d), newSet());
+        FlowchartUtils.insertNode(g, q, newSet(p), newSet(p));
+        FlowchartUtils.deleteNode(g, d);
+        Reachability r = g.reachability();
+        assertTrue(r.isReachable(g.getTop(), p));
+        assertTrue(r.isReachable(g.getTop(), q));
+        assertEquals(1, g.getOutboundSet(g.getTop()).size());
+    }
+
+    @Test
+    public void linkedNodesArePulledUpTogether()
+    {
+        Flowchart f = new Flowchart();
+        Node r1 = new Node("r1"), r2 = new Node("r2"), m = new Node("m"), b = new Node("b"), c = new Node("c");
+        FlowchartUtils.insertNode(f, r1, newSet(), newSet());
+        FlowchartUtils.insertNode(f, r2, newSet(), newSet());
+        FlowchartUtils.insertNode(f, m, newSet(r2), newSet());
+        FlowchartUtils.insertNode(f, b, newSet(r1), newSet());
+        FlowchartUtils.insertNode(f, c, newSet(m), newSet());
+        f.addLink(b, c);
+        assertEquals(3, f.getHeight(b));
+
+        FlowchartUtils.deleteNode(f, m);
+        assertEquals(2, f.getHeight(b));
+        assertEquals(2, f.getHeight(c));
+
+        //Held back by one of them, neither moves
+        Node q = new Node("q"), s = new Node("s");
+        FlowchartUtils.insertNode(f, q, newSet(r1), newSet());
+        FlowchartUtils.insertNode(f, s, newSet(q), newSet());
+        f.addEdge(s, b);
+        f.updateHeight(b, 2, new HashSet<>(), false);
+        FlowchartUtils.insertNode(f, m, newSet(r2), newSet(c));
+        FlowchartUtils.deleteNode(f, m);
+        assertEquals(4, f.getHeight(b));
+        assertEquals(4, f.getHeight(c));
+    }
+
+    @Test
+    public void batchDeleteMatchesOneByOne()
+    {
+        for(int round = 0; round < 10; round++)
+        {
+            Flowchart one = new Flowchart(), batch = new Flowchart();
+            List<Node> a = randomDag(one, new Random(round), 200);
+            List<Node> b = randomDag(batch, new Random(round), 200);
+            assertEquals(describe(one), describe(batch));
+
+            Random rng = new Random(100 + round);
+            List<Node> doomed = new ArrayList<>();
+            for(int i = 0; i < 40; i++)
+            {
+                int k = rng.nextInt(a.size());
+                if(doomed.contains(b.get(k))) continue;
+                FlowchartUtils.deleteNode(one, a.get(k));
+                doomed.add(b.get(k));
+            }
+            FlowchartUtils.deleteNodes(batch, doomed);
+
+            assertEquals(describe(one), describe(batch));
+            assertAttachedAndTight(one);
+        }
+    }
+
+    @Test
+    public void swapTradesPlacesAndUndoes()
+    {
+        Flowchart f = new Flowchart();
+        f.setHistoryLimit(10);
+        Node a = new Node("a"), b = new Node("b"), x = new Node("x"), y = new Node("y");
+        FlowchartUtils.insertNode(f, a, newSet(), newSet());
+        FlowchartUtils.insertNode(f, x, newSet(a), newSet());
+        FlowchartUtils.insertNode(f, b, newSet(x), newSet());
+        FlowchartUtils.insertNode(f, y, newSet(b), newSet());
+        f.addMention(y, a);
+        f.setRank(a, 5);
+        Set<String> before = describe(f);
+
+        FlowchartUtils.swapNodes(f, a, b);
+        assertEquals(newSet(y), f.getOutboundSet(a));
+        assertEquals(newSet(x), f.getInboundSet(a));
+        assertEquals(newSet(x), f.getOutboundSet(b));
+        assertEquals(newSet(f.getTop()), f.getInboundSet(b));
+        assertEquals(newSet(b), f.getMentionSet(y));
+        assertEquals(3, f.getHeight(a));
+        assertEquals(1, f.getHeight(b));
+        assertEquals(5, f.getRank(b));
+        assertEquals(0, f.getRank(a));
+
+        assertTrue(f.undo());
+        assertEquals(before, describe(f));
+        assertEquals(newSet(a), f.getMentionSet(y));
+        assertTrue(f.redo());
+        assertEquals(newSet(y), f.getOutboundSet(a));
+    }
+
+    @Test
+    public void viewsFollowTheirNodeThroughSwaps()
+    {
+        Flowchart f = new Flowchart();
+        Node a = new Node("a"), b = new Node("b"), x = new Node("x");
+        FlowchartUtils.insertNode(f, a, newSet(), newSet());
+        FlowchartUtils.insertNode(f, x, newSet(a), newSet());
+        FlowchartUtils.insertNode(f, b, newSet(x), newSet());
+        Set<Node> outOfA = f.getOutboundSet(a), intoB = f.getInboundSet(b);
+
+        //Views taken before the swap still show their own node's connections
+        FlowchartUtils.swapNodes(f, a, b);
+        assertEquals(f.getOutboundSet(a), outOfA);
+        assertEquals(newSet(f.getBottom()), outOfA);
+        assertTrue(outOfA.contains(f.getBottom()));
+        assertEquals(newSet(f.getTop()), intoB);
+
+        //And are empty once it is gone
+        FlowchartUtils.deleteNode(f, a);
+        assertTrue(outOfA.isEmpty());
+        assertFalse(outOfA.contains(f.getBottom()));
+    }
+
+    @Test
+    public void reductionDropsShortcutsAndKeepsCycles()
+    {
+        Flowchart f = new Flowchart();
+        f.setHistoryLimit(10);
+        Node a = new Node("a"), b = new Node("b"), c = new Node("c"), d = new Node("d");
+        FlowchartUtils.insertNode(f, a, newSet(), newSet());
+        FlowchartUtils.insertNode(f, b, newSet(a), newSet());
+        FlowchartUtils.insertNode(f, c, newSet(a, b), newSet());
+        FlowchartUtils.insertNode(f, d, newSet(a, c), newSet());
+        f.addEdge(d, c); //c and d on a cycle, which a reaches through b
+        Set<String> before = describe(f);
+
+        EdgeReduction removed = FlowchartUtils.reduceTransitively(f);
+        assertEquals(2, removed.size());
+        assertFalse(f.hasEdge(a, c));
+        assertFalse(f.hasEdge(a, d));
+        assertTrue(f.hasEdge(a, b));
+        assertTrue(f.hasEdge(b, c));
+        assertTrue(f.hasEdge(c, d));
+        assertTrue(f.hasEdge(d, c));
+        assertEquals(a, removed.getSource(0));
+
+        //Undone as one step, and restored the same
+        assertTrue(f.undo());
+        assertEquals(before, describe(f));
+        assertTrue(f.redo());
+        removed.restore(f);
+        assertEquals(before, describe(f));
+    }
+
+    @Test
+    public void reductionMatchesBruteForce()
+    {
+        Random rng = new Random(25);
+        Flowchart f = new Flowchart();
+        List<Node> nodes = randomDag(f, rng, 300);
+        for(int i = 0; i < 15; i++)
+            f.addEdge(nodes.get(rng.nextInt(300)), nodes.get(rng.nextInt(300))); //Cycles, and loops
+        Map<Node, Set<Node>> reach = reachAll(f);
+
+        //a -> b between components is redundant if another component after a's reaches b's
+        Set<String> expected = new TreeSet<>();
+        for(Node s : f.getAllNodes())
+        {
+            for(Node d : f.getOutboundSet(s))
+            {
+                if(reach.get(d).contains(s)) continue;
+                boolean around = false;
+                for(Node u : f.getAllNodes())
+                {
+                    if(!reach.get(u).contains(s) || !reach.get(s).contains(u)) continue;
+                    for(Node x : f.getOutboundSet(u))
+                        around |= !reach.get(x).contains(s) && !reach.get(d).contains(x) && reach.get(x).contains(d);
+                }
+                if(around) expected.add(s.getName() + " -> " + d.getName());
+            }
+        }
+        assertFalse(expected.isEmpty());
+
+        //Single words of bits, so many chunks, alone and in parallel
+        for(int parallelism : new int[]{ 1, 3 })
+        {
+            IntList src = new IntList(), dest = new IntList();
+            f.atomically(() ->
+            {
+                new TransitiveReducer(f, 1).reduce(parallelism, src, dest);
+                return null;
+            });
+            Set<String> found = new TreeSet<>();
+            for(int i = 0; i < src.size(); i++)
+                found.add(f.nodeAt(src.get(i)).getName() + " -> " + f.nodeAt(dest.get(i)).getName());
+            assertEquals(expected, found);
+        }
+
+        EdgeReduction removed = FlowchartUtils.reduceTransitively(f);
+        assertEquals(expected.size(), removed.size());
+        assertEquals(reach, reachAll(f));
+    }
+
+    /* Every node each node reaches, itself included, by breadth first search.
+     */
+    private static Map<Node, Set<Node>> reachAll(Flowchart f)
+    {
+        Map<Node, Set<Node>> reach = new HashMap<>();
+        for(Node n : f.getAllNodes())
+        {
+            Set<Node> seen = newSet(n);
+            ArrayDeque<Node> queue = new ArrayDeque<>(seen);
+            while(!queue.isEmpty())
+                for(Node d : f.getOutboundSet(queue.poll()))
+                    if(seen.add(d)) queue.add(d);
+            reach.put(n, seen);
+        }
+        return reach;
+    }
+}
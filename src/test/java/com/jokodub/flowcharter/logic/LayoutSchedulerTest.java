@@ -0,0 +1,151 @@
+package com.jokodub.flowcharter.logic;
+
+import static com.jokodub.flowcharter.bench.ChartGenerators.nodes;
+import static com.jokodub.flowcharter.bench.ChartGenerators.randomDag;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.jokodub.flowcharter.model.classes.*;
+
+/**
+ * Unit tests for LayoutScheduler, with a single thread standing in for the FX thread.
+ */
+public class LayoutSchedulerTest
+{
+    /* A random DAG in a ConcurrentFlowchart, ranks shuffled so there is something to sweep.
+     */
+    private static Flowchart randomChart(long seed, int n)
+    {
+        Random rng = new Random(seed);
+        Flowchart f = randomDag(new ConcurrentFlowchart(), i -> "n" + i, seed, n, 2, n, 0);
+        for(Node v : nodes(f))
+            f.setRank(v, rng.nextInt(n));
+        return f;
+    }
+
+    /* Positions a plain optimize gives a copy of f as it is now.
+     */
+    private static Flowchart laidOut(Flowchart f, OptimizerSettings settings)
+    {
+        Flowchart copy = f.snapshot().toFlowchart();
+        FlowchartOptimizer.optimize(copy, settings);
+        return copy;
+    }
+
+    private static void assertSamePositions(Flowchart expected, Flowchart f)
+    {
+        for(Node n : expected.getAllNodes())
+        {
+            assertEquals(n.toString(), expected.getHeight(n), f.getHeight(n));
+            assertEquals(n.toString(), expected.getRank(n), f.getRank(n));
+        }
+    }
+
+    @Test
+    public void layoutIsWrittenBackOnThePublisher() throws Exception
+    {
+        Flowchart f = randomChart(1, 300);
+        OptimizerSettings settings = new OptimizerSettings();
+        Flowchart expected = laidOut(f, settings);
+
+        ExecutorService fx = Executors.newSingleThreadExecutor(r -> new Thread(r, "fx"));
+        List<String> threads = new ArrayList<>();
+        try(LayoutScheduler scheduler = new LayoutScheduler(f, settings, fx, 10))
+        {
+            scheduler.setOnLayout(result -> threads.add(Thread.currentThread().getName()));
+            scheduler.request();
+            assertTrue(scheduler.awaitIdle(30_000));
+            assertSamePositions(expected, f);
+            assertFalse(f.hasDirty());
+        }
+        finally
+        {
+            fx.shutdown();
+        }
+        assertEquals(List.of("fx"), threads);
+    }
+
+    @Test
+    public void burstOfEditsIsLaidOutOnce() throws Exception
+    {
+        Flowchart f = randomChart(2, 100);
+        ExecutorService fx = Executors.newSingleThreadExecutor();
+        AtomicInteger layouts = new AtomicInteger();
+        try(LayoutScheduler scheduler = new LayoutScheduler(f, new OptimizerSettings(), fx, 500))
+        {
+            scheduler.setOnLayout(result -> layouts.incrementAndGet());
+            List<Node> added = new ArrayList<>();
+            for(int i = 0; i < 50; i++)
+            {
+                Node n = f.newNode();
+                f.addNode(n);
+                if(!added.isEmpty()) f.addEdge(added.get(i - 1), n);
+                added.add(n);
+            }
+            f.setRank(added.get(0), 40); //Moves alone ask for nothing
+
+            assertFalse(scheduler.isIdle());
+            assertTrue(scheduler.awaitIdle(30_000));
+            assertEquals(1, scheduler.getRunCount());
+            fx.submit(() -> {}).get(); //Let onLayout run
+            assertEquals(1, layouts.get());
+
+            //The chain got a layer each
+            for(int i = 1; i < added.size(); i++)
+                assertTrue(f.getHeight(added.get(i - 1)) < f.getHeight(added.get(i)));
+        }
+        finally
+        {
+            fx.shutdown();
+        }
+    }
+
+    @Test
+    public void supersededLayoutIsDropped() throws Exception
+    {
+        Flowchart f = randomChart(3, 200);
+        LinkedBlockingQueue<Runnable> fx = new LinkedBlockingQueue<>();
+        AtomicInteger layouts = new AtomicInteger();
+        try(LayoutScheduler scheduler = new LayoutScheduler(f, new OptimizerSettings(), fx::add, 0))
+        {
+            scheduler.setOnLayout(result -> layouts.incrementAndGet());
+            scheduler.request();
+            Runnable stale = fx.take(); //Finished, waiting on the publisher
+
+            Node late = f.newNode();
+            f.addNode(late);
+            stale.run();
+            assertEquals(0, layouts.get());
+            assertFalse(scheduler.isIdle());
+
+            Flowchart expected = laidOut(f, new OptimizerSettings());
+            fx.take().run();
+            assertTrue(scheduler.isIdle());
+            assertEquals(1, layouts.get());
+            assertSamePositions(expected, f);
+        }
+    }
+
+    @Test
+    public void interruptedLayoutStopsSweeping()
+    {
+        Flowchart f = randomChart(4, 300);
+        Thread.currentThread().interrupt();
+        OptimizerResult result = FlowchartOptimizer.optimize(f, new OptimizerSettings().setMaxIterations(1000));
+        assertTrue(Thread.interrupted());
+        assertTrue(result.getCrossingsBefore() > 0);
+        assertTrue(result.isTimedOut());
+        assertEquals(0, result.getIterations());
+    }
+}
@@ -0,0 +1,263 @@
+package com.jokodub.flowcharter.model.classes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.jokodub.flowcharter.logic.FlowchartUtils;
+
+/**
+ * Stress tests for ConcurrentFlowchart: many writers at once must leave
+ * the same chart a serial run would, with every relation mirrored.
+ */
+public class ConcurrentFlowchartTest 
+{
+    private static final int THREADS = 8;
+
+    private interface Worker
+    {
+        void run(int thread, Random rng) throws Exception;
+    }
+
+    /* Runs worker on THREADS threads released together, rethrowing the first failure.
+     * A deadlock shows up as a timeout.
+     */
+    private static void runAll(Worker worker) throws Exception
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CyclicBarrier start = new CyclicBarrier(THREADS);
+        try
+        {
+            List<Future<?>> futures = new ArrayList<>();
+            for(int t = 0; t < THREADS; t++)
+            {
+                final int thread = t;
+                futures.add(pool.submit(() -> 
+                {
+                    start.await();
+                    worker.run(thread, new Random(thread));
+                    return null;
+                }));
+            }
+            for(Future<?> f : futures)
+                f.get(60, TimeUnit.SECONDS);
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    private static List<Node> addNodes(Flowchart f, int count)
+    {
+        List<Node> nodes = new ArrayList<>();
+        for(int i = 0; i < count; i++)
+        {
+            Node n = f.newNode("n" + i);
+            f.addNode(n);
+            nodes.add(n);
+        }
+        return nodes;
+    }
+
+    /* Every relation agrees with its reverse.
+     */
+    private static void assertMirrored(Flowchart f)
+    {
+        for(Node n : f.getAllNodes())
+        {
+            for(Node o : f.getOutboundSet(n))
+                assertTrue(n + " -> " + o, f.getInboundSet(o).contains(n));
+            for(Node i : f.getInboundSet(n))
+                assertTrue(i + " -> " + n, f.getOutboundSet(i).contains(n));
+            for(Node l : f.getLinkSet(n))
+                assertTrue(n + " ~ " + l, f.getLinkSet(l).contains(n));
+            for(Node m : f.getMentionSet(n))
+                assertTrue(n + " mentions " + m, f.allMentionsTo(m).contains(n));
+        }
+    }
+
+    @Test
+    public void parallelEdgeEditsMatchSerialOutcome() throws Exception
+    {
+        ConcurrentFlowchart f = new ConcurrentFlowchart();
+        List<Node> nodes = addNodes(f, 200);
+        int perThread = 20_000;
+
+        //Thread t owns pairs with (a + b) % THREADS == t: adds them all, then removes every other one
+        runAll((thread, rng) ->
+        {
+            List<Node[]> mine = new ArrayList<>();
+            while(mine.size() < perThread / 2)
+            {
+                int a = rng.nextInt(nodes.size()), b = rng.nextInt(nodes.size());
+                if((a + b) % THREADS != thread) continue;
+                mine.add(new Node[] { nodes.get(a), nodes.get(b) });
+                f.addEdge(nodes.get(a), nodes.get(b));
+                f.addMention(nodes.get(b), nodes.get(a));
+            }
+            for(int i = 0; i < mine.size(); i += 2)
+            {
+                f.removeEdge(mine.get(i)[0], mine.get(i)[1]);
+                f.removeMention(mine.get(i)[1], mine.get(i)[0]);
+            }
+        });
+
+        //Replay the same edits serially
+        Flowchart serial = new Flowchart();
+        List<Node> twins = addNodes(serial, 200);
+        for(int thread = 0; thread < THREADS; thread++)
+        {
+            Random rng = new Random(thread);
+            List<int[]> mine = new ArrayList<>();
+            while(mine.size() < perThread / 2)
+            {
+                int a = rng.nextInt(nodes.size()), b = rng.nextInt(nodes.size());
+                if((a + b) % THREADS != thread) continue;
+                mine.add(new int[] { a, b });
+                serial.addEdge(twins.get(a), twins.get(b));
+                serial.addMention(twins.get(b), twins.get(a));
+            }
+            for(int i = 0; i < mine.size(); i += 2)
+            {
+                serial.removeEdge(twins.get(mine.get(i)[0]), twins.get(mine.get(i)[1]));
+                serial.removeMention(twins.get(mine.get(i)[1]), twins.get(mine.get(i)[0]));
+            }
+        }
+
+        assertMirrored(f);
+        for(int a = 0; a < nodes.size(); a++)
+        {
+            for(int b = 0; b < nodes.size(); b++)
+            {
+                assertEquals(serial.hasEdge(twins.get(a), twins.get(b)), f.hasEdge(nodes.get(a), nodes.get(b)));
+                assertEquals(serial.hasMention(twins.get(b), twins.get(a)), f.hasMention(nodes.get(b), nodes.get(a)));
+            }
+        }
+    }
+
+    @Test
+    public void opposingEditsDoNotDeadlock() throws Exception
+    {
+        ConcurrentFlowchart f = new ConcurrentFlowchart();
+        List<Node> nodes = addNodes(f, 4);
+
+        //Every thread edits the same few pairs in both directions
+        runAll((thread, rng) ->
+        {
+            for(int i = 0; i < 50_000; i++)
+            {
+                Node a = nodes.get(rng.nextInt(4)), b = nodes.get(rng.nextInt(4));
+                if(thread % 2 == 0) f.addEdge(a, b); else f.removeEdge(b, a);
+                if(i % 1000 == 0) f.addLink(a, b);
+                if(i % 1000 == 500) f.removeLink(b, a);
+            }
+        });
+
+        assertMirrored(f);
+    }
+
+    @Test
+    public void mixedStructuralEditsKeepChartConsistent() throws Exception
+    {
+        ConcurrentFlowchart f = new ConcurrentFlowchart();
+        List<Node> seed = addNodes(f, 100);
+
+        runAll((thread, rng) ->
+        {
+            List<Node> own = new ArrayList<>();
+            for(int i = 0; i < 3_000; i++)
+            {
+                Node a = seed.get(rng.nextInt(seed.size()));
+                switch(rng.nextInt(8))
+                {
+                    case 0:
+                        Set<Node> in = new HashSet<>();
+                        in.add(a);
+                        Node n = f.newNode();
+                        FlowchartUtils.insertNode(f, n, in, new HashSet<>());
+                        own.add(n);
+                        break;
+                    case 1:
+                        if(!own.isEmpty()) f.removeNode(own.remove(rng.nextInt(own.size())));
+                        break;
+                    case 2:
+                        f.updateHeight(a, rng.nextBoolean() ? 1 : -1);
+                        break;
+                    case 3:
+                        f.addMention(a, seed.get(rng.nextInt(seed.size())));
+                        break;
+                    case 4:
+                        f.getInboundSet(a).size();
+                        f.getHeight(a);
+                        break;
+                    default:
+                        Node b = seed.get(rng.nextInt(seed.size()));
+                        if(rng.nextBoolean()) f.addEdge(a, b); else f.removeEdge(a, b);
+                        break;
+                }
+            }
+        });
+
+        assertMirrored(f);
+        assertFalse(f.toString().isEmpty());
+        for(Node n : f.getAllNodes())
+            assertEquals(n, f.getNodeById(n.getId()));
+    }
+
+    @Test
+    public void behavesLikeFlowchartOnOneThread()
+    {
+        Flowchart plain = new Flowchart("t");
+        Flowchart concurrent = new ConcurrentFlowchart("t");
+        for(Flowchart f : new Flowchart[] { plain, concurrent })
+        {
+            Node a = new Node("a"), b = new Node("b"), c = new Node("c");
+            f.addNode(a);
+            f.addNode(b);
+            f.addNode(c);
+            f.addEdge(a, b);
+            f.addLink(b, c);
+            f.addMention(c, a);
+            f.updateHeight(a, 2);
+            f.removeEdge(f.getTop(), b);
+        }
+
+        assertEquals(describe(plain), describe(concurrent));
+    }
+
+    /* Every node by name with its position and relations, in a fixed order.
+     */
+    private static String describe(Flowchart f)
+    {
+        Set<String> lines = new TreeSet<>();
+        for(Node n : f.getAllNodes())
+        {
+            StringBuilder sb = new StringBuilder(n.getName());
+            sb.append(" (").append(f.getHeight(n)).append(',').append(f.getRank(n)).append(')');
+            for(Relation r : Relation.values())
+            {
+                Set<String> names = new TreeSet<>();
+                for(Node o : f.getRelationSet(r, n))
+                    names.add(o.getName());
+                sb.append(' ').append(r).append(names);
+            }
+            lines.add(sb.toString());
+        }
+        return String.join("\n", lines);
+    }
+}
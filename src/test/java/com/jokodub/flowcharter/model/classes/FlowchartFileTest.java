@@ -0,0 +1,255 @@
+package com.jokodub.flowcharter.model.classes;
+
+import static com.jokodub.flowcharter.bench.ChartGenerators.nodes;
+import static com.jokodub.flowcharter.bench.ChartGenerators.randomDag;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Round trips through the binary FlowchartFile format.
+ */
+public class FlowchartFileTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /* Everything a file should preserve, keyed by node name since ids change on load.
+     */
+    private static String describe(Flowchart f)
+    {
+        List<Node> all = new ArrayList<>(f.getAllNodes());
+        all.sort((a, b) -> a.getName().compareTo(b.getName()));
+
+        StringBuilder sb = new StringBuilder(f.getTitle()).append('\n');
+        for(Node n : all)
+        {
+            sb.append(n.getName()).append(" h=").append(f.getHeight(n)).append(" r=").append(f.getRank(n));
+            for(Relation r : Relation.values())
+                sb.append(' ').append(r).append('=').append(names(f.getRelationSet(r, n)));
+            sb.append(" mentionedBy=").append(names(f.allMentionsTo(n))).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static Set<String> names(Set<Node> nodes)
+    {
+        Set<String> names = new TreeSet<>();
+        for(Node n : nodes)
+            names.add(n.getName());
+        return names;
+    }
+
+    /* A random DAG with positions scrambled, every kind of relation sprinkled on top
+     * and a few nodes removed again.
+     */
+    private static Flowchart randomChart(long seed, int size)
+    {
+        Random rng = new Random(seed);
+        Flowchart f = randomDag(new Flowchart("Random " + seed), i -> "n" + i, seed, size, 2, size, 0);
+        List<Node> placed = nodes(f);
+        for(Node n : placed)
+        {
+            f.setHeight(n, rng.nextInt(20) - 5);
+            f.setRank(n, rng.nextInt(1000));
+        }
+        for(int i = 0; i < size * 3; i++)
+        {
+            Node a = placed.get(rng.nextInt(size)), b = placed.get(rng.nextInt(size));
+            switch(rng.nextInt(3))
+            {
+                case 0: f.addEdge(a, b); break;
+                case 1: if(!a.equals(b)) f.addLink(a, b); break;
+                default: f.addMention(a, b); break;
+            }
+        }
+
+        //Leave some free slots behind
+        for(int i = 0; i < size / 10; i++)
+            f.removeNode(placed.remove(rng.nextInt(placed.size())));
+        return f;
+    }
+
+    private Flowchart roundTrip(Flowchart f) throws IOException
+    {
+        Path file = folder.newFile().toPath();
+        FlowchartFile.save(f, file);
+        return FlowchartFile.load(file);
+    }
+
+    @Test
+    public void emptyChartRoundTrips() throws IOException
+    {
+        Flowchart f = new Flowchart("Empty");
+        Flowchart loaded = roundTrip(f);
+
+        assertEquals(describe(f), describe(loaded));
+        assertEquals("Top", loaded.getTop().getName());
+        assertTrue(loaded.hasEdge(loaded.getTop(), loaded.getBottom()));
+    }
+
+    @Test
+    public void randomChartsRoundTrip() throws IOException
+    {
+        for(long seed = 0; seed < 10; seed++)
+        {
+            Flowchart f = randomChart(seed, 300);
+            assertEquals("seed " + seed, describe(f), describe(roundTrip(f)));
+        }
+    }
+
+    @Test
+    public void textAndNegativePositionsSurvive() throws IOException
+    {
+        Flowchart f = new Flowchart("Ünïcode ✓ title");
+        Node a = new Node("ß→∞");
+        Node b = new Node(new String(new char[100_000]).replace('\0', 'x')); //Longer than the write buffer
+        f.addNode(a);
+        f.addNode(b);
+        f.setHeight(a, Integer.MIN_VALUE);
+        f.setRank(a, -7);
+        f.setHeight(b, Integer.MAX_VALUE);
+        f.addEdge(a, a);
+
+        assertEquals(describe(f), describe(roundTrip(f)));
+    }
+
+    @Test
+    public void loadedChartCanBeEdited() throws IOException
+    {
+        Flowchart loaded = roundTrip(randomChart(3, 200));
+        assertFalse(loaded.hasDirty());
+
+        Node fresh = new Node("fresh");
+        Node some = null;
+        for(Node n : loaded.getOutboundSet(loaded.getTop()))
+            if(!n.equals(loaded.getBottom())) some = n;
+        loaded.addNode(fresh);
+        loaded.addEdge(some, fresh);
+        assertTrue(loaded.getInboundSet(fresh).contains(some));
+
+        loaded.removeNode(some);
+        assertFalse(loaded.containsNode(some));
+        assertFalse(loaded.getInboundSet(fresh).contains(some));
+        assertEquals(describe(loaded), describe(roundTrip(loaded)));
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws IOException
+    {
+        Path file = folder.newFile().toPath();
+        Files.write(file, "not a flowchart".getBytes());
+        assertLoadFails(file);
+    }
+
+    @Test
+    public void rejectsTruncatedFiles() throws IOException
+    {
+        Path file = folder.newFile().toPath();
+        FlowchartFile.save(randomChart(5, 100), file);
+        byte[] full = Files.readAllBytes(file);
+
+        for(int cut : new int[] { 3, full.length / 2, full.length - 1 })
+        {
+            Files.write(file, Arrays.copyOf(full, cut));
+            assertLoadFails(file);
+        }
+    }
+
+    @Test
+    public void rejectsNewerVersions() throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocate(16);
+        buf.putInt(0x464C4348).put((byte) 99).flip();
+        try
+        {
+            FlowchartFile.load(buf);
+            fail("Loaded a version 99 file");
+        }
+        catch(IOException e)
+        {
+            assertTrue(e.getMessage(), e.getMessage().contains("version"));
+        }
+    }
+
+    @Test
+    public void rejectsRepeatedAndOneSidedEntries() throws IOException
+    {
+        //Top -> 1, top -> 2, 1 - 2
+        Flowchart f = FlowchartFile.load(threeNodes(new int[][] { { 1, 1 }, {}, {} }, new int[][] { {}, { 2 }, { 1 } }));
+        Node[] nodes = f.getAllNodes().toArray(new Node[0]);
+        Arrays.sort(nodes, (a, b) -> Integer.compare(a.getId(), b.getId()));
+        assertTrue(f.hasEdge(nodes[0], nodes[2]));
+        assertTrue(f.getLinkSet(nodes[2]).contains(nodes[1]));
+
+        assertLoadFails(threeNodes(new int[][] { { 1, 0 }, {}, {} }, new int[][] { {}, { 2 }, { 1 } }), "repeats");
+        assertLoadFails(threeNodes(new int[][] { { 1, 1 }, {}, {} }, new int[][] { {}, { 2 }, {} }), "not back");
+    }
+
+    /* A file holding top, bottom and one more node, with outbound and link targets
+     * given as the raw gaps the file stores.
+     */
+    private static ByteBuffer threeNodes(int[][] outbound, int[][] links)
+    {
+        ByteBuffer buf = ByteBuffer.allocate(64);
+        buf.putInt(0x464C4348).put((byte) 1).put((byte) 0).put((byte) 3);
+        for(int i = 0; i < 3; i++)
+            buf.put((byte) 0).put((byte) 0).put((byte) 0);
+        for(int[][] relation : new int[][][] { outbound, links, { {}, {}, {} } })
+        {
+            int entries = 0;
+            for(int[] gaps : relation)
+                entries += gaps.length;
+            buf.put((byte) entries);
+            for(int[] gaps : relation)
+            {
+                buf.put((byte) gaps.length);
+                for(int gap : gaps)
+                    buf.put((byte) gap);
+            }
+        }
+        buf.putInt(0x464C4348).flip();
+        return buf;
+    }
+
+    private static void assertLoadFails(ByteBuffer in, String reason)
+    {
+        try
+        {
+            FlowchartFile.load(in);
+            fail("Loaded a damaged file");
+        }
+        catch(IOException e)
+        {
+            assertTrue(e.getMessage(), e.getMessage().contains(reason));
+        }
+    }
+
+    private static void assertLoadFails(Path file)
+    {
+        try
+        {
+            FlowchartFile.load(file);
+            fail("Loaded a damaged file");
+        }
+        catch(IOException expected)
+        {
+        }
+    }
+}
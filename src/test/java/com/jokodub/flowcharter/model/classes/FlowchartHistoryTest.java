@@ -0,0 +1,283 @@
+package com.jokodub.flowcharter.model.classes;
+
+import static com.jokodub.flowcharter.model.classes.FlowchartSnapshotTest.describe;
+import static com.jokodub.flowcharter.model.classes.FlowchartSnapshotTest.randomEdit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for Flowchart undo, redo and change listeners.
+ */
+public class FlowchartHistoryTest 
+{
+    private static List<Node> fill(Flowchart f, int count)
+    {
+        List<Node> live = new ArrayList<>();
+        for(int i = 0; i < count; i++)
+        {
+            Node n = f.newNode();
+            f.addNode(n);
+            live.add(n);
+        }
+        return live;
+    }
+
+    @Test
+    public void undoAndRedoWalkThroughEveryState()
+    {
+        for(long seed = 0; seed < 5; seed++)
+        {
+            Random rng = new Random(seed);
+            Flowchart f = new Flowchart();
+            List<Node> live = fill(f, 50);
+            f.setHistoryLimit(1000);
+
+            List<String> states = new ArrayList<>();
+            states.add(describe(f));
+            for(int i = 0; i < 300; i++)
+            {
+                randomEdit(f, live, rng);
+                String now = describe(f);
+                if(!now.equals(states.get(states.size() - 1))) states.add(now);
+            }
+
+            //Steps that change nothing are not kept, so each undo lands on the previous state
+            for(int i = states.size() - 2; i >= 0; i--)
+            {
+                assertTrue(f.undo());
+                assertEquals("seed " + seed + " undo to " + i, states.get(i), describe(f));
+            }
+            assertFalse(f.canUndo());
+
+            for(int i = 1; i < states.size(); i++)
+            {
+                assertTrue(f.redo());
+                assertEquals("seed " + seed + " redo to " + i, states.get(i), describe(f));
+            }
+            assertFalse(f.redo());
+        }
+    }
+
+    @Test
+    public void undoBringsBackRemovedNode()
+    {
+        Flowchart f = new Flowchart();
+        f.setHistoryLimit(10);
+        Node a = new Node("a"), b = new Node("b");
+        f.addNode(a);
+        f.addNode(b);
+        f.addEdge(a, b);
+        f.addLink(a, b);
+        f.addMention(b, a);
+        f.setRank(a, 4);
+        String before = describe(f);
+
+        f.removeNode(a);
+        f.addNode(new Node("takes a's slot"));
+        f.undo();
+        f.undo();
+
+        assertEquals(before, describe(f));
+        assertTrue(f.hasEdge(a, b));
+        assertTrue(f.allMentionsTo(a).contains(b));
+        assertEquals(4, f.getRank(a));
+    }
+
+    @Test
+    public void editAfterUndoDropsRedo()
+    {
+        Flowchart f = new Flowchart();
+        f.setHistoryLimit(10);
+        Node a = new Node(), b = new Node();
+        f.addNode(a);
+        f.addNode(b);
+
+        f.addEdge(a, b);
+        f.undo();
+        assertTrue(f.canRedo());
+
+        f.addMention(a, b);
+        assertFalse(f.canRedo());
+        assertFalse(f.hasEdge(a, b));
+        f.undo();
+        assertFalse(f.hasMention(a, b));
+    }
+
+    @Test
+    public void historyKeepsOnlyTheLimit()
+    {
+        Flowchart f = new Flowchart();
+        List<Node> live = fill(f, 10);
+        f.setHistoryLimit(3);
+        for(int i = 0; i < 5000; i++)
+            f.setRank(live.get(i % live.size()), i + 1);
+
+        int undone = 0;
+        while(f.undo()) undone++;
+        assertEquals(3, undone);
+
+        f.setHistoryLimit(0);
+        assertFalse(f.canRedo());
+        f.setRank(live.get(0), -1);
+        assertFalse(f.undo());
+    }
+
+    @Test
+    public void atomicallyIsOneStep()
+    {
+        Flowchart f = new Flowchart();
+        List<Node> live = fill(f, 20);
+        f.setHistoryLimit(10);
+        String before = describe(f);
+
+        f.atomically(() ->
+        {
+            for(int i = 1; i < live.size(); i++)
+                f.addEdge(live.get(i - 1), live.get(i));
+            f.removeNode(live.get(5));
+            return null;
+        });
+        f.undo();
+
+        assertEquals(before, describe(f));
+        assertFalse(f.canUndo());
+    }
+
+    @Test
+    public void undoInsideAnEditIsIgnored()
+    {
+        Flowchart f = new Flowchart();
+        f.setHistoryLimit(10);
+        f.addNode(new Node());
+        assertFalse(f.atomically(f::undo));
+        assertTrue(f.undo());
+    }
+
+    @Test
+    public void listenersGetOneChangePerEdit()
+    {
+        Flowchart f = new Flowchart();
+        Node a = new Node("a"), b = new Node("b");
+        f.addNode(a);
+        f.addNode(b);
+
+        List<FlowchartChange> heard = new ArrayList<>();
+        FlowchartListener listener = (chart, change) -> heard.add(change);
+        f.addChangeListener(listener);
+
+        Node c = new Node("c");
+        f.addNode(c, new HashSet<>(List.of(a)), new HashSet<>(List.of(b)));
+        f.updateHeight(a, 2);
+        assertEquals(2, heard.size());
+
+        FlowchartChange added = heard.get(0);
+        assertEquals(FlowchartChange.Origin.EDIT, added.getOrigin());
+        assertEquals(Set.of(c), added.getAddedNodes());
+        assertEquals(2, added.getEdgeEdits().size());
+        assertTrue(heard.get(1).getHeightChanged().containsAll(List.of(a, c, b)));
+
+        //Listening alone keeps no history
+        assertFalse(f.canUndo());
+
+        f.setHistoryLimit(5);
+        f.removeNode(c);
+        FlowchartChange removed = heard.get(2);
+        assertEquals(Set.of(c), removed.getRemovedNodes());
+        assertTrue(removed.getTouchedNodes().containsAll(List.of(a, b, c)));
+
+        f.undo();
+        FlowchartChange undone = heard.get(3);
+        assertEquals(FlowchartChange.Origin.UNDO, undone.getOrigin());
+        assertEquals(Set.of(c), undone.getAddedNodes());
+        assertEquals(FlowchartEdit.Kind.ADD_NODE, undone.getEdits().get(0).getKind());
+
+        f.removeChangeListener(listener);
+        f.redo();
+        assertEquals(4, heard.size());
+    }
+
+    @Test
+    public void historyCostFollowsEditsNotChartSize()
+    {
+        long[] perEdit = new long[2];
+        int[] sizes = { 2_000, 20_000 };
+        for(int s = 0; s < sizes.length; s++)
+        {
+            Flowchart plain = new Flowchart(), kept = new Flowchart();
+            List<Node> plainNodes = fill(plain, sizes[s]), keptNodes = fill(kept, sizes[s]);
+            kept.setHistoryLimit(10_000);
+
+            for(Flowchart f : List.of(plain, kept))
+                f.compact();
+            long before = kept.footprintBytes() - plain.footprintBytes();
+
+            Random rng = new Random(s);
+            for(int i = 0; i < 10_000; i++)
+            {
+                int x = rng.nextInt(sizes[s]), y = rng.nextInt(sizes[s]);
+                plain.addEdge(plainNodes.get(x), plainNodes.get(y));
+                kept.addEdge(keptNodes.get(x), keptNodes.get(y));
+            }
+            perEdit[s] = (kept.footprintBytes() - plain.footprintBytes() - before) / 10_000;
+        }
+
+        assertTrue("bytes per step " + perEdit[0], perEdit[0] <= 48);
+        assertEquals(perEdit[0], perEdit[1]);
+    }
+
+    @Test
+    public void concurrentEditsCanAllBeUndone() throws Exception
+    {
+        ConcurrentFlowchart f = new ConcurrentFlowchart();
+        List<Node> live = fill(f, 200);
+        f.setHistoryLimit(100_000);
+        String before = describe(f);
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try
+        {
+            List<Future<?>> writers = new ArrayList<>();
+            for(int w = 0; w < 4; w++)
+            {
+                long seed = w;
+                writers.add(pool.submit(() ->
+                {
+                    Random rng = new Random(seed);
+                    for(int i = 0; i < 2000; i++)
+                    {
+                        Node a = live.get(rng.nextInt(live.size())), b = live.get(rng.nextInt(live.size()));
+                        switch(rng.nextInt(4))
+                        {
+                            case 0: f.addEdge(a, b); break;
+                            case 1: f.removeEdge(a, b); break;
+                            case 2: f.addMention(a, b); break;
+                            default: f.setRank(a, i); break;
+                        }
+                    }
+                }));
+            }
+            for(Future<?> w : writers)
+                w.get(60, TimeUnit.SECONDS);
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+
+        while(f.undo());
+        assertEquals(before, describe(f));
+    }
+}
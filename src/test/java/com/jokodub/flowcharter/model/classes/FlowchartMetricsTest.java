@@ -0,0 +1,178 @@
+package com.jokodub.flowcharter.model.classes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.jokodub.flowcharter.logic.FlowchartOptimizer;
+import com.jokodub.flowcharter.logic.FlowchartUtils;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Unit tests for FlowchartMetrics, its histograms and the sinks that can be installed.
+ */
+public class FlowchartMetricsTest
+{
+    @After
+    public void uninstall()
+    {
+        FlowchartMetrics.install(null);
+    }
+
+    /* Two separate nodes joined through a new one, which loses both sentinel edges
+     * and has to search for top and bottom without a reachability index.
+     */
+    private static void insertBetween(Flowchart f)
+    {
+        Node a = new Node("a"), b = new Node("b"), x = new Node("x");
+        f.addNode(a);
+        f.addNode(b);
+        FlowchartUtils.insertNode(f, x, new HashSet<>(Set.of(a)), new HashSet<>(Set.of(b)));
+    }
+
+    @Test
+    public void histogramPercentilesStayWithinABucket()
+    {
+        Histogram h = new Histogram();
+        Random rng = new Random(1);
+        List<Long> values = new ArrayList<>();
+        for(int i = 0; i < 10_000; i++)
+        {
+            long v = (long) Math.exp(rng.nextDouble() * 40);
+            values.add(v);
+            h.record(v);
+        }
+        values.sort(null);
+
+        for(double p : new double[] { 1, 50, 90, 99, 99.9, 100 })
+        {
+            long exact = values.get((int) Math.ceil(p / 100 * values.size()) - 1);
+            long got = h.valueAtPercentile(p);
+            assertTrue(p + ": " + got + " vs " + exact, got >= exact && got <= exact + exact / 64 + 1);
+        }
+        assertEquals(values.get(0).longValue(), h.getMin());
+        assertEquals(values.get(values.size() - 1).longValue(), h.getMax());
+        assertEquals(10_000, h.getCount());
+
+        for(long v : new long[] { 0, 1, 127, 128, 129, 1L << 40, Long.MAX_VALUE })
+            assertTrue(v + "", Histogram.highestOf(Histogram.indexOf(v)) >= v
+                               && Histogram.indexOf(Histogram.highestOf(Histogram.indexOf(v))) == Histogram.indexOf(v));
+
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.valueAtPercentile(50));
+    }
+
+    @Test
+    public void operationsReportToTheRegistry()
+    {
+        MetricsRegistry metrics = new MetricsRegistry();
+        FlowchartMetrics.install(metrics);
+
+        Flowchart f = new Flowchart();
+        insertBetween(f);
+        assertEquals(1, metrics.getCount(Metric.INSERT_NANOS));
+        assertEquals(2, metrics.getCount(Metric.DFS_FALLBACKS));
+        assertEquals(2, metrics.getHistogram(Metric.DFS_VISITED).getCount());
+        assertTrue(metrics.getHistogram(Metric.INSERT_NANOS).getMax() > 0);
+
+        //Pushing a chain down moves all of it and bottom, four layers deep
+        Node c = new Node("c"), d = new Node("d"), e = new Node("e");
+        f.addNode(c);
+        f.addNode(d);
+        f.addNode(e);
+        f.addEdge(c, d);
+        f.addEdge(d, e);
+        f.setHeight(c, 1);
+        f.setHeight(d, 2);
+        f.setHeight(e, 3);
+        f.setHeight(f.getBottom(), 4);
+        metrics.reset();
+        f.updateHeight(c, 1);
+        assertEquals(4, metrics.getHistogram(Metric.HEIGHT_MOVED).getMax());
+        assertEquals(4, metrics.getHistogram(Metric.HEIGHT_DEPTH).getMax());
+
+        //Repeats and strangers are not counted as removed
+        f.removeNodes(List.of(c, d, c, new Node("stranger")));
+        f.removeNode(e);
+        f.removeNode(e);
+        assertEquals(3, metrics.getCount(Metric.REMOVE_NANOS));
+        assertEquals(3, metrics.getCount(Metric.NODES_REMOVED));
+
+        FlowchartOptimizer.optimize(f);
+        for(Metric m : List.of(Metric.LAYERING_NANOS, Metric.CROSSING_NANOS, Metric.APPLY_NANOS, Metric.OPTIMIZE_NANOS))
+            assertEquals(m.toString(), 1, metrics.getCount(m));
+        assertTrue(metrics.toString().contains("NODES_REMOVED (nodes): 3\n"));
+
+        metrics.reset();
+        assertEquals(0, metrics.getCount(Metric.DFS_FALLBACKS));
+        assertEquals("", metrics.toString());
+    }
+
+    @Test
+    public void nothingIsRecordedWithoutASink()
+    {
+        MetricsRegistry metrics = new MetricsRegistry();
+        FlowchartMetrics.install(metrics);
+        FlowchartMetrics.install(null);
+        assertFalse(FlowchartMetrics.isEnabled());
+        assertNull(FlowchartMetrics.installed());
+        assertEquals(0, FlowchartMetrics.start());
+
+        insertBetween(new Flowchart());
+        for(Metric m : Metric.values())
+            assertEquals(m.toString(), 0, metrics.getCount(m));
+    }
+
+    @Test
+    public void sinksChainAndReachFlightRecorder() throws Exception
+    {
+        MetricsRegistry metrics = new MetricsRegistry();
+        Path file = Files.createTempFile("metrics", ".jfr");
+        try(Recording recording = new Recording())
+        {
+            recording.enable("com.jokodub.flowcharter.Timing");
+            recording.enable("com.jokodub.flowcharter.Count");
+            recording.start();
+            FlowchartMetrics.install(new JfrMetricsSink().andThen(metrics));
+            insertBetween(new Flowchart());
+            recording.stop();
+            recording.dump(file);
+
+            int timings = 0, fallbacks = 0;
+            for(RecordedEvent e : RecordingFile.readAllEvents(file))
+            {
+                if(e.getEventType().getName().equals("com.jokodub.flowcharter.Timing"))
+                {
+                    assertEquals("INSERT_NANOS", e.getString("metric"));
+                    assertTrue(e.getLong("nanos") > 0);
+                    timings++;
+                }
+                else if(e.getString("metric").equals("DFS_FALLBACKS"))
+                    fallbacks++;
+            }
+            assertEquals(1, timings);
+            assertEquals(2, fallbacks);
+            assertEquals(2, metrics.getCount(Metric.DFS_FALLBACKS));
+        }
+        finally
+        {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package com.jokodub.flowcharter.model.classes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for Flowchart.snapshot() and FlowchartSnapshot.
+ */
+public class FlowchartSnapshotTest 
+{
+    /* Every node with position and relations, by id so it reads the same from chart and snapshot,
+     * and across undo, which may put a node in another slot. Shared with FlowchartHistoryTest.
+     */
+    static String describe(Flowchart f)
+    {
+        Set<String> lines = new TreeSet<>();
+        for(Node n : f.getAllNodes())
+        {
+            StringBuilder sb = new StringBuilder().append(n.getId());
+            sb.append(" (").append(f.getHeight(n)).append(',').append(f.getRank(n)).append(')');
+            for(Relation r : Relation.values())
+                sb.append(' ').append(r).append(ids(f.getRelationSet(r, n)));
+            sb.append(" mentionedBy").append(ids(f.allMentionsTo(n)));
+            lines.add(sb.toString());
+        }
+        return f.getTitle() + "\n" + String.join("\n", lines);
+    }
+
+    private static String describe(FlowchartSnapshot s)
+    {
+        Set<String> lines = new TreeSet<>();
+        for(Node n : s.getAllNodes())
+        {
+            assertSame(n, s.getNodeById(n.getId()));
+            StringBuilder sb = new StringBuilder().append(n.getId());
+            sb.append(" (").append(s.getHeight(n)).append(',').append(s.getRank(n)).append(')');
+            for(Relation r : Relation.values())
+                sb.append(' ').append(r).append(ids(s.getRelationSet(r, n)));
+            sb.append(" mentionedBy").append(ids(s.allMentionsTo(n)));
+            lines.add(sb.toString());
+        }
+        assertEquals(s.nodeCount(), lines.size());
+        return s.getTitle() + "\n" + String.join("\n", lines);
+    }
+
+    private static Set<Integer> ids(Set<Node> nodes)
+    {
+        Set<Integer> ids = new TreeSet<>();
+        for(Node n : nodes)
+            ids.add(n.getId());
+        return ids;
+    }
+
+    /* One random public edit of f, adding to or taking from live.
+     */
+    static void randomEdit(Flowchart f, List<Node> live, Random rng)
+    {
+        Node a = live.get(rng.nextInt(live.size()));
+        Node b = live.get(rng.nextInt(live.size()));
+        switch(rng.nextInt(12))
+        {
+            case 0: 
+                Node n = f.newNode();
+                f.addNode(n);
+                live.add(n);
+                break;
+            case 1: 
+                if(live.size() > 2) 
+                {
+                    f.removeNode(a);
+                    live.remove(a);
+                }
+                break;
+            case 2: 
+                if(live.size() > 4 && !a.equals(b))
+                {
+                    f.removeNodes(List.of(a, b));
+                    live.remove(a);
+                    live.remove(b);
+                }
+                break;
+            case 3: f.addEdge(a, b); break;
+            case 4: f.removeEdge(a, b); break;
+            case 5: if(!a.equals(b)) f.addLink(a, b); break;
+            case 6: f.removeLink(a, b); break;
+            case 7: f.addMention(a, b); break;
+            case 8: f.removeMention(a, b); break;
+            case 9: f.setRank(a, rng.nextInt(50)); break;
+            case 10: f.setHeight(a, rng.nextInt(50)); break;
+            default: f.updateHeight(a, rng.nextInt(3) - 1); break;
+        }
+    }
+
+    @Test
+    public void snapshotDoesNotSeeLaterEdits()
+    {
+        Flowchart f = new Flowchart("Before");
+        Node a = new Node("a"), b = new Node("b");
+        f.addNode(a);
+        f.addNode(b);
+        f.addEdge(a, b);
+        f.setRank(a, 3);
+
+        FlowchartSnapshot s = f.snapshot();
+        String before = describe(s);
+
+        f.removeEdge(a, b);
+        f.setRank(a, 7);
+        f.setHeight(b, 9);
+        f.removeNode(a);
+        f.addNode(new Node("takes a's slot"));
+        f.setTitle("After");
+
+        assertEquals(before, describe(s));
+        assertTrue(s.hasEdge(a, b));
+        assertEquals(3, s.getRank(a));
+        assertSame(a, s.getNodeById(a.getId()));
+        assertEquals(describe(f), describe(f.snapshot()));
+    }
+
+    @Test
+    public void unchangedChartGivesSameSnapshot()
+    {
+        Flowchart f = new Flowchart();
+        f.addNode(new Node());
+        FlowchartSnapshot first = f.snapshot();
+        assertSame(first, f.snapshot());
+
+        f.addNode(new Node());
+        FlowchartSnapshot second = f.snapshot();
+        assertNotSame(first, second);
+        assertEquals(first.getVersion() + 1, second.getVersion());
+    }
+
+    @Test
+    public void snapshotsMatchChartThroughRandomEdits()
+    {
+        for(long seed = 0; seed < 5; seed++)
+        {
+            Random rng = new Random(seed);
+            Flowchart f = new Flowchart("Random " + seed);
+            List<Node> live = new ArrayList<>();
+            for(int i = 0; i < 600; i++)
+            {
+                Node n = f.newNode();
+                f.addNode(n);
+                live.add(n);
+            }
+
+            List<FlowchartSnapshot> taken = new ArrayList<>();
+            List<String> expected = new ArrayList<>();
+            for(int round = 0; round < 40; round++)
+            {
+                for(int i = 0; i < 1 + rng.nextInt(30); i++)
+                    randomEdit(f, live, rng);
+                taken.add(f.snapshot());
+                expected.add(describe(f));
+            }
+
+            //Every older snapshot still reads as it did when taken
+            for(int i = 0; i < taken.size(); i++)
+                assertEquals("seed " + seed + " round " + i, expected.get(i), describe(taken.get(i)));
+        }
+    }
+
+    @Test
+    public void copyHoldsTheSnapshotVersion()
+    {
+        Random rng = new Random(17);
+        Flowchart f = new Flowchart();
+        List<Node> live = new ArrayList<>();
+        for(int i = 0; i < 40; i++)
+        {
+            Node n = f.newNode();
+            f.addNode(n);
+            live.add(n);
+        }
+        for(int i = 0; i < 400; i++)
+            randomEdit(f, live, rng);
+
+        FlowchartSnapshot s = f.snapshot();
+        Flowchart copy = s.toFlowchart();
+        assertEquals(describe(s), describe(copy));
+        assertSame(f.getTop(), copy.getTop());
+        assertEquals(copy.nodeCount(), copy.slotLimit());
+
+        //Edits to the copy stay there
+        String before = describe(f);
+        copy.removeNode(live.get(0));
+        copy.addEdge(live.get(1), live.get(2));
+        copy.setRank(live.get(3), 99);
+        assertEquals(before, describe(f));
+        assertEquals(before, describe(s));
+    }
+
+    @Test
+    public void smallEditSharesUntouchedPages()
+    {
+        Flowchart f = new Flowchart();
+        List<Node> nodes = new ArrayList<>();
+        for(int i = 0; i < 10 * FlowchartSnapshot.PAGE; i++)
+        {
+            Node n = f.newNode();
+            nodes.add(n);
+        }
+        for(Node n : nodes) 
+        {
+            f.addNode(n);
+            f.removeEdge(f.getTop(), n); //Keep the hubs' pages out of the picture
+            f.removeEdge(n, f.getBottom());
+        }
+        FlowchartSnapshot before = f.snapshot();
+
+        Node a = nodes.get(3 * FlowchartSnapshot.PAGE + 1), b = nodes.get(3 * FlowchartSnapshot.PAGE + 2);
+        f.addEdge(a, b);
+        FlowchartSnapshot after = f.snapshot();
+
+        int pages = (f.slotLimit() + FlowchartSnapshot.PAGE - 1) / FlowchartSnapshot.PAGE;
+        assertEquals(pages - 1, after.pagesSharedWith(before));
+        assertTrue(after.hasEdge(a, b));
+        assertFalse(before.hasEdge(a, b));
+    }
+
+    @Test
+    public void removedNodeIsGoneFromLaterSnapshots()
+    {
+        Flowchart f = new Flowchart();
+        Node a = new Node();
+        f.addNode(a);
+        FlowchartSnapshot with = f.snapshot();
+        f.removeNode(a);
+        FlowchartSnapshot without = f.snapshot();
+
+        assertTrue(with.containsNode(a));
+        assertFalse(without.containsNode(a));
+        assertNull(without.getNodeById(a.getId()));
+    }
+
+    @Test
+    public void readersSeeConsistentVersionsWhileWriting() throws Exception
+    {
+        ConcurrentFlowchart f = new ConcurrentFlowchart();
+        List<Node> live = new ArrayList<>();
+        for(int i = 0; i < 300; i++)
+        {
+            Node n = f.newNode();
+            f.addNode(n);
+            live.add(n);
+        }
+
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try
+        {
+            List<Future<?>> readers = new ArrayList<>();
+            for(int r = 0; r < 3; r++)
+            {
+                readers.add(pool.submit(() ->
+                {
+                    while(writing.get())
+                    {
+                        FlowchartSnapshot s = f.snapshot();
+                        for(Node n : s.getAllNodes())
+                            for(Node o : s.getOutboundSet(n))
+                                assertTrue(s.getInboundSet(o).contains(n));
+                    }
+                    return null;
+                }));
+            }
+
+            Random rng = new Random(1);
+            for(int i = 0; i < 20_000; i++)
+                randomEdit(f, live, rng);
+            writing.set(false);
+
+            for(Future<?> reader : readers)
+                reader.get(60, TimeUnit.SECONDS);
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+        assertEquals(describe(f), describe(f.snapshot()));
+    }
+}
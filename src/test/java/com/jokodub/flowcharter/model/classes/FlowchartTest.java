@@ -0,0 +1,231 @@
+package com.jokodub.flowcharter.model.classes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the slot-based Flowchart store.
+ */
+public class FlowchartTest 
+{
+    @Test
+    public void newChartHasTopAboveBottom()
+    {
+        Flowchart f = new Flowchart();
+
+        assertEquals(2, f.nodeCount());
+        assertTrue(f.hasEdge(f.getTop(), f.getBottom()));
+        assertEquals(0, f.getHeight(f.getTop()));
+        assertEquals(1, f.getHeight(f.getBottom()));
+    }
+
+    @Test
+    public void edgesAreVisibleFromBothEnds()
+    {
+        Flowchart f = new Flowchart();
+        Node a = new Node("a");
+        Node b = new Node("b");
+        f.addNode(a);
+        f.addNode(b);
+
+        f.addEdge(a, b);
+        assertTrue(f.getOutboundSet(a).contains(b));
+        assertTrue(f.getInboundSet(b).contains(a));
+
+        f.removeEdge(a, b);
+        assertFalse(f.hasEdge(a, b));
+        assertFalse(f.getInboundSet(b).contains(a));
+    }
+
+    @Test
+    public void removedSlotIsReusedWithoutStaleConnections()
+    {
+        Flowchart f = new Flowchart();
+        Node a = new Node("a");
+        Node b = new Node("b");
+        f.addNode(a);
+        f.addNode(b);
+        f.addEdge(a, b);
+        f.addMention(b, a);
+
+        Set<Node> viewOfA = f.getOutboundSet(a);
+        f.removeNode(a);
+        assertEquals(0, viewOfA.size());
+        assertFalse(f.getInboundSet(b).contains(a));
+        assertTrue(f.getMentionSet(b).isEmpty());
+
+        Node c = new Node("c");
+        f.addNode(c);
+        assertEquals(new HashSet<>(Set.of(f.getTop())), new HashSet<>(f.getInboundSet(c)));
+        assertTrue(f.getAllNodes().contains(c));
+        assertFalse(f.getAllNodes().contains(a));
+    }
+
+    @Test
+    public void heavyEditingSurvivesCompaction()
+    {
+        Flowchart f = new Flowchart();
+        Node[] chain = new Node[5000];
+        for(int i = 0; i < chain.length; i++)
+        {
+            chain[i] = new Node();
+            f.addNode(chain[i]);
+            if(i > 0) f.addEdge(chain[i - 1], chain[i]);
+            f.setHeight(chain[i], i);
+        }
+        for(int i = 1; i < chain.length; i += 2)
+            f.removeEdge(chain[i - 1], chain[i]);
+        f.compact();
+
+        for(int i = 1; i < chain.length; i++)
+            assertEquals(i % 2 == 0, f.hasEdge(chain[i - 1], chain[i]));
+        assertEquals(chain.length - 1, f.getHeight(chain[chain.length - 1]));
+        assertEquals(chain.length + 2, f.getAllNodes().size());
+    }
+
+    @Test
+    public void allMentionsToFollowsReverseIndex()
+    {
+        Flowchart f = new Flowchart();
+        Node a = new Node("a");
+        Node b = new Node("b");
+        Node c = new Node("c");
+        f.addNode(a);
+        f.addNode(b);
+        f.addNode(c);
+
+        f.addMention(a, c);
+        f.addMention(b, c);
+        assertEquals(Set.of(a, b), f.allMentionsTo(c));
+
+        f.removeMention(a, c);
+        f.removeNode(b);
+        assertTrue(f.allMentionsTo(c).isEmpty());
+    }
+
+    @Test
+    public void removeNodesCleansSharedNeighbours()
+    {
+        Flowchart f = new Flowchart();
+        Node hub = new Node("hub");
+        Node sink = new Node("sink");
+        f.addNode(hub);
+        f.addNode(sink);
+
+        List<Node> spokes = new ArrayList<>();
+        for(int i = 0; i < 100; i++)
+        {
+            Node s = new Node();
+            f.addNode(s, new HashSet<>(Set.of(hub)), new HashSet<>(Set.of(sink)));
+            f.addLink(s, hub);
+            f.addMention(hub, s);
+            spokes.add(s);
+        }
+
+        f.removeNodes(spokes);
+
+        assertEquals(4, f.nodeCount());
+        assertTrue(f.getOutboundSet(hub).contains(f.getBottom()));
+        assertEquals(1, f.getOutboundSet(hub).size());
+        assertEquals(Set.of(f.getTop()), new HashSet<>(f.getInboundSet(sink)));
+        assertTrue(f.getLinkSet(hub).isEmpty());
+        assertTrue(f.getMentionSet(hub).isEmpty());
+    }
+
+    @Test
+    public void hubEdgesMatchASetThroughEdits()
+    {
+        //Top and bottom get indexed once they pass a few entries, the edits must keep that index right
+        Flowchart f = new Flowchart();
+        Node hub = new Node("hub");
+        f.addNode(hub);
+        Node[] others = new Node[3000];
+        for(int i = 0; i < others.length; i++)
+        {
+            others[i] = new Node();
+            f.addNode(others[i]);
+        }
+
+        Random rng = new Random(1);
+        Set<Node> expected = new HashSet<>(f.getOutboundSet(hub)); //Bottom, from addNode
+        for(int step = 0; step < 40_000; step++)
+        {
+            Node n = others[rng.nextInt(others.length)];
+            if(rng.nextInt(3) == 0)
+            {
+                f.removeEdge(hub, n);
+                expected.remove(n);
+            }
+            else
+            {
+                f.addEdge(hub, n);
+                expected.add(n);
+            }
+            if(step % 10_000 == 0) f.compact();
+            if(step % 97 == 0)
+            {
+                Node probe = others[rng.nextInt(others.length)];
+                assertEquals(expected.contains(probe), f.hasEdge(hub, probe));
+                assertEquals(expected.contains(probe), f.getInboundSet(probe).contains(hub));
+            }
+        }
+
+        for(Node n : others)
+            assertEquals(expected.contains(n), f.hasEdge(hub, n));
+        assertEquals(expected, new HashSet<>(f.getOutboundSet(hub)));
+    }
+
+    @Test
+    public void layersMatchHeightsThroughEdits()
+    {
+        Flowchart f = new Flowchart();
+        f.setHistoryLimit(1000);
+        List<Node> live = new ArrayList<>();
+        Random rng = new Random(5);
+        for(int step = 0; step < 3000; step++)
+        {
+            switch(live.isEmpty() ? 0 : rng.nextInt(5))
+            {
+                case 0:
+                    Node n = new Node();
+                    f.addNode(n);
+                    live.add(n);
+                    break;
+                case 1: f.removeNode(live.remove(rng.nextInt(live.size()))); break;
+                case 2: f.setHeight(live.get(rng.nextInt(live.size())), rng.nextInt(12) - 2); break;
+                case 3: f.addLink(live.get(rng.nextInt(live.size())), live.get(rng.nextInt(live.size()))); break;
+                default:
+                    if(!f.undo()) break;
+                    live = new ArrayList<>(f.getAllNodes());
+                    live.remove(f.getTop());
+                    live.remove(f.getBottom());
+                    break;
+            }
+        }
+
+        //Every live slot sits in the bucket of its height, and nothing else does
+        int counted = 0;
+        for(int h = -10; h < 40; h++)
+        {
+            IntList at = new IntList();
+            f.layerAt(h, at);
+            assertEquals(f.layerSize(h), at.size());
+            for(int i = 0; i < at.size(); i++)
+            {
+                assertTrue(f.nodeAt(at.get(i)) != null);
+                assertEquals(h, f.heightAt(at.get(i)));
+            }
+            counted += at.size();
+        }
+        assertEquals(f.nodeCount(), counted);
+    }
+}
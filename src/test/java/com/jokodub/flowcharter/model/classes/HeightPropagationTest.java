@@ -0,0 +1,131 @@
+package com.jokodub.flowcharter.model.classes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests for updateHeight and the Traversal engine it runs on.
+ */
+public class HeightPropagationTest 
+{
+    private static Node[] chain(Flowchart f, int length)
+    {
+        Node[] chain = new Node[length];
+        for(int i = 0; i < length; i++)
+        {
+            chain[i] = new Node();
+            f.addNode(chain[i]);
+            f.setHeight(chain[i], i + 1);
+            if(i > 0) f.addEdge(chain[i - 1], chain[i]);
+        }
+        return chain;
+    }
+
+    @Test
+    public void deepChainDoesNotOverflowStack()
+    {
+        Flowchart f = new Flowchart();
+        Node[] chain = chain(f, 50_000);
+
+        f.updateHeight(chain[0], 3);
+
+        for(int i = 0; i < chain.length; i++)
+            assertEquals(i + 4, f.getHeight(chain[i]));
+    }
+
+    @Test
+    public void cycleMovesEveryMemberOnce()
+    {
+        Flowchart f = new Flowchart();
+        Node[] chain = chain(f, 100);
+        f.addEdge(chain[99], chain[0]); //Close the loop
+
+        f.updateHeight(chain[0], 1);
+
+        for(int i = 0; i < chain.length; i++)
+            assertEquals(i + 2, f.getHeight(chain[i]));
+    }
+
+    @Test
+    public void upwardChildrenOnlyFollowedWhenAllowed()
+    {
+        Flowchart f = new Flowchart();
+        Node[] chain = chain(f, 3);
+        f.addEdge(chain[2], chain[0]); //Back edge to a higher node
+
+        f.updateHeight(chain[2], 1, new HashSet<>(), false);
+        assertEquals(1, f.getHeight(chain[0]));
+        assertEquals(4, f.getHeight(chain[2]));
+
+        f.updateHeight(chain[2], 1);
+        assertEquals(2, f.getHeight(chain[0]));
+    }
+
+    @Test
+    public void linkedGroupMovesTogether()
+    {
+        Flowchart f = new Flowchart();
+        Node[] left = chain(f, 3);
+        Node[] right = chain(f, 3);
+        f.addLink(left[1], right[1]);
+        f.addLink(right[1], left[2]); //Drags left[2] and everything below right[1] down
+
+        assertEquals(3, f.getHeight(left[2]));
+        assertEquals(3, f.getHeight(right[1]));
+        assertEquals(3, f.getHeight(left[1]));
+
+        f.updateHeight(left[0], 10);
+        for(Node n : new Node[]{ left[1], left[2], right[1], right[2] })
+            assertTrue(f.getHeight(n) > 10);
+        assertEquals(1, f.getHeight(right[0]));
+    }
+
+    @Test
+    public void previousVisitedIsRespectedAndExtended()
+    {
+        Flowchart f = new Flowchart();
+        Node[] chain = chain(f, 4);
+
+        Set<Node> visited = new HashSet<>();
+        visited.add(chain[2]);
+        f.updateHeight(chain[0], 5, visited, false);
+
+        assertEquals(6, f.getHeight(chain[0]));
+        assertEquals(7, f.getHeight(chain[1]));
+        assertEquals(3, f.getHeight(chain[2])); //Blocked, and so is everything past it
+        assertEquals(4, f.getHeight(chain[3]));
+        assertTrue(visited.contains(chain[0]));
+        assertTrue(visited.contains(chain[1]));
+        assertFalse(visited.contains(chain[3]));
+    }
+
+    @Test
+    public void traversalsCanNestAndReset()
+    {
+        Flowchart f = new Flowchart();
+        Node[] chain = chain(f, 3);
+        int s0 = f.slotOf(chain[0]);
+
+        try(Traversal outer = f.openTraversal())
+        {
+            outer.visit(s0);
+            try(Traversal inner = f.openTraversal())
+            {
+                assertFalse(inner.isVisited(s0));
+                inner.visit(s0);
+            }
+            assertTrue(outer.isVisited(s0));
+        }
+
+        try(Traversal again = f.openTraversal())
+        {
+            assertFalse(again.isVisited(s0));
+        }
+    }
+}
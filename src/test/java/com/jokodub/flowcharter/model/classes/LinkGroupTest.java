@@ -0,0 +1,152 @@
+package com.jokodub.flowcharter.model.classes;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the link groups a Flowchart keeps, and how addLink moves heights.
+ */
+public class LinkGroupTest
+{
+    /* Link group of n found the slow way, by walking its links.
+     */
+    private static Set<Node> walkLinks(Flowchart f, Node n)
+    {
+        Set<Node> group = new HashSet<>();
+        ArrayDeque<Node> queue = new ArrayDeque<>();
+        group.add(n);
+        queue.add(n);
+        while(!queue.isEmpty())
+            for(Node l : f.getLinkSet(queue.poll()))
+                if(group.add(l)) queue.add(l);
+        return group;
+    }
+
+    private static void assertGroups(Flowchart f)
+    {
+        for(Node n : f.getAllNodes())
+        {
+            Set<Node> expected = walkLinks(f, n);
+            assertEquals(n.toString(), expected, f.getLinkGroup(n));
+
+            int slot = f.slotOf(n);
+            assertEquals(expected.size(), f.linkGroupSizeAt(slot));
+            for(Node m : expected)
+                assertEquals(f.linkGroupAt(slot), f.linkGroupAt(f.slotOf(m)));
+        }
+    }
+
+    @Test
+    public void groupsFollowEveryEdit() throws Exception
+    {
+        Random rng = new Random(5);
+        Flowchart f = new Flowchart();
+        f.setHistoryLimit(1000);
+        List<Node> live = new ArrayList<>();
+        for(int i = 0; i < 60; i++)
+        {
+            Node n = f.newNode();
+            f.addNode(n);
+            live.add(n);
+        }
+
+        for(int step = 0; step < 1500; step++)
+        {
+            Node a = live.get(rng.nextInt(live.size())), b = live.get(rng.nextInt(live.size()));
+            switch(rng.nextInt(8))
+            {
+                case 0: case 1: case 2: if(!a.equals(b)) f.addLink(a, b); break;
+                case 3: f.removeLink(a, b); break;
+                case 4:
+                    f.removeNodes(List.of(a, b));
+                    live.remove(a);
+                    live.remove(b);
+                    break;
+                case 5: f.undo(); break;
+                case 6: f.redo(); break;
+                default: break;
+            }
+
+            //Undo and redo bring nodes back and take them out again
+            live.clear();
+            for(Node n : f.getAllNodes())
+                if(n != f.getTop() && n != f.getBottom()) live.add(n);
+            while(live.size() < 40)
+            {
+                Node n = f.newNode();
+                f.addNode(n);
+                live.add(n);
+            }
+            if(step % 50 == 0) assertGroups(f);
+        }
+        assertGroups(f);
+
+        //Loaded charts start from the saved links
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FlowchartFile.save(f, Channels.newChannel(bytes));
+        assertGroups(FlowchartFile.load(ByteBuffer.wrap(bytes.toByteArray())));
+    }
+
+    @Test
+    public void addLinkOnlyPushesWhatNoLongerFits()
+    {
+        Flowchart f = new Flowchart();
+        Node a = new Node("a"), b = new Node("b"), c = new Node("c"), d = new Node("d"), x = new Node("x");
+        for(Node n : new Node[]{ a, b, c, d, x })
+            f.addNode(n);
+        f.addEdge(a, b);
+        f.addEdge(b, c);
+        f.addEdge(a, d);
+        f.setHeight(a, 1);
+        f.setHeight(b, 2);
+        f.setHeight(c, 5); //Has room below b to spare
+        f.setHeight(d, 2);
+        f.setHeight(x, 3);
+        f.setHeight(f.getBottom(), 6);
+        f.addLink(b, d);
+
+        f.addLink(a, x);
+
+        assertEquals(3, f.getHeight(a));
+        assertEquals(3, f.getHeight(x));
+        assertEquals(4, f.getHeight(b));
+        assertEquals(4, f.getHeight(d)); //Moves with b
+        assertEquals(5, f.getHeight(c));
+        assertEquals(6, f.getHeight(f.getBottom()));
+    }
+
+    @Test
+    public void addLinkNeverMovesTheOtherGroup()
+    {
+        Flowchart f = new Flowchart();
+        Node a = new Node("a"), b = new Node("b"), y = new Node("y"), z = new Node("z");
+        for(Node n : new Node[]{ a, b, y, z })
+            f.addNode(n);
+        f.addEdge(a, b);
+        f.addEdge(b, z); //z is below b, but linked to the node b is joining
+        f.setHeight(a, 1);
+        f.setHeight(b, 2);
+        f.setHeight(y, 3);
+        f.setHeight(z, 3);
+        f.addLink(y, z);
+
+        f.addLink(b, y);
+
+        assertEquals(3, f.getHeight(b));
+        assertEquals(3, f.getHeight(y));
+        assertEquals(3, f.getHeight(z));
+        assertEquals(1, f.getHeight(a));
+        assertEquals(Set.of(b, y, z), f.getLinkGroup(z));
+    }
+}
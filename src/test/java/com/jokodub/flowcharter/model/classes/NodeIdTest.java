@@ -0,0 +1,89 @@
+package com.jokodub.flowcharter.model.classes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for id allocation and lookup by id.
+ */
+public class NodeIdTest 
+{
+    @Test
+    public void getNodeByIdFollowsAddAndRemove()
+    {
+        Flowchart f = new Flowchart();
+        Node a = f.newNode("a");
+        assertNull(f.getNodeById(a.getId()));
+
+        f.addNode(a);
+        assertSame(a, f.getNodeById(a.getId()));
+        assertSame(f.getTop(), f.getNodeById(f.getTop().getId()));
+
+        f.removeNode(a);
+        assertNull(f.getNodeById(a.getId()));
+    }
+
+    @Test
+    public void reservedRangesDoNotOverlap()
+    {
+        int first = Flowchart.reserveIds(100);
+        int second = Flowchart.reserveIds(100);
+        Node plain = new Node();
+
+        assertTrue(second >= first + 100);
+        assertTrue(plain.getId() >= second + 100);
+    }
+
+    @Test
+    public void chartsBuiltInParallelGetUniqueIds() throws Exception
+    {
+        int threads = 8, perChart = 5_000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try
+        {
+            List<Future<Flowchart>> charts = new ArrayList<>();
+            for(int t = 0; t < threads; t++)
+            {
+                final boolean shared = t % 2 == 0; //Mix chart blocks and the shared allocator
+                charts.add(pool.submit((Callable<Flowchart>) () -> 
+                {
+                    Flowchart f = new Flowchart();
+                    for(int i = 0; i < perChart; i++)
+                        f.addNode(shared ? new Node() : f.newNode());
+                    return f;
+                }));
+            }
+
+            Set<Integer> ids = new HashSet<>();
+            int total = 0;
+            for(Future<Flowchart> chart : charts)
+            {
+                Flowchart f = chart.get();
+                for(Node n : f.getAllNodes())
+                {
+                    ids.add(n.getId());
+                    assertSame(n, f.getNodeById(n.getId()));
+                    total++;
+                }
+            }
+            assertEquals(total, ids.size());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.jokodub.flowcharter.model.classes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for Reachability, checked against plain searches of the chart.
+ */
+public class ReachabilityTest 
+{
+    /* Nodes reachable from n by one or more edges.
+     */
+    private static Set<Node> below(Flowchart f, Node n)
+    {
+        Set<Node> seen = new HashSet<>();
+        ArrayDeque<Node> queue = new ArrayDeque<>();
+        queue.add(n);
+        while(!queue.isEmpty())
+            for(Node o : f.getOutboundSet(queue.poll()))
+                if(seen.add(o)) queue.add(o);
+        return seen;
+    }
+
+    private static Set<Node> above(Flowchart f, Node n)
+    {
+        Set<Node> seen = new HashSet<>();
+        ArrayDeque<Node> queue = new ArrayDeque<>();
+        queue.add(n);
+        while(!queue.isEmpty())
+            for(Node i : f.getInboundSet(queue.poll()))
+                if(seen.add(i)) queue.add(i);
+        return seen;
+    }
+
+    private static void checkAgainstSearch(Flowchart f, List<Node> live, Random rng, String where)
+    {
+        Reachability r = f.reachability();
+        for(int q = 0; q < 40; q++)
+        {
+            Node a = live.get(rng.nextInt(live.size()));
+            Node b = live.get(rng.nextInt(live.size()));
+            Set<Node> fromA = below(f, a);
+            assertEquals(where + " " + a + " -> " + b, a.equals(b) || fromA.contains(b), r.isReachable(a, b));
+            assertEquals(where + " cycle " + a, fromA.contains(a), r.isInCycle(a));
+            if(q % 8 == 0)
+            {
+                assertEquals(where + " downstream " + a, fromA, r.downstream(a));
+                assertEquals(where + " upstream " + a, above(f, a), r.upstream(a));
+
+                Set<Node> cycle = new HashSet<>(fromA);
+                cycle.retainAll(above(f, a));
+                cycle.add(a);
+                assertEquals(where + " cycleOf " + a, cycle, r.cycleOf(a));
+            }
+        }
+    }
+
+    @Test
+    public void matchesSearchThroughRandomEdits()
+    {
+        for(long seed = 0; seed < 6; seed++)
+        {
+            Random rng = new Random(seed);
+            Flowchart f = new Flowchart();
+            List<Node> live = new ArrayList<>();
+            for(int i = 0; i < 60; i++)
+            {
+                Node n = f.newNode();
+                f.addNode(n);
+                live.add(n);
+            }
+            f.reachability(); //Kept current from here on
+
+            for(int round = 0; round < 60; round++)
+            {
+                for(int e = 0; e < 1 + rng.nextInt(8); e++)
+                {
+                    Node a = live.get(rng.nextInt(live.size()));
+                    Node b = live.get(rng.nextInt(live.size()));
+                    switch(rng.nextInt(7))
+                    {
+                        case 0: 
+                            Node n = f.newNode();
+                            f.addNode(n);
+                            live.add(n);
+                            break;
+                        case 1: 
+                            if(live.size() > 10)
+                            {
+                                f.removeNode(a);
+                                live.remove(a);
+                            }
+                            break;
+                        case 2: f.removeEdge(a, b); break;
+                        default: f.addEdge(a, b); break; //Mostly adds, so cycles form and merge
+                    }
+                }
+                checkAgainstSearch(f, live, rng, "seed " + seed + " round " + round);
+            }
+        }
+    }
+
+    @Test
+    public void closingAndOpeningACycle()
+    {
+        Flowchart f = new Flowchart();
+        Node[] chain = new Node[5];
+        for(int i = 0; i < chain.length; i++)
+        {
+            chain[i] = new Node("c" + i);
+            f.addNode(chain[i]);
+            if(i > 0) f.addEdge(chain[i - 1], chain[i]);
+        }
+        Reachability r = f.reachability();
+        int separate = r.componentCount();
+        assertFalse(r.isReachable(chain[4], chain[0]));
+
+        f.addEdge(chain[4], chain[1]);
+        assertEquals(separate - 3, r.componentCount());
+        assertTrue(r.isInCycle(chain[2]));
+        assertFalse(r.isInCycle(chain[0]));
+        assertTrue(r.isReachable(chain[4], chain[1]));
+
+        f.removeEdge(chain[2], chain[3]);
+        assertFalse(r.isInCycle(chain[2]));
+        assertFalse(r.isReachable(chain[1], chain[4]));
+        assertEquals(separate, r.componentCount());
+    }
+
+    @Test
+    public void bulkEditsAndUndoAreFollowed()
+    {
+        Flowchart f = new Flowchart();
+        f.setHistoryLimit(100);
+        List<Node> live = new ArrayList<>();
+        for(int i = 0; i < 30; i++)
+        {
+            Node n = f.newNode();
+            f.addNode(n);
+            live.add(n);
+        }
+        Reachability r = f.reachability();
+
+        IntList src = new IntList(), dst = new IntList();
+        for(int i = 1; i < live.size(); i++)
+        {
+            src.add(f.slotOf(live.get(i)));
+            dst.add(f.slotOf(live.get(i - 1)));
+        }
+        f.atomically(() -> { f.addEdgesAt(src, dst); return null; });
+        assertTrue(r.isReachable(live.get(29), live.get(0)));
+
+        f.undo();
+        assertFalse(r.isReachable(live.get(29), live.get(0)));
+        f.redo();
+        checkAgainstSearch(f, live, new Random(3), "after redo");
+    }
+
+    @Test
+    public void deepChainsDoNotOverflow()
+    {
+        Flowchart f = new Flowchart();
+        int length = 100_000;
+        List<Node> chain = new ArrayList<>();
+        for(int i = 0; i < length; i++)
+            chain.add(f.newNode());
+        f.atomically(() ->
+        {
+            int[] slots = f.registerAll(chain);
+            IntList src = new IntList(), dst = new IntList();
+            src.add(f.slotOf(f.getTop()));
+            dst.add(slots[0]);
+            for(int i = 1; i < length; i++)
+            {
+                src.add(slots[i - 1]);
+                dst.add(slots[i]);
+            }
+            src.add(slots[length - 1]);
+            dst.add(slots[0]); //One big cycle
+            f.addEdgesAt(src, dst);
+            return null;
+        });
+
+        Reachability r = f.reachability();
+        assertTrue(r.isInCycle(chain.get(length / 2)));
+        assertEquals(length, r.cycleOf(chain.get(0)).size());
+
+        f.removeEdge(chain.get(length - 1), chain.get(0));
+        assertTrue(r.isReachable(chain.get(0), chain.get(length - 1)));
+        assertFalse(r.isReachable(chain.get(length - 1), chain.get(0)));
+    }
+}
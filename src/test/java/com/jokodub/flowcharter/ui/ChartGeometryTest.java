@@ -0,0 +1,340 @@
+package com.jokodub.flowcharter.ui;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.jokodub.flowcharter.logic.*;
+import com.jokodub.flowcharter.model.classes.*;
+
+/**
+ * Unit tests for ChartGeometry, the packed render buffers kept in step with a Flowchart.
+ */
+public class ChartGeometryTest
+{
+    private static float[] box(Flowchart f, Node n)
+    {
+        return new float[]{ ChartGeometry.xOf(f.getRank(n)), ChartGeometry.yOf(f.getHeight(n)),
+                            ChartGeometry.BOX_WIDTH, ChartGeometry.BOX_HEIGHT };
+    }
+
+    private static boolean covered(ChartGeometry g, float[] box)
+    {
+        float[] regions = new float[g.dirtyRegionCount() * 4];
+        int n = g.dirtyRegions(regions);
+        for(int i = 0; i < n; i++)
+        {
+            int at = i * 4;
+            if(box[0] >= regions[at] && box[1] >= regions[at + 1]
+                    && box[0] + box[2] <= regions[at] + regions[at + 2]
+                    && box[1] + box[3] <= regions[at + 1] + regions[at + 3])
+                return true;
+        }
+        return false;
+    }
+
+    /* Every box and segment of g must be where the chart says.
+     */
+    private static void assertMatches(Flowchart f, ChartGeometry g)
+    {
+        int edges = 0;
+        for(Node n : f.getAllNodes())
+        {
+            assertArrayEquals(n.toString(), box(f, n), g.boxOf(n), 0);
+
+            //The index finds the box from its middle, possibly under another one
+            float[] b = box(f, n);
+            Node hit = g.nodeAt(b[0] + b[2] / 2, b[1] + b[3] / 2);
+            assertArrayEquals(b, g.boxOf(hit), 0);
+            IntList found = new IntList();
+            g.boxesIn(b[0] + 1, b[1] + 1, b[0] + 2, b[1] + 2, found);
+            boolean listed = false;
+            for(int i = 0; i < found.size(); i++)
+                listed |= g.nodeAt(found.get(i)) == n;
+            assertTrue(listed);
+
+            for(Node d : f.getOutboundSet(n))
+            {
+                if(!g.isSentinelEdgesShown() && (n == f.getTop() || d == f.getBottom()))
+                {
+                    assertNull(g.segmentOf(n, d));
+                    continue;
+                }
+                float[] expected = { box(f, n)[0] + ChartGeometry.BOX_WIDTH / 2, box(f, n)[1] + ChartGeometry.BOX_HEIGHT,
+                                     box(f, d)[0] + ChartGeometry.BOX_WIDTH / 2, box(f, d)[1] };
+                assertArrayEquals(n + " -> " + d, expected, g.segmentOf(n, d), 0);
+                edges++;
+
+                //Something at its midpoint is the nearest edge
+                int k = g.nearestSegment((expected[0] + expected[2]) / 2, (expected[1] + expected[3]) / 2, 1);
+                assertTrue(k >= 0);
+                assertTrue(f.hasEdge(g.segmentSource(k), g.segmentTarget(k)));
+            }
+        }
+        assertEquals(edges, g.segmentCount());
+    }
+
+    @Test
+    public void boxesAndSegmentsFollowHeightsAndRanks()
+    {
+        Flowchart f = new Flowchart();
+        Node a = new Node("a"), b = new Node("b");
+        f.addNode(a);
+        f.addNode(b);
+        f.addEdge(a, b);
+        f.setRank(b, 2);
+
+        ChartGeometry g = new ChartGeometry(f);
+        g.update();
+        assertMatches(f, g);
+        assertTrue(g.isAllDirty());
+        assertNull(g.segmentOf(b, a));
+
+        float[] bBox = g.boxOf(b);
+        assertSame(b, g.nodeAt(bBox[0] + 1, bBox[1] + 1));
+        assertNull(g.nodeAt(-10, -10));
+    }
+
+    @Test
+    public void randomEditsMatchFreshGeometry()
+    {
+        Random rng = new Random(7);
+        Flowchart f = new Flowchart();
+        List<Node> live = new ArrayList<>(f.getAllNodes());
+        ChartGeometry g = new ChartGeometry(f);
+
+        for(int round = 0; round < 300; round++)
+        {
+            for(int i = rng.nextInt(4); i >= 0; i--)
+            {
+                Node a = live.get(rng.nextInt(live.size())), b = live.get(rng.nextInt(live.size()));
+                switch(rng.nextInt(7))
+                {
+                    case 0:
+                        Node n = f.newNode();
+                        f.addNode(n);
+                        live.add(n);
+                        break;
+                    case 1:
+                        if(live.size() > 3 && a != f.getTop() && a != f.getBottom())
+                        {
+                            f.removeNode(a);
+                            live.remove(a);
+                        }
+                        break;
+                    case 2: f.addEdge(a, b); break;
+                    case 3: f.removeEdge(a, b); break;
+                    case 4: f.setRank(a, rng.nextInt(20)); break;
+                    default: f.updateHeight(a, rng.nextInt(3) - 1); break;
+                }
+            }
+            if(round == 150) g.setSentinelEdgesShown(true);
+            g.update();
+            g.clearDirty();
+            assertMatches(f, g);
+        }
+        g.dispose();
+    }
+
+    @Test
+    public void hitTestsFollowMoves()
+    {
+        Flowchart f = new Flowchart();
+        Node a = new Node("a"), b = new Node("b");
+        f.addNode(a);
+        f.addNode(b);
+        f.addEdge(a, b);
+        f.setRank(b, 1);
+
+        ChartGeometry g = new ChartGeometry(f);
+        g.update();
+        float[] was = g.boxOf(a);
+        for(int r = 2; r < 400; r++)
+        {
+            f.setRank(a, r);
+            g.update();
+        }
+        assertNotSame(a, g.nodeAt(was[0] + 1, was[1] + 1));
+        float[] now = g.boxOf(a);
+        assertSame(a, g.nodeAt(now[0] + 1, now[1] + 1));
+
+        int k = g.nearestSegment(now[0] + now[2] / 2, now[1] + now[3] + 1, 5);
+        assertSame(a, g.segmentSource(k));
+        assertSame(b, g.segmentTarget(k));
+        assertEquals(-1, g.nearestSegment(-1000, -1000, 5));
+    }
+
+    @Test
+    public void moveDirtiesOldAndNewBoxOnly()
+    {
+        Flowchart f = new Flowchart();
+        Node a = new Node("a"), b = new Node("b");
+        f.addNode(a);
+        f.addNode(b);
+        f.addEdge(a, b);
+
+        ChartGeometry g = new ChartGeometry(f);
+        g.update();
+        g.clearDirty();
+        float[] before = g.boxOf(a);
+
+        f.setRank(a, 5);
+        assertTrue(g.isStale());
+        g.update();
+        assertFalse(g.isStale());
+        assertFalse(g.isAllDirty());
+        assertTrue(covered(g, before));
+        assertTrue(covered(g, g.boxOf(a)));
+        assertMatches(f, g);
+
+        //Links are not drawn, so nothing to repaint
+        g.clearDirty();
+        f.addLink(a, b);
+        g.update();
+        assertEquals(0, g.dirtyRegionCount());
+    }
+
+    @Test
+    public void removedNodeIsClearedAndDeselected()
+    {
+        Flowchart f = new Flowchart();
+        Node a = new Node("a"), b = new Node("b");
+        f.addNode(a);
+        f.addNode(b);
+        f.addEdge(a, b);
+
+        ChartGeometry g = new ChartGeometry(f);
+        g.update();
+        g.setSelected(a, true);
+        g.setHighlighted(b, true);
+        assertEquals(ChartGeometry.SELECTED, g.flagsAt(f.slotOf(a)));
+        g.clearDirty();
+        float[] before = g.boxOf(a);
+
+        f.removeNode(a);
+        Node c = new Node("c"); //Likely takes a's slot
+        f.addNode(c);
+        g.update();
+
+        assertNull(g.boxOf(a));
+        assertFalse(g.isSelected(a));
+        assertTrue(g.isHighlighted(b));
+        assertEquals(0, g.flagsAt(f.slotOf(c)));
+        assertTrue(g.isAllDirty() || covered(g, before));
+        assertMatches(f, g);
+    }
+
+    @Test
+    public void laidOutNodesFollowTheirCoordinates()
+    {
+        Flowchart f = new Flowchart();
+        Node a = new Node("a"), b = new Node("b"), c = new Node("c");
+        f.addNode(a);
+        f.addNode(b);
+        f.addNode(c);
+        f.addEdge(a, b);
+        f.addEdge(a, c);
+
+        ChartGeometry g = new ChartGeometry(f);
+        ChartCoordinates coordinates = g.getCoordinates();
+        coordinates.setBoxSize(f.slotOf(b), 300, 60);
+        g.update();
+        FlowchartOptimizer.optimize(f, new OptimizerSettings().setCoordinates(coordinates));
+        assertTrue(g.isStale());
+        g.update();
+
+        for(Node n : f.getAllNodes())
+        {
+            int s = f.slotOf(n);
+            float[] expected = { (float) coordinates.boxX(s), (float) coordinates.boxY(s),
+                                 (float) coordinates.boxWidth(s), (float) coordinates.boxHeight(s) };
+            assertArrayEquals(n.toString(), expected, g.boxOf(n), 0);
+        }
+        assertEquals(300, g.boxOf(b)[2], 0);
+        float[] ab = g.segmentOf(a, b), bBox = g.boxOf(b), aBox = g.boxOf(a);
+        assertArrayEquals(new float[]{ aBox[0] + aBox[2] / 2, aBox[1] + aBox[3], bBox[0] + bBox[2] / 2, bBox[1] }, ab, 0);
+
+        //Moving a node by hand puts it back on the grid, along with its edges
+        f.setRank(c, 5);
+        g.update();
+        assertArrayEquals(box(f, c), g.boxOf(c), 0);
+        assertEquals(box(f, c)[0] + ChartGeometry.BOX_WIDTH / 2, g.segmentOf(a, c)[2], 0);
+        assertArrayEquals(aBox, g.boxOf(a), 0);
+    }
+
+    @Test
+    public void concentratedEdgesGoThroughTheirJunction()
+    {
+        Flowchart f = new Flowchart();
+        FlowchartBatch batch = new FlowchartBatch(f);
+        List<Node> parents = new ArrayList<>(), children = new ArrayList<>();
+        for(int i = 0; i < 20; i++)
+        {
+            Node n = new Node();
+            batch.addNode(n);
+            (i < 12 ? parents : children).add(n);
+        }
+        for(Node p : parents)
+            for(Node c : children)
+                batch.addEdge(p, c);
+        batch.commit();
+
+        ChartGeometry g = new ChartGeometry(f);
+        ChartCoordinates coordinates = g.getCoordinates();
+        FlowchartOptimizer.optimize(f, new OptimizerSettings().setConcentrateEdges(true).setCoordinates(coordinates));
+        g.update();
+
+        //One line into the junction per parent and one out per child, instead of one per edge
+        assertEquals(1, g.junctionCount());
+        assertEquals(12 + 8, g.segmentCount());
+        float jx = (float) coordinates.junctionX(0), jy = (float) coordinates.junctionY(0);
+        for(int k = 0; k < g.segmentCount(); k++)
+        {
+            float[] s = { g.segments().get(k * 4), g.segments().get(k * 4 + 1),
+                          g.segments().get(k * 4 + 2), g.segments().get(k * 4 + 3) };
+            Node from = g.segmentSource(k), to = g.segmentTarget(k);
+            assertTrue((from == null) != (to == null));
+            if(from != null)
+            {
+                float[] b = g.boxOf(from);
+                assertArrayEquals(new float[]{ b[0] + b[2] / 2, b[1] + b[3], jx, jy }, s, 0);
+            }
+            else
+            {
+                float[] b = g.boxOf(to);
+                assertArrayEquals(new float[]{ jx, jy, b[0] + b[2] / 2, b[1] }, s, 0);
+            }
+        }
+        assertNull(g.segmentOf(parents.get(0), children.get(0)));
+
+        //Once an edge it stands for is gone, the rest are drawn one by one
+        f.removeEdge(parents.get(0), children.get(0));
+        g.update();
+        assertEquals(0, g.junctionCount());
+        assertEquals(12 * 8 - 1, g.segmentCount());
+        assertNotNull(g.segmentOf(parents.get(1), children.get(0)));
+
+        //Moving a node on the junction does the same
+        f.addEdge(parents.get(0), children.get(0));
+        FlowchartOptimizer.optimize(f, new OptimizerSettings().setConcentrateEdges(true).setCoordinates(coordinates));
+        g.update();
+        assertEquals(1, g.junctionCount());
+        g.clearDirty();
+        f.setRank(children.get(3), 40);
+        g.update();
+        assertEquals(0, g.junctionCount());
+        assertEquals(12 * 8, g.segmentCount());
+        assertArrayEquals(box(f, children.get(3)), g.boxOf(children.get(3)), 0);
+    }
+}
@@ -0,0 +1,129 @@
+package com.jokodub.flowcharter.ui;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import com.jokodub.flowcharter.model.classes.IntList;
+
+/**
+ * Unit tests for SpatialIndex, checked against brute force over the same rectangles.
+ */
+public class SpatialIndexTest
+{
+    private static void randomRect(float[] rects, int i, Random rng)
+    {
+        float x = rng.nextFloat() * 1000, y = rng.nextFloat() * 1000;
+        rects[i * 4] = x;
+        rects[i * 4 + 1] = y;
+        rects[i * 4 + 2] = x + rng.nextFloat() * (rng.nextInt(10) == 0 ? 400 : 20);
+        rects[i * 4 + 3] = y + rng.nextFloat() * 20;
+    }
+
+    private static Set<Integer> bruteSearch(float[] rects, int n, double x0, double y0, double x1, double y1)
+    {
+        Set<Integer> hits = new TreeSet<>();
+        for(int i = 0; i < n; i++)
+            if(!Float.isNaN(rects[i * 4]) && rects[i * 4] <= x1 && rects[i * 4 + 2] >= x0
+                    && rects[i * 4 + 1] <= y1 && rects[i * 4 + 3] >= y0)
+                hits.add(i);
+        return hits;
+    }
+
+    private static double distance(float[] rects, int i, double x, double y)
+    {
+        double dx = Math.max(0, Math.max(rects[i * 4] - x, x - rects[i * 4 + 2]));
+        double dy = Math.max(0, Math.max(rects[i * 4 + 1] - y, y - rects[i * 4 + 3]));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private static void check(SpatialIndex index, float[] rects, int n, Random rng)
+    {
+        for(int q = 0; q < 50; q++)
+        {
+            double x0 = rng.nextDouble() * 1000, y0 = rng.nextDouble() * 1000;
+            double x1 = x0 + rng.nextDouble() * 100, y1 = y0 + (q % 5 == 0 ? 0 : rng.nextDouble() * 100);
+            if(q % 5 == 0) x1 = x0; //Point
+
+            IntList found = new IntList();
+            index.search(x0, y0, x1, y1, found);
+            Set<Integer> hits = new TreeSet<>();
+            for(int i = 0; i < found.size(); i++)
+                hits.add(found.get(i));
+            assertEquals(found.size(), hits.size());
+            assertEquals(bruteSearch(rects, n, x0, y0, x1, y1), hits);
+
+            double best = Double.MAX_VALUE;
+            for(int i = 0; i < n; i++)
+                if(!Float.isNaN(rects[i * 4]))
+                    best = Math.min(best, distance(rects, i, x0, y0));
+            int nearest = index.nearest(x0, y0, 50, (id, x, y) -> distance(rects, id, x, y));
+            if(best > 50)
+                assertEquals(-1, nearest);
+            else
+                assertEquals(best, distance(rects, nearest, x0, y0), 1e-3);
+        }
+    }
+
+    @Test
+    public void queriesMatchBruteForce()
+    {
+        Random rng = new Random(3);
+        for(int n : new int[]{ 0, 1, 15, 16, 17, 300, 5000 })
+        {
+            float[] rects = new float[n * 4];
+            for(int i = 0; i < n; i++)
+            {
+                randomRect(rects, i, rng);
+                if(rng.nextInt(20) == 0) rects[i * 4] = Float.NaN; //Left out
+            }
+            SpatialIndex index = new SpatialIndex();
+            index.build(rects, n);
+            check(index, rects, n, rng);
+        }
+    }
+
+    @Test
+    public void updatesKeepQueriesExact()
+    {
+        Random rng = new Random(5);
+        int n = 2000;
+        float[] rects = new float[n * 4];
+        for(int i = 0; i < n; i++)
+            randomRect(rects, i, rng);
+        SpatialIndex index = new SpatialIndex();
+        index.build(rects, n);
+
+        for(int round = 0; round < 20; round++)
+        {
+            for(int m = 0; m < 100; m++)
+            {
+                int i = rng.nextInt(n);
+                randomRect(rects, i, rng);
+                index.update(i, rects[i * 4], rects[i * 4 + 1], rects[i * 4 + 2], rects[i * 4 + 3]);
+            }
+            check(index, rects, n, rng);
+            if(index.needsRebuild())
+                index.build(rects, n);
+        }
+    }
+
+    @Test
+    public void smallerBuildForgetsOldIds()
+    {
+        float[] rects = { 0, 0, 1, 1, 5, 5, 6, 6, 10, 10, 11, 11 };
+        SpatialIndex index = new SpatialIndex();
+        index.build(rects, 3);
+        index.build(rects, 1);
+        index.update(2, 0, 0, 1, 1); //No longer indexed
+
+        IntList found = new IntList();
+        index.search(-1, -1, 20, 20, found);
+        assertEquals(1, found.size());
+        assertEquals(0, found.get(0));
+    }
+}